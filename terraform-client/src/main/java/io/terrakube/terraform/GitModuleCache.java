@@ -0,0 +1,301 @@
+package io.terrakube.terraform;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Slf4j
+@Getter
+public class GitModuleCache {
+
+    private static final String CACHE_DIRECTORY = ".terraform-spring-boot/git-modules";
+    private static final Pattern MODULE_SOURCE = Pattern.compile("^\\s*source\\s*=\\s*\"([^\"]+)\"", Pattern.MULTILINE);
+    private static final Pattern SCP_LIKE_URL = Pattern.compile("^([\\w.-]+@[\\w.-]+):(.+)$");
+    private static final String GIT_SSH_COMMAND = "ssh -i %s -o StrictHostKeyChecking=no";
+    private static final Pattern AUTHENTICATION_FAILURE = Pattern.compile(
+            "Permission denied|Authentication failed|could not read (Username|Password)|terminal prompts disabled|Repository not found|returned error: 40[134]|access denied|not authorized",
+            Pattern.CASE_INSENSITIVE);
+
+    private final File cacheDirectory;
+    private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, GitModuleRepository> repositories = new ConcurrentHashMap<>();
+    private final AtomicLong clones = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    // mirrors fetched more recently than this are used as they are
+    @Setter
+    private Duration refreshInterval = Duration.ZERO;
+    // a clone or fetch running longer is killed, the cached copy is used when there is one
+    @Setter
+    private Duration gitTimeout = Duration.ofMinutes(10);
+
+    public GitModuleCache() {
+        this(new File(FileUtils.getUserDirectory(), CACHE_DIRECTORY));
+    }
+
+    public GitModuleCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    Map<String, String> prepare(File workingDirectory, File sshFile, Map<String, String> environmentVariables) {
+        Set<String> sources = findGitSources(workingDirectory);
+        if (sources.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, List<String>> mirrors = new LinkedHashMap<>();
+        for (String source : sources) {
+            String remoteUrl = toRemoteUrl(source);
+            File mirror = updateMirror(remoteUrl, sshFile, environmentVariables);
+            if (mirror != null) {
+                mirrors.computeIfAbsent("url.file://".concat(mirror.getAbsolutePath()).concat(".insteadOf"), k -> new ArrayList<>()).addAll(getInsteadOfUrls(source, remoteUrl));
+            }
+        }
+
+        String currentCount = environmentVariables != null && environmentVariables.containsKey("GIT_CONFIG_COUNT")
+                ? environmentVariables.get("GIT_CONFIG_COUNT") : System.getenv("GIT_CONFIG_COUNT");
+        int index = currentCount != null && currentCount.matches("\\d+") ? Integer.parseInt(currentCount) : 0;
+        Map<String, String> gitConfig = new HashMap<>();
+        for (Map.Entry<String, List<String>> mirror : mirrors.entrySet()) {
+            for (String url : mirror.getValue()) {
+                gitConfig.put("GIT_CONFIG_KEY_" + index, mirror.getKey());
+                gitConfig.put("GIT_CONFIG_VALUE_" + index, url);
+                index++;
+            }
+        }
+        gitConfig.put("GIT_CONFIG_COUNT", String.valueOf(index));
+        return gitConfig;
+    }
+
+    public GitModuleCacheStatistics getStatistics() {
+        return GitModuleCacheStatistics.builder()
+                .repositories(new ArrayList<>(this.repositories.values()))
+                .clones(this.clones.get())
+                .fetches(this.fetches.get())
+                .hits(this.hits.get())
+                .failures(this.failures.get())
+                .build();
+    }
+
+    Set<String> findGitSources(File workingDirectory) {
+        Set<String> sources = new TreeSet<>();
+        try (Stream<Path> files = Files.walk(workingDirectory.toPath())) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".tf") && !f.toString().contains(File.separator + ".terraform" + File.separator)).collect(Collectors.toList())) {
+                Matcher matcher = MODULE_SOURCE.matcher(Files.readString(file, StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    String source = normalizeSource(matcher.group(1));
+                    if (source != null) {
+                        sources.add(source);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to read module sources in {}: {}", workingDirectory, ex.getMessage());
+        }
+        return sources;
+    }
+
+    // git::https://example.com/repo.git//modules/vpc?ref=v1.0.0 -> https://example.com/repo.git
+    static String normalizeSource(String source) {
+        boolean forcedGit = source.startsWith("git::");
+        String url = forcedGit ? source.substring("git::".length()) : source;
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            url = url.substring(0, query);
+        }
+        int scheme = url.indexOf("://");
+        int subdirectory = url.indexOf("//", scheme >= 0 ? scheme + 3 : 0);
+        if (subdirectory >= 0) {
+            url = url.substring(0, subdirectory);
+        }
+
+        if (url.startsWith("github.com/")) {
+            String[] parts = url.split("/");
+            if (parts.length < 3) {
+                return null;
+            }
+            return "https://github.com/" + parts[1] + "/" + (parts[2].endsWith(".git") ? parts[2] : parts[2].concat(".git"));
+        }
+        if (SCP_LIKE_URL.matcher(url).matches() && !url.contains("://")) {
+            return url;
+        }
+        if (forcedGit && url.matches("^(https?|ssh|git|file)://.+")) {
+            return url;
+        }
+        return null;
+    }
+
+    static String toRemoteUrl(String source) {
+        Matcher matcher = SCP_LIKE_URL.matcher(source);
+        if (!source.contains("://") && matcher.matches()) {
+            return "ssh://" + matcher.group(1) + "/" + matcher.group(2);
+        }
+        return source;
+    }
+
+    private static List<String> getInsteadOfUrls(String source, String remoteUrl) {
+        // go-getter turns git@host:repo.git into ssh://git@host/repo.git before calling git
+        return source.equals(remoteUrl) ? List.of(source) : List.of(source, remoteUrl);
+    }
+
+    private File updateMirror(String remoteUrl, File sshFile, Map<String, String> environmentVariables) {
+        // one mirror per remote and credential, a caller is only served what its own credential could fetch
+        String key = remoteUrl + "#" + getCredentialIdentity(sshFile, environmentVariables);
+        String name = remoteUrl.replaceAll("^[a-z]+://", "").replaceAll("[^A-Za-z0-9._-]", "_");
+        File mirror = new File(this.cacheDirectory, name.substring(Math.max(0, name.length() - 80)) + "-" + sha256(key).substring(0, 12) + ".git");
+        GitModuleRepository repository = this.repositories.computeIfAbsent(key, k -> new GitModuleRepository(remoteUrl, mirror));
+        ReentrantLock lock = this.locks.computeIfAbsent(key, k -> new ReentrantLock());
+
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            FileUtils.forceMkdir(this.cacheDirectory);
+            try (FileChannel channel = new RandomAccessFile(new File(this.cacheDirectory, mirror.getName().concat(".lock")), "rw").getChannel();
+                 FileLock ignored = channel.lock()) {
+                repository.getLockWaitMillis().addAndGet(System.currentTimeMillis() - start);
+                if (!new File(mirror, "HEAD").isFile()) {
+                    File partial = new File(this.cacheDirectory, mirror.getName().concat(".partial"));
+                    FileUtils.deleteDirectory(partial);
+                    log.info("Cloning git module mirror {}", remoteUrl);
+                    runGit(sshFile, environmentVariables, "clone", "--mirror", remoteUrl, partial.getAbsolutePath());
+                    FileUtils.deleteDirectory(mirror);
+                    Files.move(partial.toPath(), mirror.toPath());
+                    this.clones.incrementAndGet();
+                    repository.getClones().incrementAndGet();
+                } else if (repository.getLastFetch() != null && repository.getLastFetch().plus(this.refreshInterval).isAfter(Instant.now())) {
+                    this.hits.incrementAndGet();
+                    repository.getHits().incrementAndGet();
+                    return mirror;
+                } else {
+                    log.info("Fetching git module mirror {}", remoteUrl);
+                    runGit(sshFile, environmentVariables, "--git-dir", mirror.getAbsolutePath(), "fetch", "--prune", "--tags", "origin");
+                    this.fetches.incrementAndGet();
+                    repository.getFetches().incrementAndGet();
+                }
+                repository.setLastFetch(Instant.now());
+                repository.setLastFetchMillis(System.currentTimeMillis() - start);
+            }
+            return mirror;
+        } catch (IOException ex) {
+            this.failures.incrementAndGet();
+            repository.getFailures().incrementAndGet();
+            if (ex instanceof GitAuthenticationException) {
+                log.warn("Access to git module {} was denied, terraform will clone it: {}", remoteUrl, ex.getMessage());
+                return null;
+            }
+            if (new File(mirror, "HEAD").isFile()) {
+                log.warn("Unable to update git module mirror {}, using cached copy: {}", remoteUrl, ex.getMessage());
+                return mirror;
+            }
+            log.warn("Unable to mirror git module {}, terraform will clone it: {}", remoteUrl, ex.getMessage());
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the ssh key content and the git and ssh settings of the run decide what the remote lets it read
+    static String getCredentialIdentity(File sshFile, Map<String, String> environmentVariables) {
+        StringBuilder identity = new StringBuilder();
+        if (sshFile != null) {
+            try {
+                identity.append("ssh:").append(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(sshFile.toPath()))));
+            } catch (IOException ex) {
+                identity.append("ssh-path:").append(sshFile.getAbsolutePath());
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        if (environmentVariables != null) {
+            new TreeMap<>(environmentVariables).forEach((name, value) -> {
+                if (value != null && (name.startsWith("GIT_") || name.startsWith("SSH_"))) {
+                    identity.append('\n').append(name).append('=').append(value);
+                }
+            });
+        }
+        return sha256(identity.toString());
+    }
+
+    static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void runGit(File sshFile, Map<String, String> environmentVariables, String... arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(arguments));
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        if (environmentVariables != null) {
+            environmentVariables.forEach((key, value) -> {
+                if (value != null) {
+                    builder.environment().put(key, value);
+                }
+            });
+        }
+        builder.environment().put("GIT_TERMINAL_PROMPT", "0");
+        if (sshFile != null) {
+            builder.environment().put("GIT_SSH_COMMAND", String.format(GIT_SSH_COMMAND, sshFile.getAbsolutePath()));
+        }
+
+        // the output goes to a file, reading a pipe would block past the timeout while git hangs
+        File output = File.createTempFile("git-", ".log");
+        builder.redirectOutput(output);
+        try {
+            Process process = builder.start();
+            try {
+                if (!process.waitFor(this.gitTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    // ssh and the remote helpers are children of git
+                    process.descendants().forEach(ProcessHandle::destroyForcibly);
+                    process.destroyForcibly();
+                    throw new IOException("git " + arguments[0] + " timed out after " + this.gitTimeout);
+                }
+                if (process.exitValue() != 0) {
+                    String message = "git " + String.join(" ", arguments) + " failed: " + Files.readString(output.toPath(), StandardCharsets.UTF_8).trim();
+                    throw AUTHENTICATION_FAILURE.matcher(message).find() ? new GitAuthenticationException(message) : new IOException(message);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+                throw new IOException(ex);
+            }
+        } finally {
+            Files.deleteIfExists(output.toPath());
+        }
+    }
+
+    private static class GitAuthenticationException extends IOException {
+        GitAuthenticationException(String message) {
+            super(message);
+        }
+    }
+}
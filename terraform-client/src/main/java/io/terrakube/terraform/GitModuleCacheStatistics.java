@@ -0,0 +1,16 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+@Builder
+@Getter
+public class GitModuleCacheStatistics {
+    private List<GitModuleRepository> repositories;
+    private long clones;
+    private long fetches;
+    private long hits;
+    private long failures;
+}
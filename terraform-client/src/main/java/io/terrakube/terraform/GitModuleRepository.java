@@ -0,0 +1,28 @@
+package io.terrakube.terraform;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Getter
+public class GitModuleRepository {
+    private final String url;
+    private final File mirrorDirectory;
+    private final AtomicLong clones = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong lockWaitMillis = new AtomicLong();
+    @Setter
+    private volatile Instant lastFetch;
+    @Setter
+    private volatile long lastFetchMillis;
+
+    GitModuleRepository(String url, File mirrorDirectory) {
+        this.url = url;
+        this.mirrorDirectory = mirrorDirectory;
+    }
+}
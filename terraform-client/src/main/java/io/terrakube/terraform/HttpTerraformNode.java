@@ -0,0 +1,153 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+// a node served by a TerraformNodeServer, working directories should be reachable with the same path on both sides
+@Slf4j
+@Getter
+public class HttpTerraformNode implements TerraformNode {
+
+    private final String id;
+    private final URI url;
+    private final String token;
+    private final Duration connectTimeout;
+    @Getter(lombok.AccessLevel.NONE)
+    private final HttpClient httpClient;
+
+    // an https url uses the sslContext when it is set, the default trust store otherwise
+    @Builder
+    public HttpTerraformNode(String id, @NonNull String url, String token, Duration connectTimeout, SSLContext sslContext) {
+        this.url = URI.create(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+        this.id = id != null ? id : this.url.getAuthority();
+        this.token = token;
+        this.connectTimeout = connectTimeout != null ? connectTimeout : Duration.ofSeconds(5);
+        HttpClient.Builder httpClient = HttpClient.newBuilder().connectTimeout(this.connectTimeout);
+        if (sslContext != null) {
+            httpClient.sslContext(sslContext);
+        }
+        this.httpClient = httpClient.build();
+    }
+
+    @Override
+    public TerraformNodeStatus getStatus() throws IOException {
+        HttpRequest request = newRequest(TerraformNodeProtocol.STATUS_PATH).timeout(this.connectTimeout).GET().build();
+        HttpResponse<byte[]> response;
+        try {
+            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the status of node " + this.id, ex);
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException(String.format("Node %s returned %d for its status", this.id, response.statusCode()));
+        }
+        return TerraformNodeProtocol.status(TerraformNodeProtocol.OBJECT_MAPPER.readTree(response.body()));
+    }
+
+    @Override
+    public CompletableFuture<TerraformResult> execute(TerraformCommand command, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener) {
+        if (terraformProcessData.getOutputFile() != null) {
+            // the output would be written on the other node, where the caller cannot read it
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Runs with an output file cannot be sent to node " + this.id));
+        }
+        HttpRequest request;
+        try {
+            request = newRequest(TerraformNodeProtocol.EXECUTE_PATH)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(TerraformNodeProtocol.OBJECT_MAPPER.writeValueAsBytes(TerraformNodeProtocol.request(command, terraformProcessData))))
+                    .build();
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return this.httpClient.sendAsync(request, info -> {
+            if (info.statusCode() != 200) {
+                return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                    throw new UncheckedIOException(new IOException(String.format("Node %s returned %d: %s", this.id, info.statusCode(), body)));
+                });
+            }
+            OutputSubscriber subscriber = new OutputSubscriber(outputListener, errorListener);
+            return HttpResponse.BodySubscribers.fromLineSubscriber(subscriber, OutputSubscriber::getResult, StandardCharsets.UTF_8, "\n");
+        }).thenApply(HttpResponse::body);
+    }
+
+    private HttpRequest.Builder newRequest(String path) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(this.url + path));
+        if (this.token != null) {
+            request.header("Authorization", "Bearer " + this.token);
+        }
+        return request;
+    }
+
+    private class OutputSubscriber implements Flow.Subscriber<String> {
+        private final Consumer<String> outputListener;
+        private final Consumer<String> errorListener;
+        private TerraformResult result;
+        private String error;
+
+        private OutputSubscriber(Consumer<String> outputListener, Consumer<String> errorListener) {
+            this.outputListener = outputListener;
+            this.errorListener = errorListener;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.isEmpty()) {
+                return;
+            }
+            try {
+                JsonNode message = TerraformNodeProtocol.OBJECT_MAPPER.readTree(line);
+                if (message.has("out")) {
+                    this.outputListener.accept(message.get("out").asText());
+                } else if (message.has("err")) {
+                    if (this.errorListener != null) {
+                        this.errorListener.accept(message.get("err").asText());
+                    }
+                } else if (message.has("result")) {
+                    this.result = TerraformNodeProtocol.result(message);
+                } else if (message.has("error")) {
+                    this.error = message.get("error").asText();
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Ignoring message from node {}: {}", HttpTerraformNode.this.id, ex.getMessage());
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        private TerraformResult getResult() {
+            if (this.result == null) {
+                String reason = this.error != null ? this.error : "the response ended before the result";
+                throw new UncheckedIOException(new IOException(String.format("Run failed on node %s: %s", HttpTerraformNode.this.id, reason)));
+            }
+            return this.result;
+        }
+    }
+}
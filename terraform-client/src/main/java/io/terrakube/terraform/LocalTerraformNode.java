@@ -0,0 +1,111 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+@Getter
+public class LocalTerraformNode implements TerraformNode {
+
+    private static final String LOCK_FILE = ".terraform.lock.hcl";
+
+    private final String id;
+    private final TerraformClient terraformClient;
+    // runs above this are still accepted, the dispatcher sends new runs to other nodes
+    private final int capacity;
+    private final int maxWorkspaces;
+    // working directory to the hash of its lock file, least recently used first
+    @Getter(lombok.AccessLevel.NONE)
+    private final LinkedHashMap<String, String> workspaces = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Builder
+    public LocalTerraformNode(String id, @NonNull TerraformClient terraformClient, Integer capacity, Integer maxWorkspaces) {
+        this.id = id != null ? id : getHostName();
+        this.terraformClient = terraformClient;
+        this.capacity = capacity != null ? capacity : Runtime.getRuntime().availableProcessors();
+        this.maxWorkspaces = maxWorkspaces != null ? maxWorkspaces : 1000;
+    }
+
+    @Override
+    public TerraformNodeStatus getStatus() {
+        TerraformNodeStatus.TerraformNodeStatusBuilder status = TerraformNodeStatus.builder()
+                .id(this.id)
+                .time(Instant.now())
+                .capacity(this.capacity)
+                .terraformVersions(this.terraformClient.getCacheManager().getInstalledVersions(TerraformCacheManager.TERRAFORM_PRODUCT))
+                .tofuVersions(this.terraformClient.getCacheManager().getInstalledVersions(TerraformCacheManager.TOFU_PRODUCT));
+        int running = 0;
+        int queued = 0;
+        for (TerraformRun run : this.terraformClient.getRuns()) {
+            if (run.getStatus() == TerraformRunStatus.RUNNING) {
+                running++;
+            } else {
+                queued++;
+            }
+        }
+        synchronized (this.workspaces) {
+            status.workspaces(this.workspaces.keySet());
+            this.workspaces.values().stream().filter(Objects::nonNull).forEach(status::providerLock);
+        }
+        return status.running(running).queued(queued).build();
+    }
+
+    @Override
+    public CompletableFuture<TerraformResult> execute(TerraformCommand command, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener) {
+        CompletableFuture<TerraformResult> result;
+        try {
+            result = this.terraformClient.execute(command, terraformProcessData, outputListener, errorListener);
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return result.whenComplete((value, error) -> {
+            if (value != null && value.isSuccessful()) {
+                File workingDirectory = terraformProcessData.getWorkingDirectory();
+                remember(workingDirectory.getAbsolutePath(), getProviderLock(workingDirectory));
+            }
+        });
+    }
+
+    private void remember(String workspace, String providerLock) {
+        synchronized (this.workspaces) {
+            this.workspaces.put(workspace, providerLock);
+            Iterator<String> iterator = this.workspaces.keySet().iterator();
+            while (this.workspaces.size() > this.maxWorkspaces && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    // sha-256 of the lock file, null when the workspace was never initialized
+    static String getProviderLock(File workingDirectory) {
+        File lockFile = new File(workingDirectory, LOCK_FILE);
+        if (!lockFile.isFile()) {
+            return null;
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(lockFile.toPath())));
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            return null;
+        }
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException ex) {
+            return "local";
+        }
+    }
+}
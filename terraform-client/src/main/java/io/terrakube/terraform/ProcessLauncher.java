@@ -10,8 +10,13 @@ public final class ProcessLauncher {
     private Process process;
     private ProcessBuilder builder;
     private Consumer<String> outputListener, errorListener;
+    private TerraformRedactor redactor;
     private boolean inheritIO;
+    private boolean outputToFile;
     private ExecutorService executor;
+    private final List<Runnable> launchHooks = new ArrayList<>();
+    private final List<Consumer<Process>> startHooks = new ArrayList<>();
+    private final List<Runnable> exitHooks = new ArrayList<>();
 
     ProcessLauncher(ExecutorService executor, String... commands) {
         assert executor != null;
@@ -20,6 +25,14 @@ public final class ProcessLauncher {
         this.builder = new ProcessBuilder(commands);
     }
 
+    Consumer<String> getOutputListener() {
+        return this.outputListener;
+    }
+
+    Consumer<String> getErrorListener() {
+        return this.errorListener;
+    }
+
 	void setOutputListener(Consumer<String> listener) {
         assert this.process == null;
 		this.outputListener = listener;
@@ -30,11 +43,25 @@ public final class ProcessLauncher {
 		this.errorListener = listener;
     }
     
+    // masks secrets in every line before the listeners see it
+    void setRedactor(TerraformRedactor redactor) {
+        assert this.process == null;
+        this.redactor = redactor != null && !redactor.isEmpty() ? redactor : null;
+    }
+
 	void setInheritIO(boolean inheritIO) {
         assert this.process == null;
 		this.inheritIO = inheritIO;
     }
     
+    // stdout goes straight to the file, the output listener and the redactor never see it, stderr is kept apart
+    void setOutputFile(File file) {
+        assert this.process == null;
+        this.builder.redirectOutput(file);
+        this.builder.redirectErrorStream(false);
+        this.outputToFile = true;
+    }
+
     void setDirectory(File directory) {
         assert this.process == null;
         this.builder.directory(directory);
@@ -50,6 +77,10 @@ public final class ProcessLauncher {
         this.builder.command().addAll(filteredCommands.collect(Collectors.toList()));
     }
 
+    void prependCommands(String... commands) {
+        this.builder.command().addAll(0, Arrays.asList(commands));
+    }
+
     void setEnvironmentVariable(String name, String value) {
         assert name != null && name.length() > 0;
         Map<String, String> env = this.builder.environment();
@@ -65,25 +96,44 @@ public final class ProcessLauncher {
         }
     }
 
+    void addLaunchHook(Runnable hook) {
+        assert this.process == null;
+        this.launchHooks.add(hook);
+    }
+
+    void addStartHook(Consumer<Process> hook) {
+        assert this.process == null;
+        this.startHooks.add(hook);
+    }
+
+    void addExitHook(Runnable hook) {
+        assert this.process == null;
+        this.exitHooks.add(hook);
+    }
+
     CompletableFuture<Integer> launch() {
         assert this.process == null;
         if (this.inheritIO) {
             this.builder.inheritIO();
         }
+        this.launchHooks.forEach(Runnable::run);
         try {
             this.process = this.builder.start();
         } catch (IOException ex) {
+            this.runExitHooks();
             throw new RuntimeException(ex);
         }
+        this.startHooks.forEach(hook -> hook.accept(this.process));
+        List<CompletableFuture<Boolean>> readers = new ArrayList<>();
         if (!this.inheritIO) {
-            if (this.outputListener != null) {
-                this.executor.submit(() -> this.readProcessStream(this.process.getInputStream(), this.outputListener));
+            if (this.outputListener != null && !this.outputToFile) {
+                readers.add(CompletableFuture.supplyAsync(() -> this.readProcessStream(this.process.getInputStream(), this.outputListener), this.executor));
             }
             if (this.errorListener != null) {
-                this.executor.submit(() -> this.readProcessStream(this.process.getErrorStream(), this.errorListener));
+                readers.add(CompletableFuture.supplyAsync(() -> this.readProcessStream(this.process.getErrorStream(), this.errorListener), this.executor));
             }
         }
-        return CompletableFuture.supplyAsync(() -> {
+        CompletableFuture<Integer> exit = CompletableFuture.supplyAsync(() -> {
             try {
                 return this.process.waitFor();
             } catch (InterruptedException ex) {
@@ -91,6 +141,17 @@ public final class ProcessLauncher {
                 throw new RuntimeException(ex);
             }
         }, this.executor);
+        // listeners have seen every line when the exit code is returned
+        return CompletableFuture.allOf(readers.toArray(new CompletableFuture[0]))
+                .exceptionally(ex -> null)
+                .thenCombine(exit, (v, c) -> c)
+                .whenComplete((c, ex) -> this.runExitHooks());
+    }
+
+    private void runExitHooks() {
+        for (Runnable hook : this.exitHooks) {
+            hook.run();
+        }
     }
 
     private boolean readProcessStream(InputStream stream, Consumer<String> listener) {
@@ -98,7 +159,7 @@ public final class ProcessLauncher {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    listener.accept(line);
+                    listener.accept(this.redactor != null ? this.redactor.redact(line) : line);
                 }
             }
             return true;
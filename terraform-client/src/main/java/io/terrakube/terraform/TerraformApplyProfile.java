@@ -0,0 +1,131 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+
+@Getter
+public class TerraformApplyProfile {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    // null when the output had no apply events
+    private final Instant startTime;
+    private final Instant endTime;
+    private final List<TerraformResourceTiming> resources;
+    private final List<TerraformResourceTiming> criticalPath;
+    private final Map<String, Duration> providerTimes;
+    private final Map<String, Duration> resourceTypeTimes;
+
+    TerraformApplyProfile(Instant startTime, Instant endTime, List<TerraformResourceTiming> resources) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.resources = Collections.unmodifiableList(resources);
+        this.criticalPath = Collections.unmodifiableList(getCriticalPath(resources));
+        this.providerTimes = Collections.unmodifiableMap(sum(resources, TerraformResourceTiming::getProvider));
+        this.resourceTypeTimes = Collections.unmodifiableMap(sum(resources, TerraformResourceTiming::getResourceType));
+    }
+
+    public Duration getDuration() {
+        return this.startTime != null ? Duration.between(this.startTime, this.endTime) : Duration.ZERO;
+    }
+
+    public Duration getCriticalPathDuration() {
+        return this.criticalPath.isEmpty() ? Duration.ZERO
+                : Duration.between(this.criticalPath.get(0).getStartTime(), this.criticalPath.get(this.criticalPath.size() - 1).getEndTime());
+    }
+
+    public String toJson() {
+        ObjectNode profile = OBJECT_MAPPER.createObjectNode();
+        profile.put("startTime", this.startTime != null ? this.startTime.toString() : null);
+        profile.put("endTime", this.endTime != null ? this.endTime.toString() : null);
+        profile.put("durationMillis", getDuration().toMillis());
+        profile.put("criticalPathMillis", getCriticalPathDuration().toMillis());
+        ArrayNode criticalPath = profile.putArray("criticalPath");
+        this.criticalPath.forEach(timing -> criticalPath.add(timing.getAddress()));
+        ObjectNode providers = profile.putObject("providers");
+        this.providerTimes.forEach((provider, time) -> providers.put(provider, time.toMillis()));
+        ObjectNode resourceTypes = profile.putObject("resourceTypes");
+        this.resourceTypeTimes.forEach((type, time) -> resourceTypes.put(type, time.toMillis()));
+        ArrayNode resources = profile.putArray("resources");
+        for (TerraformResourceTiming timing : this.resources) {
+            ObjectNode resource = resources.addObject();
+            resource.put("address", timing.getAddress());
+            resource.put("resourceType", timing.getResourceType());
+            resource.put("provider", timing.getProvider());
+            resource.put("action", timing.getAction());
+            resource.put("startTime", timing.getStartTime().toString());
+            resource.put("durationMillis", timing.getDuration().toMillis());
+            resource.put("errored", timing.isErrored());
+            resource.put("completed", timing.isCompleted());
+        }
+        try {
+            return OBJECT_MAPPER.writeValueAsString(profile);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to write apply profile", ex);
+        }
+    }
+
+    // one provider;type;address;action line per resource with its milliseconds, the input of flamegraph.pl
+    public String toCollapsedStacks() {
+        Map<String, Long> stacks = new LinkedHashMap<>();
+        for (TerraformResourceTiming timing : this.resources) {
+            String stack = String.join(";", frame(timing.getProvider()), frame(timing.getResourceType()), frame(timing.getAddress()), frame(timing.getAction()));
+            stacks.merge(stack, timing.getDuration().toMillis(), Long::sum);
+        }
+        StringBuilder collapsed = new StringBuilder();
+        stacks.forEach((stack, millis) -> collapsed.append(stack).append(' ').append(millis).append('\n'));
+        return collapsed.toString();
+    }
+
+    public void writeJson(File file) throws IOException {
+        Files.writeString(file.toPath(), toJson(), StandardCharsets.UTF_8);
+    }
+
+    public void writeCollapsedStacks(File file) throws IOException {
+        Files.writeString(file.toPath(), toCollapsedStacks(), StandardCharsets.UTF_8);
+    }
+
+    // terraform does not report the graph edges, a resource is assumed to wait for the latest one that finished before it started
+    private static List<TerraformResourceTiming> getCriticalPath(List<TerraformResourceTiming> resources) {
+        LinkedList<TerraformResourceTiming> path = new LinkedList<>();
+        TerraformResourceTiming current = resources.stream().max(Comparator.comparing(TerraformResourceTiming::getEndTime)).orElse(null);
+        while (current != null) {
+            path.addFirst(current);
+            Instant start = current.getStartTime();
+            current = resources.stream()
+                    .filter(timing -> !timing.getEndTime().isAfter(start) && timing.getStartTime().isBefore(start))
+                    .max(Comparator.comparing(TerraformResourceTiming::getEndTime))
+                    .orElse(null);
+        }
+        return path;
+    }
+
+    private static Map<String, Duration> sum(List<TerraformResourceTiming> resources, Function<TerraformResourceTiming, String> key) {
+        Map<String, Duration> times = new HashMap<>();
+        for (TerraformResourceTiming timing : resources) {
+            times.merge(key.apply(timing), timing.getDuration(), Duration::plus);
+        }
+        Map<String, Duration> sorted = new LinkedHashMap<>();
+        times.entrySet().stream()
+                .sorted(Map.Entry.<String, Duration>comparingByValue().reversed())
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    private static String frame(String name) {
+        // ; separates frames and the last space separates the count
+        return name == null || name.isEmpty() ? "unknown" : name.replace(';', '_').replace(' ', '_');
+    }
+}
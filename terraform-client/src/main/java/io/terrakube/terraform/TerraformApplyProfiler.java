@@ -0,0 +1,122 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+
+// builds per resource timings from the apply_start, apply_complete and apply_errored events of -json output
+@Slf4j
+public class TerraformApplyProfiler implements Consumer<String> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Map<String, Started> started = new LinkedHashMap<>();
+    private final List<TerraformResourceTiming> timings = new ArrayList<>();
+    private Instant firstEvent;
+    private Instant lastEvent;
+
+    static TerraformApplyProfiler watch(ProcessLauncher launcher) {
+        TerraformApplyProfiler profiler = new TerraformApplyProfiler();
+        Consumer<String> outputListener = launcher.getOutputListener();
+        launcher.setOutputListener(line -> {
+            profiler.accept(line);
+            if (outputListener != null) {
+                outputListener.accept(line);
+            }
+        });
+        return profiler;
+    }
+
+    @Override
+    public void accept(String line) {
+        if (!line.startsWith("{") || !line.contains("\"apply_")) {
+            return;
+        }
+        JsonNode event;
+        try {
+            event = OBJECT_MAPPER.readTree(line);
+        } catch (Exception ex) {
+            log.debug("Ignoring invalid json event: {}", ex.getMessage());
+            return;
+        }
+        String type = event.path("type").asText();
+        JsonNode hook = event.path("hook");
+        JsonNode resource = hook.path("resource");
+        String address = resource.path("addr").asText(null);
+        if (address == null) {
+            return;
+        }
+        Instant time = getTime(event);
+        String key = address.concat("|").concat(hook.path("action").asText(""));
+
+        synchronized (this) {
+            if (this.firstEvent == null) {
+                this.firstEvent = time;
+            }
+            this.lastEvent = time;
+            switch (type) {
+                case "apply_start":
+                    this.started.put(key, new Started(address, resource.path("resource_type").asText(""),
+                            resource.path("implied_provider").asText(""), hook.path("action").asText(""), time));
+                    break;
+                case "apply_complete":
+                case "apply_errored":
+                    Started start = this.started.remove(key);
+                    if (start != null) {
+                        this.timings.add(start.end(time, type.equals("apply_errored"), true));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public synchronized TerraformApplyProfile getProfile() {
+        List<TerraformResourceTiming> resources = new ArrayList<>(this.timings);
+        for (Started start : this.started.values()) {
+            resources.add(start.end(this.lastEvent, false, false));
+        }
+        resources.sort(Comparator.comparing(TerraformResourceTiming::getStartTime));
+        return new TerraformApplyProfile(this.firstEvent, this.lastEvent, resources);
+    }
+
+    private static Instant getTime(JsonNode event) {
+        String timestamp = event.path("@timestamp").asText(null);
+        if (timestamp != null) {
+            try {
+                return OffsetDateTime.parse(timestamp).toInstant();
+            } catch (DateTimeParseException ex) {
+                log.debug("Invalid event timestamp {}", timestamp);
+            }
+        }
+        return Instant.now();
+    }
+
+    private static class Started {
+        private final String address;
+        private final String resourceType;
+        private final String provider;
+        private final String action;
+        private final Instant time;
+
+        private Started(String address, String resourceType, String provider, String action, Instant time) {
+            this.address = address;
+            this.resourceType = resourceType;
+            this.provider = provider;
+            this.action = action;
+            this.time = time;
+        }
+
+        private TerraformResourceTiming end(Instant endTime, boolean errored, boolean completed) {
+            return new TerraformResourceTiming(this.address, this.resourceType, this.provider, this.action, this.time,
+                    endTime.isBefore(this.time) ? this.time : endTime, errored, completed);
+        }
+    }
+}
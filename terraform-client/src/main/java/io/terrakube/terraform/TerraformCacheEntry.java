@@ -0,0 +1,18 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.time.Instant;
+
+@AllArgsConstructor
+@Getter
+public class TerraformCacheEntry {
+    private String product;
+    private String version;
+    private File directory;
+    private long size;
+    private Instant lastUsed;
+    private boolean inUse;
+}
@@ -0,0 +1,222 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Slf4j
+public class TerraformCacheManager {
+
+    static final String TERRAFORM_PRODUCT = "terraform";
+    static final String TOFU_PRODUCT = "tofu";
+    private static final String CACHE_DIRECTORY = ".terraform-spring-boot";
+    private static final String DOWNLOAD_DIRECTORY = "download";
+    private static final String LAST_USED_FILE = ".last-used";
+    // written last in the extraction directory, before it is renamed to the version directory
+    static final String INSTALLED_FILE = ".installed";
+    static final String EXTRACT_PREFIX = ".extract-";
+    // an extraction directory this old was left by a process that stopped while extracting
+    private static final Duration EXTRACT_MAX_AGE = Duration.ofHours(1);
+
+    // null keeps the binaries under the user home
+    private File cacheDirectory;
+    // 0 means unlimited
+    private long maxSize;
+    private int maxVersions;
+    // versions resolved this recently are kept even when no process is running them yet
+    @Builder.Default
+    private Duration minIdle = Duration.ofMinutes(10);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    public File getCacheDirectory() {
+        return this.cacheDirectory != null ? this.cacheDirectory : new File(FileUtils.getUserDirectory(), CACHE_DIRECTORY);
+    }
+
+    public File getDownloadDirectory(String product) {
+        File downloadDirectory = new File(getCacheDirectory(), DOWNLOAD_DIRECTORY);
+        return product.equals(TOFU_PRODUCT) ? new File(downloadDirectory, TOFU_PRODUCT) : downloadDirectory;
+    }
+
+    public File getVersionDirectory(String product, String version) {
+        return new File(new File(getCacheDirectory(), product), version);
+    }
+
+    public File getBinary(String product, String version) {
+        return new File(getVersionDirectory(product, version), SystemUtils.IS_OS_WINDOWS ? product.concat(".exe") : product);
+    }
+
+    // a version directory without the installed marker was left by an interrupted extraction
+    public boolean isInstalled(String product, String version) {
+        File binary = getBinary(product, version);
+        return binary.isFile() && binary.length() > 0 && new File(binary.getParentFile(), INSTALLED_FILE).isFile();
+    }
+
+    public List<String> getInstalledVersions(String product) {
+        File[] directories = new File(getCacheDirectory(), product).listFiles(File::isDirectory);
+        if (directories == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(directories)
+                .map(File::getName)
+                .filter(version -> isInstalled(product, version))
+                .collect(Collectors.toList());
+    }
+
+    void recordHit(String product, String version) {
+        this.hits.incrementAndGet();
+        touch(product, version);
+    }
+
+    void recordMiss(String product, String version) {
+        this.misses.incrementAndGet();
+        touch(product, version);
+    }
+
+    void touch(String product, String version) {
+        File lastUsed = new File(getVersionDirectory(product, version), LAST_USED_FILE);
+        try {
+            if (!lastUsed.createNewFile()) {
+                Files.setLastModifiedTime(lastUsed.toPath(), FileTime.from(Instant.now()));
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to update last use of {} {}: {}", product, version, ex.getMessage());
+        }
+    }
+
+    public TerraformCacheStatistics getStatistics() {
+        List<TerraformCacheEntry> entries = getEntries();
+        return TerraformCacheStatistics.builder()
+                .entries(entries)
+                .totalSize(entries.stream().mapToLong(TerraformCacheEntry::getSize).sum())
+                .versions(entries.size())
+                .maxSize(this.maxSize)
+                .maxVersions(this.maxVersions)
+                .hits(this.hits.get())
+                .misses(this.misses.get())
+                .evictions(this.evictions.get())
+                .evictedBytes(this.evictedBytes.get())
+                .build();
+    }
+
+    public List<TerraformCacheEntry> getEntries() {
+        Set<String> runningCommands = getRunningCommands();
+        List<TerraformCacheEntry> entries = new ArrayList<>();
+        for (String product : List.of(TERRAFORM_PRODUCT, TOFU_PRODUCT)) {
+            File[] directories = new File(getCacheDirectory(), product).listFiles(f -> f.isDirectory() && !f.getName().startsWith(EXTRACT_PREFIX));
+            if (directories == null) {
+                continue;
+            }
+            for (File directory : directories) {
+                Instant lastUsed = getLastUsed(directory);
+                boolean inUse = lastUsed.isAfter(Instant.now().minus(this.minIdle))
+                        || runningCommands.stream().anyMatch(c -> c.startsWith(directory.getAbsolutePath() + File.separator));
+                entries.add(new TerraformCacheEntry(product, directory.getName(), directory, FileUtils.sizeOfDirectory(directory), lastUsed, inUse));
+            }
+        }
+        return entries;
+    }
+
+    public synchronized void enforceLimits() {
+        purgeDownloads();
+        if (this.maxSize <= 0 && this.maxVersions <= 0) {
+            return;
+        }
+
+        List<TerraformCacheEntry> entries = getEntries();
+        entries.sort(Comparator.comparing(TerraformCacheEntry::getLastUsed));
+        long totalSize = entries.stream().mapToLong(TerraformCacheEntry::getSize).sum();
+        int versions = entries.size();
+
+        for (TerraformCacheEntry entry : entries) {
+            if (!isOverLimit(totalSize, versions)) {
+                break;
+            }
+            if (entry.isInUse()) {
+                continue;
+            }
+            log.info("Evicting {} {} ({} bytes, last used {})", entry.getProduct(), entry.getVersion(), entry.getSize(), entry.getLastUsed());
+            try {
+                FileUtils.deleteDirectory(entry.getDirectory());
+                totalSize -= entry.getSize();
+                versions--;
+                this.evictions.incrementAndGet();
+                this.evictedBytes.addAndGet(entry.getSize());
+            } catch (IOException ex) {
+                log.error("Unable to evict {} {}: {}", entry.getProduct(), entry.getVersion(), ex.getMessage());
+            }
+        }
+
+        if (isOverLimit(totalSize, versions)) {
+            log.warn("Binary cache is still over its limit ({} bytes, {} versions), remaining versions are in use", totalSize, versions);
+        }
+    }
+
+    public void purgeDownloads() {
+        purgeDownloads(getDownloadDirectory(TERRAFORM_PRODUCT), TERRAFORM_PRODUCT);
+        purgeDownloads(getDownloadDirectory(TOFU_PRODUCT), TOFU_PRODUCT);
+        purgeExtractions(TERRAFORM_PRODUCT);
+        purgeExtractions(TOFU_PRODUCT);
+    }
+
+    private void purgeExtractions(String product) {
+        long oldest = Instant.now().minus(EXTRACT_MAX_AGE).toEpochMilli();
+        File[] directories = new File(getCacheDirectory(), product).listFiles(f -> f.isDirectory() && f.getName().startsWith(EXTRACT_PREFIX) && f.lastModified() < oldest);
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            log.info("Removing interrupted extraction {}", directory.getName());
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    private void purgeDownloads(File directory, String product) {
+        File[] zipFiles = directory.listFiles(f -> f.isFile() && f.getName().startsWith(product.concat("_")) && f.getName().endsWith(".zip"));
+        if (zipFiles == null) {
+            return;
+        }
+        for (File zipFile : zipFiles) {
+            // terraform_1.3.9_linux_amd64.zip
+            String[] parts = zipFile.getName().split("_");
+            if (parts.length > 1 && isInstalled(product, parts[1])) {
+                log.info("Removing extracted download {}", zipFile.getName());
+                FileUtils.deleteQuietly(zipFile);
+            }
+        }
+    }
+
+    private boolean isOverLimit(long totalSize, int versions) {
+        return (this.maxSize > 0 && totalSize > this.maxSize) || (this.maxVersions > 0 && versions > this.maxVersions);
+    }
+
+    private Instant getLastUsed(File directory) {
+        File lastUsed = new File(directory, LAST_USED_FILE);
+        return Instant.ofEpochMilli(lastUsed.isFile() ? lastUsed.lastModified() : directory.lastModified());
+    }
+
+    private static Set<String> getRunningCommands() {
+        return ProcessHandle.allProcesses()
+                .map(p -> p.info().command())
+                .flatMap(Optional::stream)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,20 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+@Builder
+@Getter
+public class TerraformCacheStatistics {
+    private List<TerraformCacheEntry> entries;
+    private long totalSize;
+    private int versions;
+    private long maxSize;
+    private int maxVersions;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedBytes;
+}
@@ -0,0 +1,95 @@
+package io.terrakube.terraform;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Slf4j
+@Getter
+class TerraformCgroup {
+
+    private static final int REMOVE_ATTEMPTS = 20;
+    private static final long REMOVE_WAIT_MILLIS = 50;
+
+    private final File directory;
+
+    TerraformCgroup(File directory) {
+        this.directory = directory;
+    }
+
+    // called after terraform exited, provider plugins still running are killed before the group is removed
+    TerraformCgroupStatistics close() {
+        TerraformCgroupStatistics statistics = getStatistics();
+        for (int i = 0; i < REMOVE_ATTEMPTS && this.directory.exists(); i++) {
+            if (!this.directory.delete()) {
+                killRemaining();
+                try {
+                    Thread.sleep(REMOVE_WAIT_MILLIS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (this.directory.exists()) {
+            log.warn("Unable to remove cgroup {}", this.directory);
+        }
+        return statistics;
+    }
+
+    TerraformCgroupStatistics getStatistics() {
+        Map<String, Long> memoryEvents = readValues("memory.events");
+        Map<String, Long> cpuStat = readValues("cpu.stat");
+        Map<String, Long> pidsEvents = readValues("pids.events");
+        return TerraformCgroupStatistics.builder()
+                .cgroup(this.directory.getName())
+                .memoryPeak(readValue("memory.peak"))
+                .memoryMaxEvents(memoryEvents.getOrDefault("max", 0L))
+                .oomKills(memoryEvents.getOrDefault("oom_kill", 0L))
+                .cpuUsage(Duration.ofNanos(cpuStat.getOrDefault("usage_usec", 0L) * 1000))
+                .cpuThrottledPeriods(cpuStat.getOrDefault("nr_throttled", 0L))
+                .cpuThrottledTime(Duration.ofNanos(cpuStat.getOrDefault("throttled_usec", 0L) * 1000))
+                .pidsMaxEvents(pidsEvents.getOrDefault("max", 0L))
+                .build();
+    }
+
+    private void killRemaining() {
+        try {
+            TerraformCgroupManager.read(this.directory, "cgroup.procs").lines()
+                    .filter(pid -> pid.matches("\\d+"))
+                    .forEach(pid -> ProcessHandle.of(Long.parseLong(pid)).ifPresent(ProcessHandle::destroyForcibly));
+        } catch (IOException ex) {
+            log.debug("Unable to read processes of cgroup {}: {}", this.directory, ex.getMessage());
+        }
+    }
+
+    private long readValue(String name) {
+        try {
+            String value = TerraformCgroupManager.read(this.directory, name);
+            return value.matches("\\d+") ? Long.parseLong(value) : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    // "key value" lines of memory.events, cpu.stat and pids.events
+    private Map<String, Long> readValues(String name) {
+        Map<String, Long> values = new HashMap<>();
+        try {
+            for (String line : TerraformCgroupManager.read(this.directory, name).split("\n")) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2 && parts[1].matches("\\d+")) {
+                    values.put(parts[0], Long.parseLong(parts[1]));
+                }
+            }
+        } catch (IOException ex) {
+            log.debug("Unable to read {} of cgroup {}: {}", name, this.directory, ex.getMessage());
+        }
+        return values;
+    }
+}
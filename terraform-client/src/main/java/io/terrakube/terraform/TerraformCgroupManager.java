@@ -0,0 +1,186 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Slf4j
+public class TerraformCgroupManager {
+
+    private static final File MOUNT_INFO = new File("/proc/self/mountinfo");
+    private static final File SELF_CGROUP = new File("/proc/self/cgroup");
+    private static final List<String> CONTROLLERS = List.of("memory", "cpu", "pids");
+    private static final String SUPERVISOR_GROUP = "supervisor";
+    private static final long CPU_PERIOD_MICROS = 100000;
+    static final String JOIN_FAILED = "Unable to join cgroup";
+    private static final String JOIN_SCRIPT = "{ echo $$ > \"$0\"; } 2>/dev/null || echo \"" + JOIN_FAILED + " $0, running without limits\" >&2; exec \"$@\"";
+
+    // delegated cgroup v2 directory where a sub-group is created for every run, detected from /proc/self when null
+    private File cgroupDirectory;
+    // defaults used when the process data does not set them, null means no limit
+    private Long memoryLimit;
+    private Double cpuLimit;
+    private Integer pidsLimit;
+
+    private final Set<String> controllers = new LinkedHashSet<>();
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<Boolean> available = new AtomicReference<>();
+
+    public synchronized boolean isAvailable() {
+        if (this.available.get() == null) {
+            this.available.set(initialize());
+        }
+        return this.available.get();
+    }
+
+    TerraformCgroup prepare(ProcessLauncher launcher, TerraformProcessData terraformProcessData) {
+        if (!isAvailable()) {
+            return null;
+        }
+
+        File directory = new File(this.cgroupDirectory, "terraform-".concat(UUID.randomUUID().toString()));
+        if (!directory.mkdir()) {
+            log.warn("Unable to create cgroup {}, running without limits", directory);
+            return null;
+        }
+
+        Long memory = terraformProcessData.getMemoryLimit() != null ? terraformProcessData.getMemoryLimit() : this.memoryLimit;
+        Double cpu = terraformProcessData.getCpuLimit() != null ? terraformProcessData.getCpuLimit() : this.cpuLimit;
+        Integer pids = terraformProcessData.getPidsLimit() != null ? terraformProcessData.getPidsLimit() : this.pidsLimit;
+        try {
+            if (memory != null && this.controllers.contains("memory")) {
+                write(directory, "memory.max", String.valueOf(memory));
+                // an OOM kills terraform together with its providers instead of leaving one of them behind
+                write(directory, "memory.oom.group", "1");
+            }
+            if (cpu != null && this.controllers.contains("cpu")) {
+                write(directory, "cpu.max", String.format("%d %d", Math.max(1000, (long) (cpu * CPU_PERIOD_MICROS)), CPU_PERIOD_MICROS));
+            }
+            if (pids != null && this.controllers.contains("pids")) {
+                write(directory, "pids.max", String.valueOf(pids));
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to set limits of cgroup {}: {}", directory, ex.getMessage());
+        }
+
+        // the shell joins the group before exec, so terraform and every provider start inside it
+        // terraform still runs when the group cannot be joined, the shell reports it on stderr
+        launcher.prependCommands("/bin/sh", "-c", JOIN_SCRIPT, new File(directory, "cgroup.procs").getAbsolutePath());
+        Consumer<String> errorListener = launcher.getErrorListener();
+        launcher.setErrorListener(line -> {
+            if (line.startsWith(JOIN_FAILED)) {
+                log.warn("Unable to join cgroup {}, {} runs without limits", directory, terraformProcessData.getWorkingDirectory());
+            }
+            if (errorListener != null) {
+                errorListener.accept(line);
+            }
+        });
+        log.info("Running in cgroup {} with memory {} cpu {} pids {}", directory, memory, cpu, pids);
+        return new TerraformCgroup(directory);
+    }
+
+    private boolean initialize() {
+        if (this.cgroupDirectory == null) {
+            this.cgroupDirectory = detectCgroupDirectory();
+        }
+        if (this.cgroupDirectory == null || !new File(this.cgroupDirectory, "cgroup.controllers").isFile()) {
+            log.info("cgroup v2 is not available, terraform runs without resource limits");
+            return false;
+        }
+
+        try {
+            Set<String> available = new HashSet<>(Arrays.asList(read(this.cgroupDirectory, "cgroup.controllers").split("\\s+")));
+            Set<String> enabled = new HashSet<>(Arrays.asList(read(this.cgroupDirectory, "cgroup.subtree_control").split("\\s+")));
+            StringBuilder enable = new StringBuilder();
+            for (String controller : CONTROLLERS) {
+                if (enabled.contains(controller)) {
+                    this.controllers.add(controller);
+                } else if (available.contains(controller)) {
+                    this.controllers.add(controller);
+                    enable.append(" +").append(controller);
+                }
+            }
+
+            if (enable.length() > 0) {
+                // cgroup v2 only allows controllers on groups without processes, so the JVM moves to a leaf first
+                moveOwnProcess();
+                write(this.cgroupDirectory, "cgroup.subtree_control", enable.toString().trim());
+            }
+        } catch (IOException ex) {
+            log.warn("cgroup {} is not delegated to this process, terraform runs without resource limits: {}", this.cgroupDirectory, ex.getMessage());
+            return false;
+        }
+
+        if (!this.controllers.containsAll(CONTROLLERS)) {
+            log.warn("cgroup {} only provides controllers {}", this.cgroupDirectory, this.controllers);
+        }
+        log.info("Running terraform in sub-groups of {}", this.cgroupDirectory);
+        return true;
+    }
+
+    private void moveOwnProcess() throws IOException {
+        if (!new File(this.cgroupDirectory, "cgroup.type").isFile()) {
+            // the root group has no such restriction
+            return;
+        }
+        String self = String.valueOf(ProcessHandle.current().pid());
+        List<String> processes = Arrays.asList(read(this.cgroupDirectory, "cgroup.procs").split("\\s+"));
+        if (processes.stream().noneMatch(pid -> !pid.isEmpty())) {
+            return;
+        }
+        if (processes.stream().anyMatch(pid -> !pid.isEmpty() && !pid.equals(self))) {
+            throw new IOException("other processes are running in the cgroup");
+        }
+
+        File supervisor = new File(this.cgroupDirectory, SUPERVISOR_GROUP);
+        if (!supervisor.isDirectory() && !supervisor.mkdir()) {
+            throw new IOException("unable to create " + supervisor);
+        }
+        write(supervisor, "cgroup.procs", self);
+    }
+
+    static File detectCgroupDirectory() {
+        try {
+            String mountPoint = null;
+            for (String line : Files.readAllLines(MOUNT_INFO.toPath())) {
+                String[] parts = line.split(" - ");
+                if (parts.length == 2 && parts[1].startsWith("cgroup2 ")) {
+                    mountPoint = parts[0].split(" ")[4];
+                    break;
+                }
+            }
+            if (mountPoint == null) {
+                return null;
+            }
+            for (String line : Files.readAllLines(SELF_CGROUP.toPath())) {
+                if (line.startsWith("0::")) {
+                    File directory = new File(mountPoint, line.substring(3));
+                    // the JVM may already run in the supervisor leaf of a previous start
+                    return directory.getName().equals(SUPERVISOR_GROUP) ? directory.getParentFile() : directory;
+                }
+            }
+        } catch (IOException ex) {
+            log.debug("Unable to detect cgroup: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    static String read(File directory, String name) throws IOException {
+        return Files.readString(new File(directory, name).toPath(), StandardCharsets.UTF_8).trim();
+    }
+
+    private static void write(File directory, String name, String value) throws IOException {
+        Files.writeString(new File(directory, name).toPath(), value, StandardCharsets.UTF_8);
+    }
+}
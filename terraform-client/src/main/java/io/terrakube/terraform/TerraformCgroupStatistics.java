@@ -0,0 +1,26 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@AllArgsConstructor
+@Builder
+@Getter
+public class TerraformCgroupStatistics {
+    private String cgroup;
+    private long memoryPeak;
+    // times the memory limit was reached and processes killed by the OOM killer
+    private long memoryMaxEvents;
+    private long oomKills;
+    private Duration cpuUsage;
+    private long cpuThrottledPeriods;
+    private Duration cpuThrottledTime;
+    private long pidsMaxEvents;
+
+    public boolean isOomKilled() {
+        return this.oomKills > 0;
+    }
+}
@@ -5,9 +5,18 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.maven.artifact.versioning.ComparableVersion;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Builder
 @AllArgsConstructor(access = AccessLevel.PROTECTED)
@@ -31,23 +40,97 @@ public class TerraformClient implements AutoCloseable {
     private static final String TERRAFORM_PARAM_OUTPUT_PLAN_FILE = "terraformLibrary.tfPlan";
     private static final String TERRAFORM_PARAM_DISABLE_USER_INPUT = "-input=false";
     private static final String TERRAFORM_PARAM_DETAIL_EXIT_CODE ="-detailed-exitcode";
+    private static final String TERRAFORM_PARAM_PARALLELISM = "-parallelism=";
     private static final String TERRAFORM_PLAN_REFRESH_FALSE="-refresh=false";
     private static final String TERRAFORM_PLAN_REFRESH_ONLY="-refresh-only";
     private static final String TF_STATE_PULL="pull";
-
-    private final ExecutorService executor = Executors.newWorkStealingPool();
+    private static final String TF_PROVIDERS_SCHEMA = "schema";
+    private static final String TERRAFORM_PARAM_NO_BACKEND = "-backend=false";
+    private static final String TERRAFORM_PARAM_CHECK = "-check";
+    private static final String TF_CLI_CONFIG_FILE = "TF_CLI_CONFIG_FILE";
+    private static final Pattern PROVIDER_INSTALLATION = Pattern.compile("(?m)^\\s*provider_installation\\s*\\{");
+    private static final long DEFAULT_VARIABLES_FILE_THRESHOLD = 64 * 1024;
+    private static final Duration DEFAULT_WORKSPACE_LOCK_TIMEOUT = Duration.ofMinutes(30);
+    private static final Duration DEFAULT_RESOURCE_SAMPLE_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration DEFAULT_RELEASES_MAX_AGE = Duration.ofHours(1);
+    private static final Duration DEFAULT_CANCEL_GRACE_PERIOD = Duration.ofMinutes(1);
+    private static final EnumSet<TerraformCommand> SHARED_COMMANDS = EnumSet.of(TerraformCommand.show, TerraformCommand.showPlan,
+            TerraformCommand.showPlanJson, TerraformCommand.output, TerraformCommand.statePull, TerraformCommand.providersSchema,
+            TerraformCommand.validate, TerraformCommand.fmtCheck);
+    private static final TerraformWorkspaceLocks WORKSPACE_LOCKS = new TerraformWorkspaceLocks();
+
+    // every running process blocks a thread per stream plus one waiting for the exit code
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "terraform-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, TerraformRun> runs = new ConcurrentHashMap<>();
+    private final AtomicReference<TerraformDownloader> terraformDownloader = new AtomicReference<>();
+    private final AtomicReference<Map.Entry<List<Object>, TerraformRedactor>> redactor = new AtomicReference<>();
 
     private File workingDirectory;
     private boolean inheritIO;
     private boolean showColor;
     private boolean jsonOutput;
+    // per resource timeline of apply and destroy, needs jsonOutput
+    private boolean applyProfiling;
     private boolean redirectErrorStream;
     private String terraformVersion;
     private String backendConfig;
     private String terraformReleasesUrl;
     private String tofuReleasesUrl;
+    private String binaryMirror;
+    // provider network mirror added to the CLI config of init, unless the run sets TF_CLI_CONFIG_FILE
+    private String providerMirror;
 
     private String varFileName;
+    private TerraformCacheManager cacheManager;
+    private GitModuleCache gitModuleCache;
+    // variables larger than this are written to a private var file instead of --var arguments, negative disables it
+    @Builder.Default
+    private long variablesFileThreshold = DEFAULT_VARIABLES_FILE_THRESHOLD;
+    // runs on the same working directory or backend wait up to this long for the previous one, null disables it
+    @Builder.Default
+    private Duration workspaceLockTimeout = DEFAULT_WORKSPACE_LOCK_TIMEOUT;
+    // picks -parallelism from the node load when the process data does not set it, null keeps the terraform default
+    @Builder.Default
+    private TerraformParallelismController parallelismController = new TerraformParallelismController();
+    @Builder.Default
+    private TerraformMetrics metrics = TerraformMetrics.NONE;
+    // how often CPU, memory and I/O of the terraform process tree are sampled, null disables it
+    @Builder.Default
+    private Duration resourceSampleInterval = DEFAULT_RESOURCE_SAMPLE_INTERVAL;
+    // a cancelled command gets SIGTERM, then it and its providers are killed when still running after this period
+    @Builder.Default
+    private Duration cancelGracePeriod = DEFAULT_CANCEL_GRACE_PERIOD;
+    // runs every process in its own cgroup v2 sub-group with the configured limits, null disables it
+    private TerraformCgroupManager cgroupManager;
+    // every finished attempt is appended to it, null disables it
+    private TerraformRunHistory runHistory;
+    // the output and error lines of every run are written to a log named after the run id, null disables it
+    private TerraformRunLogStore runLogStore;
+    // parsed provider schemas shared by the workspaces locking the same provider versions, null parses them on every call
+    @Builder.Default
+    private TerraformSchemaCache schemaCache = TerraformSchemaCache.builder().build();
+
+    @Builder.Default
+    private Duration releasesMaxAge = DEFAULT_RELEASES_MAX_AGE;
+    // classifies failed runs from stderr and -json diagnostics, null leaves the failure type unknown
+    @Builder.Default
+    private TerraformFailureClassifier failureClassifier = new TerraformFailureClassifier();
+    // failed commands run again after a backoff when their failure matches the policy of the command
+    @Singular
+    private Map<TerraformCommand, TerraformRetryPolicy> retryPolicies;
+
+    // values of the terraform variables masked in the output, the run secrets are always masked
+    private boolean redactVariables;
+    // masked in the output of every run
+    @Singular
+    private List<Pattern> redactPatterns;
+    @Builder.Default
+    private int redactMinLength = TerraformRedactor.DEFAULT_MIN_LENGTH;
 
     @Singular
     private Map<String, String> environmentVariables;
@@ -57,16 +140,18 @@ public class TerraformClient implements AutoCloseable {
     private Consumer<String> errorListener;
 
     public CompletableFuture<String> version() throws IOException {
-        ProcessLauncher launcher = this.getTerraformLauncher(TerraformCommand.version);
-        StringBuilder version = new StringBuilder();
+        TerraformProcessData terraformProcessData = getTerraformProcessData();
         Consumer<String> outputListener = this.getOutputListener();
-        launcher.setOutputListener(m -> {
-            version.append(version.length() == 0 ? m : "");
-            if (outputListener != null) {
-                outputListener.accept(m);
-            }
-        });
-        return launcher.launch().thenApply((c) -> c == 0 ? version.toString() : null);
+        StringBuilder version = new StringBuilder();
+        return this.getTerraformLauncherAsync(null, terraformProcessData, outputListener, this.errorListener, TerraformCommand.version).thenCompose(launcher -> {
+            launcher.setOutputListener(m -> {
+                version.append(version.length() == 0 ? m : "");
+                if (outputListener != null) {
+                    outputListener.accept(m);
+                }
+            });
+            return launcher.launch();
+        }).thenApply((c) -> c == 0 ? version.toString() : null);
     }
 
     public CompletableFuture<Boolean> show(@NonNull TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
@@ -124,6 +209,24 @@ public class TerraformClient implements AutoCloseable {
         return this.run(TerraformCommand.init);
     }
 
+    // prints the diagnostics as one json document, see TerraformPreflight for a validation without the backend
+    public CompletableFuture<Boolean> validate(@NonNull TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
+        return this.run(
+                terraformProcessData,
+                outputListener,
+                errorListener,
+                TerraformCommand.validate);
+    }
+
+    // lists the files that are not formatted, false when there is any
+    public CompletableFuture<Boolean> fmtCheck(@NonNull TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
+        return this.run(
+                terraformProcessData,
+                outputListener,
+                errorListener,
+                TerraformCommand.fmtCheck);
+    }
+
     public CompletableFuture<Boolean> plan(TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
         return this.run(
                 terraformProcessData,
@@ -134,10 +237,12 @@ public class TerraformClient implements AutoCloseable {
 
     public CompletableFuture<Integer> planDetailExitCode(TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
         terraformProcessData.setDetailExitCode(true);
-        return this.getTerraformLauncher(
+        TerraformRun run = newRun(TerraformCommand.plan, terraformProcessData);
+        return this.lockWorkspace(run, terraformProcessData, null, outputListener, errorListener, (out, err) -> this.getTerraformLauncherAsync(
+                run,
                 terraformProcessData,
-                outputListener,
-                errorListener, TerraformCommand.plan).launch();
+                out,
+                err, TerraformCommand.plan).thenCompose(launcher -> this.launchWithRetry(run, launcher, TerraformCommand.plan, terraformProcessData, out, err))).thenApply(TerraformResult::getExitCode);
     }
 
     public CompletableFuture<Boolean> statePull(TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
@@ -158,10 +263,12 @@ public class TerraformClient implements AutoCloseable {
 
     public CompletableFuture<Integer> planDestroyDetailExitCode(TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
         terraformProcessData.setDetailExitCode(true);
-        return this.getTerraformLauncher(
+        TerraformRun run = newRun(TerraformCommand.planDestroy, terraformProcessData);
+        return this.lockWorkspace(run, terraformProcessData, null, outputListener, errorListener, (out, err) -> this.getTerraformLauncherAsync(
+                run,
                 terraformProcessData,
-                outputListener,
-                errorListener, TerraformCommand.planDestroy).launch();
+                out,
+                err, TerraformCommand.planDestroy).thenCompose(launcher -> this.launchWithRetry(run, launcher, TerraformCommand.planDestroy, terraformProcessData, out, err))).thenApply(TerraformResult::getExitCode);
     }
 
     public CompletableFuture<Boolean> plan() throws IOException {
@@ -212,41 +319,351 @@ public class TerraformClient implements AutoCloseable {
         return this.run(TerraformCommand.output);
     }
 
+    // needs an initialized working directory, the providers are read from .terraform.lock.hcl
+    public CompletableFuture<TerraformProviderSchema> providersSchema(@NonNull TerraformProcessData terraformProcessData) throws IOException {
+        Map<String, String> providers = TerraformSchemaCache.getLockedProviders(terraformProcessData.getWorkingDirectory());
+        String key = TerraformSchemaCache.getKey(providers, terraformProcessData.isTofu());
+        if (this.schemaCache == null) {
+            return this.loadProvidersSchema(terraformProcessData, key, providers);
+        }
+        if (!new File(terraformProcessData.getWorkingDirectory(), TerraformSchemaCache.LOCK_FILE).isFile()) {
+            // without a lock file the provider versions are unknown, the schema would be stored for every workspace without one
+            log.warn("No {} in {}, the providers schema is not cached", TerraformSchemaCache.LOCK_FILE, terraformProcessData.getWorkingDirectory());
+            return this.loadProvidersSchema(terraformProcessData, key, providers);
+        }
+        return this.schemaCache.get(key, () -> this.loadProvidersSchema(terraformProcessData, key, providers));
+    }
+
+    private CompletableFuture<TerraformProviderSchema> loadProvidersSchema(TerraformProcessData terraformProcessData, String key, Map<String, String> providers) {
+        // a single line of tens of MB, written to a file and parsed as a stream once the command exits
+        // the schema is not output for the listeners, masking or throttling detection would only slow it down or corrupt it
+        try {
+            File schemaFile = File.createTempFile("providers-schema", ".json");
+            TerraformProcessData schemaData = terraformProcessData.toBuilder().outputFile(schemaFile).build();
+            CompletableFuture<TerraformResult> result;
+            try {
+                result = this.runResult(schemaData, line -> {}, line -> {}, TerraformCommand.providersSchema);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(schemaFile.toPath());
+                throw ex;
+            }
+            return result.thenApply(completed -> {
+                if (!completed.isSuccessful()) {
+                    String reason = completed.getFailure() != null ? completed.getFailure().getMessage() : "exit code " + completed.getExitCode();
+                    throw new CompletionException(new IOException("providers schema failed: " + reason));
+                }
+                try (Reader json = Files.newBufferedReader(schemaFile.toPath(), StandardCharsets.UTF_8)) {
+                    return TerraformProviderSchema.parse(key, providers, json);
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }).whenComplete((schema, error) -> schemaFile.delete());
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    public CompletableFuture<TerraformResult> execute(@NonNull TerraformCommand command, @NonNull TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
+        switch (command) {
+            case init:
+            case show:
+            case showPlan:
+            case showPlanJson:
+                checkVarFileParam(terraformProcessData);
+                checkTerraformVariablesParam(terraformProcessData);
+                break;
+            case destroy:
+                checkBackendConfigFile(terraformProcessData);
+                break;
+            case output:
+                checkBackendConfigFile(terraformProcessData);
+                checkVarFileParam(terraformProcessData);
+                checkTerraformVariablesParam(terraformProcessData);
+                break;
+            case version:
+                throw new IllegalArgumentException("Command " + command + " is not supported, use version()");
+            default:
+                break;
+        }
+        return this.runResult(terraformProcessData, outputListener, errorListener, command);
+    }
+
     private CompletableFuture<Boolean> run(TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener, TerraformCommand... commands) throws IOException {
+        return this.runResult(terraformProcessData, outputListener, errorListener, commands).thenApply(TerraformResult::isSuccessful);
+    }
+
+    private CompletableFuture<TerraformResult> runResult(TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener, TerraformCommand... commands) throws IOException {
         assert commands.length > 0;
-        ProcessLauncher[] launchers = new ProcessLauncher[commands.length];
-        for (int i = 0; i < commands.length; i++) {
-            launchers[i] = this.getTerraformLauncher(
-                    terraformProcessData,
-                    outputListener,
-                    errorListener, commands[i]);
+        // a run writing its output to a file has no lines to share
+        Object shareKey = commands.length == 1 && SHARED_COMMANDS.contains(commands[0]) && terraformProcessData.getOutputFile() == null
+                ? getShareKey(terraformProcessData, commands[0]) : null;
+        TerraformRun run = newRun(commands[0], terraformProcessData);
+        return this.lockWorkspace(run, terraformProcessData, shareKey, outputListener, errorListener, (out, err) -> this.getTerraformPath(run, terraformProcessData).thenApplyAsync(terraformPath -> {
+            ProcessLauncher[] launchers = new ProcessLauncher[commands.length];
+            try {
+                for (int i = 0; i < commands.length; i++) {
+                    launchers[i] = this.getTerraformLauncher(
+                            terraformPath,
+                            terraformProcessData,
+                            out,
+                            err, commands[i]);
+                }
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+            return launchers;
+        }, this.executor).thenCompose(launchers -> getLauncherResult(run, launchers, commands, terraformProcessData, out, err)));
+    }
+
+    private TerraformRun newRun(TerraformCommand command, TerraformProcessData terraformProcessData) {
+        TerraformRun run = new TerraformRun(UUID.randomUUID().toString(), command, terraformProcessData.getWorkingDirectory(), this.cancelGracePeriod);
+        this.runs.put(run.getId(), run);
+        return run;
+    }
+
+    private <T> CompletableFuture<T> lockWorkspace(TerraformRun run, TerraformProcessData terraformProcessData, Object shareKey, Consumer<String> outputListener, Consumer<String> errorListener, TerraformWorkspaceLocks.LockedRun<T> lockedRun) throws IOException {
+        TerraformWorkspaceLocks.LockedRun<T> trackedRun = (out, err) -> {
+            run.running();
+            return lockedRun.run(out, err);
+        };
+        TerraformRunLogWriter runLog = openRunLog(run);
+        Consumer<String> out = run.track(runLog != null ? writeRunLog(runLog, outputListener) : outputListener);
+        Consumer<String> err = run.track(runLog != null ? writeRunLog(runLog, errorListener) : errorListener);
+        CompletableFuture<T> locked;
+        try {
+            if (this.workspaceLockTimeout == null) {
+                locked = trackedRun.run(out, err);
+            } else {
+                locked = WORKSPACE_LOCKS.run(getWorkspaceKeys(terraformProcessData), shareKey, this.workspaceLockTimeout, out, err, trackedRun);
+            }
+        } catch (IOException | RuntimeException ex) {
+            this.runs.remove(run.getId());
+            if (runLog != null) {
+                runLog.close();
+            }
+            throw ex;
+        }
+
+        // a queued run is cancelled by completing this future, the locked run is skipped when it gets the lock
+        CompletableFuture<T> result = new CompletableFuture<>();
+        run.setResult(result);
+        locked.whenComplete((value, error) -> {
+            this.runs.remove(run.getId());
+            if (runLog != null) {
+                runLog.close();
+            }
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    private TerraformRunLogWriter openRunLog(TerraformRun run) {
+        if (this.runLogStore == null) {
+            return null;
         }
+        try {
+            return this.runLogStore.create(run.getId());
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Unable to create the run log of {} run {}: {}", run.getCommand(), run.getId(), ex.getMessage());
+            return null;
+        }
+    }
+
+    // a run log that can no longer be written never fails the run
+    private static Consumer<String> writeRunLog(TerraformRunLogWriter runLog, Consumer<String> listener) {
+        return line -> {
+            try {
+                runLog.append(line);
+            } catch (RuntimeException ex) {
+                log.debug("Unable to write run log {}: {}", runLog.getRunId(), ex.getMessage());
+            }
+            if (listener != null) {
+                listener.accept(line);
+            }
+        };
+    }
 
-        return getLauncherResult(launchers, commands);
+    public List<TerraformRun> getRuns() {
+        List<TerraformRun> runs = new ArrayList<>(this.runs.values());
+        runs.sort(Comparator.comparing(TerraformRun::getQueuedTime));
+        return runs;
     }
 
-    private CompletableFuture<Boolean> getLauncherResult(ProcessLauncher[] launchers, TerraformCommand[] commands) {
-        CompletableFuture<Integer> result = launchers[0].launch().thenApply(c -> c == 0 ? 1 : -1);
+    // stops a running command or drops a queued run, false when the run is unknown or already cancelled
+    public boolean cancel(@NonNull String runId) {
+        TerraformRun run = this.runs.get(runId);
+        if (run == null || !run.cancel()) {
+            return false;
+        }
+        log.warn("Cancelled {} run {} in {}", run.getCommand(), runId, run.getWorkingDirectory());
+        if (run.getStatus() == TerraformRunStatus.QUEUED) {
+            this.runs.remove(runId);
+        }
+        return true;
+    }
+
+    private List<String> getWorkspaceKeys(TerraformProcessData terraformProcessData) throws IOException {
+        List<String> keys = new ArrayList<>();
+        keys.add("directory:".concat(terraformProcessData.getWorkingDirectory().getCanonicalPath()));
+        if (terraformProcessData.getTerraformBackendConfigFileName() != null) {
+            File backendConfig = new File(terraformProcessData.getTerraformBackendConfigFileName());
+            if (!backendConfig.isAbsolute()) {
+                backendConfig = new File(terraformProcessData.getWorkingDirectory(), terraformProcessData.getTerraformBackendConfigFileName());
+            }
+            if (backendConfig.isFile()) {
+                keys.add("backend:".concat(GitModuleCache.sha256(Files.readString(backendConfig.toPath(), StandardCharsets.UTF_8))));
+            }
+        }
+        return keys;
+    }
+
+    private List<Object> getShareKey(TerraformProcessData terraformProcessData, TerraformCommand command) throws IOException {
+        return Arrays.asList(
+                command,
+                terraformProcessData.getWorkingDirectory().getCanonicalPath(),
+                terraformProcessData.getTerraformVersion(),
+                terraformProcessData.isTofu(),
+                terraformProcessData.getTerraformBackendConfigFileName(),
+                terraformProcessData.getVarFileName(),
+                terraformProcessData.getTerraformVariables(),
+                terraformProcessData.getTerraformEnvironmentVariables(),
+                // the locks are shared by every client, these settings change the arguments and where the output goes
+                this.showColor,
+                this.jsonOutput,
+                this.redirectErrorStream,
+                this.inheritIO,
+                // the shared output is masked once, the locks are shared by clients with other redaction settings
+                terraformProcessData.getSecrets(),
+                this.redactVariables,
+                this.redactMinLength,
+                getRedactPatternKeys());
+    }
+
+    // Pattern has no equals, its source and flags identify it
+    private List<String> getRedactPatternKeys() {
+        return this.redactPatterns != null ? this.redactPatterns.stream().map(pattern -> pattern.pattern() + "/" + pattern.flags()).collect(Collectors.toList()) : List.of();
+    }
+
+    private CompletableFuture<TerraformResult> getLauncherResult(TerraformRun run, ProcessLauncher[] launchers, TerraformCommand[] commands, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener) {
+        CompletableFuture<TerraformResult> result = launchWithRetry(run, launchers[0], commands[0], terraformProcessData, outputListener, errorListener);
         for (int i = 1; i < commands.length; i++) {
-            result = result.thenCompose(index -> {
-                if (index > 0) {
-                    return launchers[index].launch().thenApply(c -> c == 0 ? index + 1 : -1);
+            int index = i;
+            result = result.thenCompose(previous -> {
+                if (previous.isSuccessful()) {
+                    return launchWithRetry(run, launchers[index], commands[index], terraformProcessData, outputListener, errorListener);
                 }
-                return CompletableFuture.completedFuture(-1);
+                return CompletableFuture.completedFuture(previous);
             });
         }
-        return result.thenApply(i -> i > 0);
+        return result;
     }
 
+    private CompletableFuture<TerraformResult> launchWithRetry(TerraformRun run, ProcessLauncher launcher, TerraformCommand command, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener) {
+        return launchWithRetry(run, launcher, command, terraformProcessData, outputListener, errorListener, 1);
+    }
 
-    private CompletableFuture<Boolean> run(TerraformCommand... commands) throws IOException {
-        assert commands.length > 0;
-        ProcessLauncher[] launchers = new ProcessLauncher[commands.length];
-        for (int i = 0; i < commands.length; i++) {
-            launchers[i] = this.getTerraformLauncher(commands[i]);
+    // only the failed command runs again, the commands before it in the sequence already succeeded
+    private CompletableFuture<TerraformResult> launchWithRetry(TerraformRun run, ProcessLauncher launcher, TerraformCommand command, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener, int attempt) {
+        return launchProcess(run, launcher, command, terraformProcessData, attempt).thenCompose(result -> {
+            TerraformRetryPolicy retryPolicy = this.retryPolicies != null ? this.retryPolicies.get(command) : null;
+            if (retryPolicy == null || run.isCancelled() || !retryPolicy.shouldRetry(result.getFailure(), attempt)) {
+                return CompletableFuture.completedFuture(result);
+            }
+
+            Duration backoff = retryPolicy.getBackoff(attempt);
+            log.warn("{} in {} failed with {} on attempt {} of {}, retrying in {}", command, terraformProcessData.getWorkingDirectory(), result.getFailure().getType(), attempt, retryPolicy.getMaxAttempts(), backoff);
+            this.getMetrics().retrying(result, backoff);
+            Executor delayed = CompletableFuture.delayedExecutor(backoff.toMillis(), TimeUnit.MILLISECONDS, this.executor);
+            // launchers run once, the next attempt gets a new one with fresh parallelism and var files
+            return CompletableFuture.runAsync(() -> {
+            }, delayed).thenCompose(v -> this.getTerraformLauncherAsync(run, terraformProcessData, outputListener, errorListener, command))
+                    .thenCompose(next -> launchWithRetry(run, next, command, terraformProcessData, outputListener, errorListener, attempt + 1));
+        });
+    }
+
+    private CompletableFuture<TerraformResult> launchProcess(TerraformRun run, ProcessLauncher launcher, TerraformCommand command, TerraformProcessData terraformProcessData, int attempt) {
+        Instant startTime = Instant.now();
+        AtomicLong pid = new AtomicLong();
+        AtomicReference<TerraformResourceSampler> sampler = new AtomicReference<>();
+        TerraformFailureClassifier.Watch failureWatch = this.failureClassifier != null ? this.failureClassifier.watch(launcher) : null;
+        TerraformApplyProfiler applyProfiler = this.applyProfiling && this.jsonOutput && (command == TerraformCommand.apply || command == TerraformCommand.destroy)
+                ? TerraformApplyProfiler.watch(launcher) : null;
+        TerraformCgroup cgroup = this.cgroupManager != null ? this.cgroupManager.prepare(launcher, terraformProcessData) : null;
+        launcher.addStartHook(process -> {
+            pid.set(process.pid());
+            run.started(command, process);
+            if (this.resourceSampleInterval != null) {
+                sampler.set(TerraformResourceSampler.start(process.toHandle(), this.resourceSampleInterval));
+            }
+        });
+
+        CompletableFuture<Integer> exit;
+        try {
+            exit = launcher.launch();
+        } catch (RuntimeException ex) {
+            if (cgroup != null) {
+                cgroup.close();
+            }
+            throw ex;
         }
 
-        return getLauncherResult(launchers, commands);
+        return exit.handle((exitCode, error) -> {
+            TerraformResourceUsage resourceUsage = sampler.get() != null ? sampler.get().stop() : null;
+            TerraformCgroupStatistics cgroupStatistics = cgroup != null ? cgroup.close() : null;
+            if (cgroupStatistics != null && cgroupStatistics.isOomKilled()) {
+                log.warn("{} in {} was killed after reaching its memory limit", command, terraformProcessData.getWorkingDirectory());
+            }
+            if (error != null) {
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            TerraformFailure failure = null;
+            if (isFailed(command, terraformProcessData, exitCode)) {
+                if (run.isCancelled()) {
+                    failure = new TerraformFailure(TerraformFailureType.CANCELLED, "Run " + run.getId() + " was cancelled");
+                } else {
+                    failure = failureWatch != null ? failureWatch.getFailure() : new TerraformFailure(TerraformFailureType.UNKNOWN, null);
+                }
+            }
+            TerraformResult result = TerraformResult.builder()
+                    .runId(run.getId())
+                    .command(command)
+                    .workingDirectory(terraformProcessData.getWorkingDirectory())
+                    .exitCode(exitCode)
+                    .pid(pid.get())
+                    .startTime(startTime)
+                    .duration(Duration.between(startTime, Instant.now()))
+                    .resourceUsage(resourceUsage)
+                    .cgroupStatistics(cgroupStatistics)
+                    .failure(failure)
+                    .attempt(attempt)
+                    .terraformVersion(run.getTerraformVersion())
+                    .tofu(terraformProcessData.isTofu())
+                    .applyProfile(applyProfiler != null ? applyProfiler.getProfile() : null)
+                    .build();
+            this.getMetrics().completed(result);
+            if (this.runHistory != null) {
+                try {
+                    this.runHistory.record(result);
+                } catch (IOException ex) {
+                    log.warn("Unable to record {} in the run history: {}", command, ex.getMessage());
+                }
+            }
+            return result;
+        });
+    }
+
+    private boolean isFailed(TerraformCommand command, TerraformProcessData terraformProcessData, int exitCode) {
+        // -detailed-exitcode returns 2 for a plan with changes
+        boolean detailExitCode = terraformProcessData.isDetailExitCode() && (command == TerraformCommand.plan || command == TerraformCommand.planDestroy);
+        return exitCode != 0 && !(detailExitCode && exitCode == 2);
+    }
+
+    private CompletableFuture<Boolean> run(TerraformCommand... commands) throws IOException {
+        return this.run(getTerraformProcessData(), this.outputListener, this.errorListener, commands);
     }
 
     private void checkVarFileParam(TerraformProcessData terraformProcessData) {
@@ -276,8 +693,8 @@ public class TerraformClient implements AutoCloseable {
         }
     }
 
-    private ProcessLauncher getTerraformLauncher(TerraformCommand command) throws IOException {
-        TerraformProcessData terraformProcessData = TerraformProcessData.builder()
+    private TerraformProcessData getTerraformProcessData() {
+        return TerraformProcessData.builder()
                 .terraformVersion(this.terraformVersion)
                 .workingDirectory(this.workingDirectory)
                 .terraformBackendConfigFileName(this.backendConfig)
@@ -285,19 +702,42 @@ public class TerraformClient implements AutoCloseable {
                 .terraformVariables(this.terraformParameters)
                 .terraformEnvironmentVariables(this.environmentVariables)
                 .build();
+    }
+
+    // the binary is resolved and installed on the client executor, never on the caller thread
+    private CompletableFuture<String> getTerraformPath(TerraformRun run, TerraformProcessData terraformProcessData) {
+        TerraformDownloader terraformDownloader = getTerraformDownloader();
+        CompletableFuture<String> terraformPath = terraformProcessData.isTofu()
+                ? terraformDownloader.downloadTofuVersionAsync(terraformProcessData.getTerraformVersion(), this.executor)
+                : terraformDownloader.downloadTerraformVersionAsync(terraformProcessData.getTerraformVersion(), this.executor);
+        return run == null ? terraformPath : terraformPath.thenApply(path -> {
+            // binaries are installed in a directory named after the resolved version
+            run.setTerraformVersion(new File(path).getParentFile().getName());
+            return path;
+        });
+    }
 
-        return getTerraformLauncher(terraformProcessData, this.outputListener, this.errorListener, command);
+    private CompletableFuture<ProcessLauncher> getTerraformLauncherAsync(TerraformRun run, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener, TerraformCommand command) {
+        return getTerraformPath(run, terraformProcessData).thenApplyAsync(terraformPath -> {
+            try {
+                return getTerraformLauncher(terraformPath, terraformProcessData, outputListener, errorListener, command);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, this.executor);
     }
 
-    private ProcessLauncher getTerraformLauncher(TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener, TerraformCommand command) throws IOException {
-        TerraformDownloader terraformDownloader = createTerraformDownloader();
-        String terraformPath = terraformProcessData.isTofu() ? terraformDownloader.downloadTofuVersion(terraformProcessData.getTerraformVersion()) : terraformDownloader.downloadTerraformVersion(terraformProcessData.getTerraformVersion());
+    private ProcessLauncher getTerraformLauncher(String terraformPath, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener, TerraformCommand command) throws IOException {
 
         if (terraformProcessData.sshFile != null && command.equals(TerraformCommand.init)) {
-            return getTerraformInitWithSSH(terraformPath, terraformProcessData, outputListener, errorListener);
+            return trackLauncher(getTerraformInitWithSSH(terraformPath, terraformProcessData, outputListener, errorListener), terraformProcessData, command);
         }
 
         ProcessLauncher launcher = new ProcessLauncher(this.executor, terraformPath, command.getLabel());
+        // subcommands have to follow the command, before any flag
+        if (command.equals(TerraformCommand.providersSchema)) {
+            launcher.appendCommands(TF_PROVIDERS_SCHEMA);
+        }
 
         launcher.setDirectory(terraformProcessData.getWorkingDirectory());
         launcher.setInheritIO(this.isInheritIO());
@@ -307,6 +747,11 @@ public class TerraformClient implements AutoCloseable {
                 launcher.setEnvironmentVariable(entry.getKey(), entry.getValue());
             }
 
+        if (command.equals(TerraformCommand.init) || command.equals(TerraformCommand.initNoBackend)) {
+            applyGitModuleCache(launcher, terraformProcessData);
+            applyProviderMirror(launcher, terraformProcessData);
+        }
+
         ComparableVersion version = new ComparableVersion(terraformProcessData.getTerraformVersion());
 
         if (!this.showColor)
@@ -325,6 +770,17 @@ public class TerraformClient implements AutoCloseable {
                     break;
             }
 
+        switch (command) {
+            case plan:
+            case apply:
+            case planDestroy:
+            case destroy:
+                appendParallelism(launcher, terraformProcessData, command);
+                break;
+            default:
+                break;
+        }
+
         switch (command) {
             case init:
                 if (terraformProcessData.getTerraformBackendConfigFileName() != null) {
@@ -343,14 +799,14 @@ public class TerraformClient implements AutoCloseable {
                 }
 
                 if (terraformProcessData.getVarFileName() == null)
-                    for (Map.Entry<String, String> entry : terraformProcessData.getTerraformVariables().entrySet()) {
-                        launcher.appendCommands(TERRAFORM_PARAM_VARIABLE, entry.getKey().concat("=").concat(entry.getValue()));
-                    }
+                    appendVariables(launcher, terraformProcessData);
                 else {
                     log.info("Using plan with var file parameter");
                     launcher.appendCommands(TERRAFORM_PARAM_VARIABLE_FILE, terraformProcessData.getVarFileName());
                 }
-                launcher.appendCommands(TERRAFORM_PARAM_OUTPUT_PLAN);
+                if (terraformProcessData.isSavePlan()) {
+                    launcher.appendCommands(TERRAFORM_PARAM_OUTPUT_PLAN);
+                }
                 launcher.appendCommands(TERRAFORM_PARAM_DISABLE_USER_INPUT);
 
                 if (command.equals(TerraformCommand.planDestroy)) {
@@ -368,9 +824,7 @@ public class TerraformClient implements AutoCloseable {
                         launcher.appendCommands(TERRAFORM_PARAM_DISABLE_USER_INPUT);
                         launcher.appendCommands(TERRAFORM_PARAM_OUTPUT_PLAN_FILE);
                     } else {
-                        for (Map.Entry<String, String> entry : terraformProcessData.getTerraformVariables().entrySet()) {
-                            launcher.appendCommands(TERRAFORM_PARAM_VARIABLE, entry.getKey().concat("=").concat(entry.getValue()));
-                        }
+                        appendVariables(launcher, terraformProcessData);
                         launcher.appendCommands(TERRAFORM_PARAM_AUTO_APPROVED);
                         launcher.appendCommands(TERRAFORM_PARAM_DISABLE_USER_INPUT);
                     }
@@ -390,9 +844,7 @@ public class TerraformClient implements AutoCloseable {
                     launcher.appendCommands(TERRAFORM_PARAM_AUTO_APPROVED);
 
                 if (terraformProcessData.getVarFileName() == null) {
-                    for (Map.Entry<String, String> entry : terraformProcessData.getTerraformVariables().entrySet()) {
-                        launcher.appendCommands(TERRAFORM_PARAM_VARIABLE, entry.getKey().concat("=").concat(entry.getValue()));
-                    }
+                    appendVariables(launcher, terraformProcessData);
                 } else {
                     log.info("Using Destroy with var file parameter");
                     launcher.appendCommands(TERRAFORM_PARAM_VARIABLE_FILE, terraformProcessData.getVarFileName());
@@ -413,6 +865,18 @@ public class TerraformClient implements AutoCloseable {
             case statePull:
                 launcher.appendCommands(TF_STATE_PULL);
                 break;
+            case providersSchema:
+                launcher.appendCommands(TERRAFORM_PARAM_JSON);
+                break;
+            case initNoBackend:
+                launcher.appendCommands(TERRAFORM_PARAM_NO_BACKEND, TERRAFORM_PARAM_DISABLE_USER_INPUT);
+                break;
+            case validate:
+                launcher.appendCommands(TERRAFORM_PARAM_JSON);
+                break;
+            case fmtCheck:
+                launcher.appendCommands(TERRAFORM_PARAM_CHECK);
+                break;
             default:
                 break;
         }
@@ -420,10 +884,149 @@ public class TerraformClient implements AutoCloseable {
         launcher.setOutputListener(outputListener);
         launcher.setErrorListener(errorListener);
         launcher.setRedirectErrorStream(this.redirectErrorStream);
+        if (terraformProcessData.getOutputFile() != null) {
+            launcher.setOutputFile(terraformProcessData.getOutputFile());
+        }
+        return trackLauncher(launcher, terraformProcessData, command);
+    }
+
+    private void appendParallelism(ProcessLauncher launcher, TerraformProcessData terraformProcessData, TerraformCommand command) {
+        Integer parallelism = terraformProcessData.getParallelism();
+        boolean adaptive = parallelism == null && this.parallelismController != null;
+        if (adaptive) {
+            parallelism = this.parallelismController.getParallelism();
+        }
+        if (parallelism != null) {
+            log.info("Running {} with parallelism {}", command, parallelism);
+            launcher.appendCommands(TERRAFORM_PARAM_PARALLELISM.concat(String.valueOf(parallelism)));
+            this.getMetrics().parallelism(command, parallelism, adaptive);
+        }
+    }
+
+    private ProcessLauncher trackLauncher(ProcessLauncher launcher, TerraformProcessData terraformProcessData, TerraformCommand command) {
+        launcher.setRedactor(getRedactor(terraformProcessData));
+        if (this.parallelismController != null) {
+            launcher.addLaunchHook(this.parallelismController::begin);
+            launcher.addExitHook(this.parallelismController::end);
+            Runnable onThrottle = () -> this.getMetrics().throttled(command);
+            launcher.setOutputListener(this.parallelismController.watch(launcher.getOutputListener(), true, onThrottle));
+            launcher.setErrorListener(this.parallelismController.watch(launcher.getErrorListener(), false, onThrottle));
+        }
         return launcher;
     }
 
-    private ProcessLauncher getTerraformInitWithSSH(String terraformPath, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener) {
+    // consecutive runs of a workspace have the same secrets, the last automaton is reused until they or the redaction settings change
+    TerraformRedactor getRedactor(TerraformProcessData terraformProcessData) {
+        Set<String> secrets = new HashSet<>();
+        if (terraformProcessData.getSecrets() != null) {
+            secrets.addAll(terraformProcessData.getSecrets());
+        }
+        if (this.redactVariables) {
+            // environment values are left out, TF_LOG=DEBUG would mask every DEBUG
+            secrets.addAll(terraformProcessData.getTerraformVariables().values());
+        }
+        secrets.removeIf(secret -> secret == null || secret.length() < this.redactMinLength);
+        if (secrets.isEmpty() && (this.redactPatterns == null || this.redactPatterns.isEmpty())) {
+            return null;
+        }
+        List<Object> key = Arrays.asList(secrets, this.redactVariables, this.redactMinLength, getRedactPatternKeys());
+        Map.Entry<List<Object>, TerraformRedactor> last = this.redactor.get();
+        if (last != null && last.getKey().equals(key)) {
+            return last.getValue();
+        }
+        TerraformRedactor redactor = TerraformRedactor.builder()
+                .secrets(secrets)
+                .patterns(this.redactPatterns != null ? this.redactPatterns : List.of())
+                .minLength(this.redactMinLength)
+                .build();
+        this.redactor.set(Map.entry(key, redactor));
+        return redactor;
+    }
+
+    private void appendVariables(ProcessLauncher launcher, TerraformProcessData terraformProcessData) throws IOException {
+        Map<String, String> variables = terraformProcessData.getTerraformVariables();
+        if (this.variablesFileThreshold >= 0 && !variables.isEmpty() && TerraformVariablesFile.size(variables) > this.variablesFileThreshold) {
+            File variablesFile = TerraformVariablesFile.write(variables, terraformProcessData.getWorkingDirectory());
+            log.info("Using {} variables with generated var file", variables.size());
+            launcher.addExitHook(() -> TerraformVariablesFile.delete(variablesFile));
+            launcher.appendCommands(TERRAFORM_PARAM_VARIABLE_FILE, variablesFile.getAbsolutePath());
+            return;
+        }
+
+        for (Map.Entry<String, String> entry : variables.entrySet()) {
+            launcher.appendCommands(TERRAFORM_PARAM_VARIABLE, entry.getKey().concat("=").concat(entry.getValue()));
+        }
+    }
+
+    private void applyProviderMirror(ProcessLauncher launcher, TerraformProcessData terraformProcessData) throws IOException {
+        if (this.providerMirror == null || this.providerMirror.isEmpty()) {
+            return;
+        }
+        Map<String, String> environment = terraformProcessData.getTerraformEnvironmentVariables();
+        if (environment != null && environment.containsKey(TF_CLI_CONFIG_FILE)) {
+            return;
+        }
+        File config = getProviderMirrorConfig(getUserCliConfig());
+        if (config != null) {
+            launcher.setEnvironmentVariable(TF_CLI_CONFIG_FILE, config.getAbsolutePath());
+        }
+    }
+
+    // the CLI config terraform reads when the run does not set TF_CLI_CONFIG_FILE
+    static File getUserCliConfig() {
+        String configFile = System.getenv(TF_CLI_CONFIG_FILE);
+        if (configFile != null && !configFile.isEmpty()) {
+            return new File(configFile);
+        }
+        if (File.separatorChar == '\\') {
+            String appData = System.getenv("APPDATA");
+            return appData != null ? new File(appData, "terraform.rc") : null;
+        }
+        return new File(System.getProperty("user.home"), ".terraformrc");
+    }
+
+    // the user config with a network_mirror block added, so its credentials and plugin cache still apply, written next to the binary cache.
+    // null leaves the user config alone when it is JSON or already has its own provider_installation block
+    File getProviderMirrorConfig(File userConfig) throws IOException {
+        String url = this.providerMirror.endsWith("/") ? this.providerMirror : this.providerMirror.concat("/");
+        String userContent = userConfig != null && userConfig.isFile() ? Files.readString(userConfig.toPath(), StandardCharsets.UTF_8) : "";
+        if (!userContent.isBlank() && userConfig.getName().endsWith(".json")) {
+            log.warn("Not using the provider mirror, the CLI configuration {} is JSON and cannot be merged", userConfig);
+            return null;
+        }
+        if (PROVIDER_INSTALLATION.matcher(userContent).find()) {
+            log.warn("Not using the provider mirror, the CLI configuration {} has its own provider_installation block", userConfig);
+            return null;
+        }
+
+        StringBuilder content = new StringBuilder(userContent);
+        if (content.length() > 0 && content.charAt(content.length() - 1) != '\n') {
+            content.append(System.lineSeparator());
+        }
+        content.append(String.format("provider_installation {%n  network_mirror {%n    url = \"%s\"%n  }%n}%n", url.replace("\\", "\\\\").replace("\"", "\\\"")));
+        // keyed by content, a changed user config gets a new file
+        File config = new File(getCacheManager().getCacheDirectory(), "provider-mirror-" + GitModuleCache.sha256(content.toString()).substring(0, 16) + ".tfrc");
+        if (!config.isFile()) {
+            Files.createDirectories(config.getParentFile().toPath());
+            // private like the user config, it may hold registry credentials
+            File partial = Files.createTempFile(config.getParentFile().toPath(), config.getName(), ".part").toFile();
+            Files.writeString(partial.toPath(), content, StandardCharsets.UTF_8);
+            Files.move(partial.toPath(), config.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return config;
+    }
+
+    private void applyGitModuleCache(ProcessLauncher launcher, TerraformProcessData terraformProcessData) {
+        if (this.gitModuleCache == null) {
+            return;
+        }
+        Map<String, String> gitConfig = this.gitModuleCache.prepare(terraformProcessData.getWorkingDirectory(), terraformProcessData.getSshFile(), terraformProcessData.getTerraformEnvironmentVariables());
+        for (Map.Entry<String, String> entry : gitConfig.entrySet()) {
+            launcher.setEnvironmentVariable(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private ProcessLauncher getTerraformInitWithSSH(String terraformPath, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener) throws IOException {
         String initSSHCommand = String.format("GIT_SSH_COMMAND='ssh -i %s -o StrictHostKeyChecking=no' %s init", terraformProcessData.getSshFile().getAbsolutePath(), terraformPath);
         ProcessLauncher processLauncher = new ProcessLauncher(this.executor, "bash", "-c");
         processLauncher.setInheritIO(this.isInheritIO());
@@ -433,6 +1036,8 @@ public class TerraformClient implements AutoCloseable {
             for (Map.Entry<String, String> entry : terraformProcessData.getTerraformEnvironmentVariables().entrySet()) {
                 processLauncher.setEnvironmentVariable(entry.getKey(), entry.getValue());
             }
+        applyGitModuleCache(processLauncher, terraformProcessData);
+        applyProviderMirror(processLauncher, terraformProcessData);
 
         if (!this.showColor)
             initSSHCommand = initSSHCommand.concat(" " + TERRAFORM_PARAM_NO_COLOR);
@@ -452,11 +1057,41 @@ public class TerraformClient implements AutoCloseable {
 
     public TerraformDownloader createTerraformDownloader() {
         synchronized (this) {
-            String TERRAFORM_RELEASES_URL = (this.terraformReleasesUrl != null && !terraformReleasesUrl.isEmpty()) ? this.terraformReleasesUrl : TerraformDownloader.TERRAFORM_RELEASES_URL;
-            String TOFU_RELEASES_URL = (this.tofuReleasesUrl != null && !tofuReleasesUrl.isEmpty()) ? this.tofuReleasesUrl : TerraformDownloader.TOFU_RELEASES_URL;
+            String[] releasesUrls = getReleasesUrls();
+            log.info("Creating terraform downloader using terraform release URL: {} and tofu release URL: {}", releasesUrls[0], releasesUrls[1]);
+            TerraformDownloader downloader = new TerraformDownloader(releasesUrls[0], releasesUrls[1], getCacheManager());
+            downloader.setReleasesMaxAge(this.releasesMaxAge);
+            return downloader;
+        }
+    }
 
-            log.info("Creating terraform downloader using terraform release URL: {} and tofu release URL: {}", TERRAFORM_RELEASES_URL, TOFU_RELEASES_URL);
-            return new TerraformDownloader(TERRAFORM_RELEASES_URL, TOFU_RELEASES_URL);
+    // shared by the runs of this client so the release indexes are loaded once per max age
+    public TerraformDownloader getTerraformDownloader() {
+        synchronized (this) {
+            String[] releasesUrls = getReleasesUrls();
+            TerraformDownloader downloader = this.terraformDownloader.get();
+            if (downloader == null || !downloader.getTerraformReleasesUrl().equals(releasesUrls[0]) || !downloader.getTofuReleasesUrl().equals(releasesUrls[1])) {
+                downloader = createTerraformDownloader();
+                this.terraformDownloader.set(downloader);
+            }
+            downloader.setReleasesMaxAge(this.releasesMaxAge);
+            return downloader;
+        }
+    }
+
+    private String[] getReleasesUrls() {
+        boolean mirror = this.binaryMirror != null && !this.binaryMirror.isEmpty();
+        String TERRAFORM_RELEASES_URL = (this.terraformReleasesUrl != null && !terraformReleasesUrl.isEmpty()) ? this.terraformReleasesUrl : mirror ? TerraformMirror.getTerraformReleasesUrl(this.binaryMirror) : TerraformDownloader.TERRAFORM_RELEASES_URL;
+        String TOFU_RELEASES_URL = (this.tofuReleasesUrl != null && !tofuReleasesUrl.isEmpty()) ? this.tofuReleasesUrl : mirror ? TerraformMirror.getTofuReleasesUrl(this.binaryMirror) : TerraformDownloader.TOFU_RELEASES_URL;
+        return new String[]{TERRAFORM_RELEASES_URL, TOFU_RELEASES_URL};
+    }
+
+    public TerraformCacheManager getCacheManager() {
+        synchronized (this) {
+            if (this.cacheManager == null) {
+                this.cacheManager = new TerraformCacheManager();
+            }
+            return this.cacheManager;
         }
     }
 
@@ -14,7 +14,12 @@ public enum TerraformCommand {
     showPlan("show"),
     showPlanJson("show"),
     output("output"),
-    statePull("state");
+    statePull("state"),
+    providersSchema("providers"),
+    // init without the backend, installs providers and modules without reading the state
+    initNoBackend("init"),
+    validate("validate"),
+    fmtCheck("fmt");
 
     private String label;
 
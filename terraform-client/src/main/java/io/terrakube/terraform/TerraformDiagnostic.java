@@ -0,0 +1,23 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// one diagnostic of validate -json
+@AllArgsConstructor
+@Getter
+public class TerraformDiagnostic {
+    private TerraformDiagnosticSeverity severity;
+    private String summary;
+    private String detail;
+    // file relative to the working directory, null when the diagnostic has no range
+    private String fileName;
+    private int startLine;
+    private int startColumn;
+    private int endLine;
+    private int endColumn;
+
+    public boolean isError() {
+        return this.severity == TerraformDiagnosticSeverity.ERROR;
+    }
+}
@@ -0,0 +1,6 @@
+package io.terrakube.terraform;
+
+public enum TerraformDiagnosticSeverity {
+    ERROR,
+    WARNING
+}
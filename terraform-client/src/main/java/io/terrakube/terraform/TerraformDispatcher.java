@@ -0,0 +1,244 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// sends each run to the node most likely to have its binary, providers and modules, spilling over when that node is saturated
+@Slf4j
+@Getter
+public class TerraformDispatcher {
+
+    // an initialized workspace skips provider and module downloads, a known lock file skips provider downloads
+    static final int WORKSPACE_AFFINITY = 4;
+    static final int PROVIDER_AFFINITY = 2;
+    static final int BINARY_AFFINITY = 1;
+    private static final int MAX_ROUTES = 10000;
+
+    private final List<TerraformNode> nodes;
+    // node status older than this is read again before a run is dispatched
+    private final Duration statusMaxAge;
+    // unreachable nodes are asked again after this
+    private final Duration retryInterval;
+
+    @Getter(lombok.AccessLevel.NONE)
+    private final List<NodeState> states = new ArrayList<>();
+
+    @Builder
+    public TerraformDispatcher(@Singular @NonNull List<TerraformNode> nodes, Duration statusMaxAge, Duration retryInterval) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("the dispatcher needs at least one node");
+        }
+        this.nodes = List.copyOf(nodes);
+        this.statusMaxAge = statusMaxAge != null ? statusMaxAge : Duration.ofSeconds(2);
+        this.retryInterval = retryInterval != null ? retryInterval : Duration.ofSeconds(30);
+        for (TerraformNode node : this.nodes) {
+            this.states.add(new NodeState(node));
+        }
+    }
+
+    public CompletableFuture<TerraformResult> dispatch(@NonNull TerraformCommand command, @NonNull TerraformProcessData terraformProcessData, @NonNull Consumer<String> outputListener, Consumer<String> errorListener) {
+        NodeState state;
+        try {
+            state = select(terraformProcessData);
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        log.debug("Dispatching {} in {} to node {}", command, terraformProcessData.getWorkingDirectory(), state.node.getId());
+        return state.node.execute(command, terraformProcessData, outputListener, errorListener).whenComplete((result, error) -> {
+            state.inFlight.decrementAndGet();
+            if (error != null) {
+                log.warn("{} in {} failed on node {}: {}", command, terraformProcessData.getWorkingDirectory(), state.node.getId(), error.getMessage());
+                state.failures.incrementAndGet();
+                // read the status again before the next run goes there
+                state.statusTime = 0;
+            }
+        });
+    }
+
+    public List<TerraformNodeReport> getReport() {
+        refresh();
+        List<TerraformNodeReport> report = new ArrayList<>();
+        synchronized (this.states) {
+            for (NodeState state : this.states) {
+                report.add(new TerraformNodeReport(state.node.getId(), state.status, state.reachable, state.inFlight.get(),
+                        state.dispatched.get(), state.affinityHits.get(), state.spillOvers.get(), state.failures.get()));
+            }
+        }
+        return report;
+    }
+
+    private NodeState select(TerraformProcessData data) throws IOException {
+        File workingDirectory = data.getWorkingDirectory();
+        String workspace = workingDirectory.getAbsolutePath();
+        String providerLock = LocalTerraformNode.getProviderLock(workingDirectory);
+        String binary = (data.isTofu() ? TerraformCacheManager.TOFU_PRODUCT : TerraformCacheManager.TERRAFORM_PRODUCT) + ":" + data.getTerraformVersion();
+
+        // the status reads are network calls, so they happen before the lock the other dispatches wait on
+        refresh();
+        synchronized (this.states) {
+            NodeState best = null;
+            NodeState bestAvailable = null;
+            NodeState leastLoaded = null;
+            for (NodeState state : this.states) {
+                if (!state.reachable || state.status == null) {
+                    continue;
+                }
+                state.affinity = state.getAffinity(workspace, providerLock, binary, data);
+                if (best == null || state.compareTo(best) > 0) {
+                    best = state;
+                }
+                if (!state.isSaturated() && (bestAvailable == null || state.compareTo(bestAvailable) > 0)) {
+                    bestAvailable = state;
+                }
+                if (leastLoaded == null || state.getUsage() < leastLoaded.getUsage()) {
+                    leastLoaded = state;
+                }
+            }
+            if (best == null) {
+                throw new IOException("No terraform node is reachable");
+            }
+
+            NodeState selected;
+            if (!best.isSaturated()) {
+                selected = best;
+            } else if (bestAvailable != null) {
+                selected = bestAvailable;
+                selected.spillOvers.incrementAndGet();
+                log.info("Node {} is saturated, sending the run in {} to node {}", best.node.getId(), workspace, selected.node.getId());
+            } else {
+                // every node is saturated, the run waits on the least loaded one
+                selected = leastLoaded;
+            }
+            if (selected.affinity > 0) {
+                selected.affinityHits.incrementAndGet();
+            }
+            selected.dispatched.incrementAndGet();
+            selected.inFlight.incrementAndGet();
+            selected.route("w:" + workspace);
+            selected.route("v:" + binary);
+            if (providerLock != null) {
+                selected.route("p:" + providerLock);
+            }
+            return selected;
+        }
+    }
+
+    private void refresh() {
+        for (NodeState state : this.states) {
+            if (state.isStale(this.statusMaxAge, this.retryInterval)) {
+                refresh(state);
+            }
+        }
+    }
+
+    private void refresh(NodeState state) {
+        // one read per node at a time, the other dispatches keep the stale status unless the node has none yet
+        if (state.status != null) {
+            if (!state.refreshLock.tryLock()) {
+                return;
+            }
+        } else {
+            state.refreshLock.lock();
+        }
+        try {
+            if (!state.isStale(this.statusMaxAge, this.retryInterval)) {
+                return;
+            }
+            try {
+                state.status = state.node.getStatus();
+                state.reachable = true;
+            } catch (IOException | RuntimeException ex) {
+                if (state.reachable) {
+                    log.warn("Terraform node {} is unreachable: {}", state.node.getId(), ex.getMessage());
+                }
+                state.reachable = false;
+            }
+            state.statusTime = System.currentTimeMillis();
+        } finally {
+            state.refreshLock.unlock();
+        }
+    }
+
+    private static class NodeState {
+        private final TerraformNode node;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong affinityHits = new AtomicLong();
+        private final AtomicLong spillOvers = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        // what this dispatcher sent to the node, so runs sent before the next status read stick to it
+        private final Map<String, Boolean> routes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_ROUTES;
+            }
+        };
+        private final ReentrantLock refreshLock = new ReentrantLock();
+        private volatile TerraformNodeStatus status;
+        private volatile long statusTime;
+        private volatile boolean reachable = true;
+        private int affinity;
+
+        private NodeState(TerraformNode node) {
+            this.node = node;
+        }
+
+        private boolean isStale(Duration statusMaxAge, Duration retryInterval) {
+            long maxAge = this.reachable ? statusMaxAge.toMillis() : retryInterval.toMillis();
+            return this.statusTime == 0 || System.currentTimeMillis() - this.statusTime >= maxAge;
+        }
+
+        private int getAffinity(String workspace, String providerLock, String binary, TerraformProcessData data) {
+            int affinity = 0;
+            if (this.status.getWorkspaces().contains(workspace) || this.routes.containsKey("w:" + workspace)) {
+                affinity += WORKSPACE_AFFINITY;
+            }
+            if (providerLock != null && (this.status.getProviderLocks().contains(providerLock) || this.routes.containsKey("p:" + providerLock))) {
+                affinity += PROVIDER_AFFINITY;
+            }
+            Set<String> versions = data.isTofu() ? this.status.getTofuVersions() : this.status.getTerraformVersions();
+            if (versions.contains(data.getTerraformVersion()) || this.routes.containsKey("v:" + binary)) {
+                affinity += BINARY_AFFINITY;
+            }
+            return affinity;
+        }
+
+        private void route(String key) {
+            this.routes.put(key, Boolean.TRUE);
+        }
+
+        // the status load lags behind the runs this dispatcher just sent
+        private int getLoad() {
+            return Math.max(this.status.getLoad(), this.inFlight.get());
+        }
+
+        private double getUsage() {
+            return (double) getLoad() / Math.max(1, this.status.getCapacity());
+        }
+
+        private boolean isSaturated() {
+            return getLoad() >= this.status.getCapacity();
+        }
+
+        // higher affinity first, then the lower share of the capacity in use
+        private int compareTo(NodeState other) {
+            if (this.affinity != other.affinity) {
+                return Integer.compare(this.affinity, other.affinity);
+            }
+            return Double.compare(other.getUsage(), getUsage());
+        }
+    }
+}
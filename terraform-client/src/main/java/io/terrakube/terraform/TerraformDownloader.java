@@ -25,10 +25,20 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -36,136 +46,183 @@ import java.util.zip.ZipInputStream;
 @Slf4j
 public class TerraformDownloader {
 
-    private static final String TERRAFORM_DOWNLOAD_DIRECTORY = "/.terraform-spring-boot/download/";
-    private static final String TOFU_DOWNLOAD_DIRECTORY = "/.terraform-spring-boot/download/tofu/";
-    private static final String TERRAFORM_DIRECTORY = "/.terraform-spring-boot/terraform/";
-
-    private static final String TOFU_DIRECTORY = "/.terraform-spring-boot/tofu/";
     public static final String TERRAFORM_RELEASES_URL = "https://releases.hashicorp.com/terraform/index.json";
     public static final String TOFU_RELEASES_URL = "https://api.github.com/repos/opentofu/opentofu/releases";
 
     private TerraformResponse terraformReleases;
     private List<TofuRelease> tofuReleases;
+    @Getter
+    private Instant terraformReleasesTime;
+    @Getter
+    private Instant tofuReleasesTime;
+    // loaded indexes are reused until they are older than this, forever when null
+    @Getter
+    @Setter
+    private Duration releasesMaxAge;
+    // downloads in progress by product and resolved version
+    private final Map<String, CompletableFuture<String>> installing = new ConcurrentHashMap<>();
     private File terraformDownloadDirectory;
 
     private File tofuDownloadDirectory;
     private File terraformDirectory;
-    private String userHomeDirectory;
     private ObjectMapper objectMapper = new ObjectMapper();
+    private TerraformCacheManager cacheManager = new TerraformCacheManager();
+    @Getter
+    private String terraformReleasesUrl;
+    @Getter
+    private String tofuReleasesUrl;
 
     public TerraformDownloader() {
-        try {
-            log.info("Initialize Terraform and Tofu Downloader using default URL");
-            createDownloadTempDirectory();
-            createDownloadTofuTempDirectory();
-            getTerraformReleases(TERRAFORM_RELEASES_URL);
-            getTofuReleases(TOFU_RELEASES_URL);
-        } catch (IOException ex) {
-            log.error(ex.getMessage());
-        }
+        this(TERRAFORM_RELEASES_URL, TOFU_RELEASES_URL);
     }
 
     public TerraformDownloader(String terraformReleasesUrl, String tofuReleasesUrl) {
-        log.info("Initialize TerraformDownloader using custom URL");
+        this(terraformReleasesUrl, tofuReleasesUrl, new TerraformCacheManager());
+    }
+
+    public TerraformDownloader(String terraformReleasesUrl, String tofuReleasesUrl, TerraformCacheManager cacheManager) {
+        log.info("Initialize TerraformDownloader using terraform releases {} and tofu releases {}", terraformReleasesUrl, tofuReleasesUrl);
+        this.terraformReleasesUrl = terraformReleasesUrl;
+        this.tofuReleasesUrl = tofuReleasesUrl;
+        this.cacheManager = cacheManager;
 
         try {
             createDownloadTempDirectory();
             createDownloadTofuTempDirectory();
-            getTerraformReleases(terraformReleasesUrl);
-            getTofuReleases(tofuReleasesUrl);
         } catch (IOException ex) {
             log.error(ex.getMessage());
         }
     }
 
     private void createDownloadTempDirectory() throws IOException {
-        this.userHomeDirectory = FileUtils.getUserDirectoryPath();
-        log.info("User Home Directory: {}", this.userHomeDirectory);
-
-        String downloadPath = userHomeDirectory.concat(
-                FilenameUtils.separatorsToSystem(
-                        TERRAFORM_DOWNLOAD_DIRECTORY
-                ));
-        this.terraformDownloadDirectory = new File(downloadPath);
+        log.info("Binary cache directory: {}", this.cacheManager.getCacheDirectory());
+
+        this.terraformDownloadDirectory = this.cacheManager.getDownloadDirectory(TerraformCacheManager.TERRAFORM_PRODUCT);
         FileUtils.forceMkdir(this.terraformDownloadDirectory);
-        log.info("Validate/Create download temp directory: {}", downloadPath);
+        log.info("Validate/Create download temp directory: {}", this.terraformDownloadDirectory);
 
-        String terrafomVersionPath = userHomeDirectory.concat(
-                FilenameUtils.separatorsToSystem(
-                        TERRAFORM_DIRECTORY
-                ));
-        this.terraformDirectory = new File(terrafomVersionPath);
+        this.terraformDirectory = new File(this.cacheManager.getCacheDirectory(), TerraformCacheManager.TERRAFORM_PRODUCT);
         FileUtils.forceMkdir(this.terraformDirectory);
-        log.info("Validate/Create terraform directory: {}", terrafomVersionPath);
+        log.info("Validate/Create terraform directory: {}", this.terraformDirectory);
     }
 
     private void createDownloadTofuTempDirectory() throws IOException {
-        this.userHomeDirectory = FileUtils.getUserDirectoryPath();
-        log.info("User Home Directory for tofu download: {}", this.userHomeDirectory);
-
-        String tofuDownloadPath = userHomeDirectory.concat(
-                FilenameUtils.separatorsToSystem(
-                        TOFU_DOWNLOAD_DIRECTORY
-                ));
-        this.tofuDownloadDirectory = new File(tofuDownloadPath);
+        this.tofuDownloadDirectory = this.cacheManager.getDownloadDirectory(TerraformCacheManager.TOFU_PRODUCT);
         FileUtils.forceMkdir(this.tofuDownloadDirectory);
-        log.info("Validate/Create tofu download temp directory: {}", tofuDownloadPath);
+        log.info("Validate/Create tofu download temp directory: {}", this.tofuDownloadDirectory);
 
-        String tofuVersionPath = userHomeDirectory.concat(
-                FilenameUtils.separatorsToSystem(
-                        TOFU_DIRECTORY
-                ));
-        this.terraformDirectory = new File(tofuVersionPath);
+        this.terraformDirectory = new File(this.cacheManager.getCacheDirectory(), TerraformCacheManager.TOFU_PRODUCT);
         FileUtils.forceMkdir(this.terraformDirectory);
-        log.info("Validate/Create tofu directory: {}", tofuVersionPath);
+        log.info("Validate/Create tofu directory: {}", this.terraformDirectory);
     }
 
-    private void getTerraformReleases(String terraformReleasesUrl) throws IOException {
+    synchronized TerraformResponse getTerraformReleases() throws IOException {
+        if (this.terraformReleases == null || isExpired(this.terraformReleasesTime)) {
+            this.terraformReleases = loadTerraformReleases(this.terraformReleasesUrl);
+            this.terraformReleasesTime = Instant.now();
+            log.info("Found {} terraform releases", this.terraformReleases.getVersions().size());
+        }
+        return this.terraformReleases;
+    }
+
+    synchronized List<TofuRelease> getTofuReleases() throws IOException {
+        if (this.tofuReleases == null || isExpired(this.tofuReleasesTime)) {
+            this.tofuReleases = loadTofuReleases(this.tofuReleasesUrl);
+            this.tofuReleasesTime = Instant.now();
+            log.info("Found {} tofu releases", this.tofuReleases.size());
+        }
+        return this.tofuReleases;
+    }
+
+    // loads again the indexes that were already loaded, the others are loaded on first use
+    public synchronized void refreshReleases() throws IOException {
+        if (this.terraformReleases != null) {
+            this.terraformReleases = null;
+            getTerraformReleases();
+        }
+        if (this.tofuReleases != null) {
+            this.tofuReleases = null;
+            getTofuReleases();
+        }
+    }
+
+    private boolean isExpired(Instant loadedTime) {
+        return this.releasesMaxAge != null && loadedTime != null && loadedTime.plus(this.releasesMaxAge).isBefore(Instant.now());
+    }
+
+    TerraformResponse loadTerraformReleases(String terraformReleasesUrl) throws IOException {
         log.info("Downloading terraform releases list");
+        Path path = Paths.get(FileUtils.getTempDirectory().getAbsolutePath(), UUID.randomUUID().toString());
+        File terraformReleasesFile = new File(Files.createDirectories(path).toFile(), "terraform-releases.json");
+        log.info("Downloading terraform releases to {}", terraformReleasesFile);
         try {
-            Path path = Paths.get(FileUtils.getTempDirectory().getAbsolutePath(), UUID.randomUUID().toString());
-            String tmpdir = Files.createDirectories(path).toFile().getAbsolutePath() + "/terraform-releases.json";
-            log.info("Downloading terraform releases to {}", tmpdir);
-            File terraformReleasesFile = new File(tmpdir);
             downloadReleasesToFile(terraformReleasesUrl, terraformReleasesFile);
             log.info("Downloaded terraform releases completed");
-            this.terraformReleases = objectMapper.readValue(FileUtils.readFileToString(new File(tmpdir), "UTF-8"), TerraformResponse.class);
+            TerraformResponse releases = objectMapper.readValue(terraformReleasesFile, TerraformResponse.class);
+            if (releases == null || releases.getVersions() == null) {
+                throw new IOException("Release index does not contain any version");
+            }
             log.info("Parsing terraform releases completed");
-            Files.deleteIfExists(terraformReleasesFile.toPath());
-            log.info("Deleting temporary files completed");
+            return releases;
         } catch (Exception e) {
             log.error("Error fetching terraform releases {}", e.getMessage());
+            throw new IOException("Unable to load terraform releases from ".concat(terraformReleasesUrl), e);
+        } finally {
+            FileUtils.deleteQuietly(path.toFile());
+            log.info("Deleting temporary files completed");
         }
-
-        assert this.terraformReleases != null;
-        log.info("Found {} terraform releases", this.terraformReleases.getVersions().size());
     }
 
-    private void getTofuReleases(String tofuReleasesUrl) throws IOException {
+    List<TofuRelease> loadTofuReleases(String tofuReleasesUrl) throws IOException {
         log.info("Downloading tofu releases list");
-
         Path path = Paths.get(FileUtils.getTempDirectory().getAbsolutePath(), UUID.randomUUID().toString());
-        String tmpdir = Files.createDirectories(path).toFile().getAbsolutePath() + "/tofu-releases.json";
-        log.info("Downloading tofu releases to {}", tmpdir);
-        File tofuReleasesFile = new File(tmpdir);
-
+        File tofuReleasesFile = new File(Files.createDirectories(path).toFile(), "tofu-releases.json");
+        log.info("Downloading tofu releases to {}", tofuReleasesFile);
         try {
             downloadReleasesToFile(tofuReleasesUrl, tofuReleasesFile);
             log.info("Downloaded tofu releases completed");
-            this.tofuReleases = objectMapper.readValue(FileUtils.readFileToString(new File(tmpdir), "UTF-8"),
+            List<TofuRelease> releases = objectMapper.readValue(tofuReleasesFile,
                     objectMapper.getTypeFactory().constructCollectionType(List.class, TofuRelease.class));
-
+            if (releases == null) {
+                throw new IOException("Release index does not contain any release");
+            }
             log.info("Parsing tofu releases completed");
-            Files.deleteIfExists(tofuReleasesFile.toPath());
-            log.info("Deleting temporary tofu files completed");
-
+            return releases;
         } catch (Exception e) {
             log.error("Error fetching tofu releases {}", e.getMessage());
+            throw new IOException("Unable to load tofu releases from ".concat(tofuReleasesUrl), e);
+        } finally {
+            FileUtils.deleteQuietly(path.toFile());
+            log.info("Deleting temporary tofu files completed");
+        }
+    }
+
+    static URI toUri(String location) {
+        // plain paths (including windows drive letters) are treated as local files
+        if (location.matches("^[a-zA-Z][a-zA-Z0-9+.-]+:.*")) {
+            return URI.create(location);
         }
-        log.info("Found {} tofu releases", this.tofuReleases.size());
+        return new File(location).toURI();
     }
 
-    private static void downloadReleasesToFile(String releasesUrl, File releasesFile) {
+    static String resolveUrl(String indexUrl, String url) {
+        return toUri(indexUrl).resolve(url).toString();
+    }
+
+    private static boolean copyLocalFile(String url, File targetFile) throws IOException {
+        URI uri = toUri(url);
+        if (!"file".equals(uri.getScheme())) {
+            return false;
+        }
+        Files.copy(Paths.get(uri), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    static void downloadReleasesToFile(String releasesUrl, File releasesFile) throws IOException {
+        if (copyLocalFile(releasesUrl, releasesFile)) {
+            return;
+        }
+
         WebClient webClient = WebClient.builder()
                 .clientConnector(new ReactorClientHttpConnector(
                         HttpClient.create()
@@ -191,70 +248,100 @@ public class TerraformDownloader {
                 .block();
     }
 
+    static void downloadBinaryToFile(String zipReleaseUrl, File zipFile) throws IOException {
+        if (copyLocalFile(zipReleaseUrl, zipFile)) {
+            return;
+        }
+
+        WebClient webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(
+                        HttpClient.create()
+                                .followRedirect(true)
+                                .proxyWithSystemProperties()
+                ))
+                .defaultHeaders(h -> {
+                    h.add("User-Agent", "terraform-downloader");
+                    h.setAccept(List.of(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL));
+                })
+                .build();
+
+        webClient.get()
+                .uri(zipReleaseUrl)
+                .retrieve()
+                .onStatus(
+                        status -> !status.is2xxSuccessful(),
+                        clientResponse -> clientResponse.createException().flatMap(Mono::error)
+                )
+                .bodyToFlux(DataBuffer.class)
+                .as(dataBufferFlux -> DataBufferUtils.write(dataBufferFlux, zipFile.toPath()))
+                .then()
+                .block();
+    }
+
+    // concurrent requests resolving to the same version share one download, whatever constraint they asked for
     private String downloadFileOrReturnPathIfAlreadyExists(String fileName, String zipReleaseUrl, String version,
                                                            boolean tofu) throws IOException {
-        String downloadPath = tofu ? TOFU_DOWNLOAD_DIRECTORY : TERRAFORM_DOWNLOAD_DIRECTORY;
-        String path = tofu ? TOFU_DIRECTORY : TERRAFORM_DIRECTORY;
-        String product = tofu ? "tofu" : "terraform";
-        File downloadDirectory = tofu ? this.tofuDownloadDirectory : this.terraformDownloadDirectory;
+        String product = tofu ? TerraformCacheManager.TOFU_PRODUCT : TerraformCacheManager.TERRAFORM_PRODUCT;
+        String key = product.concat(":").concat(version);
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> current = this.installing.putIfAbsent(key, created);
+        if (current != null) {
+            log.info("Waiting for the download of {} {} in progress", product, version);
+            try {
+                return current.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the download of ".concat(key), ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IOException("Unable to download ".concat(key), ex.getCause());
+            }
+        }
+        try {
+            String path = downloadVersion(product, fileName, zipReleaseUrl, version, tofu);
+            created.complete(path);
+            return path;
+        } catch (IOException | RuntimeException ex) {
+            created.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.installing.remove(key, created);
+        }
+    }
+
+    private String downloadVersion(String product, String fileName, String zipReleaseUrl, String version, boolean tofu) throws IOException {
+        File binary = this.cacheManager.getBinary(product, version);
 
-        if (!FileUtils.directoryContains(downloadDirectory, new File(
-                this.userHomeDirectory.concat(
-                        FilenameUtils.separatorsToSystem(
-                                downloadPath.concat("/").concat(fileName)))))) {
+        if (!this.cacheManager.isInstalled(product, version)) {
 
             log.info("Downloading {} from: {}", product, zipReleaseUrl);
+            File zipFile = new File(tofu ? this.tofuDownloadDirectory : this.terraformDownloadDirectory, fileName);
             try {
-                File zipFile = new File(
-                        this.userHomeDirectory.concat(
-                                FilenameUtils.separatorsToSystem(
-                                        downloadPath.concat(fileName)
-                                )));
-
-                WebClient webClient = WebClient.builder()
-                        .clientConnector(new ReactorClientHttpConnector(
-                                HttpClient.create()
-                                        .followRedirect(true)
-                                        .proxyWithSystemProperties()
-                        ))
-                        .defaultHeaders(h -> {
-                            h.add("User-Agent", "terraform-downloader");
-                            h.setAccept(List.of(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL));
-                        })
-                        .build();
-
-                Path filePath = zipFile.toPath();
-
-                webClient.get()
-                        .uri(zipReleaseUrl)
-                        .retrieve()
-                        .onStatus(
-                                status -> !status.is2xxSuccessful(),
-                                clientResponse -> clientResponse.createException().flatMap(Mono::error)
-                        )
-                        .bodyToFlux(DataBuffer.class)
-                        .as(dataBufferFlux -> DataBufferUtils.write(dataBufferFlux, filePath))
-                        .then()
-                        .block();
-
-                if (tofu) {
-                    return unzipTofuVersion(version, zipFile);
-                } else {
-                    return unzipTerraformVersion(version, zipFile);
-                }
-
+                downloadBinaryToFile(zipReleaseUrl, zipFile);
+                extractVersion(product, version, zipFile, tofu);
             } catch (IOException exception) {
-                throw new IOException("Unable to download ".concat(zipReleaseUrl));
+                throw new IOException("Unable to download ".concat(zipReleaseUrl), exception);
+            }
+
+            if (!this.cacheManager.isInstalled(product, version)) {
+                throw new IOException("Unable to extract ".concat(fileName));
             }
+            log.info("Removing {} after verified extraction", fileName);
+            Files.deleteIfExists(zipFile.toPath());
+
+            this.cacheManager.recordMiss(product, version);
+            this.cacheManager.enforceLimits();
         } else {
             log.info("{} {} already exists", fileName, product);
-
-            return this.userHomeDirectory.concat(
-                    FilenameUtils.separatorsToSystem(
-                            path.concat(version.concat("/").concat(product))
-                    )
-            );
+            this.cacheManager.recordHit(product, version);
         }
+
+        return binary.getAbsolutePath();
     }
 
 
@@ -262,29 +349,49 @@ public class TerraformDownloader {
         return arch.equals(this.getArch()) && os.equals(this.getOs());
     }
 
+    // resolves and installs on the executor, concurrent requests resolving to the same version share one download
+    public CompletableFuture<String> downloadTerraformVersionAsync(String terraformVersion, Executor executor) {
+        return install(executor, () -> downloadTerraformVersion(terraformVersion));
+    }
+
+    public CompletableFuture<String> downloadTofuVersionAsync(String tofuVersion, Executor executor) {
+        return install(executor, () -> downloadTofuVersion(tofuVersion));
+    }
+
+    private static CompletableFuture<String> install(Executor executor, Callable<String> download) {
+        CompletableFuture<String> created = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    created.complete(download.call());
+                } catch (Exception ex) {
+                    created.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            created.completeExceptionally(ex);
+        }
+        return created;
+    }
+
     public String downloadTerraformVersion(String terraformVersion) throws IOException {
         log.info("Downloading terraform version \" {} \" architecture {} Type {}", terraformVersion, SystemUtils.OS_ARCH, SystemUtils.OS_NAME);
+        String product = TerraformCacheManager.TERRAFORM_PRODUCT;
+        String installed = getInstalledVersion(product, terraformVersion, Comparator.comparing(Version::parse));
+        if (installed != null) {
+            return installed;
+        }
+
+        TerraformResponse releases;
         try {
-            RangeList versionRangeList = RangeListFactory.create(terraformVersion);
-
-            Set<String> allTerraformKeys = terraformReleases.getVersions().keySet();
-            terraformVersion = allTerraformKeys.stream()
-                    .filter(v -> {
-                        try {
-                            Semver tempVersion = new Semver(v);
-                            return tempVersion.satisfies(versionRangeList);
-                        } catch (IllegalArgumentException e) {
-                            return false;
-                        }
-                    })
-                    .max(Comparator.comparing(Version::parse))
-                    .orElseThrow(() -> new IllegalArgumentException("Not valid version format"));
-        } catch (Exception e) {
-            log.error("Error parsing Terraform version range: {}", e.getMessage());
-            throw new IllegalArgumentException("Invalid Terraform version range");
+            releases = getTerraformReleases();
+        } catch (IOException ex) {
+            throw new IOException(String.format("No installed %s version matches %s and the release index is not available", product, terraformVersion), ex);
         }
+
+        terraformVersion = resolveVersion(releases.getVersions().keySet(), terraformVersion, Comparator.comparing(Version::parse), "Terraform");
         log.info("Terraform version is \" {} \"", terraformVersion);
-        TerraformVersion version = terraformReleases.getVersions().get(terraformVersion);
+        TerraformVersion version = releases.getVersions().get(terraformVersion);
         boolean notFound = true;
         String terraformFilePath = "";
         if (version == null) {
@@ -292,7 +399,7 @@ public class TerraformDownloader {
         }
         for (TerraformBuild terraformBuild : version.getBuilds()) {
             if (doSystemAndReleaseMatch(terraformBuild.getArch(), terraformBuild.getOs())) {
-                String terraformZipReleaseURL = terraformBuild.getUrl();
+                String terraformZipReleaseURL = resolveUrl(this.terraformReleasesUrl, terraformBuild.getUrl());
                 String fileName = terraformBuild.getFilename();
 
                 terraformFilePath = downloadFileOrReturnPathIfAlreadyExists(fileName, terraformZipReleaseURL, terraformVersion, false);
@@ -310,44 +417,38 @@ public class TerraformDownloader {
     public String downloadTofuVersion(String tofuVersion) throws IOException {
         log.info("Downloading tofu version {} architecture {} Type {}", tofuVersion, SystemUtils.OS_ARCH,
                 SystemUtils.OS_NAME);
+        String product = TerraformCacheManager.TOFU_PRODUCT;
+        String installed = getInstalledVersion(product, tofuVersion, Comparator.comparing(Semver::new));
+        if (installed != null) {
+            return installed;
+        }
 
         String defaultFileName = "tofu_%s_%s_%s.zip";
 
+        List<TofuRelease> releases;
+        try {
+            releases = getTofuReleases();
+        } catch (IOException ex) {
+            throw new IOException(String.format("No installed %s version matches %s and the release index is not available", product, tofuVersion), ex);
+        }
+
         //Extracting only the relase name, for example: 1.8.0
-        Set<String> allTofuKeys = tofuReleases.stream().map(TofuRelease::getName).collect(Collectors.toSet());
+        Set<String> allTofuKeys = releases.stream().map(TofuRelease::getName).collect(Collectors.toSet());
         log.info("All tofu releases: {}", allTofuKeys);
 
-        try {
-            RangeList versionRangeList = RangeListFactory.create(tofuVersion);
-
-            //Filter tofu releases based on the version range
-            tofuVersion = allTofuKeys.stream()
-                    .filter(v -> {
-                        try {
-                            Semver tempVersion = new Semver(v);
-                            return tempVersion.satisfies(versionRangeList);
-                        } catch (IllegalArgumentException e) {
-                            return false;
-                        }
-                    })
-                    .max(Comparator.comparing(Semver::new))
-                    .orElseThrow(() -> new IllegalArgumentException("Not valid tofu version format"));
-        } catch (Exception e) {
-            log.error("Error parsing tofu version range: {}", e.getMessage());
-            throw new IllegalArgumentException("Invalid tofu version range");
-        }
+        tofuVersion = resolveVersion(allTofuKeys, tofuVersion, Comparator.comparing(Semver::new), "tofu");
 
         log.info("Tofu version is \" {} \"", tofuVersion);
         String finalTofuVersion = tofuVersion;
-        List<TofuRelease> releases = tofuReleases.stream()
+        List<TofuRelease> matchingReleases = releases.stream()
                 .filter(release -> release.getName().equals(finalTofuVersion))
                 .toList();
 
-        if (releases.size() != 1) {
+        if (matchingReleases.size() != 1) {
             throw new IllegalArgumentException("Invalid Tofu Version");
         }
 
-        List<TofuAsset> assets = releases.get(0).getAssets().stream().filter(asset -> asset.getName().endsWith(".zip"))
+        List<TofuAsset> assets = matchingReleases.get(0).getAssets().stream().filter(asset -> asset.getName().endsWith(".zip"))
                 .toList();
 
         boolean notFound = true;
@@ -357,7 +458,7 @@ public class TerraformDownloader {
             String os = parts[2];
             String arch = parts[3].replace(".zip", ""); // we need to remove .zip from the asset name example: tofu_1.6.2_linux_amd64.zip
             if (doSystemAndReleaseMatch(arch, os)) {
-                String zipReleaseURL = asset.getBrowser_download_url();
+                String zipReleaseURL = resolveUrl(this.tofuReleasesUrl, asset.getBrowser_download_url());
                 String fileName = String.format(defaultFileName, tofuVersion, getOs(), arch);
                 tofuFilePath = downloadFileOrReturnPathIfAlreadyExists(fileName, zipReleaseURL, tofuVersion, true);
                 notFound = false;
@@ -371,7 +472,58 @@ public class TerraformDownloader {
         return tofuFilePath;
     }
 
+    // an exact version or the newest installed version matching the constraint is used without loading the release index
+    private String getInstalledVersion(String product, String versionRange, Comparator<String> comparator) {
+        String installedVersion = versionRange;
+        if (!this.cacheManager.isInstalled(product, versionRange)) {
+            List<String> installedVersions = this.cacheManager.getInstalledVersions(product);
+            if (installedVersions.isEmpty()) {
+                return null;
+            }
+            try {
+                installedVersion = findVersion(installedVersions, versionRange, comparator).orElse(null);
+            } catch (RuntimeException ex) {
+                installedVersion = null;
+            }
+            if (installedVersion == null) {
+                return null;
+            }
+        }
+        log.info("{} version {} already installed for {}", product, installedVersion, versionRange);
+        this.cacheManager.recordHit(product, installedVersion);
+        return this.cacheManager.getBinary(product, installedVersion).getAbsolutePath();
+    }
+
+    static String resolveVersion(Collection<String> versions, String versionRange, Comparator<String> comparator, String product) {
+        try {
+            return findVersion(versions, versionRange, comparator)
+                    .orElseThrow(() -> new IllegalArgumentException("Not valid version format"));
+        } catch (Exception e) {
+            log.error("Error parsing {} version range: {}", product, e.getMessage());
+            throw new IllegalArgumentException(String.format("Invalid %s version range", product));
+        }
+    }
+
+    private static Optional<String> findVersion(Collection<String> versions, String versionRange, Comparator<String> comparator) {
+        RangeList versionRangeList = RangeListFactory.create(versionRange);
+
+        return versions.stream()
+                .filter(v -> {
+                    try {
+                        Semver tempVersion = new Semver(v);
+                        return tempVersion.satisfies(versionRangeList);
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                })
+                .max(comparator);
+    }
+
     public String getOs() {
+        return currentOs();
+    }
+
+    static String currentOs() {
         if (SystemUtils.IS_OS_LINUX)
             return "linux";
         if (SystemUtils.IS_OS_MAC)
@@ -382,6 +534,10 @@ public class TerraformDownloader {
     }
 
     private String getArch() {
+        return currentArch();
+    }
+
+    static String currentArch() {
         if (SystemUtils.OS_ARCH == null) {
             throw new IllegalArgumentException("System architecture not detected");
         }
@@ -391,19 +547,52 @@ public class TerraformDownloader {
         return SystemUtils.OS_ARCH;
     }
 
-    private String unzipTerraformVersion(String terraformVersion, File terraformZipFile) throws IOException {
-        createVersionDirectory(terraformVersion, TERRAFORM_DIRECTORY);
+    // extracts next to the version directory and renames it into place, so a version directory is always complete
+    private void extractVersion(String product, String version, File zipFile, boolean tofu) throws IOException {
+        File versionDirectory = this.cacheManager.getVersionDirectory(product, version);
+        File extractDirectory = new File(versionDirectory.getParentFile(), TerraformCacheManager.EXTRACT_PREFIX + version + "-" + UUID.randomUUID());
+        FileUtils.forceMkdir(extractDirectory);
+        try {
+            if (tofu) {
+                unzipTofuVersion(extractDirectory, zipFile);
+            } else {
+                unzipTerraformVersion(extractDirectory, zipFile);
+            }
+            File binary = new File(extractDirectory, this.cacheManager.getBinary(product, version).getName());
+            if (!binary.isFile() || binary.length() == 0) {
+                throw new IOException(String.format("%s does not contain the %s binary", zipFile.getName(), product));
+            }
+            Files.createFile(new File(extractDirectory, TerraformCacheManager.INSTALLED_FILE).toPath());
+
+            if (versionDirectory.exists()) {
+                if (this.cacheManager.isInstalled(product, version)) {
+                    log.info("{} {} was installed by another process", product, version);
+                    return;
+                }
+                log.warn("Replacing incomplete installation of {} {}", product, version);
+                FileUtils.deleteDirectory(versionDirectory);
+            }
+            try {
+                Files.move(extractDirectory.toPath(), versionDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                // another process renamed its extraction first
+                if (!this.cacheManager.isInstalled(product, version)) {
+                    throw ex;
+                }
+            }
+        } finally {
+            FileUtils.deleteQuietly(extractDirectory);
+        }
+    }
+
+    private String unzipTerraformVersion(File versionDirectory, File terraformZipFile) throws IOException {
         String newFilePath = null;
         try (ZipInputStream zis = new ZipInputStream(new FileInputStream(terraformZipFile))) {
             ZipEntry zipEntry = zis.getNextEntry();
 
             byte[] buffer = new byte[1024];
             while (zipEntry != null) {
-                newFilePath = this.userHomeDirectory.concat(
-                        FilenameUtils.separatorsToSystem(
-                                TERRAFORM_DIRECTORY.concat(terraformVersion.concat("/").concat(zipEntry.getName()))
-                        )
-                );
+                newFilePath = new File(versionDirectory, FilenameUtils.separatorsToSystem(zipEntry.getName())).getPath();
                 log.info("Unzip: {}", newFilePath);
                 File newFile = new File(newFilePath);
                 if (zipEntry.isDirectory()) {
@@ -438,19 +627,14 @@ public class TerraformDownloader {
         return newFilePath;
     }
 
-    private String unzipTofuVersion(String tofuVersion, File tofuZipFile) throws IOException {
-        createVersionDirectory(tofuVersion, TOFU_DIRECTORY);
+    private String unzipTofuVersion(File versionDirectory, File tofuZipFile) throws IOException {
         String newFilePath = null;
         try (ZipInputStream zis = new ZipInputStream(new FileInputStream(tofuZipFile))) {
             ZipEntry zipEntry = zis.getNextEntry();
 
             byte[] buffer = new byte[1024];
             while (zipEntry != null) {
-                newFilePath = this.userHomeDirectory.concat(
-                        FilenameUtils.separatorsToSystem(
-                                TOFU_DIRECTORY.concat(tofuVersion.concat("/").concat(zipEntry.getName()))
-                        )
-                );
+                newFilePath = new File(versionDirectory, FilenameUtils.separatorsToSystem(zipEntry.getName())).getPath();
                 log.info("Unzip Tofu files: {}", newFilePath);
                 File newTofuFile = new File(newFilePath);
                 if (zipEntry.isDirectory()) {
@@ -482,19 +666,7 @@ public class TerraformDownloader {
             }
             zis.closeEntry();
         }
-        return this.userHomeDirectory.concat(
-                FilenameUtils.separatorsToSystem(
-                        TOFU_DIRECTORY.concat(tofuVersion.concat("/").concat("tofu"))
-                ));
-    }
-
-    private void createVersionDirectory(String version, String directoryPath) throws IOException {
-        File terraformVersionDirectory = new File(
-                userHomeDirectory.concat(
-                        FilenameUtils.separatorsToSystem(
-                                directoryPath.concat(version)
-                        )));
-        FileUtils.forceMkdir(terraformVersionDirectory);
+        return new File(versionDirectory, "tofu").getPath();
     }
 
 }
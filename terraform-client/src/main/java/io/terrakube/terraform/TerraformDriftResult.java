@@ -0,0 +1,27 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+
+@AllArgsConstructor
+@Getter
+public class TerraformDriftResult {
+    private String workspaceId;
+    private File workingDirectory;
+    private boolean drifted;
+    // null when the plan could not be started
+    private Integer exitCode;
+    // null when the plan ended with 0 or 2
+    private String error;
+    private Instant time;
+    private Duration duration;
+    private Duration nextInterval;
+
+    public boolean isFailed() {
+        return this.error != null;
+    }
+}
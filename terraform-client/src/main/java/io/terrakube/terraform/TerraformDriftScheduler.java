@@ -0,0 +1,255 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// refresh-only plans with -detailed-exitcode over many workspaces, each checked as often as it drifts
+@Builder
+@AllArgsConstructor
+@Getter
+@Slf4j
+public class TerraformDriftScheduler implements AutoCloseable {
+
+    private static final double DRIFT_RATE_WEIGHT = 0.3;
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    @NonNull
+    private TerraformClient terraformClient;
+    @Builder.Default
+    private Duration minInterval = Duration.ofMinutes(15);
+    @Builder.Default
+    private Duration maxInterval = Duration.ofHours(24);
+    @Builder.Default
+    private Duration initialInterval = Duration.ofHours(1);
+    // plans running at the same time for all the workspaces
+    @Builder.Default
+    private int maxConcurrency = 4;
+    // a workspace is not checked more often than this many times its plan duration
+    @Builder.Default
+    private double costFactor = 20;
+    // random part of each interval, so workspaces registered together drift apart
+    @Builder.Default
+    private double jitter = 0.1;
+    @Builder.Default
+    private Duration tickInterval = Duration.ofSeconds(1);
+    @Builder.Default
+    private TerraformDriftSink sink = result -> {
+        if (result.isDrifted()) {
+            log.warn("Drift detected in workspace {} at {}", result.getWorkspaceId(), result.getWorkingDirectory());
+        }
+    };
+
+    private final Map<String, TerraformDriftWorkspace> workspaces = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final PriorityQueue<TerraformDriftWorkspace> queue = new PriorityQueue<>(Comparator.comparing(TerraformDriftWorkspace::getNextCheck));
+    private final AtomicInteger running = new AtomicInteger();
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<ScheduledExecutorService> scheduler = new AtomicReference<>();
+
+    public TerraformDriftWorkspace register(@NonNull String id, @NonNull TerraformProcessData terraformProcessData) {
+        // a copy, the caller keeps its data and the plan saved in the workspace is not replaced by the check
+        terraformProcessData = terraformProcessData.toBuilder().refreshOnly(true).savePlan(false).build();
+        // the first checks are spread over the initial interval by workspace id
+        long offset = Math.floorMod((long) id.hashCode() * 0x9E3779B9L, Math.max(1, this.initialInterval.toMillis()));
+        TerraformDriftWorkspace workspace = new TerraformDriftWorkspace(id, terraformProcessData, getDriftRate(this.initialInterval),
+                this.initialInterval, Instant.now().plusMillis(offset));
+        synchronized (this.queue) {
+            TerraformDriftWorkspace previous = this.workspaces.put(id, workspace);
+            if (previous != null) {
+                this.queue.remove(previous);
+            }
+            this.queue.add(workspace);
+        }
+        return workspace;
+    }
+
+    public boolean unregister(@NonNull String id) {
+        synchronized (this.queue) {
+            TerraformDriftWorkspace workspace = this.workspaces.remove(id);
+            if (workspace == null) {
+                return false;
+            }
+            // a running check is not scheduled again
+            this.queue.remove(workspace);
+            return true;
+        }
+    }
+
+    public List<TerraformDriftWorkspace> getWorkspaces() {
+        List<TerraformDriftWorkspace> workspaces = new ArrayList<>(this.workspaces.values());
+        workspaces.sort(Comparator.comparing(TerraformDriftWorkspace::getNextCheck));
+        return workspaces;
+    }
+
+    public int getRunning() {
+        return this.running.get();
+    }
+
+    // checks the workspace as soon as a slot is free
+    public boolean checkNow(@NonNull String id) {
+        synchronized (this.queue) {
+            TerraformDriftWorkspace workspace = this.workspaces.get(id);
+            if (workspace == null || !this.queue.remove(workspace)) {
+                return false;
+            }
+            workspace.setNextCheck(Instant.now());
+            this.queue.add(workspace);
+        }
+        schedule();
+        return true;
+    }
+
+    public TerraformDriftScheduler start() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "terraform-drift");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!this.scheduler.compareAndSet(null, executor)) {
+            executor.shutdown();
+            throw new IllegalStateException("Drift scheduler already started");
+        }
+        executor.scheduleWithFixedDelay(this::tick, 0, this.tickInterval.toMillis(), TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService executor = this.scheduler.getAndSet(null);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void schedule() {
+        ScheduledExecutorService executor = this.scheduler.get();
+        if (executor != null) {
+            try {
+                executor.execute(this::tick);
+            } catch (RejectedExecutionException ex) {
+                log.debug("Drift scheduler stopped");
+            }
+        }
+    }
+
+    private void tick() {
+        try {
+            startDue();
+        } catch (RuntimeException ex) {
+            // an exception would cancel the periodic tick
+            log.error("Unable to start drift checks", ex);
+        }
+    }
+
+    private void startDue() {
+        Instant now = Instant.now();
+        while (this.running.get() < this.maxConcurrency) {
+            TerraformDriftWorkspace workspace;
+            synchronized (this.queue) {
+                workspace = this.queue.peek();
+                if (workspace == null || workspace.getNextCheck().isAfter(now)) {
+                    return;
+                }
+                this.queue.poll();
+                workspace.setRunning(true);
+            }
+            this.running.incrementAndGet();
+            check(workspace);
+        }
+    }
+
+    private void check(TerraformDriftWorkspace workspace) {
+        Instant start = Instant.now();
+        StringBuffer error = new StringBuffer();
+        CompletableFuture<Integer> exitCode;
+        try {
+            exitCode = this.terraformClient.planDetailExitCode(workspace.getTerraformProcessData(), line -> {
+            }, line -> {
+                if (error.length() < MAX_ERROR_LENGTH && !line.isBlank()) {
+                    error.append(error.length() > 0 ? "\n" : "").append(line);
+                }
+            });
+        } catch (IOException | RuntimeException ex) {
+            exitCode = CompletableFuture.failedFuture(ex);
+        }
+        exitCode.whenComplete((code, exception) -> {
+            try {
+                completed(workspace, start, code, exception != null ? String.valueOf(exception.getMessage()) : code != null && code != 0 && code != 2 ? error.toString() : null);
+            } catch (RuntimeException ex) {
+                log.error("Unable to record drift check of workspace {}", workspace.getId(), ex);
+            } finally {
+                this.running.decrementAndGet();
+                schedule();
+            }
+        });
+    }
+
+    private void completed(TerraformDriftWorkspace workspace, Instant start, Integer exitCode, String error) {
+        Instant now = Instant.now();
+        Duration duration = Duration.between(start, now);
+        boolean drifted = error == null && exitCode != null && exitCode == 2;
+
+        Duration interval;
+        workspace.setChecks(workspace.getChecks() + 1);
+        workspace.setLastCheck(now);
+        workspace.setLastDuration(duration);
+        if (error != null) {
+            // failures keep the drift rate and are checked again with a growing delay
+            workspace.setFailures(workspace.getFailures() + 1);
+            workspace.setConsecutiveFailures(workspace.getConsecutiveFailures() + 1);
+            long multiplier = 1L << Math.min(10, workspace.getConsecutiveFailures() - 1);
+            interval = min(workspace.getInterval(), this.minInterval.multipliedBy(multiplier));
+        } else {
+            workspace.setConsecutiveFailures(0);
+            if (drifted) {
+                workspace.setDrifts(workspace.getDrifts() + 1);
+            }
+            workspace.setDriftRate(workspace.getDriftRate() * (1 - DRIFT_RATE_WEIGHT) + (drifted ? DRIFT_RATE_WEIGHT : 0));
+            interval = getInterval(workspace.getDriftRate(), duration);
+            workspace.setInterval(interval);
+        }
+
+        long jitterMillis = (long) (interval.toMillis() * this.jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1));
+        workspace.setNextCheck(now.plus(interval).plusMillis(jitterMillis));
+        synchronized (this.queue) {
+            workspace.setRunning(false);
+            if (this.workspaces.get(workspace.getId()) == workspace) {
+                this.queue.add(workspace);
+            }
+        }
+
+        TerraformDriftResult result = new TerraformDriftResult(workspace.getId(), workspace.getTerraformProcessData().getWorkingDirectory(),
+                drifted, exitCode, error, now, duration, interval);
+        this.terraformClient.getMetrics().drift(result);
+        this.sink.accept(result);
+    }
+
+    // log scale between the intervals, a drift rate of 1 is checked every minInterval and 0 every maxInterval
+    Duration getInterval(double driftRate, Duration planDuration) {
+        double ratio = (double) this.maxInterval.toMillis() / this.minInterval.toMillis();
+        long millis = (long) (this.minInterval.toMillis() * Math.pow(ratio, 1 - driftRate));
+        millis = Math.max(millis, (long) (planDuration.toMillis() * this.costFactor));
+        return Duration.ofMillis(Math.max(this.minInterval.toMillis(), Math.min(this.maxInterval.toMillis(), millis)));
+    }
+
+    private double getDriftRate(Duration interval) {
+        double ratio = (double) this.maxInterval.toMillis() / this.minInterval.toMillis();
+        if (ratio <= 1) {
+            return 0;
+        }
+        double rate = 1 - Math.log((double) interval.toMillis() / this.minInterval.toMillis()) / Math.log(ratio);
+        return Math.max(0, Math.min(1, rate));
+    }
+
+    private static Duration min(Duration first, Duration second) {
+        return first.compareTo(second) <= 0 ? first : second;
+    }
+}
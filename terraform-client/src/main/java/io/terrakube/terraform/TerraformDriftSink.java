@@ -0,0 +1,7 @@
+package io.terrakube.terraform;
+
+@FunctionalInterface
+public interface TerraformDriftSink {
+
+    void accept(TerraformDriftResult result);
+}
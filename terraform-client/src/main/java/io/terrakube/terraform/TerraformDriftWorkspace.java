@@ -0,0 +1,34 @@
+package io.terrakube.terraform;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@Getter
+@Setter(AccessLevel.PACKAGE)
+public class TerraformDriftWorkspace {
+    private final String id;
+    private final TerraformProcessData terraformProcessData;
+    // moving average of the checks that found drift, higher rates are checked more often
+    private volatile double driftRate;
+    private volatile Duration interval;
+    private volatile Instant nextCheck;
+    private volatile Instant lastCheck;
+    private volatile Duration lastDuration;
+    private volatile boolean running;
+    private volatile long checks;
+    private volatile long drifts;
+    private volatile long failures;
+    private volatile int consecutiveFailures;
+
+    TerraformDriftWorkspace(String id, TerraformProcessData terraformProcessData, double driftRate, Duration interval, Instant nextCheck) {
+        this.id = id;
+        this.terraformProcessData = terraformProcessData;
+        this.driftRate = driftRate;
+        this.interval = interval;
+        this.nextCheck = nextCheck;
+    }
+}
@@ -0,0 +1,18 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Builder
+@Getter
+public class TerraformFailure {
+    private TerraformFailureType type;
+    // error line or diagnostic that matched, null when terraform printed none
+    private String message;
+
+    public boolean isTransient() {
+        return this.type.isTransient();
+    }
+}
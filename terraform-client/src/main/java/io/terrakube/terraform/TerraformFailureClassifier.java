@@ -0,0 +1,153 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+public class TerraformFailureClassifier {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Map<Pattern, TerraformFailureType> DEFAULT_PATTERNS = new LinkedHashMap<>();
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+
+    static {
+        // checked in order, the lock and registry errors usually contain a timeout or network error too
+        DEFAULT_PATTERNS.put(Pattern.compile("(?i)acquiring the state lock|error locking state|state blob is already locked|workspace is already locked|ConditionalCheckFailedException"), TerraformFailureType.STATE_LOCK);
+        DEFAULT_PATTERNS.put(TerraformParallelismController.THROTTLING, TerraformFailureType.THROTTLING);
+        // provider addresses such as provider["registry.terraform.io/hashicorp/aws"] are not registry failures
+        DEFAULT_PATTERNS.put(Pattern.compile("(?i)failed to query available provider packages|could not retrieve the list of available versions|failed to install provider|error while installing|error accessing remote module registry|failed to retrieve available versions for module|failed to download module|failed to request discovery document|could not connect to registry\\."), TerraformFailureType.REGISTRY);
+        // a timeout argument or timeouts block in the configuration is not a timeout
+        DEFAULT_PATTERNS.put(Pattern.compile("(?i)timed out|deadline exceeded|i/o timeout|handshake timeout|timeout (?:exceeded|expired|reached|while waiting|waiting)"), TerraformFailureType.TIMEOUT);
+        DEFAULT_PATTERNS.put(Pattern.compile("(?i)connection reset|connection refused|no such host|broken pipe|unexpected EOF|tls handshake|temporary failure in name resolution|network is unreachable|bad gateway|service unavailable|status code: 50[234]"), TerraformFailureType.NETWORK);
+    }
+
+    // checked before the built in patterns
+    @Singular
+    private Map<Pattern, TerraformFailureType> patterns;
+
+    public TerraformFailureType classify(String message) {
+        if (this.patterns != null) {
+            for (Map.Entry<Pattern, TerraformFailureType> pattern : this.patterns.entrySet()) {
+                if (pattern.getKey().matcher(message).find()) {
+                    return pattern.getValue();
+                }
+            }
+        }
+        for (Map.Entry<Pattern, TerraformFailureType> pattern : DEFAULT_PATTERNS.entrySet()) {
+            if (pattern.getKey().matcher(message).find()) {
+                return pattern.getValue();
+            }
+        }
+        return null;
+    }
+
+    Watch watch(ProcessLauncher launcher) {
+        Watch watch = new Watch();
+        Consumer<String> outputListener = launcher.getOutputListener();
+        Consumer<String> errorListener = launcher.getErrorListener();
+        launcher.setOutputListener(line -> {
+            watch.output(line);
+            if (outputListener != null) {
+                outputListener.accept(line);
+            }
+        });
+        launcher.setErrorListener(line -> {
+            watch.error(line);
+            if (errorListener != null) {
+                errorListener.accept(line);
+            }
+        });
+        return watch;
+    }
+
+    class Watch {
+        private final AtomicReference<TerraformFailure> classified = new AtomicReference<>();
+        private final AtomicReference<String> firstError = new AtomicReference<>();
+        private final Diagnostics outputDiagnostics = new Diagnostics();
+        private final Diagnostics errorDiagnostics = new Diagnostics();
+
+        TerraformFailure getFailure() {
+            TerraformFailure failure = this.classified.get();
+            return failure != null ? failure : new TerraformFailure(TerraformFailureType.UNKNOWN, this.firstError.get());
+        }
+
+        private void output(String line) {
+            // stdout only carries errors as -json diagnostics, or as text when stderr is redirected
+            if (line.startsWith("{")) {
+                if (line.contains("\"diagnostic\"") && line.contains("\"error\"")) {
+                    accept(getDiagnostic(line));
+                }
+            } else {
+                accept(this.outputDiagnostics.next(line));
+            }
+        }
+
+        private void error(String line) {
+            accept(this.errorDiagnostics.next(line));
+        }
+
+        private void accept(String message) {
+            if (message == null || this.classified.get() != null) {
+                return;
+            }
+            if (message.length() > MAX_MESSAGE_LENGTH) {
+                message = message.substring(0, MAX_MESSAGE_LENGTH);
+            }
+            if (message.startsWith("Error")) {
+                this.firstError.compareAndSet(null, message);
+            }
+            TerraformFailureType type = classify(message);
+            if (type != null) {
+                this.classified.compareAndSet(null, new TerraformFailure(type, message));
+            }
+        }
+
+        private String getDiagnostic(String line) {
+            try {
+                JsonNode diagnostic = OBJECT_MAPPER.readTree(line).path("diagnostic");
+                if (!"error".equals(diagnostic.path("severity").asText())) {
+                    return null;
+                }
+                String detail = diagnostic.path("detail").asText("");
+                return "Error: ".concat(diagnostic.path("summary").asText("")).concat(detail.isEmpty() ? "" : ": ".concat(detail));
+            } catch (IOException ex) {
+                return null;
+            }
+        }
+    }
+
+    // the summary and detail lines of the "Error:" blocks of one stream, the source location and snippet are left out
+    static class Diagnostics {
+        private static final Pattern SOURCE = Pattern.compile("^(?:with .*,|on .* line \\d+.*:|\\d+: .*|\\(and \\d+ more similar.*\\))$");
+
+        private boolean inError;
+
+        String next(String line) {
+            if (line.startsWith("╵")) {
+                this.inError = false;
+                return null;
+            }
+            String content = line.startsWith("│") ? line.substring(1).trim() : line.trim();
+            if (content.startsWith("Error:")) {
+                this.inError = true;
+                return content;
+            }
+            if (content.startsWith("Warning:")) {
+                this.inError = false;
+                return null;
+            }
+            return this.inError && !content.isEmpty() && !SOURCE.matcher(content).matches() ? content : null;
+        }
+    }
+}
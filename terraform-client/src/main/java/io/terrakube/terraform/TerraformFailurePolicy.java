@@ -0,0 +1,8 @@
+package io.terrakube.terraform;
+
+public enum TerraformFailurePolicy {
+    // stop starting new jobs after the first failure
+    FAIL_FAST,
+    // only skip the jobs depending on a failed job
+    CONTINUE_ON_ERROR
+}
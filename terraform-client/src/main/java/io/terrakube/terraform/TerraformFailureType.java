@@ -0,0 +1,21 @@
+package io.terrakube.terraform;
+
+public enum TerraformFailureType {
+    THROTTLING(true),
+    TIMEOUT(true),
+    NETWORK(true),
+    STATE_LOCK(true),
+    REGISTRY(true),
+    CANCELLED(false),
+    UNKNOWN(false);
+
+    private final boolean transientFailure;
+
+    TerraformFailureType(boolean transientFailure) {
+        this.transientFailure = transientFailure;
+    }
+
+    public boolean isTransient() {
+        return this.transientFailure;
+    }
+}
@@ -0,0 +1,20 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+@AllArgsConstructor
+@Getter
+@Builder
+public class TerraformJob {
+    @NonNull String id;
+    @NonNull TerraformProcessData terraformProcessData;
+    @Singular("dependsOn") Set<String> dependencies;
+    // init and plan when empty
+    @Singular List<TerraformCommand> commands;
+    Consumer<String> outputListener;
+    Consumer<String> errorListener;
+}
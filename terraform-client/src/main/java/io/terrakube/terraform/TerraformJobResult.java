@@ -0,0 +1,20 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+public class TerraformJobResult {
+    private String id;
+    private TerraformJobStatus status;
+    private TerraformCommand failedCommand;
+    private Throwable error;
+    private Instant startTime;
+    private Duration duration;
+    private List<TerraformResult> commandResults;
+}
@@ -0,0 +1,8 @@
+package io.terrakube.terraform;
+
+public enum TerraformJobStatus {
+    SUCCEEDED,
+    FAILED,
+    SKIPPED,
+    CANCELLED
+}
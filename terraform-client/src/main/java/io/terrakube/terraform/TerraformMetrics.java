@@ -0,0 +1,24 @@
+package io.terrakube.terraform;
+
+import java.time.Duration;
+
+public interface TerraformMetrics {
+
+    TerraformMetrics NONE = new TerraformMetrics() {
+    };
+
+    default void parallelism(TerraformCommand command, int parallelism, boolean adaptive) {
+    }
+
+    default void throttled(TerraformCommand command) {
+    }
+
+    default void completed(TerraformResult result) {
+    }
+
+    default void retrying(TerraformResult result, Duration backoff) {
+    }
+
+    default void drift(TerraformDriftResult result) {
+    }
+}
@@ -0,0 +1,167 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.semver4j.Semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor.Version;
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Getter
+public class TerraformMirror {
+
+    static final String TERRAFORM_INDEX = "terraform/index.json";
+    static final String TOFU_INDEX = "tofu/releases.json";
+
+    private final File mirrorDirectory;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public TerraformMirror(File mirrorDirectory) {
+        this.mirrorDirectory = mirrorDirectory;
+    }
+
+    public static String getTerraformReleasesUrl(String mirror) {
+        return resolveMirrorUrl(mirror, TERRAFORM_INDEX);
+    }
+
+    public static String getTofuReleasesUrl(String mirror) {
+        return resolveMirrorUrl(mirror, TOFU_INDEX);
+    }
+
+    private static String resolveMirrorUrl(String mirror, String index) {
+        String base = TerraformDownloader.toUri(mirror).toString();
+        return TerraformDownloader.resolveUrl(base.endsWith("/") ? base : base.concat("/"), index);
+    }
+
+    public static String getCurrentPlatform() {
+        return TerraformDownloader.currentOs().concat("_").concat(TerraformDownloader.currentArch());
+    }
+
+    public List<String> syncTerraform(String terraformReleasesUrl, Collection<String> versionRanges, Collection<String> platforms) throws IOException {
+        TerraformDownloader upstream = new TerraformDownloader(terraformReleasesUrl, TerraformDownloader.TOFU_RELEASES_URL);
+        TerraformResponse releases = upstream.loadTerraformReleases(terraformReleasesUrl);
+        Set<String> versions = resolveVersions(releases.getVersions().keySet(), versionRanges, Comparator.comparing(Version::parse));
+
+        File indexFile = new File(this.mirrorDirectory, TERRAFORM_INDEX);
+        TerraformResponse mirrorIndex = indexFile.isFile() ? objectMapper.readValue(indexFile, TerraformResponse.class) : new TerraformResponse();
+        if (mirrorIndex.getVersions() == null) {
+            mirrorIndex.setName("terraform");
+            mirrorIndex.setVersions(new HashMap<>());
+        }
+
+        for (String version : versions) {
+            TerraformVersion release = releases.getVersions().get(version);
+            List<TerraformBuild> builds = new ArrayList<>();
+            for (TerraformBuild build : release.getBuilds()) {
+                if (!platforms.contains(build.getOs().concat("_").concat(build.getArch()))) {
+                    continue;
+                }
+                String relativeUrl = version.concat("/").concat(build.getFilename());
+                mirrorFile(TerraformDownloader.resolveUrl(terraformReleasesUrl, build.getUrl()), new File(indexFile.getParentFile(), relativeUrl));
+                build.setUrl(relativeUrl);
+                builds.add(build);
+            }
+            release.setBuilds(builds);
+            mirrorIndex.getVersions().put(version, release);
+        }
+
+        FileUtils.forceMkdirParent(indexFile);
+        objectMapper.writeValue(indexFile, mirrorIndex);
+        log.info("Terraform mirror {} contains {} versions", indexFile.getParent(), mirrorIndex.getVersions().size());
+        return new ArrayList<>(versions);
+    }
+
+    public List<String> syncTofu(String tofuReleasesUrl, Collection<String> versionRanges, Collection<String> platforms) throws IOException {
+        TerraformDownloader upstream = new TerraformDownloader(TerraformDownloader.TERRAFORM_RELEASES_URL, tofuReleasesUrl);
+        List<TofuRelease> releases = upstream.loadTofuReleases(tofuReleasesUrl);
+        Set<String> versions = resolveVersions(releases.stream().map(TofuRelease::getName).collect(Collectors.toSet()), versionRanges, Comparator.comparing(Semver::new));
+
+        File indexFile = new File(this.mirrorDirectory, TOFU_INDEX);
+        Map<String, TofuRelease> mirrorIndex = new TreeMap<>();
+        if (indexFile.isFile()) {
+            List<TofuRelease> mirrored = objectMapper.readValue(indexFile, objectMapper.getTypeFactory().constructCollectionType(List.class, TofuRelease.class));
+            mirrored.forEach(release -> mirrorIndex.put(release.getName(), release));
+        }
+
+        for (TofuRelease release : releases) {
+            if (!versions.contains(release.getName())) {
+                continue;
+            }
+            List<TofuAsset> assets = new ArrayList<>();
+            for (TofuAsset asset : release.getAssets()) {
+                // tofu_1.6.2_linux_amd64.zip
+                String[] parts = asset.getName().split("_");
+                if (!asset.getName().endsWith(".zip") || parts.length < 4
+                        || !platforms.contains(parts[2].concat("_").concat(parts[3].replace(".zip", "")))) {
+                    continue;
+                }
+                String relativeUrl = release.getName().concat("/").concat(asset.getName());
+                mirrorFile(TerraformDownloader.resolveUrl(tofuReleasesUrl, asset.getBrowser_download_url()), new File(indexFile.getParentFile(), relativeUrl));
+                asset.setBrowser_download_url(relativeUrl);
+                assets.add(asset);
+            }
+            release.setAssets(assets);
+            mirrorIndex.put(release.getName(), release);
+        }
+
+        FileUtils.forceMkdirParent(indexFile);
+        objectMapper.writeValue(indexFile, new ArrayList<>(mirrorIndex.values()));
+        log.info("Tofu mirror {} contains {} versions", indexFile.getParent(), mirrorIndex.size());
+        return new ArrayList<>(versions);
+    }
+
+    private Set<String> resolveVersions(Set<String> available, Collection<String> versionRanges, Comparator<String> comparator) {
+        Set<String> versions = new TreeSet<>();
+        for (String versionRange : versionRanges) {
+            versions.add(TerraformDownloader.resolveVersion(available, versionRange, comparator, "mirror"));
+        }
+        return versions;
+    }
+
+    private void mirrorFile(String url, File target) throws IOException {
+        if (target.isFile() && target.length() > 0) {
+            log.info("{} already mirrored", target.getName());
+            return;
+        }
+        log.info("Mirroring {} to {}", url, target);
+        FileUtils.forceMkdirParent(target);
+        File partial = new File(target.getParentFile(), target.getName().concat(".part"));
+        TerraformDownloader.downloadBinaryToFile(url, partial);
+        if (!partial.renameTo(target)) {
+            throw new IOException("Unable to mirror ".concat(url));
+        }
+    }
+
+    // usage: TerraformMirror <mirror directory> <terraform|tofu> <version range>... [--platform os_arch]...
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: TerraformMirror <mirror directory> <terraform|tofu> <version range>... [--platform os_arch]...");
+            System.exit(1);
+        }
+
+        List<String> versionRanges = new ArrayList<>();
+        List<String> platforms = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--platform") && i + 1 < args.length) {
+                platforms.add(args[++i]);
+            } else {
+                versionRanges.add(args[i]);
+            }
+        }
+        if (platforms.isEmpty()) {
+            platforms.add(getCurrentPlatform());
+        }
+
+        TerraformMirror mirror = new TerraformMirror(new File(args[0]));
+        List<String> versions = args[1].equals(TerraformCacheManager.TOFU_PRODUCT)
+                ? mirror.syncTofu(TerraformDownloader.TOFU_RELEASES_URL, versionRanges, platforms)
+                : mirror.syncTerraform(TerraformDownloader.TERRAFORM_RELEASES_URL, versionRanges, platforms);
+        System.out.println("Mirrored versions: " + versions);
+    }
+}
@@ -0,0 +1,15 @@
+package io.terrakube.terraform;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// a worker the dispatcher can send runs to, LocalTerraformNode runs them in this JVM and HttpTerraformNode in another one
+public interface TerraformNode {
+
+    String getId();
+
+    TerraformNodeStatus getStatus() throws IOException;
+
+    CompletableFuture<TerraformResult> execute(TerraformCommand command, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener);
+}
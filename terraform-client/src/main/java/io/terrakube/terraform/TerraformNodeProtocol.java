@@ -0,0 +1,167 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+// json messages between HttpTerraformNode and TerraformNodeServer, a run streams one message per output line and ends with the result
+final class TerraformNodeProtocol {
+
+    static final String STATUS_PATH = "/status";
+    static final String EXECUTE_PATH = "/execute";
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private TerraformNodeProtocol() {
+    }
+
+    static ObjectNode request(TerraformCommand command, TerraformProcessData data) {
+        ObjectNode request = OBJECT_MAPPER.createObjectNode();
+        request.put("command", command.name());
+        ObjectNode processData = request.putObject("processData");
+        processData.put("terraformVersion", data.getTerraformVersion());
+        processData.put("workingDirectory", data.getWorkingDirectory().getAbsolutePath());
+        processData.put("terraformBackendConfigFileName", data.getTerraformBackendConfigFileName());
+        processData.put("varFileName", data.getVarFileName());
+        processData.put("sshFile", data.getSshFile() != null ? data.getSshFile().getAbsolutePath() : null);
+        processData.put("refresh", data.isRefresh());
+        processData.put("refreshOnly", data.isRefreshOnly());
+        processData.put("tofu", data.isTofu());
+        processData.put("detailExitCode", data.isDetailExitCode());
+        processData.put("savePlan", data.isSavePlan());
+        processData.put("parallelism", data.getParallelism());
+        processData.put("memoryLimit", data.getMemoryLimit());
+        processData.put("cpuLimit", data.getCpuLimit());
+        processData.put("pidsLimit", data.getPidsLimit());
+        processData.set("terraformVariables", OBJECT_MAPPER.valueToTree(data.getTerraformVariables()));
+        processData.set("terraformEnvironmentVariables", OBJECT_MAPPER.valueToTree(data.getTerraformEnvironmentVariables()));
+        processData.set("secrets", OBJECT_MAPPER.valueToTree(data.getSecrets()));
+        return request;
+    }
+
+    static TerraformCommand command(JsonNode request) {
+        return TerraformCommand.valueOf(request.path("command").asText());
+    }
+
+    static TerraformProcessData processData(JsonNode request) {
+        JsonNode data = request.path("processData");
+        return TerraformProcessData.builder()
+                .terraformVersion(data.path("terraformVersion").asText())
+                .workingDirectory(new File(data.path("workingDirectory").asText()))
+                .terraformBackendConfigFileName(text(data, "terraformBackendConfigFileName"))
+                .varFileName(text(data, "varFileName"))
+                .sshFile(data.hasNonNull("sshFile") ? new File(data.get("sshFile").asText()) : null)
+                .refresh(data.path("refresh").asBoolean(true))
+                .refreshOnly(data.path("refreshOnly").asBoolean())
+                .tofu(data.path("tofu").asBoolean())
+                .detailExitCode(data.path("detailExitCode").asBoolean())
+                .savePlan(data.path("savePlan").asBoolean(true))
+                .parallelism(data.hasNonNull("parallelism") ? data.get("parallelism").asInt() : null)
+                .memoryLimit(data.hasNonNull("memoryLimit") ? data.get("memoryLimit").asLong() : null)
+                .cpuLimit(data.hasNonNull("cpuLimit") ? data.get("cpuLimit").asDouble() : null)
+                .pidsLimit(data.hasNonNull("pidsLimit") ? data.get("pidsLimit").asInt() : null)
+                .terraformVariables(stringMap(data.path("terraformVariables")))
+                .terraformEnvironmentVariables(stringMap(data.path("terraformEnvironmentVariables")))
+                .secrets(stringList(data.path("secrets")))
+                .build();
+    }
+
+    static ObjectNode line(boolean error, String line) {
+        ObjectNode message = OBJECT_MAPPER.createObjectNode();
+        message.put(error ? "err" : "out", line);
+        return message;
+    }
+
+    static ObjectNode result(TerraformResult result) {
+        ObjectNode message = OBJECT_MAPPER.createObjectNode();
+        ObjectNode value = message.putObject("result");
+        value.put("runId", result.getRunId());
+        value.put("command", result.getCommand().name());
+        value.put("workingDirectory", result.getWorkingDirectory() != null ? result.getWorkingDirectory().getAbsolutePath() : null);
+        value.put("exitCode", result.getExitCode());
+        value.put("pid", result.getPid());
+        value.put("startTime", result.getStartTime() != null ? result.getStartTime().toEpochMilli() : null);
+        value.put("duration", result.getDuration() != null ? result.getDuration().toMillis() : null);
+        value.put("attempt", result.getAttempt());
+        value.put("terraformVersion", result.getTerraformVersion());
+        value.put("tofu", result.isTofu());
+        if (result.getFailure() != null) {
+            value.put("failureType", result.getFailure().getType().name());
+            value.put("failureMessage", result.getFailure().getMessage());
+        }
+        return message;
+    }
+
+    static ObjectNode error(String message) {
+        ObjectNode error = OBJECT_MAPPER.createObjectNode();
+        error.put("error", message);
+        return error;
+    }
+
+    static TerraformResult result(JsonNode message) {
+        JsonNode value = message.get("result");
+        return TerraformResult.builder()
+                .runId(text(value, "runId"))
+                .command(TerraformCommand.valueOf(value.path("command").asText()))
+                .workingDirectory(value.hasNonNull("workingDirectory") ? new File(value.get("workingDirectory").asText()) : null)
+                .exitCode(value.path("exitCode").asInt())
+                .pid(value.path("pid").asLong())
+                .startTime(value.hasNonNull("startTime") ? Instant.ofEpochMilli(value.get("startTime").asLong()) : null)
+                .duration(value.hasNonNull("duration") ? Duration.ofMillis(value.get("duration").asLong()) : null)
+                .attempt(value.path("attempt").asInt())
+                .terraformVersion(text(value, "terraformVersion"))
+                .tofu(value.path("tofu").asBoolean())
+                .failure(value.hasNonNull("failureType")
+                        ? new TerraformFailure(TerraformFailureType.valueOf(value.get("failureType").asText()), text(value, "failureMessage"))
+                        : null)
+                .build();
+    }
+
+    static ObjectNode status(TerraformNodeStatus status) {
+        ObjectNode message = OBJECT_MAPPER.createObjectNode();
+        message.put("id", status.getId());
+        message.put("time", status.getTime().toEpochMilli());
+        message.put("running", status.getRunning());
+        message.put("queued", status.getQueued());
+        message.put("capacity", status.getCapacity());
+        message.set("terraformVersions", OBJECT_MAPPER.valueToTree(status.getTerraformVersions()));
+        message.set("tofuVersions", OBJECT_MAPPER.valueToTree(status.getTofuVersions()));
+        message.set("workspaces", OBJECT_MAPPER.valueToTree(status.getWorkspaces()));
+        message.set("providerLocks", OBJECT_MAPPER.valueToTree(status.getProviderLocks()));
+        return message;
+    }
+
+    static TerraformNodeStatus status(JsonNode message) {
+        return TerraformNodeStatus.builder()
+                .id(message.path("id").asText())
+                .time(Instant.ofEpochMilli(message.path("time").asLong()))
+                .running(message.path("running").asInt())
+                .queued(message.path("queued").asInt())
+                .capacity(message.path("capacity").asInt())
+                .terraformVersions(stringList(message.path("terraformVersions")))
+                .tofuVersions(stringList(message.path("tofuVersions")))
+                .workspaces(stringList(message.path("workspaces")))
+                .providerLocks(stringList(message.path("providerLocks")))
+                .build();
+    }
+
+    private static String text(JsonNode node, String field) {
+        return node.hasNonNull(field) ? node.get(field).asText() : null;
+    }
+
+    private static Map<String, String> stringMap(JsonNode node) {
+        Map<String, String> values = new LinkedHashMap<>();
+        node.properties().forEach(entry -> values.put(entry.getKey(), entry.getValue().asText()));
+        return values;
+    }
+
+    private static List<String> stringList(JsonNode node) {
+        List<String> values = new ArrayList<>();
+        node.forEach(value -> values.add(value.asText()));
+        return values;
+    }
+}
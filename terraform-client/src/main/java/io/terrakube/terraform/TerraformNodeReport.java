@@ -0,0 +1,21 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+public class TerraformNodeReport {
+    private String id;
+    // last status read from the node, null when it never answered
+    private TerraformNodeStatus status;
+    private boolean reachable;
+    // runs sent by this dispatcher that did not finish yet
+    private int inFlight;
+    private long dispatched;
+    // runs sent to the node because it had the binary, providers or workspace already
+    private long affinityHits;
+    // runs sent to the node because the node with the best cache was saturated
+    private long spillOvers;
+    private long failures;
+}
@@ -0,0 +1,190 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// serves a LocalTerraformNode to the HttpTerraformNode of a dispatcher running in another JVM
+@Slf4j
+@Getter
+public class TerraformNodeServer implements AutoCloseable {
+
+    // variables that make terraform, git or ssh run another program or read another configuration
+    private static final Set<String> DENIED_VARIABLES = Set.of("PATH", "HOME", "SHELL", "BASH_ENV", "ENV", "TF_CLI_CONFIG_FILE",
+            "TERRAFORM_CONFIG", "TF_PLUGIN_CACHE_DIR", "TF_DATA_DIR", "SSH_ASKPASS", "SSH_AUTH_SOCK");
+    private static final List<String> DENIED_VARIABLE_PREFIXES = List.of("GIT_", "LD_", "DYLD_", "XDG_");
+
+    private final LocalTerraformNode node;
+    private final String token;
+    private final File rootDirectory;
+    @Getter(lombok.AccessLevel.NONE)
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    @Getter(lombok.AccessLevel.NONE)
+    private final HttpServer server;
+
+    // port 0 picks a free port, the address defaults to loopback and any other address needs an sslContext
+    @Builder
+    public TerraformNodeServer(@NonNull LocalTerraformNode node, String address, int port, @NonNull String token, @NonNull File rootDirectory, SSLContext sslContext) throws IOException {
+        if (token.isBlank()) {
+            throw new IllegalArgumentException("A token is required to serve terraform node " + node.getId());
+        }
+        InetSocketAddress socketAddress = new InetSocketAddress(address != null ? InetAddress.getByName(address) : InetAddress.getLoopbackAddress(), port);
+        if (sslContext == null && !socketAddress.getAddress().isLoopbackAddress()) {
+            throw new IllegalArgumentException("Terraform node " + node.getId() + " sends secrets to its dispatcher, an sslContext is required to listen on " + address);
+        }
+        this.node = node;
+        this.token = token;
+        this.rootDirectory = rootDirectory.getCanonicalFile();
+        if (sslContext != null) {
+            HttpsServer httpsServer = HttpsServer.create(socketAddress, 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            this.server = httpsServer;
+        } else {
+            this.server = HttpServer.create(socketAddress, 0);
+        }
+        this.server.setExecutor(this.executor);
+        this.server.createContext(TerraformNodeProtocol.STATUS_PATH, exchange -> {
+            if (authorize(exchange, "GET")) {
+                send(exchange, 200, TerraformNodeProtocol.status(this.node.getStatus()));
+            }
+        });
+        this.server.createContext(TerraformNodeProtocol.EXECUTE_PATH, exchange -> {
+            if (authorize(exchange, "POST")) {
+                execute(exchange);
+            }
+        });
+        this.server.start();
+        log.info("Terraform node {} listening on port {}", node.getId(), getPort());
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void execute(HttpExchange exchange) throws IOException {
+        TerraformCommand command;
+        TerraformProcessData data;
+        try {
+            JsonNode request = TerraformNodeProtocol.OBJECT_MAPPER.readTree(exchange.getRequestBody());
+            command = TerraformNodeProtocol.command(request);
+            data = TerraformNodeProtocol.processData(request);
+        } catch (IOException | RuntimeException ex) {
+            send(exchange, 400, TerraformNodeProtocol.error("Invalid run: " + ex.getMessage()));
+            return;
+        }
+        String denied = checkAccess(data);
+        if (denied != null) {
+            log.warn("Refused {} on node {}: {}", command, this.node.getId(), denied);
+            send(exchange, 403, TerraformNodeProtocol.error(denied));
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            ObjectNode last;
+            try {
+                TerraformResult result = this.node.execute(command, data, line -> write(stream, TerraformNodeProtocol.line(false, line)), line -> write(stream, TerraformNodeProtocol.line(true, line))).join();
+                last = TerraformNodeProtocol.result(result);
+            } catch (RuntimeException ex) {
+                log.warn("{} failed on node {} in {}: {}", command, this.node.getId(), data.getWorkingDirectory(), ex.getMessage());
+                last = TerraformNodeProtocol.error(ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage());
+            }
+            write(stream, last);
+        }
+    }
+
+    // the dispatcher only reaches files under the root directory and cannot swap the programs a run starts
+    private String checkAccess(TerraformProcessData data) throws IOException {
+        File workingDirectory = data.getWorkingDirectory();
+        if (!isUnderRoot(workingDirectory)) {
+            return "Working directory " + workingDirectory + " is outside of " + this.rootDirectory;
+        }
+        if (data.getSshFile() != null && !isUnderRoot(data.getSshFile())) {
+            return "Ssh file " + data.getSshFile() + " is outside of " + this.rootDirectory;
+        }
+        for (String fileName : new String[]{data.getTerraformBackendConfigFileName(), data.getVarFileName()}) {
+            if (fileName != null) {
+                File file = new File(fileName);
+                if (!isUnderRoot(file.isAbsolute() ? file : new File(workingDirectory, fileName))) {
+                    return "File " + fileName + " is outside of " + this.rootDirectory;
+                }
+            }
+        }
+        for (Map.Entry<String, String> variable : data.getTerraformEnvironmentVariables().entrySet()) {
+            String name = variable.getKey();
+            if (DENIED_VARIABLES.contains(name) || DENIED_VARIABLE_PREFIXES.stream().anyMatch(name::startsWith)) {
+                return "Environment variable " + name + " is not allowed on a remote node";
+            }
+        }
+        return null;
+    }
+
+    private boolean isUnderRoot(File file) throws IOException {
+        return file.isAbsolute() && file.getCanonicalFile().toPath().startsWith(this.rootDirectory.toPath());
+    }
+
+    // output and error lines come from different reader threads
+    private void write(OutputStream stream, ObjectNode message) {
+        try {
+            byte[] bytes = TerraformNodeProtocol.OBJECT_MAPPER.writeValueAsBytes(message);
+            synchronized (stream) {
+                stream.write(bytes);
+                stream.write('\n');
+                stream.flush();
+            }
+        } catch (IOException ex) {
+            log.debug("Dispatcher of node {} went away: {}", this.node.getId(), ex.getMessage());
+        }
+    }
+
+    private boolean authorize(HttpExchange exchange, String method) throws IOException {
+        if (!method.equals(exchange.getRequestMethod())) {
+            send(exchange, 405, TerraformNodeProtocol.error("Method not allowed"));
+            return false;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] expected = ("Bearer " + this.token).getBytes(StandardCharsets.UTF_8);
+        if (authorization == null || !MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.UTF_8))) {
+            send(exchange, 401, TerraformNodeProtocol.error("Unauthorized"));
+            return false;
+        }
+        return true;
+    }
+
+    private static void send(HttpExchange exchange, int status, ObjectNode body) throws IOException {
+        byte[] bytes = TerraformNodeProtocol.OBJECT_MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+}
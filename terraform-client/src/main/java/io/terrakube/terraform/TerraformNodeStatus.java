@@ -0,0 +1,39 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.time.Instant;
+import java.util.Set;
+
+@AllArgsConstructor
+@Builder
+@Getter
+public class TerraformNodeStatus {
+    private String id;
+    private Instant time;
+    private int running;
+    // waiting for their workspace lock
+    private int queued;
+    private int capacity;
+    @Singular
+    private Set<String> terraformVersions;
+    @Singular
+    private Set<String> tofuVersions;
+    // absolute paths of the working directories initialized on the node
+    @Singular
+    private Set<String> workspaces;
+    // hashes of the .terraform.lock.hcl files whose providers are installed on the node
+    @Singular
+    private Set<String> providerLocks;
+
+    public int getLoad() {
+        return this.running + this.queued;
+    }
+
+    public boolean isSaturated() {
+        return getLoad() >= this.capacity;
+    }
+}
@@ -0,0 +1,24 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@AllArgsConstructor
+@Getter
+public class TerraformOrchestrationResult {
+    private Map<String, TerraformJobResult> results;
+    private Duration duration;
+
+    public boolean isSuccessful() {
+        return this.results.values().stream().allMatch(r -> r.getStatus() == TerraformJobStatus.SUCCEEDED);
+    }
+
+    public List<TerraformJobResult> getResults(TerraformJobStatus status) {
+        return this.results.values().stream().filter(r -> r.getStatus() == status).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,298 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Builder
+@AllArgsConstructor
+@Getter
+@Slf4j
+public class TerraformOrchestrator {
+
+    private static final Pattern REMOTE_STATE_BLOCK = Pattern.compile("data\\s+\"terraform_remote_state\"\\s+\"[^\"]+\"\\s*\\{");
+    private static final Pattern LOCAL_BACKEND = Pattern.compile("backend\\s*=\\s*\"local\"");
+    private static final Pattern STATE_PATH = Pattern.compile("path\\s*=\\s*\"([^\"]+)\"");
+    private static final List<TerraformCommand> DEFAULT_COMMANDS = List.of(TerraformCommand.init, TerraformCommand.plan);
+
+    @NonNull
+    private TerraformClient terraformClient;
+    @Builder.Default
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    @Builder.Default
+    private TerraformFailurePolicy failurePolicy = TerraformFailurePolicy.FAIL_FAST;
+    // add dependencies for terraform_remote_state data sources reading the local state of another job
+    @Builder.Default
+    private boolean remoteStateDependencies = true;
+
+    public CompletableFuture<TerraformOrchestrationResult> run(@NonNull Collection<TerraformJob> jobs) {
+        if (this.parallelism < 1) {
+            throw new IllegalArgumentException("parallelism should be greater than zero");
+        }
+
+        Map<String, TerraformJob> jobsById = new LinkedHashMap<>();
+        for (TerraformJob job : jobs) {
+            if (jobsById.put(job.getId(), job) != null) {
+                throw new IllegalArgumentException("Duplicated job id " + job.getId());
+            }
+        }
+
+        Map<String, Set<String>> dependencies = getDependencies(jobsById);
+        checkCycles(dependencies);
+        return new Execution(jobsById, dependencies).start();
+    }
+
+    Map<String, Set<String>> getDependencies(Map<String, TerraformJob> jobsById) {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        Map<File, String> jobsByDirectory = new HashMap<>();
+        for (TerraformJob job : jobsById.values()) {
+            jobsByDirectory.put(canonical(job.getTerraformProcessData().getWorkingDirectory()), job.getId());
+        }
+
+        for (TerraformJob job : jobsById.values()) {
+            Set<String> jobDependencies = new LinkedHashSet<>();
+            if (job.getDependencies() != null) {
+                for (String dependency : job.getDependencies()) {
+                    if (!jobsById.containsKey(dependency)) {
+                        throw new IllegalArgumentException(String.format("Job %s depends on unknown job %s", job.getId(), dependency));
+                    }
+                    jobDependencies.add(dependency);
+                }
+            }
+            if (this.remoteStateDependencies) {
+                for (File stateFile : findLocalRemoteStates(job.getTerraformProcessData().getWorkingDirectory())) {
+                    String dependency = jobsByDirectory.get(canonical(stateFile.getParentFile()));
+                    if (dependency != null && !dependency.equals(job.getId())) {
+                        log.info("Job {} reads the state of job {}", job.getId(), dependency);
+                        jobDependencies.add(dependency);
+                    }
+                }
+            }
+            dependencies.put(job.getId(), jobDependencies);
+        }
+        return dependencies;
+    }
+
+    static List<File> findLocalRemoteStates(File workingDirectory) {
+        List<File> stateFiles = new ArrayList<>();
+        File[] files = workingDirectory.listFiles(f -> f.isFile() && f.getName().endsWith(".tf"));
+        if (files == null) {
+            return stateFiles;
+        }
+        for (File file : files) {
+            String content;
+            try {
+                content = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                log.warn("Unable to read {}: {}", file, ex.getMessage());
+                continue;
+            }
+            Matcher block = REMOTE_STATE_BLOCK.matcher(content);
+            while (block.find()) {
+                String body = getBlockBody(content, block.end());
+                Matcher path = STATE_PATH.matcher(body);
+                if (LOCAL_BACKEND.matcher(body).find() && path.find()) {
+                    File stateFile = new File(path.group(1));
+                    stateFiles.add(stateFile.isAbsolute() ? stateFile : new File(workingDirectory, path.group(1)));
+                }
+            }
+        }
+        return stateFiles;
+    }
+
+    private static String getBlockBody(String content, int start) {
+        int depth = 1;
+        for (int i = start; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return content.substring(start, i);
+            }
+        }
+        return content.substring(start);
+    }
+
+    private static void checkCycles(Map<String, Set<String>> dependencies) {
+        Map<String, Integer> remaining = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        Deque<String> ready = new ArrayDeque<>();
+        dependencies.forEach((id, jobDependencies) -> {
+            remaining.put(id, jobDependencies.size());
+            jobDependencies.forEach(d -> dependents.computeIfAbsent(d, k -> new ArrayList<>()).add(id));
+            if (jobDependencies.isEmpty()) {
+                ready.add(id);
+            }
+        });
+
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            visited++;
+            for (String dependent : dependents.getOrDefault(id, List.of())) {
+                if (remaining.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (visited != dependencies.size()) {
+            remaining.values().removeIf(count -> count == 0);
+            throw new IllegalArgumentException("Cyclic dependency between jobs " + remaining.keySet());
+        }
+    }
+
+    // a job sets its variables, var file and backend config once, the client rejects them for the commands not using them
+    static TerraformProcessData getCommandData(TerraformCommand command, TerraformProcessData data) {
+        TerraformProcessData.TerraformProcessDataBuilder builder = null;
+        switch (command) {
+            case init:
+            case show:
+            case showPlan:
+            case showPlanJson:
+            case output:
+                builder = data.toBuilder().clearTerraformVariables().varFileName(null);
+                break;
+            default:
+                break;
+        }
+        if (command == TerraformCommand.destroy || command == TerraformCommand.output) {
+            builder = (builder != null ? builder : data.toBuilder()).terraformBackendConfigFileName(null);
+        }
+        return builder != null ? builder.build() : data;
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException ex) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private final class Execution {
+        private final Map<String, TerraformJob> jobs;
+        private final Map<String, Set<String>> pending = new LinkedHashMap<>();
+        private final Map<String, List<String>> dependents = new HashMap<>();
+        private final Deque<String> ready = new ArrayDeque<>();
+        private final Map<String, TerraformJobResult> results = new HashMap<>();
+        private final CompletableFuture<TerraformOrchestrationResult> result = new CompletableFuture<>();
+        private final Instant startTime = Instant.now();
+        private int running;
+        private boolean stopped;
+
+        private Execution(Map<String, TerraformJob> jobs, Map<String, Set<String>> dependencies) {
+            this.jobs = jobs;
+            dependencies.forEach((id, jobDependencies) -> {
+                this.pending.put(id, new HashSet<>(jobDependencies));
+                jobDependencies.forEach(d -> this.dependents.computeIfAbsent(d, k -> new ArrayList<>()).add(id));
+            });
+        }
+
+        private synchronized CompletableFuture<TerraformOrchestrationResult> start() {
+            this.pending.forEach((id, jobDependencies) -> {
+                if (jobDependencies.isEmpty()) {
+                    this.ready.add(id);
+                }
+            });
+            schedule();
+            return this.result;
+        }
+
+        private void schedule() {
+            while (!this.stopped && this.running < parallelism && !this.ready.isEmpty()) {
+                this.running++;
+                launch(this.jobs.get(this.ready.poll()));
+            }
+
+            if (this.running == 0 && (this.stopped || this.ready.isEmpty()) && !this.result.isDone()) {
+                Map<String, TerraformJobResult> orderedResults = new LinkedHashMap<>();
+                for (String id : this.jobs.keySet()) {
+                    orderedResults.put(id, this.results.getOrDefault(id,
+                            new TerraformJobResult(id, TerraformJobStatus.CANCELLED, null, null, null, Duration.ZERO, List.of())));
+                }
+                this.result.complete(new TerraformOrchestrationResult(orderedResults, Duration.between(this.startTime, Instant.now())));
+            }
+        }
+
+        private void launch(TerraformJob job) {
+            Instant jobStart = Instant.now();
+            List<TerraformCommand> commands = job.getCommands() == null || job.getCommands().isEmpty() ? DEFAULT_COMMANDS : job.getCommands();
+            AtomicReference<TerraformCommand> current = new AtomicReference<>();
+            List<TerraformResult> commandResults = new ArrayList<>();
+            log.info("Starting job {} with commands {}", job.getId(), commands);
+
+            CompletableFuture.supplyAsync(() -> 0, terraformClient.getExecutor())
+                    .thenCompose(i -> runCommands(job, commands, i, current, commandResults))
+                    .whenComplete((failedCommand, error) -> {
+                        if (error == null && failedCommand == null) {
+                            complete(job.getId(), TerraformJobStatus.SUCCEEDED, null, null, jobStart, commandResults);
+                        } else {
+                            complete(job.getId(), TerraformJobStatus.FAILED, error != null ? current.get() : failedCommand, error, jobStart, commandResults);
+                        }
+                    });
+        }
+
+        private CompletableFuture<TerraformCommand> runCommands(TerraformJob job, List<TerraformCommand> commands, int index, AtomicReference<TerraformCommand> current, List<TerraformResult> commandResults) {
+            if (index >= commands.size()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            TerraformCommand command = commands.get(index);
+            current.set(command);
+            Consumer<String> outputListener = job.getOutputListener() != null ? job.getOutputListener() : line -> { };
+            try {
+                return terraformClient.execute(command, getCommandData(command, job.getTerraformProcessData()), outputListener, job.getErrorListener())
+                        .thenCompose(result -> {
+                            commandResults.add(result);
+                            return result.isSuccessful() ? runCommands(job, commands, index + 1, current, commandResults) : CompletableFuture.completedFuture(command);
+                        });
+            } catch (IOException | RuntimeException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+
+        private synchronized void complete(String id, TerraformJobStatus status, TerraformCommand failedCommand, Throwable error, Instant jobStart, List<TerraformResult> commandResults) {
+            this.running--;
+            this.results.put(id, new TerraformJobResult(id, status, failedCommand, error, jobStart, Duration.between(jobStart, Instant.now()), commandResults));
+            log.info("Job {} {}", id, status);
+
+            if (status == TerraformJobStatus.SUCCEEDED) {
+                for (String dependent : this.dependents.getOrDefault(id, List.of())) {
+                    Set<String> remaining = this.pending.get(dependent);
+                    remaining.remove(id);
+                    if (remaining.isEmpty() && !this.results.containsKey(dependent)) {
+                        this.ready.add(dependent);
+                    }
+                }
+            } else {
+                skipDependents(id);
+                if (failurePolicy == TerraformFailurePolicy.FAIL_FAST) {
+                    this.stopped = true;
+                }
+            }
+            schedule();
+        }
+
+        private void skipDependents(String id) {
+            Deque<String> skipped = new ArrayDeque<>(this.dependents.getOrDefault(id, List.of()));
+            while (!skipped.isEmpty()) {
+                String dependent = skipped.poll();
+                if (this.results.putIfAbsent(dependent, new TerraformJobResult(dependent, TerraformJobStatus.SKIPPED, null, null, null, Duration.ZERO, List.of())) == null) {
+                    this.ready.remove(dependent);
+                    skipped.addAll(this.dependents.getOrDefault(dependent, List.of()));
+                }
+            }
+        }
+    }
+}
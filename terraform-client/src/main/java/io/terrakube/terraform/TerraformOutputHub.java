@@ -0,0 +1,300 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+@Slf4j
+public class TerraformOutputHub implements AutoCloseable {
+
+    private static final int DEFAULT_REPLAY_LINES = 10000;
+    private static final long DEFAULT_REPLAY_BYTES = 8L * 1024 * 1024;
+    private static final int DEFAULT_SEGMENT_LINES = 10000;
+    private static final int BATCH_LINES = 256;
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n|\\r|\\n");
+
+    // every subscriber is drained by its own task, so a slow one never blocks the process pipe or the others
+    static final ExecutorService DELIVERY = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "terraform-output");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Getter
+    private final int replayLines;
+    @Getter
+    private final long replayBytes;
+    // lines evicted from memory are kept in segment files here, null keeps only the replay buffer
+    @Getter
+    private final File segmentDirectory;
+    @Getter
+    private final int segmentLines;
+
+    private final TerraformOutputLine[] buffer;
+    private final List<TerraformOutputSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private long firstSequence;
+    private long nextSequence;
+    private long bufferBytes;
+    private boolean completed;
+    private BufferedWriter segmentWriter;
+
+    public TerraformOutputHub() {
+        this(null, null, null, null);
+    }
+
+    @Builder
+    public TerraformOutputHub(Integer replayLines, Long replayBytes, File segmentDirectory, Integer segmentLines) {
+        this.replayLines = replayLines != null && replayLines > 0 ? replayLines : DEFAULT_REPLAY_LINES;
+        this.replayBytes = replayBytes != null && replayBytes > 0 ? replayBytes : DEFAULT_REPLAY_BYTES;
+        this.segmentDirectory = segmentDirectory;
+        this.segmentLines = segmentLines != null && segmentLines > 0 ? segmentLines : DEFAULT_SEGMENT_LINES;
+        this.buffer = new TerraformOutputLine[this.replayLines];
+        if (segmentDirectory != null && !segmentDirectory.isDirectory() && !segmentDirectory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create segment directory " + segmentDirectory);
+        }
+    }
+
+    public Consumer<String> getOutputListener() {
+        return line -> publish(false, line);
+    }
+
+    public Consumer<String> getErrorListener() {
+        return line -> publish(true, line);
+    }
+
+    // replays every line still available, from memory or the segment files
+    public TerraformOutputSubscription subscribe(TerraformOutputSubscriber subscriber) {
+        return subscribe(subscriber, 0);
+    }
+
+    public TerraformOutputSubscription subscribe(TerraformOutputSubscriber subscriber, long fromSequence) {
+        TerraformOutputSubscription subscription = new TerraformOutputSubscription(this, subscriber, Math.max(0, fromSequence));
+        this.subscriptions.add(subscription);
+        subscription.schedule();
+        return subscription;
+    }
+
+    // only lines published after the subscription
+    public TerraformOutputSubscription subscribeLive(TerraformOutputSubscriber subscriber) {
+        return subscribe(subscriber, getNextSequence());
+    }
+
+    // text with line breaks is published as one line each, a segment file holds exactly one line per sequence
+    public void publish(boolean error, String text) {
+        synchronized (this) {
+            if (this.completed) {
+                log.debug("Ignoring output published after the run completed");
+                return;
+            }
+            if (text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+                append(error, text);
+            } else {
+                for (String line : LINE_BREAK.split(text, -1)) {
+                    append(error, line);
+                }
+            }
+        }
+        this.subscriptions.forEach(TerraformOutputSubscription::schedule);
+    }
+
+    // subscribers receive onComplete once they have read every line
+    public void complete() {
+        synchronized (this) {
+            if (this.completed) {
+                return;
+            }
+            this.completed = true;
+            closeSegment();
+        }
+        this.subscriptions.forEach(TerraformOutputSubscription::schedule);
+    }
+
+    public synchronized boolean isCompleted() {
+        return this.completed;
+    }
+
+    public synchronized long getNextSequence() {
+        return this.nextSequence;
+    }
+
+    public int getSubscriberCount() {
+        return this.subscriptions.size();
+    }
+
+    // completes the run, detaches every subscriber and deletes the segment files
+    @Override
+    public void close() {
+        complete();
+        this.subscriptions.forEach(TerraformOutputSubscription::close);
+        synchronized (this) {
+            for (File segment : this.segments.values()) {
+                try {
+                    Files.deleteIfExists(segment.toPath());
+                } catch (IOException ex) {
+                    log.warn("Unable to delete output segment {}: {}", segment, ex.getMessage());
+                }
+            }
+            this.segments.clear();
+        }
+    }
+
+    void unsubscribe(TerraformOutputSubscription subscription) {
+        this.subscriptions.remove(subscription);
+    }
+
+    synchronized boolean isPending(long sequence) {
+        return sequence < this.nextSequence || this.completed;
+    }
+
+    Batch read(long sequence, SegmentReader reader) throws IOException {
+        File segment;
+        long segmentStart;
+        long segmentEnd;
+        synchronized (this) {
+            if (sequence >= this.nextSequence) {
+                return new Batch(sequence, List.of(), this.completed);
+            }
+            if (sequence >= this.firstSequence) {
+                List<TerraformOutputLine> lines = new ArrayList<>();
+                for (long i = sequence; i < this.nextSequence && lines.size() < BATCH_LINES; i++) {
+                    lines.add(this.buffer[(int) (i % this.replayLines)]);
+                }
+                return new Batch(sequence, lines, false);
+            }
+            Map.Entry<Long, File> entry = this.segments.floorEntry(sequence);
+            if (entry == null) {
+                // evicted without a segment log, continue with the oldest line in memory
+                return new Batch(this.firstSequence, List.of(), false);
+            }
+            if (this.segmentWriter != null) {
+                this.segmentWriter.flush();
+            }
+            segment = entry.getValue();
+            segmentStart = entry.getKey();
+            Long nextSegment = this.segments.higherKey(sequence);
+            segmentEnd = nextSegment != null ? Math.min(nextSegment, this.firstSequence) : this.firstSequence;
+        }
+        // segment lines are immutable once flushed, so they are read without holding the hub
+        List<TerraformOutputLine> lines = reader.read(segment, segmentStart, sequence, (int) Math.min(BATCH_LINES, segmentEnd - sequence));
+        // lines lost by a failed segment write are skipped like evicted ones
+        return lines.isEmpty() ? new Batch(segmentEnd, lines, false) : new Batch(sequence, lines, false);
+    }
+
+    private void append(boolean error, String text) {
+        TerraformOutputLine line = new TerraformOutputLine(this.nextSequence, error, Instant.now(), text);
+        if (this.nextSequence - this.firstSequence == this.replayLines) {
+            evict();
+        }
+        this.buffer[(int) (this.nextSequence % this.replayLines)] = line;
+        this.nextSequence++;
+        this.bufferBytes += text.length();
+        while (this.bufferBytes > this.replayBytes && this.nextSequence - this.firstSequence > 1) {
+            evict();
+        }
+        appendSegment(line);
+    }
+
+    private void evict() {
+        int index = (int) (this.firstSequence % this.replayLines);
+        this.bufferBytes -= this.buffer[index].getText().length();
+        this.buffer[index] = null;
+        this.firstSequence++;
+    }
+
+    private void appendSegment(TerraformOutputLine line) {
+        if (this.segmentDirectory == null) {
+            return;
+        }
+        try {
+            if (this.segmentWriter == null || line.getSequence() % this.segmentLines == 0) {
+                closeSegment();
+                File segment = new File(this.segmentDirectory, String.format("output-%020d.log", line.getSequence()));
+                this.segmentWriter = Files.newBufferedWriter(segment.toPath(), StandardCharsets.UTF_8);
+                this.segments.put(line.getSequence(), segment);
+            }
+            this.segmentWriter.write(line.isError() ? 'E' : 'O');
+            this.segmentWriter.write(' ');
+            this.segmentWriter.write(String.valueOf(line.getTime().toEpochMilli()));
+            this.segmentWriter.write(' ');
+            this.segmentWriter.write(line.getText());
+            this.segmentWriter.newLine();
+        } catch (IOException ex) {
+            log.warn("Unable to write output segment in {}, keeping only the replay buffer: {}", this.segmentDirectory, ex.getMessage());
+            closeSegment();
+        }
+    }
+
+    private void closeSegment() {
+        if (this.segmentWriter != null) {
+            try {
+                this.segmentWriter.close();
+            } catch (IOException ex) {
+                log.warn("Unable to close output segment: {}", ex.getMessage());
+            }
+            this.segmentWriter = null;
+        }
+    }
+
+    static class Batch {
+        final long sequence;
+        final List<TerraformOutputLine> lines;
+        final boolean completed;
+
+        Batch(long sequence, List<TerraformOutputLine> lines, boolean completed) {
+            this.sequence = sequence;
+            this.lines = lines;
+            this.completed = completed;
+        }
+    }
+
+    // keeps the segment file open between batches, a subscriber catching up reads it sequentially
+    static class SegmentReader implements Closeable {
+        private BufferedReader reader;
+        private File segment;
+        private long nextSequence = -1;
+
+        List<TerraformOutputLine> read(File segment, long segmentStart, long sequence, int limit) throws IOException {
+            if (this.reader == null || !segment.equals(this.segment) || this.nextSequence != sequence) {
+                close();
+                this.reader = Files.newBufferedReader(segment.toPath(), StandardCharsets.UTF_8);
+                this.segment = segment;
+                for (long i = segmentStart; i < sequence; i++) {
+                    this.reader.readLine();
+                }
+                this.nextSequence = sequence;
+            }
+
+            List<TerraformOutputLine> lines = new ArrayList<>();
+            String line;
+            while (lines.size() < limit && (line = this.reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                lines.add(new TerraformOutputLine(this.nextSequence++, parts[0].equals("E"), Instant.ofEpochMilli(Long.parseLong(parts[1])), parts.length > 2 ? parts[2] : ""));
+            }
+            return lines;
+        }
+
+        @Override
+        public void close() {
+            if (this.reader != null) {
+                try {
+                    this.reader.close();
+                } catch (IOException ex) {
+                    log.debug("Unable to close output segment: {}", ex.getMessage());
+                }
+                this.reader = null;
+            }
+        }
+    }
+}
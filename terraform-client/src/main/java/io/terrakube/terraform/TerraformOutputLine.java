@@ -0,0 +1,16 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+@AllArgsConstructor
+@Getter
+public class TerraformOutputLine {
+    // position of the line in the run, starting at 0
+    private long sequence;
+    private boolean error;
+    private Instant time;
+    private String text;
+}
@@ -0,0 +1,14 @@
+package io.terrakube.terraform;
+
+@FunctionalInterface
+public interface TerraformOutputSubscriber {
+
+    void onLine(TerraformOutputLine line);
+
+    // lines evicted from the replay buffer before this subscriber received them
+    default void onGap(long missedLines) {
+    }
+
+    default void onComplete() {
+    }
+}
@@ -0,0 +1,94 @@
+package io.terrakube.terraform;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Slf4j
+public class TerraformOutputSubscription implements AutoCloseable {
+
+    private final TerraformOutputHub hub;
+    private final TerraformOutputSubscriber subscriber;
+    private final TerraformOutputHub.SegmentReader segmentReader = new TerraformOutputHub.SegmentReader();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long sequence;
+    private volatile long missedLines;
+
+    TerraformOutputSubscription(TerraformOutputHub hub, TerraformOutputSubscriber subscriber, long sequence) {
+        this.hub = hub;
+        this.subscriber = subscriber;
+        this.sequence = sequence;
+    }
+
+    // next line this subscriber will receive, to resume after a reconnect
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    public long getMissedLines() {
+        return this.missedLines;
+    }
+
+    public boolean isClosed() {
+        return this.closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            this.hub.unsubscribe(this);
+        }
+    }
+
+    void schedule() {
+        if (!this.closed.get() && this.scheduled.compareAndSet(false, true)) {
+            TerraformOutputHub.DELIVERY.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        boolean completed = false;
+        try {
+            while (!this.closed.get()) {
+                TerraformOutputHub.Batch batch = this.hub.read(this.sequence, this.segmentReader);
+                if (batch.sequence > this.sequence) {
+                    long missed = batch.sequence - this.sequence;
+                    this.missedLines += missed;
+                    this.sequence = batch.sequence;
+                    this.subscriber.onGap(missed);
+                    continue;
+                }
+                if (batch.lines.isEmpty()) {
+                    completed = batch.completed;
+                    break;
+                }
+                for (TerraformOutputLine line : batch.lines) {
+                    if (this.closed.get()) {
+                        break;
+                    }
+                    this.subscriber.onLine(line);
+                    this.sequence = line.getSequence() + 1;
+                }
+            }
+        } catch (Exception ex) {
+            log.warn("Output subscriber failed and was detached: {}", ex.getMessage());
+            this.segmentReader.close();
+            close();
+            return;
+        } finally {
+            this.scheduled.set(false);
+        }
+
+        if (completed) {
+            this.segmentReader.close();
+            if (this.closed.compareAndSet(false, true)) {
+                this.hub.unsubscribe(this);
+                this.subscriber.onComplete();
+            }
+        } else if (this.hub.isPending(this.sequence)) {
+            // a line published while the scheduled flag was still set
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Slf4j
+public class TerraformParallelismController {
+
+    static final int TERRAFORM_DEFAULT_PARALLELISM = 10;
+    static final Pattern THROTTLING = Pattern.compile("(?i)throttl|rate exceeded|rate limit|too ?many ?requests|requestlimitexceeded|status code: 429|slow ?down");
+    private static final File MEMINFO = new File("/proc/meminfo");
+    private static final Set<String> TERRAFORM_BINARIES = Set.of("terraform", "tofu", "terraform.exe", "tofu.exe");
+    private static final int MAX_THROTTLE_EVENTS = 1000;
+
+    @Builder.Default
+    private int minParallelism = 1;
+    @Builder.Default
+    private int maxParallelism = TERRAFORM_DEFAULT_PARALLELISM;
+    // graph walkers mostly wait for provider APIs, so one core keeps several of them busy
+    @Builder.Default
+    private int walkersPerCore = 10;
+    @Builder.Default
+    private long memoryPerWalker = 64L * 1024 * 1024;
+    // each throttling error seen in this window halves the parallelism of new runs
+    @Builder.Default
+    private Duration throttleWindow = Duration.ofMinutes(5);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger lastParallelism = new AtomicInteger();
+    private final Deque<Instant> throttles = new ConcurrentLinkedDeque<>();
+
+    public int getParallelism() {
+        int running = getRunning();
+        int cores = Runtime.getRuntime().availableProcessors();
+        long availableMemory = getAvailableMemory();
+        int recentThrottles = getRecentThrottles();
+        int parallelism = getParallelism(running, cores, availableMemory, recentThrottles);
+        log.debug("Parallelism {} for {} running processes, {} cores, {} bytes available, {} throttling errors", parallelism, running, cores, availableMemory, recentThrottles);
+        this.lastParallelism.set(parallelism);
+        return parallelism;
+    }
+
+    int getParallelism(int running, int cores, long availableMemory, int recentThrottles) {
+        // share the node with the runs already in progress
+        int runs = running + 1;
+        long parallelism = Math.min(this.maxParallelism, (long) cores * this.walkersPerCore / runs);
+        if (availableMemory > 0 && this.memoryPerWalker > 0) {
+            parallelism = Math.min(parallelism, availableMemory / this.memoryPerWalker / runs);
+        }
+        parallelism = parallelism >> Math.min(recentThrottles, 30);
+        return (int) Math.max(this.minParallelism, Math.min(this.maxParallelism, parallelism));
+    }
+
+    public int getRunning() {
+        int running = this.inFlight.get();
+        try {
+            // other workers on the same node count too
+            long nodeProcesses = ProcessHandle.allProcesses()
+                    .filter(process -> process.info().command()
+                            .map(command -> TERRAFORM_BINARIES.contains(new File(command).getName()))
+                            .orElse(false))
+                    .count();
+            return (int) Math.max(running, nodeProcesses);
+        } catch (SecurityException | UnsupportedOperationException ex) {
+            return running;
+        }
+    }
+
+    public long getAvailableMemory() {
+        if (MEMINFO.canRead()) {
+            try {
+                for (String line : Files.readAllLines(MEMINFO.toPath())) {
+                    if (line.startsWith("MemAvailable:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException ex) {
+                log.debug("Unable to read {}: {}", MEMINFO, ex.getMessage());
+            }
+        }
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getFreeMemorySize();
+        }
+        return 0;
+    }
+
+    public int getRecentThrottles() {
+        Instant limit = Instant.now().minus(this.throttleWindow);
+        while (!this.throttles.isEmpty() && this.throttles.peekFirst().isBefore(limit)) {
+            this.throttles.pollFirst();
+        }
+        return this.throttles.size();
+    }
+
+    void begin() {
+        this.inFlight.incrementAndGet();
+    }
+
+    void end() {
+        this.inFlight.decrementAndGet();
+    }
+
+    // stderr carries the provider errors, stdout is only watched for -json diagnostics as resource names and values may look like throttling
+    Consumer<String> watch(Consumer<String> listener, boolean diagnosticsOnly, Runnable onThrottle) {
+        return line -> {
+            if ((!diagnosticsOnly || isDiagnostic(line)) && THROTTLING.matcher(line).find()) {
+                this.throttles.addLast(Instant.now());
+                if (this.throttles.size() > MAX_THROTTLE_EVENTS) {
+                    this.throttles.pollFirst();
+                }
+                onThrottle.run();
+            }
+            if (listener != null) {
+                listener.accept(line);
+            }
+        };
+    }
+
+    private static boolean isDiagnostic(String line) {
+        return line.startsWith("{") && line.contains("\"type\":\"diagnostic\"");
+    }
+}
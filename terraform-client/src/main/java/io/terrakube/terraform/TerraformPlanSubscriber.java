@@ -0,0 +1,7 @@
+package io.terrakube.terraform;
+
+@FunctionalInterface
+public interface TerraformPlanSubscriber {
+
+    void accept(TerraformPlanWatchResult result);
+}
@@ -0,0 +1,31 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+public class TerraformPlanWatchResult {
+    // grows with each burst of changes, a plan is only published while its generation is the newest
+    private long generation;
+    private File workingDirectory;
+    // relative to the working directory, empty for a plan started with planNow
+    private List<String> changedFiles;
+    // null when the plan could not be started
+    private TerraformResult result;
+    // null unless the plan could not be started
+    private String error;
+    // stdout and stderr of the plan in arrival order, up to maxOutputLines
+    private List<String> output;
+    private Instant time;
+    private Duration duration;
+
+    public boolean isFailed() {
+        return this.error != null || this.result.getFailure() != null;
+    }
+}
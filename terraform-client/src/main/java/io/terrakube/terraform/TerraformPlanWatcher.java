@@ -0,0 +1,263 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// speculative plans without refresh each time the configuration of a working directory changes, a newer change cancels the plan in flight
+@Builder
+@AllArgsConstructor
+@Getter
+@Slf4j
+public class TerraformPlanWatcher implements AutoCloseable {
+
+    @NonNull
+    private TerraformClient terraformClient;
+    // refresh and the saved plan are turned off for the speculative plans, the other settings are kept
+    @NonNull
+    private TerraformProcessData terraformProcessData;
+    // changes closer than this to each other start a single plan
+    @Builder.Default
+    private Duration debounce = Duration.ofMillis(300);
+    // a steady stream of changes still starts a plan this long after its first change
+    @Builder.Default
+    private Duration maxDelay = Duration.ofSeconds(5);
+    @Builder.Default
+    private Set<String> extensions = Set.of(".tf", ".tf.json", ".tfvars", ".tfvars.json", ".tofu");
+    @Builder.Default
+    private int maxOutputLines = 1000;
+
+    @Getter(AccessLevel.NONE)
+    private final List<TerraformPlanSubscriber> subscribers = new CopyOnWriteArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private final AtomicLong generation = new AtomicLong();
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<CompletableFuture<TerraformResult>> running = new AtomicReference<>();
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<TerraformPlanWatchResult> latest = new AtomicReference<>();
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<WatchService> watchService = new AtomicReference<>();
+
+    // the subscriber gets the latest plan right away when there is one
+    public void subscribe(@NonNull TerraformPlanSubscriber subscriber) {
+        this.subscribers.add(subscriber);
+        TerraformPlanWatchResult result = this.latest.get();
+        if (result != null) {
+            notify(subscriber, result);
+        }
+    }
+
+    public boolean unsubscribe(@NonNull TerraformPlanSubscriber subscriber) {
+        return this.subscribers.remove(subscriber);
+    }
+
+    // null until the first plan completes
+    public TerraformPlanWatchResult getLatest() {
+        return this.latest.get();
+    }
+
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    public TerraformPlanWatcher start() throws IOException {
+        Path directory = this.terraformProcessData.getWorkingDirectory().toPath();
+        WatchService service = directory.getFileSystem().newWatchService();
+        if (!this.watchService.compareAndSet(null, service)) {
+            service.close();
+            throw new IllegalStateException("Plan watcher already started");
+        }
+        try {
+            register(service, directory);
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+        Thread thread = new Thread(() -> watch(service), "terraform-plan-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    // starts a plan of the current configuration, cancelling the one in flight
+    public synchronized long planNow() {
+        return plan(List.of());
+    }
+
+    @Override
+    public void close() {
+        WatchService service = this.watchService.getAndSet(null);
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ex) {
+                log.debug("Unable to close watch service: {}", ex.getMessage());
+            }
+        }
+        // the running plan can no longer be published
+        this.generation.incrementAndGet();
+        cancel(this.running.getAndSet(null));
+    }
+
+    private void watch(WatchService service) {
+        Path directory = this.terraformProcessData.getWorkingDirectory().toPath();
+        try {
+            while (true) {
+                Set<String> changed = new TreeSet<>();
+                collect(service, service.take(), directory, changed);
+                // the burst ends after a quiet debounce, or maxDelay after its first change
+                long deadline = System.nanoTime() + this.maxDelay.toNanos();
+                WatchKey key;
+                while (System.nanoTime() < deadline && (key = service.poll(Math.min(this.debounce.toNanos(), deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) != null) {
+                    collect(service, key, directory, changed);
+                }
+                if (!changed.isEmpty()) {
+                    synchronized (this) {
+                        if (this.watchService.get() != service) {
+                            return;
+                        }
+                        plan(new ArrayList<>(changed));
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            log.debug("Plan watcher of {} stopped", directory);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            log.error("Plan watcher of {} stopped", directory, ex);
+        }
+    }
+
+    private void collect(WatchService service, WatchKey key, Path directory, Set<String> changed) {
+        Path parent = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were dropped, the configuration may have changed anywhere
+                changed.add(".");
+                continue;
+            }
+            Path path = parent.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (path.getFileName().toString().startsWith(".")) {
+                    continue;
+                }
+                try {
+                    // local modules added after the start
+                    register(service, path);
+                } catch (IOException ex) {
+                    log.warn("Unable to watch {}: {}", path, ex.getMessage());
+                }
+            } else if (isConfiguration(path.getFileName().toString())) {
+                changed.add(directory.relativize(path).toString());
+            }
+        }
+        key.reset();
+    }
+
+    private boolean isConfiguration(String fileName) {
+        for (String extension : this.extensions) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the directory and its sub-directories, .terraform and other hidden directories are skipped
+    private static void register(WatchService service, Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
+                if (!path.equals(directory) && path.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                path.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private long plan(List<String> changedFiles) {
+        long current = this.generation.incrementAndGet();
+        cancel(this.running.getAndSet(null));
+
+        Instant start = Instant.now();
+        List<String> output = Collections.synchronizedList(new ArrayList<>());
+        Consumer<String> listener = line -> {
+            if (output.size() < this.maxOutputLines) {
+                output.add(line);
+            }
+        };
+        CompletableFuture<TerraformResult> result;
+        try {
+            result = this.terraformClient.execute(TerraformCommand.plan, speculative(this.terraformProcessData), listener, listener);
+        } catch (IOException | RuntimeException ex) {
+            result = CompletableFuture.failedFuture(ex);
+        }
+        this.running.set(result);
+        log.info("Speculative plan {} of {} after changes to {}", current, this.terraformProcessData.getWorkingDirectory(), changedFiles);
+        CompletableFuture<TerraformResult> planned = result;
+        result.whenComplete((terraformResult, exception) -> {
+            this.running.compareAndSet(planned, null);
+            // a newer change cancelled this plan or is already running its own
+            if (this.generation.get() != current) {
+                return;
+            }
+            Instant now = Instant.now();
+            String error = exception != null ? String.valueOf((exception.getCause() != null ? exception.getCause() : exception).getMessage()) : null;
+            publish(new TerraformPlanWatchResult(current, this.terraformProcessData.getWorkingDirectory(), changedFiles,
+                    terraformResult, error, List.copyOf(output), now, Duration.between(start, now)));
+        });
+        return current;
+    }
+
+    private synchronized void publish(TerraformPlanWatchResult result) {
+        // the generation is checked again, a newer plan may have started while this one completed
+        if (this.generation.get() != result.getGeneration()) {
+            return;
+        }
+        this.latest.set(result);
+        for (TerraformPlanSubscriber subscriber : this.subscribers) {
+            notify(subscriber, result);
+        }
+    }
+
+    private void notify(TerraformPlanSubscriber subscriber, TerraformPlanWatchResult result) {
+        try {
+            subscriber.accept(result);
+        } catch (RuntimeException ex) {
+            log.error("Plan subscriber failed on generation {} of {}", result.getGeneration(), result.getWorkingDirectory(), ex);
+        }
+    }
+
+    private void cancel(CompletableFuture<TerraformResult> result) {
+        if (result == null || result.isDone()) {
+            return;
+        }
+        for (TerraformRun run : this.terraformClient.getRuns()) {
+            if (run.getResult() == result) {
+                this.terraformClient.cancel(run.getId());
+            }
+        }
+    }
+
+    // the plan saved for apply is left alone
+    private static TerraformProcessData speculative(TerraformProcessData data) {
+        return data.toBuilder().refresh(false).savePlan(false).build();
+    }
+}
@@ -0,0 +1,314 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// validate and fmt -check without the backend, the directories declaring the same providers and modules share one init through TF_DATA_DIR
+@Builder
+@AllArgsConstructor
+@Getter
+@Slf4j
+public class TerraformPreflight {
+
+    static final String DATA_DIRECTORY_VARIABLE = "TF_DATA_DIR";
+    // the lock file of the first init of a data directory, named like the original so its providers can be read back
+    private static final String LOCK_FILE_COPY = TerraformSchemaCache.LOCK_FILE;
+    private static final String UNLOCKED = "unlocked";
+    private static final Pattern SOURCE = Pattern.compile("^\\s*(source|version)\\s*=\\s*\"[^\"]*\"", Pattern.MULTILINE);
+    // what validate reports before init, any other error comes from the configuration itself
+    private static final Pattern NEEDS_INIT = Pattern.compile("not installed|missing required provider|dependency lock file|(terraform|tofu) init", Pattern.CASE_INSENSITIVE);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @NonNull
+    private TerraformClient terraformClient;
+    @Builder.Default
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // fmt -check runs next to validate, unformatted files fail the result
+    @Builder.Default
+    private boolean formatCheck = true;
+    // parent of the shared data directories, the client cache directory when null
+    private File dataDirectory;
+    // data directories no validation used for this long are deleted after validateAll, null keeps them
+    @Builder.Default
+    private Duration maxUnusedAge = Duration.ofDays(7);
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, CompletableFuture<Void>> inits = new ConcurrentHashMap<>();
+    // lock key of the first directory using a data directory whose init has not written its lock file yet
+    @Getter(AccessLevel.NONE)
+    private final Map<String, String> claims = new ConcurrentHashMap<>();
+
+    // the results are in the order of the directories, a directory that could not be validated gets an error diagnostic
+    public CompletableFuture<List<TerraformValidationResult>> validateAll(@NonNull Collection<TerraformProcessData> directories) {
+        if (this.parallelism < 1) {
+            throw new IllegalArgumentException("parallelism should be greater than zero");
+        }
+        List<TerraformProcessData> pending = List.copyOf(directories);
+        TerraformValidationResult[] results = new TerraformValidationResult[pending.size()];
+        AtomicInteger next = new AtomicInteger();
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int i = 0; i < Math.min(this.parallelism, pending.size()); i++) {
+            lanes.add(validateNext(pending, results, next));
+        }
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0])).thenApply(v -> {
+            prune();
+            return Arrays.asList(results);
+        });
+    }
+
+    private CompletableFuture<Void> validateNext(List<TerraformProcessData> pending, TerraformValidationResult[] results, AtomicInteger next) {
+        int index = next.getAndIncrement();
+        if (index >= pending.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        TerraformProcessData data = pending.get(index);
+        Instant start = Instant.now();
+        return validate(data).handle((result, error) -> {
+            results[index] = result != null ? result : failed(data, error, start);
+            return null;
+        }).thenCompose(v -> validateNext(pending, results, next));
+    }
+
+    public CompletableFuture<TerraformValidationResult> validate(@NonNull TerraformProcessData terraformProcessData) {
+        Instant start = Instant.now();
+        String fingerprint;
+        try {
+            fingerprint = getFingerprint(terraformProcessData);
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        File dataDirectory = new File(getDataDirectory(), fingerprint);
+        if (dataDirectory.isDirectory() && !dataDirectory.setLastModified(System.currentTimeMillis())) {
+            log.debug("Unable to mark {} as used", dataDirectory);
+        }
+        TerraformProcessData shared = withDataDirectory(terraformProcessData, dataDirectory);
+        StringBuilder formatOutput = new StringBuilder();
+        CompletableFuture<TerraformResult> format = this.formatCheck ? run(TerraformCommand.fmtCheck, terraformProcessData, formatOutput) : CompletableFuture.completedFuture(null);
+
+        // syntax and type errors are reported before init, only a configuration that needs providers or modules waits for it
+        CompletableFuture<Validation> validation = validateShared(shared, dataDirectory, false).thenCompose(first -> {
+            if (!first.needsInit()) {
+                return CompletableFuture.completedFuture(first);
+            }
+            return init(fingerprint, shared, dataDirectory).thenCompose(v -> validateShared(shared, dataDirectory, true));
+        });
+
+        return validation.thenCombine(format, (result, formatResult) -> {
+            Boolean formatted = formatResult != null ? formatResult.getExitCode() == 0 : null;
+            // fmt -check lists the files it would rewrite
+            List<String> unformattedFiles = formatted != null && !formatted ? formatOutput.toString().lines().filter(line -> !line.isBlank()).toList() : List.of();
+            return new TerraformValidationResult(terraformProcessData.getWorkingDirectory(), fingerprint, result.valid, formatted,
+                    result.diagnostics, unformattedFiles, result.initialized, Duration.between(start, Instant.now()));
+        });
+    }
+
+    private CompletableFuture<Validation> validateShared(TerraformProcessData shared, File dataDirectory, boolean initialized) {
+        try {
+            copyLockFile(shared.getWorkingDirectory(), dataDirectory);
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        StringBuilder output = new StringBuilder();
+        return run(TerraformCommand.validate, shared, output).thenApply(result -> parse(output, result, initialized));
+    }
+
+    // one init at a time per data directory, the last one is reused unless it failed
+    private CompletableFuture<Void> init(String fingerprint, TerraformProcessData shared, File dataDirectory) {
+        return this.inits.compute(fingerprint, (key, running) -> {
+            if (running != null && !running.isCompletedExceptionally()) {
+                return running;
+            }
+            CompletableFuture<Void> previous = running != null ? running.exceptionally(ex -> null) : CompletableFuture.completedFuture(null);
+            return previous.thenCompose(v -> {
+                log.info("Initializing {} without backend in {}", shared.getWorkingDirectory(), dataDirectory);
+                StringBuilder output = new StringBuilder();
+                return run(TerraformCommand.initNoBackend, shared, output).thenAccept(result -> {
+                    if (!result.isSuccessful()) {
+                        String reason = result.getFailure() != null ? result.getFailure().getMessage() : "exit code " + result.getExitCode();
+                        throw new IllegalStateException("init -backend=false failed in " + shared.getWorkingDirectory() + ": " + reason);
+                    }
+                    File lockFile = new File(shared.getWorkingDirectory(), TerraformSchemaCache.LOCK_FILE);
+                    try {
+                        if (lockFile.isFile()) {
+                            Files.copy(lockFile.toPath(), new File(dataDirectory, LOCK_FILE_COPY).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    } catch (IOException ex) {
+                        log.warn("Unable to keep the lock file of {}: {}", shared.getWorkingDirectory(), ex.getMessage());
+                    }
+                });
+            });
+        });
+    }
+
+    // a directory without a lock file gets the one written by the shared init, as its own init would write it
+    private static void copyLockFile(File workingDirectory, File dataDirectory) throws IOException {
+        File lockFile = new File(workingDirectory, TerraformSchemaCache.LOCK_FILE);
+        File copy = new File(dataDirectory, LOCK_FILE_COPY);
+        if (!lockFile.exists() && copy.isFile()) {
+            Files.copy(copy.toPath(), lockFile.toPath());
+        }
+    }
+
+    private CompletableFuture<TerraformResult> run(TerraformCommand command, TerraformProcessData data, StringBuilder output) {
+        try {
+            return this.terraformClient.execute(command, data, line -> {
+                synchronized (output) {
+                    output.append(line).append('\n');
+                }
+            }, line -> log.debug("{} {}: {}", command, data.getWorkingDirectory(), line));
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    private static Validation parse(StringBuilder output, TerraformResult result, boolean initialized) {
+        List<TerraformDiagnostic> diagnostics = new ArrayList<>();
+        JsonNode json;
+        try {
+            json = OBJECT_MAPPER.readTree(output.toString());
+        } catch (IOException ex) {
+            json = null;
+        }
+        if (json == null || !json.has("valid")) {
+            String reason = result.getFailure() != null ? result.getFailure().getMessage() : "validate exited with " + result.getExitCode();
+            diagnostics.add(new TerraformDiagnostic(TerraformDiagnosticSeverity.ERROR, reason, null, null, 0, 0, 0, 0));
+            return new Validation(false, diagnostics, initialized);
+        }
+        for (JsonNode diagnostic : json.path("diagnostics")) {
+            JsonNode range = diagnostic.path("range");
+            diagnostics.add(new TerraformDiagnostic(
+                    "warning".equals(diagnostic.path("severity").asText()) ? TerraformDiagnosticSeverity.WARNING : TerraformDiagnosticSeverity.ERROR,
+                    diagnostic.path("summary").asText(""),
+                    diagnostic.path("detail").asText(""),
+                    range.hasNonNull("filename") ? range.get("filename").asText() : null,
+                    range.path("start").path("line").asInt(),
+                    range.path("start").path("column").asInt(),
+                    range.path("end").path("line").asInt(),
+                    range.path("end").path("column").asInt()));
+        }
+        return new Validation(json.path("valid").asBoolean() && result.getExitCode() == 0, diagnostics, initialized);
+    }
+
+    private static TerraformValidationResult failed(TerraformProcessData data, Throwable error, Instant start) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        TerraformDiagnostic diagnostic = new TerraformDiagnostic(TerraformDiagnosticSeverity.ERROR, String.valueOf(cause.getMessage()), null, null, 0, 0, 0, 0);
+        return new TerraformValidationResult(data.getWorkingDirectory(), null, false, null, List.of(diagnostic), List.of(), false, Duration.between(start, Instant.now()));
+    }
+
+    // deletes the data directories no validation used within maxUnusedAge, returns how many were deleted
+    public int prune() {
+        File[] directories = this.maxUnusedAge != null ? getDataDirectory().listFiles(File::isDirectory) : null;
+        if (directories == null) {
+            return 0;
+        }
+        long oldest = System.currentTimeMillis() - this.maxUnusedAge.toMillis();
+        int deleted = 0;
+        for (File directory : directories) {
+            CompletableFuture<Void> init = this.inits.get(directory.getName());
+            if (directory.lastModified() >= oldest || (init != null && !init.isDone())) {
+                continue;
+            }
+            try {
+                FileUtils.deleteDirectory(directory);
+                this.inits.remove(directory.getName());
+                this.claims.remove(directory.getName());
+                deleted++;
+                log.info("Deleted unused preflight data directory {}", directory);
+            } catch (IOException ex) {
+                log.warn("Unable to delete preflight data directory {}: {}", directory, ex.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    // the binary and the declared provider and module sources and versions name the data directory, a directory whose lock file
+    // locks other packages than the ones installed there gets a data directory of its own, so the lock file the preflight
+    // copies into a directory keeps it on the same data directory
+    String getFingerprint(TerraformProcessData data) throws IOException {
+        String declared = getDeclaredFingerprint(data);
+        String locked = getLockKey(data.getWorkingDirectory());
+        String installed = getLockKey(new File(getDataDirectory(), declared));
+        if (installed == null) {
+            installed = this.claims.computeIfAbsent(declared, key -> locked != null ? locked : UNLOCKED);
+        }
+        return locked == null || locked.equals(installed) ? declared : declared + "-" + locked;
+    }
+
+    private static String getDeclaredFingerprint(TerraformProcessData data) throws IOException {
+        Set<String> sources = new TreeSet<>();
+        File[] files = data.getWorkingDirectory().listFiles((dir, name) -> name.endsWith(".tf") || name.endsWith(".tofu"));
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SOURCE.matcher(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    sources.add(matcher.group().trim().replaceAll("\\s+", " "));
+                }
+            }
+        }
+        String binary = (data.isTofu() ? TerraformCacheManager.TOFU_PRODUCT : TerraformCacheManager.TERRAFORM_PRODUCT) + ":" + data.getTerraformVersion();
+        return GitModuleCache.sha256(binary + "\n" + String.join("\n", sources)).substring(0, 32);
+    }
+
+    // provider versions and hashes of the lock file in the directory, null without one
+    private static String getLockKey(File directory) throws IOException {
+        Map<String, String> providers = TerraformSchemaCache.getLockedProviders(directory);
+        if (providers.isEmpty()) {
+            return null;
+        }
+        return GitModuleCache.sha256(providers + "\n" + TerraformSchemaCache.getLockedHashes(directory)).substring(0, 12);
+    }
+
+    private File getDataDirectory() {
+        return this.dataDirectory != null ? this.dataDirectory : new File(this.terraformClient.getCacheManager().getCacheDirectory(), "preflight");
+    }
+
+    private static TerraformProcessData withDataDirectory(TerraformProcessData data, File dataDirectory) {
+        Map<String, String> environment = new HashMap<>(data.getTerraformEnvironmentVariables());
+        environment.put(DATA_DIRECTORY_VARIABLE, dataDirectory.getAbsolutePath());
+        return TerraformProcessData.builder()
+                .terraformVersion(data.getTerraformVersion())
+                .workingDirectory(data.getWorkingDirectory())
+                .tofu(data.isTofu())
+                .sshFile(data.getSshFile())
+                .memoryLimit(data.getMemoryLimit())
+                .cpuLimit(data.getCpuLimit())
+                .pidsLimit(data.getPidsLimit())
+                .terraformEnvironmentVariables(environment)
+                .secrets(data.getSecrets())
+                .build();
+    }
+
+    private static final class Validation {
+        private final boolean valid;
+        private final List<TerraformDiagnostic> diagnostics;
+        private final boolean initialized;
+
+        private Validation(boolean valid, List<TerraformDiagnostic> diagnostics, boolean initialized) {
+            this.valid = valid;
+            this.diagnostics = diagnostics;
+            this.initialized = initialized;
+        }
+
+        private boolean needsInit() {
+            return !this.valid && this.diagnostics.stream().anyMatch(diagnostic -> diagnostic.isError()
+                    && NEEDS_INIT.matcher(diagnostic.getSummary() + "\n" + diagnostic.getDetail()).find());
+        }
+    }
+}
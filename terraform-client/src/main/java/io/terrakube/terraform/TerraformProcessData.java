@@ -4,11 +4,12 @@ import lombok.*;
 
 import java.io.File;
 import java.util.Map;
+import java.util.Set;
 
 @AllArgsConstructor
 @Getter
 @Setter
-@Builder
+@Builder(toBuilder = true)
 public class TerraformProcessData {
     @NonNull String terraformVersion;
     @NonNull File workingDirectory;
@@ -23,6 +24,19 @@ public class TerraformProcessData {
     boolean tofu = false;
     @Builder.Default
     boolean detailExitCode = false;
+    // plan and planDestroy write terraformLibrary.tfPlan for apply and showPlan, checks that are never applied turn it off
+    @Builder.Default
+    boolean savePlan = true;
+    // -parallelism for plan, apply and destroy, the client picks one from the node load when null
+    Integer parallelism;
+    // stdout is written to this file instead of the listeners, unmasked, for large machine readable output
+    File outputFile;
+    // cgroup v2 limits, used when the client has a TerraformCgroupManager
+    Long memoryLimit;
+    Double cpuLimit;
+    Integer pidsLimit;
     @Singular Map<String, String> terraformVariables;
     @Singular Map<String, String> terraformEnvironmentVariables;
+    // masked in the output of the run
+    @Singular Set<String> secrets;
 }
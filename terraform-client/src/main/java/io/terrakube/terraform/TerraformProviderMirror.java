@@ -0,0 +1,295 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.semver4j.Semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// provider network mirror kept in the layout written by "terraform providers mirror", missing files are fetched from the origin registry
+@Slf4j
+@Getter
+public class TerraformProviderMirror {
+
+    static final String DEFAULT_REGISTRY = "registry.terraform.io";
+    private static final String INDEX_FILE = "index.json";
+    private static final String SOURCES_SUFFIX = ".sources.json";
+
+    private final File directory;
+    // fetch providers from the origin registry the first time they are requested, false serves only what was synced
+    private final boolean fillOnDemand;
+    // the version list of a provider is read again from the registry after this
+    private final Duration indexMaxAge;
+    // os_arch archives listed for each version, the current platform when empty
+    private final List<String> platforms;
+    // registry host to base url, for registries without https or service discovery
+    private final Map<String, String> registryUrls;
+    @Getter(lombok.AccessLevel.NONE)
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Getter(lombok.AccessLevel.NONE)
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    @Getter(lombok.AccessLevel.NONE)
+    private final Map<String, String> providerServices = new ConcurrentHashMap<>();
+
+    @Builder
+    public TerraformProviderMirror(@NonNull File directory, Boolean fillOnDemand, Duration indexMaxAge, @Singular List<String> platforms, @Singular Map<String, String> registryUrls) {
+        this.directory = directory;
+        this.fillOnDemand = fillOnDemand == null || fillOnDemand;
+        this.indexMaxAge = indexMaxAge != null ? indexMaxAge : Duration.ofHours(1);
+        this.platforms = platforms == null || platforms.isEmpty() ? List.of(TerraformMirror.getCurrentPlatform()) : List.copyOf(platforms);
+        this.registryUrls = registryUrls != null ? Map.copyOf(registryUrls) : Map.of();
+    }
+
+    // file for a path of the network mirror protocol, null when the mirror does not have it and can not fetch it
+    public File getFile(String path) throws IOException {
+        String[] segments = path.startsWith("/") ? path.substring(1).split("/") : path.split("/");
+        if (segments.length != 4 || Arrays.stream(segments).anyMatch(segment -> segment.isEmpty() || segment.startsWith("."))) {
+            return null;
+        }
+        String provider = String.join("/", segments[0], segments[1], segments[2]).toLowerCase(Locale.ROOT);
+        File providerDirectory = new File(this.directory, provider);
+        String name = segments[3];
+        if (name.equals(INDEX_FILE)) {
+            return getIndex(provider, providerDirectory);
+        }
+        if (name.endsWith(".json")) {
+            return getVersion(provider, providerDirectory, name.substring(0, name.length() - ".json".length()));
+        }
+        if (name.endsWith(".zip")) {
+            return getArchive(provider, providerDirectory, name, this.fillOnDemand);
+        }
+        return null;
+    }
+
+    // mirrors the newest version matching each range on every platform, provider is namespace/type or hostname/namespace/type
+    public List<String> sync(@NonNull String provider, @NonNull Collection<String> versionRanges) throws IOException {
+        String address = getAddress(provider);
+        File providerDirectory = new File(this.directory, address);
+        Set<String> available = getUpstreamVersions(address).keySet();
+        Set<String> versions = new TreeSet<>();
+        for (String versionRange : versionRanges) {
+            versions.add(TerraformDownloader.resolveVersion(available, versionRange, Comparator.comparing(Semver::new), address));
+        }
+        for (String version : versions) {
+            File versionFile = fetchVersion(address, providerDirectory, version);
+            for (JsonNode archive : this.objectMapper.readTree(versionFile).path("archives")) {
+                getArchive(address, providerDirectory, archive.path("url").asText(), true);
+            }
+        }
+        writeIndex(providerDirectory, available);
+        log.info("Provider mirror {} has {} versions {}", this.directory, address, versions);
+        return new ArrayList<>(versions);
+    }
+
+    private File getIndex(String provider, File providerDirectory) throws IOException {
+        File index = new File(providerDirectory, INDEX_FILE);
+        if (!this.fillOnDemand || (index.isFile() && System.currentTimeMillis() - index.lastModified() < this.indexMaxAge.toMillis())) {
+            return index.isFile() ? index : null;
+        }
+        synchronized (lock(index)) {
+            if (index.isFile() && System.currentTimeMillis() - index.lastModified() < this.indexMaxAge.toMillis()) {
+                return index;
+            }
+            try {
+                writeIndex(providerDirectory, getUpstreamVersions(provider).keySet());
+            } catch (IOException | RuntimeException ex) {
+                if (!index.isFile()) {
+                    throw ex instanceof IOException ? (IOException) ex : new IOException(ex);
+                }
+                log.warn("Serving the cached versions of {}, the registry failed: {}", provider, ex.getMessage());
+            }
+            return index;
+        }
+    }
+
+    private File getVersion(String provider, File providerDirectory, String version) throws IOException {
+        File versionFile = new File(providerDirectory, version + ".json");
+        if (versionFile.isFile() || !this.fillOnDemand) {
+            return versionFile.isFile() ? versionFile : null;
+        }
+        return fetchVersion(provider, providerDirectory, version);
+    }
+
+    private File getArchive(String provider, File providerDirectory, String name, boolean fetch) throws IOException {
+        File archive = new File(providerDirectory, name);
+        if (archive.isFile() || !fetch) {
+            return archive.isFile() ? archive : null;
+        }
+        synchronized (lock(archive)) {
+            if (archive.isFile()) {
+                return archive;
+            }
+            Map.Entry<String, String> source = findSource(providerDirectory, name);
+            if (source == null) {
+                return null;
+            }
+            log.info("Mirroring provider {} archive {}", provider, name);
+            File partial = new File(providerDirectory, "." + name + ".part");
+            try {
+                TerraformDownloader.downloadBinaryToFile(source.getKey(), partial);
+            } catch (RuntimeException ex) {
+                FileUtils.deleteQuietly(partial);
+                throw new IOException("Unable to download " + source.getKey(), ex);
+            }
+            String sha256 = sha256(partial);
+            if (!sha256.equalsIgnoreCase(source.getValue())) {
+                FileUtils.deleteQuietly(partial);
+                throw new IOException(String.format("Checksum of %s is %s, the registry published %s", name, sha256, source.getValue()));
+            }
+            Files.move(partial.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return archive;
+        }
+    }
+
+    // version.json lists an archive per platform with its zip hash, the archives are downloaded when they are requested
+    private File fetchVersion(String provider, File providerDirectory, String version) throws IOException {
+        File versionFile = new File(providerDirectory, version + ".json");
+        synchronized (lock(versionFile)) {
+            if (versionFile.isFile()) {
+                return versionFile;
+            }
+            List<String> upstreamPlatforms = getUpstreamVersions(provider).get(version);
+            if (upstreamPlatforms == null) {
+                return null;
+            }
+            ObjectNode versionJson = this.objectMapper.createObjectNode();
+            ObjectNode archives = versionJson.putObject("archives");
+            ObjectNode sources = this.objectMapper.createObjectNode();
+            for (String platform : this.platforms) {
+                if (!upstreamPlatforms.contains(platform)) {
+                    continue;
+                }
+                String[] osArch = platform.split("_", 2);
+                JsonNode download = readJson(getProviderService(provider) + version + "/download/" + osArch[0] + "/" + osArch[1]);
+                String filename = download.path("filename").asText();
+                String shasum = download.path("shasum").asText();
+                ObjectNode archive = archives.putObject(platform);
+                archive.put("url", filename);
+                archive.putArray("hashes").add("zh:" + shasum);
+                ObjectNode source = sources.putObject(filename);
+                source.put("url", TerraformDownloader.resolveUrl(getProviderService(provider), download.path("download_url").asText()));
+                source.put("shasum", shasum);
+            }
+            FileUtils.forceMkdir(providerDirectory);
+            write(new File(providerDirectory, version + SOURCES_SUFFIX), sources);
+            write(versionFile, versionJson);
+            return versionFile;
+        }
+    }
+
+    private void writeIndex(File providerDirectory, Collection<String> versions) throws IOException {
+        ObjectNode index = this.objectMapper.createObjectNode();
+        ObjectNode indexVersions = index.putObject("versions");
+        Set<String> allVersions = new TreeSet<>(versions);
+        // versions synced with "terraform providers mirror" may be gone from the registry
+        File[] versionFiles = providerDirectory.listFiles((dir, name) -> name.endsWith(".json") && !name.equals(INDEX_FILE) && !name.endsWith(SOURCES_SUFFIX));
+        if (versionFiles != null) {
+            Arrays.stream(versionFiles).forEach(file -> allVersions.add(file.getName().substring(0, file.getName().length() - ".json".length())));
+        }
+        allVersions.forEach(indexVersions::putObject);
+        FileUtils.forceMkdir(providerDirectory);
+        write(new File(providerDirectory, INDEX_FILE), index);
+    }
+
+    // version to the os_arch platforms published by the registry
+    private Map<String, List<String>> getUpstreamVersions(String provider) throws IOException {
+        Map<String, List<String>> versions = new LinkedHashMap<>();
+        for (JsonNode version : readJson(getProviderService(provider) + "versions").path("versions")) {
+            List<String> platforms = new ArrayList<>();
+            version.path("platforms").forEach(platform -> platforms.add(platform.path("os").asText() + "_" + platform.path("arch").asText()));
+            versions.put(version.path("version").asText(), platforms);
+        }
+        return versions;
+    }
+
+    // https://developer.hashicorp.com/terraform/internals/provider-registry-protocol
+    private String getProviderService(String provider) throws IOException {
+        String[] parts = provider.split("/");
+        String host = parts[0];
+        String service = this.providerServices.get(host);
+        if (service == null) {
+            String base = this.registryUrls.getOrDefault(host, "https://" + host);
+            base = base.endsWith("/") ? base : base + "/";
+            JsonNode discovery = readJson(base + ".well-known/terraform.json");
+            if (!discovery.hasNonNull("providers.v1")) {
+                throw new IOException(host + " is not a provider registry");
+            }
+            service = TerraformDownloader.resolveUrl(base, discovery.get("providers.v1").asText());
+            service = service.endsWith("/") ? service : service + "/";
+            this.providerServices.put(host, service);
+        }
+        return service + parts[1] + "/" + parts[2] + "/";
+    }
+
+    private JsonNode readJson(String url) throws IOException {
+        File file = Files.createTempFile("terraform-registry", ".json").toFile();
+        try {
+            TerraformDownloader.downloadReleasesToFile(url, file);
+            return this.objectMapper.readTree(file);
+        } catch (RuntimeException ex) {
+            throw new IOException("Unable to read " + url, ex);
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private Map.Entry<String, String> findSource(File providerDirectory, String name) throws IOException {
+        File[] files = providerDirectory.listFiles((dir, file) -> file.endsWith(SOURCES_SUFFIX));
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            JsonNode source = this.objectMapper.readTree(file).get(name);
+            if (source != null) {
+                return Map.entry(source.path("url").asText(), source.path("shasum").asText());
+            }
+        }
+        return null;
+    }
+
+    private void write(File file, JsonNode json) throws IOException {
+        File partial = new File(file.getParentFile(), "." + file.getName() + ".part");
+        this.objectMapper.writeValue(partial, json);
+        Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Object lock(File file) {
+        return this.locks.computeIfAbsent(file.getAbsolutePath(), key -> new Object());
+    }
+
+    private static String getAddress(String provider) {
+        String address = provider.toLowerCase(Locale.ROOT);
+        return address.split("/").length == 2 ? DEFAULT_REGISTRY + "/" + address : address;
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        try (InputStream stream = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            stream.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
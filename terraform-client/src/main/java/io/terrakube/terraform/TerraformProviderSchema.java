@@ -0,0 +1,397 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// index of "providers schema -json", descriptions are dropped and repeated names and types are stored once
+@Getter
+public class TerraformProviderSchema {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int MAGIC = 0x54465343;
+    private static final int FORMAT = 1;
+
+    // hash of the provider versions locked by the workspaces sharing this schema
+    private final String key;
+    // provider address to locked version
+    private final Map<String, String> providers;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, TerraformSchemaBlock> resources;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, TerraformSchemaBlock> dataSources;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, TerraformSchemaBlock> providerConfigs;
+
+    private TerraformProviderSchema(String key, Map<String, String> providers, Map<String, TerraformSchemaBlock> resources,
+                                    Map<String, TerraformSchemaBlock> dataSources, Map<String, TerraformSchemaBlock> providerConfigs) {
+        this.key = key;
+        this.providers = Collections.unmodifiableMap(providers);
+        this.resources = resources;
+        this.dataSources = dataSources;
+        this.providerConfigs = providerConfigs;
+    }
+
+    public Set<String> getResourceTypes() {
+        return Collections.unmodifiableSet(this.resources.keySet());
+    }
+
+    public Set<String> getDataSourceTypes() {
+        return Collections.unmodifiableSet(this.dataSources.keySet());
+    }
+
+    // null when no locked provider has this resource type
+    public TerraformSchemaBlock getResource(String type) {
+        return this.resources.get(type);
+    }
+
+    public TerraformSchemaBlock getDataSource(String type) {
+        return this.dataSources.get(type);
+    }
+
+    // configuration block of a provider, by its full address registry.terraform.io/hashicorp/aws
+    public TerraformSchemaBlock getProviderConfig(String address) {
+        return this.providerConfigs.get(address);
+    }
+
+    // streams the output, the tree of a large schema would take several times its size
+    static TerraformProviderSchema parse(String key, Map<String, String> providers, Reader json) throws IOException {
+        Map<String, TerraformSchemaBlock> resources = new TreeMap<>();
+        Map<String, TerraformSchemaBlock> dataSources = new TreeMap<>();
+        Map<String, TerraformSchemaBlock> providerConfigs = new TreeMap<>();
+        Map<String, String> strings = new HashMap<>();
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (!field.equals("provider_schemas")) {
+                    parser.skipChildren();
+                    continue;
+                }
+                expect(parser.currentToken(), JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String provider = intern(strings, parser.currentName());
+                    expect(parser.nextToken(), JsonToken.START_OBJECT);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String section = parser.currentName();
+                        parser.nextToken();
+                        switch (section) {
+                            case "provider":
+                                providerConfigs.put(provider, parseSchema(parser, provider, strings));
+                                break;
+                            case "resource_schemas":
+                                parseSchemas(parser, provider, strings, resources);
+                                break;
+                            case "data_source_schemas":
+                                parseSchemas(parser, provider, strings, dataSources);
+                                break;
+                            default:
+                                parser.skipChildren();
+                                break;
+                        }
+                    }
+                }
+            }
+        }
+        return new TerraformProviderSchema(key, new TreeMap<>(providers), resources, dataSources, providerConfigs);
+    }
+
+    private static void parseSchemas(JsonParser parser, String provider, Map<String, String> strings, Map<String, TerraformSchemaBlock> schemas) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String type = parser.currentName();
+            parser.nextToken();
+            schemas.put(type, parseSchema(parser, provider, strings));
+        }
+    }
+
+    private static TerraformSchemaBlock parseSchema(JsonParser parser, String provider, Map<String, String> strings) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        int version = 0;
+        BlockContent content = new BlockContent();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (field.equals("version")) {
+                version = parser.getIntValue();
+            } else if (field.equals("block")) {
+                content = parseBlock(parser, provider, strings);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return content.toBlock(provider, version, null, 0, 0);
+    }
+
+    private static BlockContent parseBlock(JsonParser parser, String provider, Map<String, String> strings) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        BlockContent content = new BlockContent();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (field.equals("attributes")) {
+                expect(parser.currentToken(), JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = intern(strings, parser.currentName());
+                    parser.nextToken();
+                    parseAttribute(parser, name, strings, content);
+                }
+            } else if (field.equals("block_types")) {
+                expect(parser.currentToken(), JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = intern(strings, parser.currentName());
+                    parser.nextToken();
+                    content.blockNames.add(name);
+                    content.blocks.add(parseBlockType(parser, provider, strings));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return content;
+    }
+
+    private static void parseAttribute(JsonParser parser, String name, Map<String, String> strings, BlockContent content) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        String type = null;
+        byte flags = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "type":
+                case "nested_type":
+                    type = intern(strings, value == JsonToken.VALUE_STRING ? parser.getText() : OBJECT_MAPPER.writeValueAsString(parser.readValueAsTree()));
+                    break;
+                case "required":
+                    flags |= value == JsonToken.VALUE_TRUE ? TerraformSchemaAttribute.REQUIRED : 0;
+                    break;
+                case "optional":
+                    flags |= value == JsonToken.VALUE_TRUE ? TerraformSchemaAttribute.OPTIONAL : 0;
+                    break;
+                case "computed":
+                    flags |= value == JsonToken.VALUE_TRUE ? TerraformSchemaAttribute.COMPUTED : 0;
+                    break;
+                case "sensitive":
+                    flags |= value == JsonToken.VALUE_TRUE ? TerraformSchemaAttribute.SENSITIVE : 0;
+                    break;
+                case "deprecated":
+                    flags |= value == JsonToken.VALUE_TRUE ? TerraformSchemaAttribute.DEPRECATED : 0;
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        content.attributeNames.add(name);
+        content.attributeTypes.add(type);
+        content.attributeFlags.add(flags);
+    }
+
+    private static TerraformSchemaBlock parseBlockType(JsonParser parser, String provider, Map<String, String> strings) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        BlockContent content = new BlockContent();
+        String nesting = null;
+        int minItems = 0;
+        int maxItems = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "block":
+                    content = parseBlock(parser, provider, strings);
+                    break;
+                case "nesting_mode":
+                    nesting = intern(strings, parser.getText());
+                    break;
+                case "min_items":
+                    minItems = parser.getIntValue();
+                    break;
+                case "max_items":
+                    maxItems = parser.getIntValue();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return content.toBlock(provider, 0, nesting, minItems, maxItems);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Unexpected " + actual + " in provider schema, expected " + expected);
+        }
+    }
+
+    private static String intern(Map<String, String> strings, String value) {
+        String interned = strings.putIfAbsent(value, value);
+        return interned != null ? interned : value;
+    }
+
+    // the strings are written once in a table and the blocks refer to them by index
+    void write(OutputStream output) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(this.providers.size());
+        for (Map.Entry<String, String> provider : this.providers.entrySet()) {
+            body.writeInt(index(strings, provider.getKey()));
+            body.writeInt(index(strings, provider.getValue()));
+        }
+        for (Map<String, TerraformSchemaBlock> schemas : List.of(this.resources, this.dataSources, this.providerConfigs)) {
+            body.writeInt(schemas.size());
+            for (Map.Entry<String, TerraformSchemaBlock> schema : schemas.entrySet()) {
+                body.writeInt(index(strings, schema.getKey()));
+                writeBlock(body, schema.getValue(), strings);
+            }
+        }
+        body.flush();
+
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT);
+        writeString(data, this.key);
+        data.writeInt(strings.size());
+        for (String value : strings.keySet()) {
+            writeString(data, value);
+        }
+        bytes.writeTo(data);
+        data.flush();
+    }
+
+    private static void writeBlock(DataOutputStream body, TerraformSchemaBlock block, Map<String, Integer> strings) throws IOException {
+        body.writeInt(index(strings, block.getProvider()));
+        body.writeInt(block.getVersion());
+        body.writeInt(index(strings, block.getNesting()));
+        body.writeInt(block.getMinItems());
+        body.writeInt(block.getMaxItems());
+        body.writeInt(block.attributeNames.length);
+        for (int i = 0; i < block.attributeNames.length; i++) {
+            body.writeInt(index(strings, block.attributeNames[i]));
+            body.writeInt(index(strings, block.attributeTypes[i]));
+            body.writeByte(block.attributeFlags[i]);
+        }
+        body.writeInt(block.blockNames.length);
+        for (int i = 0; i < block.blockNames.length; i++) {
+            body.writeInt(index(strings, block.blockNames[i]));
+            writeBlock(body, block.blocks[i], strings);
+        }
+    }
+
+    private static int index(Map<String, Integer> strings, String value) {
+        return value == null ? -1 : strings.computeIfAbsent(value, v -> strings.size());
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    static TerraformProviderSchema read(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC || data.readInt() != FORMAT) {
+            throw new IOException("Not a provider schema index");
+        }
+        String key = readString(data);
+        String[] strings = new String[data.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(data);
+        }
+        Map<String, String> providers = new TreeMap<>();
+        for (int i = data.readInt(); i > 0; i--) {
+            providers.put(strings[data.readInt()], strings[data.readInt()]);
+        }
+        List<Map<String, TerraformSchemaBlock>> sections = new ArrayList<>();
+        for (int section = 0; section < 3; section++) {
+            Map<String, TerraformSchemaBlock> schemas = new TreeMap<>();
+            for (int i = data.readInt(); i > 0; i--) {
+                String name = strings[data.readInt()];
+                schemas.put(name, readBlock(data, strings));
+            }
+            sections.add(schemas);
+        }
+        return new TerraformProviderSchema(key, providers, sections.get(0), sections.get(1), sections.get(2));
+    }
+
+    private static TerraformSchemaBlock readBlock(DataInputStream data, String[] strings) throws IOException {
+        String provider = string(strings, data.readInt());
+        int version = data.readInt();
+        String nesting = string(strings, data.readInt());
+        int minItems = data.readInt();
+        int maxItems = data.readInt();
+        int attributes = data.readInt();
+        String[] attributeNames = new String[attributes];
+        String[] attributeTypes = new String[attributes];
+        byte[] attributeFlags = new byte[attributes];
+        for (int i = 0; i < attributes; i++) {
+            attributeNames[i] = strings[data.readInt()];
+            attributeTypes[i] = string(strings, data.readInt());
+            attributeFlags[i] = data.readByte();
+        }
+        int nested = data.readInt();
+        String[] blockNames = new String[nested];
+        TerraformSchemaBlock[] blocks = new TerraformSchemaBlock[nested];
+        for (int i = 0; i < nested; i++) {
+            blockNames[i] = strings[data.readInt()];
+            blocks[i] = readBlock(data, strings);
+        }
+        return new TerraformSchemaBlock(provider, version, nesting, minItems, maxItems, attributeNames, attributeTypes, attributeFlags, blockNames, blocks);
+    }
+
+    private static String string(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[data.readInt()];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class BlockContent {
+        private final List<String> attributeNames = new ArrayList<>();
+        private final List<String> attributeTypes = new ArrayList<>();
+        private final List<Byte> attributeFlags = new ArrayList<>();
+        private final List<String> blockNames = new ArrayList<>();
+        private final List<TerraformSchemaBlock> blocks = new ArrayList<>();
+
+        // terraform sorts the names already, sorted again for the binary searches of the block
+        TerraformSchemaBlock toBlock(String provider, int version, String nesting, int minItems, int maxItems) {
+            Integer[] attributes = sortedIndexes(this.attributeNames);
+            String[] names = new String[attributes.length];
+            String[] types = new String[attributes.length];
+            byte[] flags = new byte[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                names[i] = this.attributeNames.get(attributes[i]);
+                types[i] = this.attributeTypes.get(attributes[i]);
+                flags[i] = this.attributeFlags.get(attributes[i]);
+            }
+            Integer[] nested = sortedIndexes(this.blockNames);
+            String[] blockNames = new String[nested.length];
+            TerraformSchemaBlock[] blocks = new TerraformSchemaBlock[nested.length];
+            for (int i = 0; i < nested.length; i++) {
+                blockNames[i] = this.blockNames.get(nested[i]);
+                blocks[i] = this.blocks.get(nested[i]);
+            }
+            return new TerraformSchemaBlock(provider, version, nesting, minItems, maxItems, names, types, flags, blockNames, blocks);
+        }
+
+        private static Integer[] sortedIndexes(List<String> names) {
+            Integer[] indexes = new Integer[names.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            Arrays.sort(indexes, Comparator.comparing(names::get));
+            return indexes;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+// masks secret values in output lines with an Aho-Corasick automaton, one pass per line whatever the number of secrets
+@Getter
+public class TerraformRedactor {
+
+    public static final String DEFAULT_MASK = "***";
+    public static final int DEFAULT_MIN_LENGTH = 4;
+    private static final int ROOT = 0;
+
+    private final String mask;
+    // shorter values are not masked, they would hide ordinary words and numbers
+    private final int minLength;
+    // applied after the secrets, each pattern is one more pass over the line
+    private final List<Pattern> patterns;
+    private final int secretCount;
+
+    // the root has a transition for every char, most chars of a line do not start a secret
+    @Getter(lombok.AccessLevel.NONE)
+    private final int[] rootNext;
+    // edges of the other states sorted by char, state s owns edgeChars[edgeStart[s]..edgeStart[s + 1])
+    @Getter(lombok.AccessLevel.NONE)
+    private final int[] edgeStart;
+    @Getter(lombok.AccessLevel.NONE)
+    private final char[] edgeChars;
+    @Getter(lombok.AccessLevel.NONE)
+    private final int[] edgeTargets;
+    @Getter(lombok.AccessLevel.NONE)
+    private final int[] fail;
+    // length of the longest secret ending in the state, following the failure links, 0 when none
+    @Getter(lombok.AccessLevel.NONE)
+    private final int[] matchLength;
+
+    @Builder
+    public TerraformRedactor(@Singular Collection<String> secrets, @Singular List<Pattern> patterns, String mask, Integer minLength) {
+        this.mask = mask != null ? mask : DEFAULT_MASK;
+        this.minLength = minLength != null ? minLength : DEFAULT_MIN_LENGTH;
+        this.patterns = patterns != null ? List.copyOf(patterns) : List.of();
+
+        Set<String> values = new LinkedHashSet<>();
+        if (secrets != null) {
+            for (String secret : secrets) {
+                if (secret != null && secret.length() >= Math.max(1, this.minLength)) {
+                    values.add(secret);
+                    // -json output escapes quotes, backslashes and control chars, and also <, > and & as Go's encoding/json does by default
+                    values.add(jsonEscape(secret, false));
+                    values.add(jsonEscape(secret, true));
+                }
+            }
+        }
+        this.secretCount = values.size();
+
+        // trie with a sorted child map per state, flattened once the failure links are known
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        children.add(new TreeMap<>());
+        lengths.add(0);
+        for (String value : values) {
+            int state = ROOT;
+            for (int i = 0; i < value.length(); i++) {
+                Integer next = children.get(state).get(value.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    lengths.add(0);
+                    children.get(state).put(value.charAt(i), next);
+                }
+                state = next;
+            }
+            lengths.set(state, Math.max(lengths.get(state), value.length()));
+        }
+
+        int states = children.size();
+        this.fail = new int[states];
+        this.matchLength = new int[states];
+        this.rootNext = new int[Character.MAX_VALUE + 1];
+        for (Map.Entry<Character, Integer> edge : children.get(ROOT).entrySet()) {
+            this.rootNext[edge.getKey()] = edge.getValue();
+        }
+        // breadth first, the failure state of a child is known before the child is visited
+        ArrayDeque<Integer> queue = new ArrayDeque<>(children.get(ROOT).values());
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            this.matchLength[state] = Math.max(lengths.get(state), this.matchLength[this.fail[state]]);
+            for (Map.Entry<Character, Integer> edge : children.get(state).entrySet()) {
+                int child = edge.getValue();
+                int failure = this.fail[state];
+                Integer target;
+                while ((target = failure == ROOT ? null : children.get(failure).get(edge.getKey())) == null && failure != ROOT) {
+                    failure = this.fail[failure];
+                }
+                this.fail[child] = target != null ? target : this.rootNext[edge.getKey()];
+                queue.add(child);
+            }
+        }
+
+        this.edgeStart = new int[states + 1];
+        for (int state = 0; state < states; state++) {
+            this.edgeStart[state + 1] = this.edgeStart[state] + (state == ROOT ? 0 : children.get(state).size());
+        }
+        this.edgeChars = new char[this.edgeStart[states]];
+        this.edgeTargets = new int[this.edgeStart[states]];
+        for (int state = 1; state < states; state++) {
+            int edge = this.edgeStart[state];
+            for (Map.Entry<Character, Integer> entry : children.get(state).entrySet()) {
+                this.edgeChars[edge] = entry.getKey();
+                this.edgeTargets[edge++] = entry.getValue();
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.secretCount == 0 && this.patterns.isEmpty();
+    }
+
+    // the same instance when nothing matched
+    public String redact(String line) {
+        if (line == null) {
+            return null;
+        }
+        String redacted = this.secretCount > 0 ? redactSecrets(line) : line;
+        for (Pattern pattern : this.patterns) {
+            redacted = pattern.matcher(redacted).replaceAll(this.mask);
+        }
+        return redacted;
+    }
+
+    private String redactSecrets(String line) {
+        // masked ranges merged as they are found, they end in increasing order
+        int[] starts = null;
+        int[] ends = null;
+        int ranges = 0;
+        int state = ROOT;
+        for (int i = 0, length = line.length(); i < length; i++) {
+            char c = line.charAt(i);
+            state = next(state, c);
+            int match = this.matchLength[state];
+            if (match == 0) {
+                continue;
+            }
+            int start = i - match + 1;
+            if (starts == null) {
+                starts = new int[4];
+                ends = new int[4];
+            }
+            while (ranges > 0 && start <= ends[ranges - 1] + 1) {
+                start = Math.min(start, starts[--ranges]);
+            }
+            if (ranges == starts.length) {
+                starts = Arrays.copyOf(starts, ranges * 2);
+                ends = Arrays.copyOf(ends, ranges * 2);
+            }
+            starts[ranges] = start;
+            ends[ranges++] = i;
+        }
+        if (ranges == 0) {
+            return line;
+        }
+
+        StringBuilder redacted = new StringBuilder(line.length());
+        int last = 0;
+        for (int range = 0; range < ranges; range++) {
+            redacted.append(line, last, starts[range]).append(this.mask);
+            last = ends[range] + 1;
+        }
+        return redacted.append(line, last, line.length()).toString();
+    }
+
+    private int next(int state, char c) {
+        while (state != ROOT) {
+            int low = this.edgeStart[state];
+            int high = this.edgeStart[state + 1] - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char edge = this.edgeChars[middle];
+                if (edge < c) {
+                    low = middle + 1;
+                } else if (edge > c) {
+                    high = middle - 1;
+                } else {
+                    return this.edgeTargets[middle];
+                }
+            }
+            state = this.fail[state];
+        }
+        return this.rootNext[c];
+    }
+
+    static String jsonEscape(String value, boolean escapeHtml) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '<':
+                case '>':
+                case '&':
+                    escaped.append(escapeHtml ? String.format("\\u%04x", (int) c) : String.valueOf(c));
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
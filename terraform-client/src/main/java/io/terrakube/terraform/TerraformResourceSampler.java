@@ -0,0 +1,122 @@
+package io.terrakube.terraform;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+class TerraformResourceSampler implements Runnable {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terraform-resource-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final File PROC = new File("/proc");
+    private static final int CPU = 0;
+    private static final int READ_BYTES = 1;
+    private static final int WRITE_BYTES = 2;
+
+    private final ProcessHandle root;
+    // counters of processes that already exited are kept with their last sampled value
+    private final Map<Long, long[]> counters = new HashMap<>();
+    private long peakRss;
+    private int peakProcesses;
+    private int samples;
+    private ScheduledFuture<?> task;
+
+    private TerraformResourceSampler(ProcessHandle root) {
+        this.root = root;
+    }
+
+    static TerraformResourceSampler start(ProcessHandle root, Duration interval) {
+        TerraformResourceSampler sampler = new TerraformResourceSampler(root);
+        synchronized (sampler) {
+            sampler.task = SCHEDULER.scheduleAtFixedRate(sampler, 0, Math.max(1, interval.toMillis()), TimeUnit.MILLISECONDS);
+        }
+        return sampler;
+    }
+
+    @Override
+    public synchronized void run() {
+        try {
+            List<ProcessHandle> processes = new ArrayList<>();
+            if (this.root.isAlive()) {
+                processes.add(this.root);
+            }
+            this.root.descendants().forEach(processes::add);
+            if (processes.isEmpty()) {
+                this.task.cancel(false);
+                return;
+            }
+
+            long rss = 0;
+            for (ProcessHandle process : processes) {
+                long[] values = this.counters.computeIfAbsent(process.pid(), pid -> new long[3]);
+                process.info().totalCpuDuration().ifPresent(cpu -> values[CPU] = Math.max(values[CPU], cpu.toNanos()));
+
+                Map<String, Long> status = readProcValues(process.pid(), "status");
+                rss += status.getOrDefault("VmRSS", 0L) * 1024;
+                this.peakRss = Math.max(this.peakRss, status.getOrDefault("VmHWM", 0L) * 1024);
+
+                Map<String, Long> io = readProcValues(process.pid(), "io");
+                values[READ_BYTES] = Math.max(values[READ_BYTES], io.getOrDefault("read_bytes", 0L));
+                values[WRITE_BYTES] = Math.max(values[WRITE_BYTES], io.getOrDefault("write_bytes", 0L));
+            }
+            this.peakRss = Math.max(this.peakRss, rss);
+            this.peakProcesses = Math.max(this.peakProcesses, processes.size());
+            this.samples++;
+        } catch (RuntimeException ex) {
+            log.debug("Unable to sample process {}: {}", this.root.pid(), ex.getMessage());
+        }
+    }
+
+    synchronized TerraformResourceUsage stop() {
+        this.task.cancel(false);
+        long cpu = 0, readBytes = 0, writeBytes = 0;
+        for (long[] values : this.counters.values()) {
+            cpu += values[CPU];
+            readBytes += values[READ_BYTES];
+            writeBytes += values[WRITE_BYTES];
+        }
+        return TerraformResourceUsage.builder()
+                .peakRss(this.peakRss)
+                .cpuTime(Duration.ofNanos(cpu))
+                .readBytes(readBytes)
+                .writeBytes(writeBytes)
+                .peakProcesses(this.peakProcesses)
+                .samples(this.samples)
+                .build();
+    }
+
+    // "VmRSS:    1234 kB" and "read_bytes: 1234" lines
+    private static Map<String, Long> readProcValues(long pid, String name) {
+        File file = new File(new File(PROC, String.valueOf(pid)), name);
+        if (!file.canRead()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> values = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(file.toPath())) {
+                int separator = line.indexOf(':');
+                if (separator > 0) {
+                    String[] value = line.substring(separator + 1).trim().split("\\s+");
+                    if (value.length > 0 && value[0].matches("\\d+")) {
+                        values.put(line.substring(0, separator), Long.parseLong(value[0]));
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            log.debug("Unable to read {}: {}", file, ex.getMessage());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,25 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@AllArgsConstructor
+@Getter
+public class TerraformResourceTiming {
+    private String address;
+    private String resourceType;
+    private String provider;
+    private String action;
+    private Instant startTime;
+    private Instant endTime;
+    private boolean errored;
+    // false when the run ended before terraform reported the resource as complete
+    private boolean completed;
+
+    public Duration getDuration() {
+        return Duration.between(this.startTime, this.endTime);
+    }
+}
@@ -0,0 +1,20 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@AllArgsConstructor
+@Builder
+@Getter
+public class TerraformResourceUsage {
+    // terraform and provider plugin processes together
+    private long peakRss;
+    private Duration cpuTime;
+    private long readBytes;
+    private long writeBytes;
+    private int peakProcesses;
+    private int samples;
+}
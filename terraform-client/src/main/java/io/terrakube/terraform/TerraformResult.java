@@ -0,0 +1,41 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+
+@AllArgsConstructor
+@Builder
+@Getter
+public class TerraformResult {
+    // id of the run, also the name of its run log
+    private String runId;
+    private TerraformCommand command;
+    private File workingDirectory;
+    private int exitCode;
+    private long pid;
+    private Instant startTime;
+    private Duration duration;
+    // null when resource sampling is disabled
+    private TerraformResourceUsage resourceUsage;
+    // null when the run was not placed in its own cgroup
+    private TerraformCgroupStatistics cgroupStatistics;
+    // null when the command succeeded
+    private TerraformFailure failure;
+    // 1 for the first run, higher when the command was retried
+    private int attempt;
+    // resolved version of the binary, null when it is unknown
+    private String terraformVersion;
+    private boolean tofu;
+    // null unless apply profiling is enabled with json output
+    private TerraformApplyProfile applyProfile;
+
+    // a plan with -detailed-exitcode also succeeds with exit code 2, so the failure decides and not the exit code
+    public boolean isSuccessful() {
+        return this.failure == null;
+    }
+}
@@ -0,0 +1,40 @@
+package io.terrakube.terraform;
+
+import lombok.*;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+public class TerraformRetryPolicy {
+
+    // including the first run
+    @Builder.Default
+    private int maxAttempts = 3;
+    @Builder.Default
+    private Duration initialBackoff = Duration.ofSeconds(10);
+    @Builder.Default
+    private Duration maxBackoff = Duration.ofMinutes(5);
+    @Builder.Default
+    private double multiplier = 2;
+    // every transient failure when empty
+    @Singular("retryOn")
+    private Set<TerraformFailureType> retryOn;
+
+    public boolean shouldRetry(TerraformFailure failure, int attempt) {
+        if (failure == null || attempt >= this.maxAttempts) {
+            return false;
+        }
+        return this.retryOn == null || this.retryOn.isEmpty() ? failure.isTransient() : this.retryOn.contains(failure.getType());
+    }
+
+    public Duration getBackoff(int attempt) {
+        double backoff = Math.min(this.maxBackoff.toMillis(), this.initialBackoff.toMillis() * Math.pow(this.multiplier, attempt - 1));
+        // random half of the backoff, so runs that failed together do not retry together
+        return Duration.ofMillis((long) (backoff / 2 + ThreadLocalRandom.current().nextDouble() * backoff / 2));
+    }
+}
@@ -0,0 +1,139 @@
+package io.terrakube.terraform;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// a call to the client, from the moment it waits for its workspace until its last command exits
+@Slf4j
+@Getter
+public class TerraformRun {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terraform-run-cancel");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String id;
+    private final File workingDirectory;
+    private final Instant queuedTime = Instant.now();
+    private volatile TerraformCommand command;
+    // the installed version, known once the binary is resolved
+    private volatile String terraformVersion;
+    private volatile TerraformRunStatus status = TerraformRunStatus.QUEUED;
+    private volatile Instant startTime;
+    private volatile long pid;
+    private volatile boolean cancelled;
+    private final Duration cancelGracePeriod;
+
+    private final AtomicLong outputLines = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private ProcessHandle process;
+    private CompletableFuture<?> result;
+
+    TerraformRun(String id, TerraformCommand command, File workingDirectory, Duration cancelGracePeriod) {
+        this.id = id;
+        this.command = command;
+        this.workingDirectory = workingDirectory;
+        this.cancelGracePeriod = cancelGracePeriod != null ? cancelGracePeriod : Duration.ZERO;
+    }
+
+    public long getOutputLines() {
+        return this.outputLines.get();
+    }
+
+    public long getOutputBytes() {
+        return this.outputBytes.get();
+    }
+
+    public Duration getElapsed() {
+        Instant start = this.startTime;
+        return Duration.between(start != null ? start : this.queuedTime, Instant.now());
+    }
+
+    // lines per second since the run started
+    public double getOutputRate() {
+        long millis = this.startTime != null ? getElapsed().toMillis() : 0;
+        return millis > 0 ? this.outputLines.get() * 1000.0 / millis : 0;
+    }
+
+    Consumer<String> track(Consumer<String> listener) {
+        if (listener == null) {
+            return null;
+        }
+        return line -> {
+            this.outputLines.incrementAndGet();
+            this.outputBytes.addAndGet(line.getBytes(StandardCharsets.UTF_8).length + 1L);
+            listener.accept(line);
+        };
+    }
+
+    void setTerraformVersion(String terraformVersion) {
+        this.terraformVersion = terraformVersion;
+    }
+
+    synchronized void setResult(CompletableFuture<?> result) {
+        this.result = result;
+    }
+
+    synchronized void running() {
+        if (this.cancelled) {
+            throw new CancellationException("Run " + this.id + " was cancelled");
+        }
+        this.status = TerraformRunStatus.RUNNING;
+        this.startTime = Instant.now();
+    }
+
+    synchronized void started(TerraformCommand command, Process process) {
+        this.command = command;
+        this.process = process.toHandle();
+        this.pid = process.pid();
+        if (this.cancelled) {
+            destroy();
+        }
+    }
+
+    synchronized boolean cancel() {
+        if (this.cancelled) {
+            return false;
+        }
+        this.cancelled = true;
+        if (this.status == TerraformRunStatus.QUEUED) {
+            // the run is skipped when it gets the workspace lock
+            if (this.result != null) {
+                this.result.completeExceptionally(new CancellationException("Run " + this.id + " was cancelled while queued"));
+            }
+        } else if (this.process != null) {
+            destroy();
+        }
+        return true;
+    }
+
+    private void destroy() {
+        // terraform stops its providers and releases the state lock on SIGTERM, providers get it from terraform
+        ProcessHandle process = this.process;
+        process.destroy();
+        SCHEDULER.schedule(() -> kill(process), this.cancelGracePeriod.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void kill(ProcessHandle process) {
+        if (!process.isAlive()) {
+            return;
+        }
+        log.warn("Run {} is still running {} after it was cancelled, killing it", this.id, this.cancelGracePeriod);
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
@@ -0,0 +1,8 @@
+package io.terrakube.terraform;
+
+public enum TerraformRunGroup {
+    NONE,
+    COMMAND,
+    VERSION,
+    WORKSPACE
+}
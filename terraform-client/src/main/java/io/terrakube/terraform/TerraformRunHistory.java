@@ -0,0 +1,546 @@
+package io.terrakube.terraform;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// append-only log of the runs, the indexes are columns kept in memory and rebuilt when the log is opened
+@Slf4j
+@Getter
+public class TerraformRunHistory implements AutoCloseable {
+
+    static final String LOG_FILE = "history.log";
+    private static final String COMPACT_FILE = "history.log.compact";
+    private static final byte RUN = 1;
+    private static final byte DELETE = 2;
+    private static final byte SUCCESSFUL = 1;
+    private static final byte DELETED = 2;
+    private static final TerraformCommand[] COMMANDS = TerraformCommand.values();
+
+    private final File directory;
+    // runs older than this are dropped by compact, null keeps them
+    private final Duration retention;
+
+    @Getter(AccessLevel.NONE)
+    private final Columns columns = new Columns();
+    @Getter(AccessLevel.NONE)
+    private FileChannel channel;
+
+    @Builder
+    public TerraformRunHistory(File directory, Duration retention) {
+        this.directory = directory != null ? directory : new File(System.getProperty("user.home"), ".terraform-spring-boot/history");
+        this.retention = retention;
+    }
+
+    public synchronized void record(TerraformResult result) throws IOException {
+        open();
+        TerraformResourceUsage usage = result.getResourceUsage();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(160);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        long time = Math.max(System.currentTimeMillis(), this.columns.lastTime());
+        payload.writeByte(RUN);
+        payload.writeLong(time);
+        payload.writeLong(result.getStartTime() != null ? result.getStartTime().toEpochMilli() : -1);
+        payload.writeUTF(result.getCommand().name());
+        payload.writeUTF(getWorkspace(result));
+        payload.writeBoolean(result.isTofu());
+        payload.writeUTF(result.getTerraformVersion() != null ? result.getTerraformVersion() : "");
+        payload.writeInt(result.getExitCode());
+        payload.writeBoolean(result.isSuccessful());
+        payload.writeLong(result.getDuration() != null ? result.getDuration().toMillis() : 0);
+        payload.writeInt(result.getAttempt());
+        payload.writeUTF(result.getFailure() != null ? result.getFailure().getType().name() : "");
+        payload.writeLong(result.getPid());
+        payload.writeBoolean(usage != null);
+        if (usage != null) {
+            payload.writeLong(usage.getPeakRss());
+            payload.writeLong(usage.getCpuTime().toMillis());
+            payload.writeLong(usage.getReadBytes());
+            payload.writeLong(usage.getWriteBytes());
+            payload.writeInt(usage.getPeakProcesses());
+            payload.writeInt(usage.getSamples());
+        }
+        append(bytes.toByteArray());
+    }
+
+    // drops the runs of a workspace, the space is reclaimed by compact
+    public synchronized int delete(String workspace) throws IOException {
+        open();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(DELETE);
+        payload.writeLong(Math.max(System.currentTimeMillis(), this.columns.lastTime()));
+        payload.writeUTF(workspace);
+        return append(bytes.toByteArray());
+    }
+
+    public synchronized List<TerraformRunRecord> find(TerraformRunQuery query) throws IOException {
+        open();
+        List<TerraformRunRecord> records = new ArrayList<>();
+        Matcher matcher = new Matcher(query);
+        Rows rows = matcher.getRows();
+        for (int i = rows.size() - 1; i >= 0 && records.size() < query.getLimit(); i--) {
+            int row = rows.get(i);
+            if (matcher.matches(row)) {
+                records.add(read(this.columns.offsets[row]));
+            }
+        }
+        return records;
+    }
+
+    public Optional<TerraformRunRecord> findLast(String workspace, TerraformCommand command, Boolean successful) throws IOException {
+        List<TerraformRunRecord> records = find(TerraformRunQuery.builder().workspace(workspace).command(command).successful(successful).limit(1).build());
+        return records.isEmpty() ? Optional.empty() : Optional.of(records.get(0));
+    }
+
+    // duration percentiles computed from the in memory columns, the log is not read
+    public synchronized Map<String, TerraformRunStatistics> getStatistics(TerraformRunQuery query, TerraformRunGroup group) throws IOException {
+        open();
+        Map<String, long[]> durations = new TreeMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Long> failures = new HashMap<>();
+        Matcher matcher = new Matcher(query);
+        Rows rows = matcher.getRows();
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            if (!matcher.matches(row)) {
+                continue;
+            }
+            String key = getGroupKey(row, group);
+            int count = counts.merge(key, 1, Integer::sum);
+            long[] values = durations.computeIfAbsent(key, k -> new long[16]);
+            if (count > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+                durations.put(key, values);
+            }
+            values[count - 1] = this.columns.durations[row];
+            if ((this.columns.flags[row] & SUCCESSFUL) == 0) {
+                failures.merge(key, 1L, Long::sum);
+            }
+        }
+
+        Map<String, TerraformRunStatistics> statistics = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : durations.entrySet()) {
+            int count = counts.get(entry.getKey());
+            long[] values = Arrays.copyOf(entry.getValue(), count);
+            Arrays.sort(values);
+            statistics.put(entry.getKey(), new TerraformRunStatistics(count, failures.getOrDefault(entry.getKey(), 0L),
+                    percentile(values, 50), percentile(values, 95), percentile(values, 99), Duration.ofMillis(values[count - 1])));
+        }
+        return statistics;
+    }
+
+    public synchronized int size() throws IOException {
+        open();
+        return this.columns.size - this.columns.deleted;
+    }
+
+    // rewrites the log without deleted runs and runs older than the retention, returns the runs dropped
+    public synchronized int compact() throws IOException {
+        open();
+        long expiredBefore = this.retention != null ? System.currentTimeMillis() - this.retention.toMillis() : Long.MIN_VALUE;
+        File compactFile = new File(this.directory, COMPACT_FILE);
+        int dropped = 0;
+        try (FileChannel target = FileChannel.open(compactFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int row = 0; row < this.columns.size; row++) {
+                if ((this.columns.flags[row] & DELETED) != 0 || this.columns.times[row] < expiredBefore) {
+                    dropped++;
+                    continue;
+                }
+                ByteBuffer frame = readFrame(this.columns.offsets[row]);
+                while (frame.hasRemaining()) {
+                    target.write(frame);
+                }
+            }
+            target.force(true);
+        }
+        close();
+        Files.move(compactFile.toPath(), new File(this.directory, LOG_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        log.info("Compacted run history {}, {} runs dropped, {} runs kept", this.directory, dropped, this.columns.size);
+        return dropped;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (this.channel != null) {
+            return;
+        }
+        FileUtils.forceMkdir(this.directory);
+        File logFile = new File(this.directory, LOG_FILE);
+        this.channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.columns.clear();
+
+        long offset = 0;
+        long length = this.channel.size();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile.toPath()), 64 * 1024))) {
+            while (offset < length) {
+                byte[] payload = readPayload(input, length - offset);
+                if (payload == null) {
+                    // a frame cut by a crash, the runs after it can not be trusted
+                    log.warn("Truncating run history {} at {} of {} bytes", logFile, offset, length);
+                    this.channel.truncate(offset);
+                    break;
+                }
+                index(payload, offset);
+                offset += payload.length + 8;
+            }
+        }
+        this.channel.position(this.channel.size());
+    }
+
+    private int append(byte[] payload) throws IOException {
+        long offset = this.channel.size();
+        ByteBuffer frame = ByteBuffer.allocate(payload.length + 8);
+        frame.putInt(payload.length).put(payload).putInt(crc(payload));
+        frame.flip();
+        while (frame.hasRemaining()) {
+            this.channel.write(frame, offset + frame.position());
+        }
+        return index(payload, offset);
+    }
+
+    private int index(byte[] payload, long offset) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = input.readByte();
+        long time = input.readLong();
+        if (type == DELETE) {
+            return this.columns.delete(input.readUTF());
+        }
+        input.readLong();
+        String command = input.readUTF();
+        String workspace = input.readUTF();
+        input.readBoolean();
+        String version = input.readUTF();
+        input.readInt();
+        boolean successful = input.readBoolean();
+        long duration = input.readLong();
+        this.columns.add(time, offset, duration, commandOrdinal(command), successful, workspace, version);
+        return 1;
+    }
+
+    private TerraformRunRecord read(long offset) throws IOException {
+        ByteBuffer frame = readFrame(offset);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(frame.array(), 4, frame.limit() - 8));
+        input.readByte();
+        Instant time = Instant.ofEpochMilli(input.readLong());
+        long startTime = input.readLong();
+        String command = input.readUTF();
+        String workspace = input.readUTF();
+        boolean tofu = input.readBoolean();
+        String version = input.readUTF();
+        int exitCode = input.readInt();
+        boolean successful = input.readBoolean();
+        Duration duration = Duration.ofMillis(input.readLong());
+        int attempt = input.readInt();
+        String failureType = input.readUTF();
+        long pid = input.readLong();
+        TerraformResourceUsage usage = null;
+        if (input.readBoolean()) {
+            usage = TerraformResourceUsage.builder()
+                    .peakRss(input.readLong())
+                    .cpuTime(Duration.ofMillis(input.readLong()))
+                    .readBytes(input.readLong())
+                    .writeBytes(input.readLong())
+                    .peakProcesses(input.readInt())
+                    .samples(input.readInt())
+                    .build();
+        }
+        int ordinal = commandOrdinal(command);
+        return new TerraformRunRecord(time, startTime >= 0 ? Instant.ofEpochMilli(startTime) : null, ordinal >= 0 ? COMMANDS[ordinal] : null,
+                workspace, tofu, version.isEmpty() ? null : version, exitCode, successful, duration, attempt,
+                failureType.isEmpty() ? null : TerraformFailureType.valueOf(failureType), pid, usage);
+    }
+
+    private ByteBuffer readFrame(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        ByteBuffer frame = ByteBuffer.allocate(length.getInt(0) + 8);
+        readFully(frame, offset);
+        frame.flip();
+        return frame;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Run history ends at " + offset);
+            }
+        }
+    }
+
+    private static byte[] readPayload(DataInputStream input, long remaining) throws IOException {
+        if (remaining < 8) {
+            return null;
+        }
+        int length = input.readInt();
+        if (length <= 0 || length > remaining - 8) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        return input.readInt() == crc(payload) ? payload : null;
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static int commandOrdinal(String command) {
+        for (TerraformCommand value : COMMANDS) {
+            if (value.name().equals(command)) {
+                return value.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    private static String getWorkspace(TerraformResult result) {
+        return result.getWorkingDirectory() != null ? result.getWorkingDirectory().getAbsolutePath() : "";
+    }
+
+    private String getGroupKey(int row, TerraformRunGroup group) {
+        switch (group) {
+            case COMMAND:
+                return this.columns.commands[row] >= 0 ? COMMANDS[this.columns.commands[row]].name() : "unknown";
+            case VERSION:
+                return this.columns.versionNames.get(this.columns.versions[row]);
+            case WORKSPACE:
+                return this.columns.workspaceNames.get(this.columns.workspaces[row]);
+            default:
+                return "all";
+        }
+    }
+
+    private static Duration percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return Duration.ofMillis(sorted[Math.max(0, index)]);
+    }
+
+    // picks the smallest index for the query, the other fields are checked on the columns
+    private class Matcher {
+        private final TerraformRunQuery query;
+        private final int workspace;
+        private final int version;
+        private final long from;
+        private final long to;
+
+        private Matcher(TerraformRunQuery query) {
+            this.query = query;
+            Columns columns = TerraformRunHistory.this.columns;
+            this.workspace = query.getWorkspace() != null ? columns.workspaceIds.getOrDefault(query.getWorkspace(), -2) : -1;
+            this.version = query.getTerraformVersion() != null ? columns.versionIds.getOrDefault(query.getTerraformVersion(), -2) : -1;
+            this.from = query.getFrom() != null ? query.getFrom().toEpochMilli() : Long.MIN_VALUE;
+            this.to = query.getTo() != null ? query.getTo().toEpochMilli() : Long.MAX_VALUE;
+        }
+
+        private Rows getRows() {
+            Columns columns = TerraformRunHistory.this.columns;
+            if (this.workspace == -2 || this.version == -2) {
+                return Rows.EMPTY;
+            }
+            Rows rows = columns.timeRange(this.from, this.to);
+            if (this.workspace >= 0 && columns.workspaceRows.get(this.workspace).size() < rows.size()) {
+                rows = columns.workspaceRows.get(this.workspace);
+            }
+            if (Boolean.FALSE.equals(this.query.getSuccessful()) && columns.failedRows.size() < rows.size()) {
+                rows = columns.failedRows;
+            }
+            return rows;
+        }
+
+        private boolean matches(int row) {
+            Columns columns = TerraformRunHistory.this.columns;
+            byte flags = columns.flags[row];
+            return (flags & DELETED) == 0
+                    && columns.times[row] >= this.from && columns.times[row] < this.to
+                    && (this.workspace < 0 || columns.workspaces[row] == this.workspace)
+                    && (this.version < 0 || columns.versions[row] == this.version)
+                    && (this.query.getCommand() == null || columns.commands[row] == this.query.getCommand().ordinal())
+                    && (this.query.getSuccessful() == null || ((flags & SUCCESSFUL) != 0) == this.query.getSuccessful());
+        }
+    }
+
+    private static class Columns {
+        private int size;
+        private int deleted;
+        private long[] times = new long[1024];
+        private long[] offsets = new long[1024];
+        private int[] durations = new int[1024];
+        private byte[] commands = new byte[1024];
+        private byte[] flags = new byte[1024];
+        private int[] workspaces = new int[1024];
+        private int[] versions = new int[1024];
+        private final Map<String, Integer> workspaceIds = new HashMap<>();
+        private final List<String> workspaceNames = new ArrayList<>();
+        private final List<IntRows> workspaceRows = new ArrayList<>();
+        private final Map<String, Integer> versionIds = new HashMap<>();
+        private final List<String> versionNames = new ArrayList<>();
+        private IntRows failedRows = new IntRows();
+
+        private void clear() {
+            this.size = 0;
+            this.deleted = 0;
+            this.workspaceIds.clear();
+            this.workspaceNames.clear();
+            this.workspaceRows.clear();
+            this.versionIds.clear();
+            this.versionNames.clear();
+            this.failedRows = new IntRows();
+        }
+
+        private long lastTime() {
+            return this.size > 0 ? this.times[this.size - 1] : Long.MIN_VALUE;
+        }
+
+        private void add(long time, long offset, long duration, int command, boolean successful, String workspace, String version) {
+            if (this.size == this.times.length) {
+                int capacity = this.size * 2;
+                this.times = Arrays.copyOf(this.times, capacity);
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+                this.durations = Arrays.copyOf(this.durations, capacity);
+                this.commands = Arrays.copyOf(this.commands, capacity);
+                this.flags = Arrays.copyOf(this.flags, capacity);
+                this.workspaces = Arrays.copyOf(this.workspaces, capacity);
+                this.versions = Arrays.copyOf(this.versions, capacity);
+            }
+            int row = this.size++;
+            this.times[row] = time;
+            this.offsets[row] = offset;
+            this.durations[row] = (int) Math.min(Integer.MAX_VALUE, duration);
+            this.commands[row] = (byte) command;
+            this.flags[row] = successful ? SUCCESSFUL : 0;
+            this.workspaces[row] = id(workspace, this.workspaceIds, this.workspaceNames);
+            this.versions[row] = id(version, this.versionIds, this.versionNames);
+            if (this.workspaces[row] == this.workspaceRows.size()) {
+                this.workspaceRows.add(new IntRows());
+            }
+            this.workspaceRows.get(this.workspaces[row]).add(row);
+            if (!successful) {
+                this.failedRows.add(row);
+            }
+        }
+
+        private int delete(String workspace) {
+            Integer id = this.workspaceIds.get(workspace);
+            if (id == null) {
+                return 0;
+            }
+            IntRows rows = this.workspaceRows.get(id);
+            int count = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                int row = rows.get(i);
+                if ((this.flags[row] & DELETED) == 0) {
+                    this.flags[row] |= DELETED;
+                    count++;
+                }
+            }
+            this.deleted += count;
+            this.workspaceRows.set(id, new IntRows());
+            return count;
+        }
+
+        // rows are appended with non decreasing times
+        private Rows timeRange(long from, long to) {
+            int start = from == Long.MIN_VALUE ? 0 : lowerBound(from);
+            int end = to == Long.MAX_VALUE ? this.size : lowerBound(to);
+            return new RangeRows(start, Math.max(start, end));
+        }
+
+        private int lowerBound(long time) {
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.times[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private static int id(String value, Map<String, Integer> ids, List<String> names) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = names.size();
+                ids.put(value, id);
+                names.add(value);
+            }
+            return id;
+        }
+    }
+
+    private interface Rows {
+        Rows EMPTY = new RangeRows(0, 0);
+
+        int size();
+
+        int get(int index);
+    }
+
+    private static class RangeRows implements Rows {
+        private final int start;
+        private final int end;
+
+        private RangeRows(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int size() {
+            return this.end - this.start;
+        }
+
+        @Override
+        public int get(int index) {
+            return this.start + index;
+        }
+    }
+
+    private static class IntRows implements Rows {
+        private int[] rows = new int[16];
+        private int size;
+
+        private void add(int row) {
+            if (this.size == this.rows.length) {
+                this.rows = Arrays.copyOf(this.rows, this.size * 2);
+            }
+            this.rows[this.size++] = row;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public int get(int index) {
+            return this.rows[index];
+        }
+    }
+}
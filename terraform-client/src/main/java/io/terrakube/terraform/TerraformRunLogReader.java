@@ -0,0 +1,196 @@
+package io.terrakube.terraform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// reads the blocks through memory mapped segments, only the blocks needed for a request are decompressed
+public class TerraformRunLogReader implements AutoCloseable {
+
+    private static final int FIRST_LINE = 0;
+    private static final int UNCOMPRESSED_OFFSET = 8;
+    private static final int COMPRESSED_OFFSET = 16;
+    private static final int COMPRESSED_LENGTH = 24;
+    private static final int UNCOMPRESSED_LENGTH = 28;
+    private static final int LINES = 32;
+
+    private final File directory;
+    private final Inflater inflater = new Inflater();
+    private final List<Segment> segments = new ArrayList<>();
+
+    TerraformRunLogReader(File directory) throws IOException {
+        this.directory = directory;
+        refresh();
+    }
+
+    // maps the blocks written since the reader was opened
+    public synchronized void refresh() throws IOException {
+        String[] names = this.directory.list((dir, name) -> name.startsWith(TerraformRunLogStore.SEGMENT_PREFIX) && name.endsWith(TerraformRunLogStore.INDEX_SUFFIX));
+        if (names == null) {
+            throw new IOException("Run log " + this.directory.getName() + " does not exist");
+        }
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; i++) {
+            if (i < this.segments.size() - 1) {
+                continue;
+            }
+            String name = names[i].substring(0, names[i].length() - TerraformRunLogStore.INDEX_SUFFIX.length());
+            Segment segment = Segment.map(new File(this.directory, names[i]), new File(this.directory, name.concat(TerraformRunLogStore.LOG_SUFFIX)));
+            if (i < this.segments.size()) {
+                this.segments.set(i, segment);
+            } else if (segment.entries > 0) {
+                this.segments.add(segment);
+            }
+        }
+    }
+
+    public synchronized long getLineCount() {
+        if (this.segments.isEmpty()) {
+            return 0;
+        }
+        Segment last = this.segments.get(this.segments.size() - 1);
+        return last.getLong(last.entries - 1, FIRST_LINE) + last.getInt(last.entries - 1, LINES);
+    }
+
+    // uncompressed size of the log
+    public synchronized long getSize() {
+        if (this.segments.isEmpty()) {
+            return 0;
+        }
+        Segment last = this.segments.get(this.segments.size() - 1);
+        return last.getLong(last.entries - 1, UNCOMPRESSED_OFFSET) + last.getInt(last.entries - 1, UNCOMPRESSED_LENGTH);
+    }
+
+    public synchronized List<String> readLines(long fromLine, int count) throws IOException {
+        List<String> lines = new ArrayList<>();
+        long line = Math.max(0, fromLine);
+        while (lines.size() < count && line < getLineCount()) {
+            long[] position = find(line, FIRST_LINE);
+            Segment segment = this.segments.get((int) position[0]);
+            int entry = (int) position[1];
+            long blockFirstLine = segment.getLong(entry, FIRST_LINE);
+            String[] blockLines = new String(decompress(segment, entry), StandardCharsets.UTF_8).split("\n", -1);
+            // the block ends with a line separator
+            for (int i = (int) (line - blockFirstLine); i < blockLines.length - 1 && lines.size() < count; i++) {
+                lines.add(blockLines[i]);
+                line++;
+            }
+        }
+        return lines;
+    }
+
+    public synchronized List<String> tail(int count) throws IOException {
+        return readLines(Math.max(0, getLineCount() - count), count);
+    }
+
+    // byte range of the uncompressed log, shorter when it reaches the end
+    public synchronized byte[] readBytes(long offset, int length) throws IOException {
+        long end = Math.min(getSize(), offset + length);
+        if (offset < 0 || offset >= end) {
+            return new byte[0];
+        }
+        byte[] bytes = new byte[(int) (end - offset)];
+        long position = offset;
+        while (position < end) {
+            long[] block = find(position, UNCOMPRESSED_OFFSET);
+            Segment segment = this.segments.get((int) block[0]);
+            int entry = (int) block[1];
+            long blockOffset = segment.getLong(entry, UNCOMPRESSED_OFFSET);
+            byte[] raw = decompress(segment, entry);
+            int from = (int) (position - blockOffset);
+            int copy = (int) Math.min(raw.length - from, end - position);
+            System.arraycopy(raw, from, bytes, (int) (position - offset), copy);
+            position += copy;
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.inflater.end();
+        this.segments.clear();
+    }
+
+    // segment and entry of the block containing the value of the field, the sparse index is searched in place
+    private long[] find(long value, int field) {
+        int low = 0;
+        int high = this.segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (this.segments.get(middle).getLong(0, field) <= value) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        Segment segment = this.segments.get(low);
+        int first = 0;
+        int last = segment.entries - 1;
+        while (first < last) {
+            int middle = (first + last + 1) >>> 1;
+            if (segment.getLong(middle, field) <= value) {
+                first = middle;
+            } else {
+                last = middle - 1;
+            }
+        }
+        return new long[]{low, first};
+    }
+
+    private byte[] decompress(Segment segment, int entry) throws IOException {
+        ByteBuffer compressed = segment.log.duplicate();
+        int offset = (int) segment.getLong(entry, COMPRESSED_OFFSET);
+        compressed.position(offset).limit(offset + segment.getInt(entry, COMPRESSED_LENGTH));
+        byte[] raw = new byte[segment.getInt(entry, UNCOMPRESSED_LENGTH)];
+        this.inflater.reset();
+        this.inflater.setInput(compressed);
+        try {
+            int length = 0;
+            while (length < raw.length && !this.inflater.finished()) {
+                length += this.inflater.inflate(raw, length, raw.length - length);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupted block in run log " + this.directory.getName(), ex);
+        }
+        return raw;
+    }
+
+    private static class Segment {
+        private final MappedByteBuffer index;
+        private final MappedByteBuffer log;
+        private final int entries;
+
+        private Segment(MappedByteBuffer index, MappedByteBuffer log, int entries) {
+            this.index = index;
+            this.log = log;
+            this.entries = entries;
+        }
+
+        private static Segment map(File indexFile, File logFile) throws IOException {
+            try (FileChannel index = FileChannel.open(indexFile.toPath()); FileChannel log = FileChannel.open(logFile.toPath())) {
+                // an entry written partially by a running writer is ignored
+                int entries = (int) (index.size() / TerraformRunLogStore.INDEX_ENTRY_SIZE);
+                MappedByteBuffer indexBuffer = index.map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * TerraformRunLogStore.INDEX_ENTRY_SIZE);
+                // the index is read first, the blocks it references are already in the log
+                MappedByteBuffer logBuffer = log.map(FileChannel.MapMode.READ_ONLY, 0, log.size());
+                return new Segment(indexBuffer, logBuffer, entries);
+            }
+        }
+
+        private long getLong(int entry, int field) {
+            return this.index.getLong(entry * TerraformRunLogStore.INDEX_ENTRY_SIZE + field);
+        }
+
+        private int getInt(int entry, int field) {
+            return this.index.getInt(entry * TerraformRunLogStore.INDEX_ENTRY_SIZE + field);
+        }
+    }
+}
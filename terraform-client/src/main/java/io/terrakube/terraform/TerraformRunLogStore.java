@@ -0,0 +1,157 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+@Slf4j
+@Getter
+public class TerraformRunLogStore {
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    // first line, uncompressed offset, compressed offset, compressed length, uncompressed length, lines
+    static final int INDEX_ENTRY_SIZE = 40;
+
+    private static final Pattern RUN_ID = Pattern.compile("[A-Za-z0-9._-]+");
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+
+    private final File directory;
+    // uncompressed bytes compressed together, a read decompresses at most one block per returned block of lines
+    private final int blockSize;
+    // compressed bytes per segment file
+    private final long segmentSize;
+    // a partial block is compressed once it is this old, also when no line follows, so readers see output of a quiet run
+    private final Duration flushInterval;
+    private final int compressionLevel;
+    // runs older than this are deleted, null keeps them
+    private final Duration retention;
+    // oldest runs are deleted above this total size, 0 disables it
+    private final long maxSize;
+
+    private final Set<String> openRuns = ConcurrentHashMap.newKeySet();
+
+    @Builder
+    public TerraformRunLogStore(File directory, Integer blockSize, Long segmentSize, Duration flushInterval, Integer compressionLevel, Duration retention, Long maxSize) {
+        this.directory = directory != null ? directory : new File(System.getProperty("user.home"), ".terraform-spring-boot/runs");
+        this.blockSize = blockSize != null && blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
+        this.segmentSize = segmentSize != null && segmentSize > 0 ? segmentSize : DEFAULT_SEGMENT_SIZE;
+        this.flushInterval = flushInterval != null ? flushInterval : DEFAULT_FLUSH_INTERVAL;
+        this.compressionLevel = compressionLevel != null ? compressionLevel : Deflater.BEST_SPEED;
+        this.retention = retention;
+        this.maxSize = maxSize != null ? maxSize : 0;
+    }
+
+    public TerraformRunLogWriter create(String runId) throws IOException {
+        File runDirectory = getRunDirectory(runId);
+        applyRetention();
+        if (!this.openRuns.add(runId)) {
+            throw new IllegalStateException("Run log " + runId + " is already open");
+        }
+        try {
+            if (runDirectory.exists()) {
+                throw new IllegalStateException("Run log " + runId + " already exists");
+            }
+            FileUtils.forceMkdir(runDirectory);
+            return new TerraformRunLogWriter(this, runId, runDirectory);
+        } catch (IOException | RuntimeException ex) {
+            this.openRuns.remove(runId);
+            throw ex;
+        }
+    }
+
+    public TerraformRunLogReader open(String runId) throws IOException {
+        File runDirectory = getRunDirectory(runId);
+        if (!runDirectory.isDirectory()) {
+            throw new IOException("Run log " + runId + " does not exist");
+        }
+        return new TerraformRunLogReader(runDirectory);
+    }
+
+    public boolean exists(String runId) {
+        return getRunDirectory(runId).isDirectory();
+    }
+
+    public List<String> getRuns() {
+        String[] runs = this.directory.list((dir, name) -> new File(dir, name).isDirectory());
+        if (runs == null) {
+            return List.of();
+        }
+        Arrays.sort(runs);
+        return Arrays.asList(runs);
+    }
+
+    public void delete(String runId) throws IOException {
+        if (this.openRuns.contains(runId)) {
+            throw new IllegalStateException("Run log " + runId + " is still being written");
+        }
+        FileUtils.deleteDirectory(getRunDirectory(runId));
+    }
+
+    // runs still being written are never deleted
+    public synchronized void applyRetention() {
+        if (this.retention == null && this.maxSize <= 0) {
+            return;
+        }
+        List<File> runs = new ArrayList<>();
+        Map<File, Long> modified = new HashMap<>();
+        Map<File, Long> sizes = new HashMap<>();
+        for (String runId : getRuns()) {
+            if (this.openRuns.contains(runId)) {
+                continue;
+            }
+            File run = new File(this.directory, runId);
+            long lastModified = 0;
+            long size = 0;
+            File[] files = run.listFiles();
+            for (File file : files != null ? files : new File[0]) {
+                lastModified = Math.max(lastModified, file.lastModified());
+                size += file.length();
+            }
+            runs.add(run);
+            modified.put(run, lastModified);
+            sizes.put(run, size);
+        }
+        runs.sort(Comparator.comparing(modified::get));
+
+        long total = sizes.values().stream().mapToLong(Long::longValue).sum();
+        Instant oldest = this.retention != null ? Instant.now().minus(this.retention) : Instant.MIN;
+        for (File run : runs) {
+            boolean expired = Instant.ofEpochMilli(modified.get(run)).isBefore(oldest);
+            if (!expired && (this.maxSize <= 0 || total <= this.maxSize)) {
+                break;
+            }
+            try {
+                FileUtils.deleteDirectory(run);
+                total -= sizes.get(run);
+                log.info("Deleted run log {}", run.getName());
+            } catch (IOException ex) {
+                log.warn("Unable to delete run log {}: {}", run, ex.getMessage());
+            }
+        }
+    }
+
+    void closed(String runId) {
+        this.openRuns.remove(runId);
+    }
+
+    private File getRunDirectory(String runId) {
+        if (runId == null || !RUN_ID.matcher(runId).matches() || runId.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid run id " + runId);
+        }
+        return new File(this.directory, runId);
+    }
+}
@@ -0,0 +1,216 @@
+package io.terrakube.terraform;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+@Slf4j
+public class TerraformRunLogWriter implements TerraformOutputSubscriber, AutoCloseable {
+
+    // seals the partial block of a run that stopped printing, appends only seal it when the next line arrives
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terraform-run-log-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final TerraformRunLogStore store;
+    @Getter
+    private final String runId;
+    private final File directory;
+    private final Deflater deflater;
+    private final ByteArrayOutputStream block;
+    private final byte[] compressBuffer = new byte[64 * 1024];
+
+    private int blockLines;
+    private long blockStart;
+    private long firstLine;
+    private long uncompressedOffset;
+    private FileChannel segment;
+    private FileChannel index;
+    private long segmentOffset;
+    private boolean closed;
+    private ScheduledFuture<?> flushTask;
+
+    TerraformRunLogWriter(TerraformRunLogStore store, String runId, File directory) {
+        this.store = store;
+        this.runId = runId;
+        this.directory = directory;
+        this.deflater = new Deflater(store.getCompressionLevel());
+        this.block = new ByteArrayOutputStream(store.getBlockSize() + 1024);
+    }
+
+    public Consumer<String> getListener() {
+        return this::append;
+    }
+
+    public synchronized void append(String line) {
+        if (this.closed) {
+            throw new IllegalStateException("Run log " + this.runId + " is closed");
+        }
+        if (this.blockLines == 0) {
+            this.blockStart = System.nanoTime();
+            scheduleFlush(this.store.getFlushInterval().toNanos());
+        }
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        this.block.write(bytes, 0, bytes.length);
+        this.block.write('\n');
+        this.blockLines++;
+        // text with line separators is stored, and counted, as several lines
+        for (int i = line.indexOf('\n'); i >= 0; i = line.indexOf('\n', i + 1)) {
+            this.blockLines++;
+        }
+        if (this.block.size() >= this.store.getBlockSize() || System.nanoTime() - this.blockStart >= this.store.getFlushInterval().toNanos()) {
+            seal();
+        }
+    }
+
+    // makes the lines written so far visible to readers
+    public synchronized void flush() {
+        if (!this.closed) {
+            seal();
+        }
+    }
+
+    public synchronized long getLineCount() {
+        return this.firstLine + this.blockLines;
+    }
+
+    @Override
+    public void onLine(TerraformOutputLine line) {
+        append(line.getText());
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        try {
+            seal();
+        } finally {
+            this.closed = true;
+            if (this.flushTask != null) {
+                this.flushTask.cancel(false);
+                this.flushTask = null;
+            }
+            this.deflater.end();
+            closeSegment();
+            this.store.closed(this.runId);
+        }
+    }
+
+    private synchronized void flushIdle() {
+        this.flushTask = null;
+        if (this.closed || this.blockLines == 0) {
+            return;
+        }
+        long age = System.nanoTime() - this.blockStart;
+        if (age < this.store.getFlushInterval().toNanos()) {
+            // the block was started after the one this task was scheduled for
+            scheduleFlush(this.store.getFlushInterval().toNanos() - age);
+            return;
+        }
+        try {
+            seal();
+        } catch (UncheckedIOException ex) {
+            log.warn("Unable to flush run log {}: {}", this.runId, ex.getMessage());
+        }
+    }
+
+    private void scheduleFlush(long delayNanos) {
+        if (this.flushTask == null) {
+            this.flushTask = SCHEDULER.schedule(this::flushIdle, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void seal() {
+        if (this.blockLines == 0) {
+            return;
+        }
+        byte[] raw = this.block.toByteArray();
+        this.deflater.reset();
+        this.deflater.setInput(raw);
+        this.deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        while (!this.deflater.finished()) {
+            int length = this.deflater.deflate(this.compressBuffer);
+            compressed.write(this.compressBuffer, 0, length);
+        }
+
+        try {
+            if (this.segment == null || (this.segmentOffset > 0 && this.segmentOffset + compressed.size() > this.store.getSegmentSize())) {
+                openSegment();
+            }
+            writeFully(this.segment, ByteBuffer.wrap(compressed.toByteArray()));
+            // the index entry is written after the block, readers only trust blocks with an entry
+            ByteBuffer entry = ByteBuffer.allocate(TerraformRunLogStore.INDEX_ENTRY_SIZE)
+                    .putLong(this.firstLine)
+                    .putLong(this.uncompressedOffset)
+                    .putLong(this.segmentOffset)
+                    .putInt(compressed.size())
+                    .putInt(raw.length)
+                    .putInt(this.blockLines)
+                    .putInt(0);
+            entry.flip();
+            writeFully(this.index, entry);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to write run log " + this.runId, ex);
+        }
+
+        this.segmentOffset += compressed.size();
+        this.uncompressedOffset += raw.length;
+        this.firstLine += this.blockLines;
+        this.blockLines = 0;
+        this.block.reset();
+    }
+
+    private void openSegment() throws IOException {
+        closeSegment();
+        String name = TerraformRunLogStore.SEGMENT_PREFIX.concat(String.format("%020d", this.firstLine));
+        this.segment = FileChannel.open(new File(this.directory, name.concat(TerraformRunLogStore.LOG_SUFFIX)).toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(new File(this.directory, name.concat(TerraformRunLogStore.INDEX_SUFFIX)).toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.segmentOffset = 0;
+    }
+
+    private void closeSegment() {
+        for (FileChannel channel : new FileChannel[]{this.segment, this.index}) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    log.warn("Unable to close run log {}: {}", this.runId, ex.getMessage());
+                }
+            }
+        }
+        this.segment = null;
+        this.index = null;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.terrakube.terraform;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Instant;
+
+// null fields match every run
+@Builder
+@Getter
+public class TerraformRunQuery {
+    private String workspace;
+    private TerraformCommand command;
+    private Boolean successful;
+    private String terraformVersion;
+    // inclusive
+    private Instant from;
+    // exclusive
+    private Instant to;
+    @Builder.Default
+    private int limit = 100;
+}
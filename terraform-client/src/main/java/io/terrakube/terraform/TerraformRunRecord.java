@@ -0,0 +1,29 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@AllArgsConstructor
+@Getter
+public class TerraformRunRecord {
+    // when the run was recorded, the history is ordered by this time
+    private Instant time;
+    private Instant startTime;
+    private TerraformCommand command;
+    // absolute path of the working directory
+    private String workspace;
+    private boolean tofu;
+    private String terraformVersion;
+    private int exitCode;
+    private boolean successful;
+    private Duration duration;
+    private int attempt;
+    // null when the run succeeded
+    private TerraformFailureType failureType;
+    private long pid;
+    // null when resource sampling was disabled
+    private TerraformResourceUsage resourceUsage;
+}
@@ -0,0 +1,17 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@AllArgsConstructor
+@Getter
+public class TerraformRunStatistics {
+    private long count;
+    private long failures;
+    private Duration p50;
+    private Duration p95;
+    private Duration p99;
+    private Duration max;
+}
@@ -0,0 +1,7 @@
+package io.terrakube.terraform;
+
+public enum TerraformRunStatus {
+    // waiting for the workspace lock
+    QUEUED,
+    RUNNING
+}
@@ -0,0 +1,47 @@
+package io.terrakube.terraform;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+// view of one attribute of a schema block, created when it is looked up
+@Getter
+public class TerraformSchemaAttribute {
+
+    static final byte REQUIRED = 1;
+    static final byte OPTIONAL = 2;
+    static final byte COMPUTED = 4;
+    static final byte SENSITIVE = 8;
+    static final byte DEPRECATED = 16;
+
+    private final String name;
+    // cty type as compact json, "string" or ["list","string"], the nested_type object for nested attributes
+    private final String type;
+    @Getter(AccessLevel.NONE)
+    private final byte flags;
+
+    TerraformSchemaAttribute(String name, String type, byte flags) {
+        this.name = name;
+        this.type = type;
+        this.flags = flags;
+    }
+
+    public boolean isRequired() {
+        return (this.flags & REQUIRED) != 0;
+    }
+
+    public boolean isOptional() {
+        return (this.flags & OPTIONAL) != 0;
+    }
+
+    public boolean isComputed() {
+        return (this.flags & COMPUTED) != 0;
+    }
+
+    public boolean isSensitive() {
+        return (this.flags & SENSITIVE) != 0;
+    }
+
+    public boolean isDeprecated() {
+        return (this.flags & DEPRECATED) != 0;
+    }
+}
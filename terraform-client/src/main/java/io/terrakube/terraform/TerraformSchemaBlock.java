@@ -0,0 +1,89 @@
+package io.terrakube.terraform;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// attributes and nested blocks of a resource, data source or provider, kept in arrays sorted by name
+@Getter
+public class TerraformSchemaBlock {
+
+    private final String provider;
+    // schema version of the resource, 0 for nested blocks
+    private final int version;
+    // list, set, map, single or group for nested blocks, null for the top block
+    private final String nesting;
+    private final int minItems;
+    private final int maxItems;
+
+    @Getter(AccessLevel.NONE)
+    final String[] attributeNames;
+    @Getter(AccessLevel.NONE)
+    final String[] attributeTypes;
+    @Getter(AccessLevel.NONE)
+    final byte[] attributeFlags;
+    @Getter(AccessLevel.NONE)
+    final String[] blockNames;
+    @Getter(AccessLevel.NONE)
+    final TerraformSchemaBlock[] blocks;
+
+    TerraformSchemaBlock(String provider, int version, String nesting, int minItems, int maxItems,
+                         String[] attributeNames, String[] attributeTypes, byte[] attributeFlags,
+                         String[] blockNames, TerraformSchemaBlock[] blocks) {
+        this.provider = provider;
+        this.version = version;
+        this.nesting = nesting;
+        this.minItems = minItems;
+        this.maxItems = maxItems;
+        this.attributeNames = attributeNames;
+        this.attributeTypes = attributeTypes;
+        this.attributeFlags = attributeFlags;
+        this.blockNames = blockNames;
+        this.blocks = blocks;
+    }
+
+    public List<String> getAttributeNames() {
+        return List.of(this.attributeNames);
+    }
+
+    // null when the block has no such attribute
+    public TerraformSchemaAttribute getAttribute(String name) {
+        int index = Arrays.binarySearch(this.attributeNames, name);
+        return index >= 0 ? getAttribute(index) : null;
+    }
+
+    public List<TerraformSchemaAttribute> getAttributes() {
+        List<TerraformSchemaAttribute> attributes = new ArrayList<>(this.attributeNames.length);
+        for (int i = 0; i < this.attributeNames.length; i++) {
+            attributes.add(getAttribute(i));
+        }
+        return attributes;
+    }
+
+    public List<TerraformSchemaAttribute> getRequiredAttributes() {
+        List<TerraformSchemaAttribute> attributes = new ArrayList<>();
+        for (int i = 0; i < this.attributeNames.length; i++) {
+            if ((this.attributeFlags[i] & TerraformSchemaAttribute.REQUIRED) != 0) {
+                attributes.add(getAttribute(i));
+            }
+        }
+        return attributes;
+    }
+
+    public List<String> getBlockNames() {
+        return List.of(this.blockNames);
+    }
+
+    // null when the block has no such nested block
+    public TerraformSchemaBlock getBlock(String name) {
+        int index = Arrays.binarySearch(this.blockNames, name);
+        return index >= 0 ? this.blocks[index] : null;
+    }
+
+    private TerraformSchemaAttribute getAttribute(int index) {
+        return new TerraformSchemaAttribute(this.attributeNames[index], this.attributeTypes[index], this.attributeFlags[index]);
+    }
+}
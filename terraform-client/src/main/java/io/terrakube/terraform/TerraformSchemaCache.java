@@ -0,0 +1,186 @@
+package io.terrakube.terraform;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// provider schemas keyed by the provider versions of .terraform.lock.hcl, one entry serves every workspace locking the same versions
+@Slf4j
+@Getter
+public class TerraformSchemaCache {
+
+    static final String LOCK_FILE = ".terraform.lock.hcl";
+    private static final String SCHEMA_SUFFIX = ".schema";
+    private static final Pattern PROVIDER = Pattern.compile("^\\s*provider\\s+\"([^\"]+)\"\\s*\\{");
+    private static final Pattern VERSION = Pattern.compile("^\\s*version\\s*=\\s*\"([^\"]+)\"");
+    private static final Pattern HASH = Pattern.compile("^\\s*(?:hashes\\s*=\\s*\\[\\s*)?\"([a-z0-9]+:[^\"]+)\"");
+
+    // null keeps the schemas in memory only
+    private final File directory;
+    // schemas kept in memory, the least recently used is dropped first
+    private final int maxEntries;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, TerraformProviderSchema> schemas;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, CompletableFuture<TerraformProviderSchema>> loading = new ConcurrentHashMap<>();
+
+    @Builder
+    public TerraformSchemaCache(File directory, Integer maxEntries) {
+        this.directory = directory;
+        this.maxEntries = maxEntries != null ? maxEntries : 16;
+        this.schemas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TerraformProviderSchema> eldest) {
+                return size() > TerraformSchemaCache.this.maxEntries;
+            }
+        };
+    }
+
+    // the schema in memory or on disk, otherwise the loader runs once for all the callers waiting on the key
+    public CompletableFuture<TerraformProviderSchema> get(String key, Supplier<CompletableFuture<TerraformProviderSchema>> loader) {
+        TerraformProviderSchema schema = getIfPresent(key);
+        if (schema != null) {
+            return CompletableFuture.completedFuture(schema);
+        }
+        CompletableFuture<TerraformProviderSchema> created = new CompletableFuture<>();
+        CompletableFuture<TerraformProviderSchema> existing = this.loading.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<TerraformProviderSchema> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException ex) {
+            load = CompletableFuture.failedFuture(ex);
+        }
+        load.whenComplete((loaded, error) -> {
+            if (error == null) {
+                put(loaded);
+            }
+            this.loading.remove(key);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(loaded);
+            }
+        });
+        return created;
+    }
+
+    public TerraformProviderSchema getIfPresent(String key) {
+        synchronized (this.schemas) {
+            TerraformProviderSchema schema = this.schemas.get(key);
+            if (schema != null) {
+                return schema;
+            }
+        }
+        TerraformProviderSchema schema = read(key);
+        if (schema != null) {
+            synchronized (this.schemas) {
+                this.schemas.put(key, schema);
+            }
+        }
+        return schema;
+    }
+
+    private void put(TerraformProviderSchema schema) {
+        synchronized (this.schemas) {
+            this.schemas.put(schema.getKey(), schema);
+        }
+        if (this.directory == null) {
+            return;
+        }
+        File file = new File(this.directory, schema.getKey() + SCHEMA_SUFFIX);
+        try {
+            Files.createDirectories(this.directory.toPath());
+            File partial = File.createTempFile(file.getName(), ".part", this.directory);
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(partial))) {
+                schema.write(output);
+            }
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("Unable to store provider schema {}: {}", file, ex.getMessage());
+        }
+    }
+
+    private TerraformProviderSchema read(String key) {
+        if (this.directory == null) {
+            return null;
+        }
+        File file = new File(this.directory, key + SCHEMA_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            return TerraformProviderSchema.read(input);
+        } catch (IOException ex) {
+            log.warn("Dropping unreadable provider schema {}: {}", file, ex.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    // provider address to version, hashes and constraints do not change the schema
+    static Map<String, String> getLockedProviders(File workingDirectory) throws IOException {
+        Map<String, String> providers = new TreeMap<>();
+        File lockFile = new File(workingDirectory, LOCK_FILE);
+        if (!lockFile.isFile()) {
+            return providers;
+        }
+        String provider = null;
+        for (String line : Files.readAllLines(lockFile.toPath(), StandardCharsets.UTF_8)) {
+            Matcher matcher = PROVIDER.matcher(line);
+            if (matcher.find()) {
+                provider = matcher.group(1);
+                continue;
+            }
+            matcher = VERSION.matcher(line);
+            if (provider != null && matcher.find()) {
+                providers.put(provider, matcher.group(1));
+                provider = null;
+            }
+        }
+        return providers;
+    }
+
+    // provider address to the hashes it is locked to, the package installed by init is checked against them
+    static Map<String, Set<String>> getLockedHashes(File workingDirectory) throws IOException {
+        Map<String, Set<String>> hashes = new TreeMap<>();
+        File lockFile = new File(workingDirectory, LOCK_FILE);
+        if (!lockFile.isFile()) {
+            return hashes;
+        }
+        String provider = null;
+        for (String line : Files.readAllLines(lockFile.toPath(), StandardCharsets.UTF_8)) {
+            Matcher matcher = PROVIDER.matcher(line);
+            if (matcher.find()) {
+                provider = matcher.group(1);
+                continue;
+            }
+            matcher = HASH.matcher(line);
+            if (provider != null && matcher.find()) {
+                hashes.computeIfAbsent(provider, key -> new TreeSet<>()).add(matcher.group(1));
+            }
+        }
+        return hashes;
+    }
+
+    static String getKey(Map<String, String> providers, boolean tofu) {
+        StringBuilder key = new StringBuilder(tofu ? "tofu" : "terraform");
+        providers.forEach((address, version) -> key.append('\n').append(address).append(' ').append(version));
+        return GitModuleCache.sha256(key.toString()).substring(0, 32);
+    }
+}
@@ -0,0 +1,32 @@
+package io.terrakube.terraform;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+public class TerraformValidationResult {
+    private File workingDirectory;
+    // hash of the binary, lock file and provider and module sources, the directories sharing it share one init
+    private String fingerprint;
+    private boolean valid;
+    // null when fmt -check did not run
+    private Boolean formatted;
+    private List<TerraformDiagnostic> diagnostics;
+    private List<String> unformattedFiles;
+    // true when this validation had to wait for init -backend=false
+    private boolean initialized;
+    private Duration duration;
+
+    public boolean isSuccessful() {
+        return this.valid && (this.formatted == null || this.formatted);
+    }
+
+    public List<TerraformDiagnostic> getErrors() {
+        return this.diagnostics.stream().filter(TerraformDiagnostic::isError).toList();
+    }
+}
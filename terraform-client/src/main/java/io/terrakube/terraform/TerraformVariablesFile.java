@@ -0,0 +1,298 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Slf4j
+final class TerraformVariablesFile {
+
+    private static final String TEMP_DIRECTORY_PREFIX = "terraform-variables-";
+    // HCL, so values of collection variables are parsed like --var parses them
+    private static final String FILE_NAME = "terraform.tfvars";
+    private static final Pattern VARIABLE_NAME = Pattern.compile("^[A-Za-z_][A-Za-z0-9_-]*$");
+    private static final Pattern VARIABLE_BLOCK = Pattern.compile("(?m)^\\s*variable\\s+\"([^\"]+)\"\\s*\\{");
+    private static final Pattern VARIABLE_TYPE = Pattern.compile("(?m)^\\s*type\\s*=\\s*\"?([^\\s\"]+)");
+    private static final Set<String> PRIMITIVE_TYPES = Set.of("string", "number", "bool");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private TerraformVariablesFile() {
+    }
+
+    static long size(Map<String, String> variables) {
+        long size = 0;
+        for (Map.Entry<String, String> entry : variables.entrySet()) {
+            size += entry.getKey().length() + (entry.getValue() != null ? entry.getValue().length() : 0) + 1;
+        }
+        return size;
+    }
+
+    static File write(Map<String, String> variables, File workingDirectory) throws IOException {
+        Set<String> expressionVariables = findExpressionVariables(workingDirectory);
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Path directory = posix
+                ? Files.createTempDirectory(TEMP_DIRECTORY_PREFIX, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")))
+                : Files.createTempDirectory(TEMP_DIRECTORY_PREFIX);
+        Path file = directory.resolve(FILE_NAME);
+        try {
+            if (posix) {
+                Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                File variablesFile = Files.createFile(file).toFile();
+                variablesFile.setReadable(false, false);
+                variablesFile.setReadable(true, true);
+            }
+
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : variables.entrySet()) {
+                    if (!VARIABLE_NAME.matcher(entry.getKey()).matches()) {
+                        throw new IOException("Invalid variable name " + entry.getKey());
+                    }
+                    writer.write(entry.getKey());
+                    writer.write(" = ");
+                    if (entry.getValue() == null) {
+                        writer.write("null");
+                    } else if (expressionVariables.contains(entry.getKey())) {
+                        if (!isSingleExpression(entry.getValue())) {
+                            throw new IOException("Invalid value for variable " + entry.getKey() + ", it is not a single expression");
+                        }
+                        // the parentheses keep a value from ending the expression and starting another variable
+                        writer.write("(\n");
+                        writer.write(entry.getValue());
+                        writer.write("\n)");
+                    } else {
+                        writeLiteral(writer, entry.getValue());
+                    }
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException ex) {
+            FileUtils.deleteQuietly(directory.toFile());
+            throw ex;
+        }
+        return file.toFile();
+    }
+
+    static void delete(File variablesFile) {
+        FileUtils.deleteQuietly(variablesFile.getParentFile());
+    }
+
+    // --var parses the value as an HCL expression when the declared type is not a primitive type, and keeps it a literal string otherwise
+    static Set<String> findExpressionVariables(File workingDirectory) {
+        Set<String> variables = new HashSet<>();
+        File[] files = workingDirectory != null ? workingDirectory.listFiles(File::isFile) : null;
+        if (files == null) {
+            return variables;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                if (name.endsWith(".tf") || name.endsWith(".tofu")) {
+                    findExpressionVariables(stripComments(Files.readString(file.toPath(), StandardCharsets.UTF_8)), variables);
+                } else if (name.endsWith(".tf.json") || name.endsWith(".tofu.json")) {
+                    OBJECT_MAPPER.readTree(file).path("variable").properties().forEach(variable -> {
+                        JsonNode type = variable.getValue().path("type");
+                        if (type.isTextual() && !PRIMITIVE_TYPES.contains(type.asText().trim())) {
+                            variables.add(variable.getKey());
+                        }
+                    });
+                }
+            } catch (IOException ex) {
+                log.warn("Unable to read variable types in {}: {}", file, ex.getMessage());
+            }
+        }
+        return variables;
+    }
+
+    private static void findExpressionVariables(String content, Set<String> variables) {
+        Matcher block = VARIABLE_BLOCK.matcher(content);
+        while (block.find()) {
+            String body = content.substring(block.end(), findBlockEnd(content, block.end()));
+            Matcher type = VARIABLE_TYPE.matcher(body);
+            if (type.find() && !PRIMITIVE_TYPES.contains(type.group(1))) {
+                variables.add(block.group(1));
+            }
+        }
+    }
+
+    // brackets and quotes balance, and line breaks are only inside brackets, so the value cannot close the parentheses around it
+    static boolean isSingleExpression(String value) {
+        value = value.strip();
+        if (value.isEmpty()) {
+            return false;
+        }
+        // open brackets, quotes and template interpolations, innermost last
+        Deque<Character> open = new ArrayDeque<>();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            Character top = open.peek();
+            if (top != null && top == '"') {
+                if (c == '\\') {
+                    i++;
+                } else if ((c == '$' || c == '%') && value.startsWith(c + "{", i + 1)) {
+                    // $${ and %%{ are literal
+                    i += 2;
+                } else if ((c == '$' || c == '%') && i + 1 < value.length() && value.charAt(i + 1) == '{') {
+                    open.push('$');
+                    i++;
+                } else if (c == '"') {
+                    open.pop();
+                } else if (c == '\n' || c == '\r') {
+                    return false;
+                }
+                continue;
+            }
+            switch (c) {
+                case '"':
+                case '(':
+                case '[':
+                case '{':
+                    open.push(c);
+                    break;
+                case ')':
+                    if (top == null || top != '(') {
+                        return false;
+                    }
+                    open.pop();
+                    break;
+                case ']':
+                    if (top == null || top != '[') {
+                        return false;
+                    }
+                    open.pop();
+                    break;
+                case '}':
+                    if (top == null || (top != '{' && top != '$')) {
+                        return false;
+                    }
+                    open.pop();
+                    break;
+                case '\n':
+                case '\r':
+                    if (open.isEmpty()) {
+                        return false;
+                    }
+                    break;
+                case '#':
+                case '/':
+                case '<':
+                    // comments and heredocs could hide a closing bracket
+                    if (c == '#' || value.startsWith("//", i) || value.startsWith("/*", i) || value.startsWith("<<", i)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return open.isEmpty();
+    }
+
+    private static int findBlockEnd(String content, int start) {
+        int depth = 1;
+        boolean quoted = false;
+        for (int i = start; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return content.length();
+    }
+
+    private static String stripComments(String content) {
+        StringBuilder stripped = new StringBuilder(content.length());
+        boolean quoted = false;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (quoted) {
+                stripped.append(c);
+                if (c == '\\' && i + 1 < content.length()) {
+                    stripped.append(content.charAt(++i));
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+                stripped.append(c);
+            } else if (c == '#' || (c == '/' && content.startsWith("//", i))) {
+                while (i < content.length() && content.charAt(i) != '\n') {
+                    i++;
+                }
+                stripped.append('\n');
+            } else if (c == '/' && content.startsWith("/*", i)) {
+                int end = content.indexOf("*/", i + 2);
+                i = end < 0 ? content.length() : end + 1;
+            } else {
+                stripped.append(c);
+            }
+        }
+        return stripped.toString();
+    }
+
+    // a quoted HCL string is a template, escaping ${ and %{ keeps the value literal
+    private static void writeLiteral(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                case '$':
+                case '%':
+                    if (i + 1 < value.length() && value.charAt(i + 1) == '{') {
+                        writer.write(c);
+                    }
+                    writer.write(c);
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,190 @@
+package io.terrakube.terraform;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+@Slf4j
+class TerraformWorkspaceLocks {
+
+    private final Map<String, Workspace> workspaces = new HashMap<>();
+    private final Map<Object, SharedRun<?>> sharedRuns = new HashMap<>();
+
+    interface LockedRun<T> {
+        CompletableFuture<T> run(Consumer<String> outputListener, Consumer<String> errorListener) throws IOException;
+    }
+
+    // runs with the same non null shareKey that are queued or running at the same time reuse the first result
+    <T> CompletableFuture<T> run(Collection<String> keys, Object shareKey, Duration timeout, Consumer<String> outputListener, Consumer<String> errorListener, LockedRun<T> run) throws IOException {
+        if (shareKey == null) {
+            return lock(keys, timeout, outputListener, errorListener, run);
+        }
+
+        SharedRun<T> sharedRun;
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            SharedRun<T> current = (SharedRun<T>) this.sharedRuns.get(shareKey);
+            if (current != null) {
+                log.info("Sharing running command on workspace {}", keys);
+                current.subscribe(outputListener, errorListener);
+                return current.result;
+            }
+            sharedRun = new SharedRun<>();
+            sharedRun.subscribe(outputListener, errorListener);
+            this.sharedRuns.put(shareKey, sharedRun);
+        }
+
+        CompletableFuture<T> result;
+        try {
+            result = lock(keys, timeout, sharedRun::output, sharedRun::error, run);
+        } catch (IOException | RuntimeException ex) {
+            removeSharedRun(shareKey, sharedRun);
+            throw ex;
+        }
+        result.whenComplete((value, error) -> {
+            removeSharedRun(shareKey, sharedRun);
+            if (error != null) {
+                sharedRun.result.completeExceptionally(error);
+            } else {
+                sharedRun.result.complete(value);
+            }
+        });
+        return sharedRun.result;
+    }
+
+    private synchronized void removeSharedRun(Object shareKey, SharedRun<?> sharedRun) {
+        this.sharedRuns.remove(shareKey, sharedRun);
+    }
+
+    private <T> CompletableFuture<T> lock(Collection<String> keys, Duration timeout, Consumer<String> outputListener, Consumer<String> errorListener, LockedRun<T> run) throws IOException {
+        // always lock in the same order so runs sharing several keys can not deadlock
+        List<String> sortedKeys = new ArrayList<>(new TreeSet<>(keys));
+        CompletableFuture<Void> locked = acquire(sortedKeys, 0, System.nanoTime() + timeout.toNanos());
+
+        if (locked.isDone() && !locked.isCompletedExceptionally()) {
+            CompletableFuture<T> result;
+            try {
+                result = run.run(outputListener, errorListener);
+            } catch (IOException | RuntimeException ex) {
+                release(sortedKeys);
+                throw ex;
+            }
+            return result.whenComplete((value, error) -> release(sortedKeys));
+        }
+
+        return locked.thenCompose(v -> {
+            try {
+                return run.run(outputListener, errorListener).whenComplete((value, error) -> release(sortedKeys));
+            } catch (IOException | RuntimeException ex) {
+                release(sortedKeys);
+                throw new CompletionException(ex);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> acquire(List<String> keys, int index, long deadline) {
+        if (index == keys.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String key = keys.get(index);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        acquire(key, deadline).whenComplete((v, error) -> {
+            if (error != null) {
+                result.completeExceptionally(new TimeoutException("Timed out waiting for workspace " + key));
+                return;
+            }
+            acquire(keys, index + 1, deadline).whenComplete((v2, error2) -> {
+                if (error2 != null) {
+                    release(key);
+                    result.completeExceptionally(error2);
+                } else {
+                    result.complete(null);
+                }
+            });
+        });
+        return result;
+    }
+
+    private synchronized CompletableFuture<Void> acquire(String key, long deadline) {
+        Workspace workspace = this.workspaces.computeIfAbsent(key, k -> new Workspace());
+        if (!workspace.locked) {
+            workspace.locked = true;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        log.info("Waiting for workspace {}, {} runs queued", key, workspace.waiters.size() + 1);
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        workspace.waiters.add(waiter);
+        return waiter.orTimeout(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private void release(List<String> keys) {
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            release(keys.get(i));
+        }
+    }
+
+    private void release(String key) {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                Workspace workspace = this.workspaces.get(key);
+                next = workspace.waiters.poll();
+                if (next == null) {
+                    this.workspaces.remove(key);
+                    return;
+                }
+            }
+            // completed outside the monitor because the next run starts in this thread, timed out waiters are skipped
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    private static class Workspace {
+        private boolean locked;
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    }
+
+    // output is buffered so runs joining late still receive all of it
+    private static class SharedRun<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<Map.Entry<Boolean, String>> lines = new ArrayList<>();
+        private final List<Consumer<String>> outputListeners = new ArrayList<>();
+        private final List<Consumer<String>> errorListeners = new ArrayList<>();
+
+        private synchronized void subscribe(Consumer<String> outputListener, Consumer<String> errorListener) {
+            for (Map.Entry<Boolean, String> line : this.lines) {
+                Consumer<String> listener = line.getKey() ? errorListener : outputListener;
+                if (listener != null) {
+                    listener.accept(line.getValue());
+                }
+            }
+            if (outputListener != null) {
+                this.outputListeners.add(outputListener);
+            }
+            if (errorListener != null) {
+                this.errorListeners.add(errorListener);
+            }
+        }
+
+        private synchronized void output(String line) {
+            this.lines.add(Map.entry(false, line));
+            this.outputListeners.forEach(listener -> listener.accept(line));
+        }
+
+        private synchronized void error(String line) {
+            this.lines.add(Map.entry(true, line));
+            this.errorListeners.forEach(listener -> listener.accept(line));
+        }
+    }
+}
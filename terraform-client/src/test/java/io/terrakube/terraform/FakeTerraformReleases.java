@@ -0,0 +1,203 @@
+package io.terrakube.terraform;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// local release index and zip server with the fake terraform script as the terraform and tofu binaries
+public class FakeTerraformReleases implements AutoCloseable {
+
+    public static final List<String> TERRAFORM_VERSIONS = List.of("1.5.7", "1.9.8");
+    public static final List<String> TOFU_VERSIONS = List.of("1.8.0");
+    public static final List<String> PROVIDER_VERSIONS = List.of("3.5.1", "3.6.0");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+    private final byte[] script;
+    private final AtomicInteger indexRequests = new AtomicInteger();
+    private final AtomicInteger downloadRequests = new AtomicInteger();
+    private final AtomicInteger providerDownloads = new AtomicInteger();
+    private volatile Duration downloadDelay = Duration.ZERO;
+
+    public FakeTerraformReleases() throws IOException {
+        try (InputStream stream = FakeTerraformReleases.class.getResourceAsStream("/fake-terraform/terraform")) {
+            this.script = Objects.requireNonNull(stream, "fake terraform script").readAllBytes();
+        }
+        removeOutdatedBinaries();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/terraform/index.json", exchange -> {
+            this.indexRequests.incrementAndGet();
+            send(exchange, "application/json", this.objectMapper.writeValueAsBytes(getTerraformIndex()));
+        });
+        this.server.createContext("/tofu/releases", exchange -> {
+            this.indexRequests.incrementAndGet();
+            send(exchange, "application/json", this.objectMapper.writeValueAsBytes(getTofuReleases()));
+        });
+        this.server.createContext("/download/", exchange -> {
+            this.downloadRequests.incrementAndGet();
+            String name = exchange.getRequestURI().getPath().substring("/download/".length());
+            try {
+                Thread.sleep(this.downloadDelay.toMillis());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            send(exchange, "application/zip", zip(name.startsWith("tofu") ? "tofu" : "terraform"));
+        });
+        // provider registry protocol for the random provider
+        this.server.createContext("/.well-known/terraform.json", exchange ->
+                send(exchange, "application/json", this.objectMapper.writeValueAsBytes(Map.of("providers.v1", "/v1/providers/"))));
+        this.server.createContext("/v1/providers/hashicorp/random/", exchange -> {
+            String[] path = exchange.getRequestURI().getPath().substring("/v1/providers/hashicorp/random/".length()).split("/");
+            if (path[0].equals("versions")) {
+                List<Map<String, Object>> versions = new ArrayList<>();
+                for (String version : PROVIDER_VERSIONS) {
+                    versions.add(Map.of("version", version, "platforms", List.of(Map.of("os", TerraformDownloader.currentOs(), "arch", TerraformDownloader.currentArch()))));
+                }
+                send(exchange, "application/json", this.objectMapper.writeValueAsBytes(Map.of("versions", versions)));
+                return;
+            }
+            String fileName = String.format("terraform-provider-random_%s_%s_%s.zip", path[0], path[2], path[3]);
+            send(exchange, "application/json", this.objectMapper.writeValueAsBytes(Map.of(
+                    "filename", fileName,
+                    "download_url", "/providers/" + fileName,
+                    "shasum", sha256(zip("terraform-provider-random")))));
+        });
+        this.server.createContext("/providers/", exchange -> {
+            this.providerDownloads.incrementAndGet();
+            send(exchange, "application/zip", zip("terraform-provider-random"));
+        });
+        this.server.start();
+    }
+
+    public String getRegistryUrl() {
+        return getUrl("/");
+    }
+
+    public int getProviderDownloads() {
+        return this.providerDownloads.get();
+    }
+
+    public String getTerraformReleasesUrl() {
+        return getUrl("/terraform/index.json");
+    }
+
+    public String getTofuReleasesUrl() {
+        return getUrl("/tofu/releases");
+    }
+
+    public int getIndexRequests() {
+        return this.indexRequests.get();
+    }
+
+    public int getDownloadRequests() {
+        return this.downloadRequests.get();
+    }
+
+    public void setDownloadDelay(Duration downloadDelay) {
+        this.downloadDelay = downloadDelay;
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    // versions installed by an older copy of the script are downloaded again
+    private void removeOutdatedBinaries() throws IOException {
+        TerraformCacheManager cacheManager = new TerraformCacheManager();
+        Map<String, List<String>> products = Map.of(TerraformCacheManager.TERRAFORM_PRODUCT, TERRAFORM_VERSIONS, TerraformCacheManager.TOFU_PRODUCT, TOFU_VERSIONS);
+        for (Map.Entry<String, List<String>> product : products.entrySet()) {
+            for (String version : product.getValue()) {
+                File binary = cacheManager.getBinary(product.getKey(), version);
+                if (binary.isFile() && !Arrays.equals(this.script, Files.readAllBytes(binary.toPath()))) {
+                    FileUtils.deleteDirectory(cacheManager.getVersionDirectory(product.getKey(), version));
+                }
+            }
+        }
+    }
+
+    private String getUrl(String path) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + path;
+    }
+
+    private Map<String, Object> getTerraformIndex() {
+        Map<String, Object> versions = new LinkedHashMap<>();
+        for (String version : TERRAFORM_VERSIONS) {
+            String fileName = String.format("terraform_%s_%s_%s.zip", version, TerraformDownloader.currentOs(), TerraformDownloader.currentArch());
+            versions.put(version, Map.of(
+                    "name", "terraform",
+                    "version", version,
+                    "builds", List.of(Map.of(
+                            "name", "terraform",
+                            "version", version,
+                            "os", TerraformDownloader.currentOs(),
+                            "arch", TerraformDownloader.currentArch(),
+                            "filename", fileName,
+                            "url", getUrl("/download/" + fileName)))));
+        }
+        return Map.of("name", "terraform", "versions", versions);
+    }
+
+    private List<Map<String, Object>> getTofuReleases() {
+        List<Map<String, Object>> releases = new ArrayList<>();
+        for (String version : TOFU_VERSIONS) {
+            String fileName = String.format("tofu_%s_%s_%s.zip", version, TerraformDownloader.currentOs(), TerraformDownloader.currentArch());
+            releases.add(Map.of(
+                    "name", version,
+                    "assets", List.of(Map.of("name", fileName, "browser_download_url", getUrl("/download/" + fileName)))));
+        }
+        return releases;
+    }
+
+    private byte[] zip(String binary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            ZipEntry entry = new ZipEntry(binary);
+            // same bytes on every request, the provider checksum depends on it
+            entry.setTime(0);
+            zip.putNextEntry(entry);
+            zip.write(this.script);
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+}
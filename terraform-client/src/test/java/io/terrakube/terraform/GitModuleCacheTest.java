@@ -0,0 +1,166 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GitModuleCacheTest {
+
+    @TempDir
+    File directory;
+
+    private File source;
+    private File workingDirectory;
+    private String remoteUrl;
+    private GitModuleCache cache;
+
+    @BeforeEach
+    void createRemote() throws Exception {
+        this.source = new File(this.directory, "source");
+        File module = new File(this.source, "modules/vpc");
+        assertTrue(module.mkdirs());
+        Files.writeString(new File(module, "main.tf").toPath(), "variable \"cidr\" {}\n");
+        git(this.source, "init", "-q");
+        commit("first");
+        git(this.source, "tag", "v1");
+        this.remoteUrl = "file://" + this.source.getAbsolutePath();
+
+        this.workingDirectory = new File(this.directory, "workspace");
+        assertTrue(this.workingDirectory.mkdir());
+        Files.writeString(new File(this.workingDirectory, "main.tf").toPath(),
+                "module \"vpc\" {\n  source = \"git::" + this.remoteUrl + "//modules/vpc?ref=v1\"\n}\n");
+        this.cache = new GitModuleCache(new File(this.directory, "cache"));
+    }
+
+    @Test
+    void mirrorIsClonedOnceAndFetchedAfterwards() throws Exception {
+        Map<String, String> config = this.cache.prepare(this.workingDirectory, null, Map.of());
+
+        assertEquals("1", config.get("GIT_CONFIG_COUNT"));
+        File mirror = this.cache.getStatistics().getRepositories().get(0).getMirrorDirectory();
+        assertEquals("url.file://" + mirror.getAbsolutePath() + ".insteadOf", config.get("GIT_CONFIG_KEY_0"));
+        assertEquals(this.remoteUrl, config.get("GIT_CONFIG_VALUE_0"));
+        assertEquals(1, this.cache.getStatistics().getClones());
+
+        String head = commit("second");
+        assertEquals(config, this.cache.prepare(this.workingDirectory, null, Map.of()));
+        assertEquals(1, this.cache.getStatistics().getClones());
+        assertEquals(1, this.cache.getStatistics().getFetches());
+        assertEquals(head, git(null, "--git-dir", mirror.getAbsolutePath(), "rev-parse", "HEAD"));
+
+        // the refresh interval skips the fetch
+        this.cache.setRefreshInterval(Duration.ofMinutes(1));
+        this.cache.prepare(this.workingDirectory, null, Map.of());
+        assertEquals(1, this.cache.getStatistics().getFetches());
+        assertEquals(1, this.cache.getStatistics().getHits());
+    }
+
+    @Test
+    void cachedCopyIsUsedWhenTheRemoteIsUnreachable() throws Exception {
+        this.cache.prepare(this.workingDirectory, null, Map.of());
+        String head = commit("second");
+        this.cache.prepare(this.workingDirectory, null, Map.of());
+        assertTrue(new File(this.source, ".git").renameTo(new File(this.directory, "moved.git")));
+
+        Map<String, String> config = this.cache.prepare(this.workingDirectory, null, Map.of());
+
+        assertEquals(1, this.cache.getStatistics().getFailures());
+        assertEquals("1", config.get("GIT_CONFIG_COUNT"));
+        // git rewrites the remote to the mirror with the generated configuration, as it does for terraform init
+        String refs = git(null, config, "ls-remote", this.remoteUrl, "HEAD");
+        assertTrue(refs.startsWith(head), refs);
+    }
+
+    @Test
+    void mirrorsAreNotSharedBetweenCredentials() throws Exception {
+        File firstKey = new File(this.directory, "first_rsa");
+        File secondKey = new File(this.directory, "second_rsa");
+        Files.writeString(firstKey.toPath(), "first");
+        Files.writeString(secondKey.toPath(), "second");
+
+        Map<String, String> first = this.cache.prepare(this.workingDirectory, firstKey, Map.of());
+        Map<String, String> second = this.cache.prepare(this.workingDirectory, secondKey, Map.of());
+        Map<String, String> token = this.cache.prepare(this.workingDirectory, firstKey, Map.of("GIT_CONFIG_PARAMETERS", "'http.extraHeader'='Authorization: Bearer other'"));
+
+        assertNotEquals(first.get("GIT_CONFIG_KEY_0"), second.get("GIT_CONFIG_KEY_0"));
+        assertNotEquals(first.get("GIT_CONFIG_KEY_0"), token.get("GIT_CONFIG_KEY_0"));
+        assertEquals(3, this.cache.getStatistics().getClones());
+        assertEquals(first, this.cache.prepare(this.workingDirectory, firstKey, Map.of()));
+        assertEquals(3, this.cache.getStatistics().getClones());
+    }
+
+    @Test
+    void cachedCopyIsNotUsedWhenAccessIsDenied() throws Exception {
+        // ssh stand-in running the remote command locally until the key is revoked
+        File ssh = new File(this.directory, "ssh.sh");
+        File denied = new File(this.directory, "denied");
+        Files.writeString(ssh.toPath(), "#!/bin/sh\nfor last; do :; done\n"
+                + "if [ -f '" + denied.getAbsolutePath() + "' ]; then echo 'git@127.0.0.1: Permission denied (publickey).' >&2; exit 255; fi\n"
+                + "eval \"$last\"\n");
+        assertTrue(ssh.setExecutable(true));
+        Files.writeString(new File(this.workingDirectory, "main.tf").toPath(),
+                "module \"vpc\" {\n  source = \"git::ssh://git@127.0.0.1" + this.source.getAbsolutePath() + "//modules/vpc?ref=v1\"\n}\n");
+        Map<String, String> environment = Map.of("GIT_SSH_COMMAND", ssh.getAbsolutePath());
+
+        assertEquals("1", this.cache.prepare(this.workingDirectory, null, environment).get("GIT_CONFIG_COUNT"));
+        assertEquals(1, this.cache.getStatistics().getClones());
+        assertTrue(denied.createNewFile());
+
+        Map<String, String> config = this.cache.prepare(this.workingDirectory, null, environment);
+
+        assertEquals("0", config.get("GIT_CONFIG_COUNT"));
+        assertEquals(1, this.cache.getStatistics().getFailures());
+    }
+
+    @Test
+    void hungFetchIsKilledAfterTheTimeout() throws Exception {
+        Files.writeString(new File(this.workingDirectory, "main.tf").toPath(),
+                "module \"vpc\" {\n  source = \"git::ssh://git@127.0.0.1/modules.git\"\n}\n");
+        this.cache.setGitTimeout(Duration.ofSeconds(1));
+
+        long start = System.currentTimeMillis();
+        Map<String, String> config = this.cache.prepare(this.workingDirectory, null, Map.of("GIT_SSH_COMMAND", "sleep 60; true"));
+
+        assertTrue(System.currentTimeMillis() - start < 20000);
+        assertEquals("0", config.get("GIT_CONFIG_COUNT"));
+        assertEquals(1, this.cache.getStatistics().getFailures());
+    }
+
+    private String commit(String message) throws Exception {
+        Files.writeString(new File(this.source, "README.md").toPath(), message);
+        git(this.source, "add", "-A");
+        git(this.source, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", message);
+        return git(this.source, "rev-parse", "HEAD");
+    }
+
+    private static String git(File workingDirectory, String... arguments) throws IOException, InterruptedException {
+        return git(workingDirectory, Map.of(), arguments);
+    }
+
+    private static String git(File workingDirectory, Map<String, String> environment, String... arguments) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(arguments));
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        if (workingDirectory != null) {
+            builder.directory(workingDirectory);
+        }
+        builder.environment().putAll(environment);
+        Process process = builder.start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        assertEquals(0, process.waitFor(), output);
+        return output;
+    }
+}
@@ -0,0 +1,102 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformCacheManagerTest {
+
+    @TempDir
+    File cacheDirectory;
+
+    @Test
+    void leastRecentlyUsedVersionsAreEvictedUnlessInUse() throws Exception {
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder()
+                .cacheDirectory(this.cacheDirectory)
+                .maxVersions(2)
+                .minIdle(Duration.ZERO)
+                .build();
+        install(cacheManager, "1.0.0", Duration.ofHours(4));
+        install(cacheManager, "1.1.0", Duration.ofHours(3));
+        install(cacheManager, "1.2.0", Duration.ofHours(2));
+        install(cacheManager, "1.3.0", Duration.ofHours(1));
+
+        // the oldest version is running, an in-use check is done on the command of every process
+        File running = cacheManager.getBinary(TerraformCacheManager.TERRAFORM_PRODUCT, "1.0.0");
+        Files.copy(new File("/bin/sleep").toPath(), running.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(running.setExecutable(true));
+        Process process = new ProcessBuilder(running.getAbsolutePath(), "30").start();
+        try {
+            cacheManager.enforceLimits();
+        } finally {
+            process.destroy();
+        }
+
+        assertEquals(List.of("1.0.0", "1.3.0"), installed(cacheManager));
+        assertEquals(2, cacheManager.getStatistics().getEvictions());
+    }
+
+    @Test
+    void recentlyUsedVersionsAreKeptAndSizeIsLimited() throws Exception {
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder()
+                .cacheDirectory(this.cacheDirectory)
+                .maxSize(1500)
+                .minIdle(Duration.ofMinutes(10))
+                .build();
+        install(cacheManager, "1.0.0", Duration.ofHours(2));
+        install(cacheManager, "1.1.0", Duration.ofHours(1));
+        install(cacheManager, "1.2.0", Duration.ofMinutes(1));
+        cacheManager.touch(TerraformCacheManager.TERRAFORM_PRODUCT, "1.0.0");
+
+        cacheManager.enforceLimits();
+
+        // 1.0.0 was just used and 1.2.0 is within minIdle, the cache stays over its limit rather than dropping them
+        assertEquals(List.of("1.0.0", "1.2.0"), installed(cacheManager));
+        TerraformCacheStatistics statistics = cacheManager.getStatistics();
+        assertEquals(1000, statistics.getEvictedBytes());
+        assertEquals(2000, statistics.getTotalSize());
+    }
+
+    @Test
+    void interruptedExtractionsAreNotInstalled() throws Exception {
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder().cacheDirectory(this.cacheDirectory).build();
+        install(cacheManager, "1.0.0", Duration.ZERO);
+        // a binary extracted before the process stopped, without the marker of a complete extraction
+        File truncated = cacheManager.getBinary(TerraformCacheManager.TERRAFORM_PRODUCT, "1.1.0");
+        assertTrue(truncated.getParentFile().mkdirs());
+        Files.write(truncated.toPath(), new byte[10]);
+        File extraction = new File(this.cacheDirectory, "terraform/" + TerraformCacheManager.EXTRACT_PREFIX + "1.2.0-1");
+        assertTrue(extraction.mkdirs());
+        assertTrue(extraction.setLastModified(Instant.now().minus(Duration.ofHours(2)).toEpochMilli()));
+
+        assertFalse(cacheManager.isInstalled(TerraformCacheManager.TERRAFORM_PRODUCT, "1.1.0"));
+        assertEquals(List.of("1.0.0"), installed(cacheManager));
+        assertEquals(List.of("1.0.0", "1.1.0"), cacheManager.getEntries().stream().map(TerraformCacheEntry::getVersion).sorted().toList());
+
+        cacheManager.purgeDownloads();
+        assertFalse(extraction.exists());
+    }
+
+    private static void install(TerraformCacheManager cacheManager, String version, Duration age) throws Exception {
+        File binary = cacheManager.getBinary(TerraformCacheManager.TERRAFORM_PRODUCT, version);
+        assertTrue(binary.getParentFile().mkdirs());
+        Files.write(binary.toPath(), new byte[1000]);
+        Files.createFile(new File(binary.getParentFile(), TerraformCacheManager.INSTALLED_FILE).toPath());
+        cacheManager.touch(TerraformCacheManager.TERRAFORM_PRODUCT, version);
+        File lastUsed = new File(binary.getParentFile(), ".last-used");
+        Files.setLastModifiedTime(lastUsed.toPath(), FileTime.from(Instant.now().minus(age)));
+    }
+
+    private static List<String> installed(TerraformCacheManager cacheManager) {
+        return cacheManager.getInstalledVersions(TerraformCacheManager.TERRAFORM_PRODUCT).stream().sorted().toList();
+    }
+}
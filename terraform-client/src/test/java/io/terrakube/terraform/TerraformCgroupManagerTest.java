@@ -0,0 +1,96 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformCgroupManagerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> output = new CopyOnWriteArrayList<>();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    // a plain directory stands in for the delegated cgroup, the kernel interface files are regular files
+    @TempDir
+    File cgroupDirectory;
+
+    @BeforeEach
+    void createCgroup() throws Exception {
+        Files.writeString(new File(this.cgroupDirectory, "cgroup.controllers").toPath(), "cpuset cpu io memory pids");
+        Files.writeString(new File(this.cgroupDirectory, "cgroup.subtree_control").toPath(), "cpu memory pids");
+    }
+
+    @AfterEach
+    void stopExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void processJoinsTheGroupWithItsLimits() throws Exception {
+        TerraformCgroupManager manager = TerraformCgroupManager.builder().cgroupDirectory(this.cgroupDirectory).pidsLimit(100).build();
+        TerraformProcessData data = newProcessData();
+        data.setMemoryLimit(512L * 1024 * 1024);
+        data.setCpuLimit(1.5);
+        ProcessLauncher launcher = newLauncher();
+
+        TerraformCgroup cgroup = manager.prepare(launcher, data);
+
+        assertNotNull(cgroup);
+        assertEquals(this.cgroupDirectory, cgroup.getDirectory().getParentFile());
+        assertEquals("536870912", TerraformCgroupManager.read(cgroup.getDirectory(), "memory.max"));
+        assertEquals("1", TerraformCgroupManager.read(cgroup.getDirectory(), "memory.oom.group"));
+        assertEquals("150000 100000", TerraformCgroupManager.read(cgroup.getDirectory(), "cpu.max"));
+        assertEquals("100", TerraformCgroupManager.read(cgroup.getDirectory(), "pids.max"));
+
+        assertEquals(0, launcher.launch().get(10, TimeUnit.SECONDS));
+        // the shell is replaced by the command, both have the pid written to the group
+        assertEquals(List.of(TerraformCgroupManager.read(cgroup.getDirectory(), "cgroup.procs")), this.output);
+        assertTrue(this.errors.isEmpty(), this.errors.toString());
+    }
+
+    @Test
+    void processRunsWithoutLimitsWhenTheGroupCannotBeJoined() throws Exception {
+        TerraformCgroupManager manager = TerraformCgroupManager.builder().cgroupDirectory(this.cgroupDirectory).build();
+        ProcessLauncher launcher = newLauncher();
+
+        TerraformCgroup cgroup = manager.prepare(launcher, newProcessData());
+        // writing the pid fails, as it does when the group is not delegated to this user
+        assertTrue(new File(cgroup.getDirectory(), "cgroup.procs").mkdir());
+
+        assertEquals(0, launcher.launch().get(10, TimeUnit.SECONDS));
+        assertEquals(1, this.output.size());
+        assertEquals(1, this.errors.size());
+        assertTrue(this.errors.get(0).startsWith(TerraformCgroupManager.JOIN_FAILED), this.errors.get(0));
+    }
+
+    @Test
+    void groupsAreOnlyCreatedWithCgroupV2() throws Exception {
+        assertTrue(new File(this.cgroupDirectory, "cgroup.controllers").delete());
+        TerraformCgroupManager manager = TerraformCgroupManager.builder().cgroupDirectory(this.cgroupDirectory).build();
+
+        assertFalse(manager.isAvailable());
+        assertNull(manager.prepare(newLauncher(), newProcessData()));
+    }
+
+    private ProcessLauncher newLauncher() {
+        ProcessLauncher launcher = new ProcessLauncher(this.executor, "/bin/sh", "-c", "echo $$");
+        launcher.setOutputListener(this.output::add);
+        launcher.setErrorListener(this.errors::add);
+        return launcher;
+    }
+
+    private TerraformProcessData newProcessData() {
+        return TerraformProcessData.builder().terraformVersion("1.5.7").workingDirectory(this.cgroupDirectory).build();
+    }
+}
@@ -0,0 +1,785 @@
+package io.terrakube.terraform;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformClientTest {
+
+    private static FakeTerraformReleases releases;
+
+    @TempDir
+    File workingDirectory;
+
+    @BeforeAll
+    static void startReleases() throws Exception {
+        releases = new FakeTerraformReleases();
+    }
+
+    @AfterAll
+    static void stopReleases() {
+        releases.close();
+    }
+
+    @Test
+    void initPlanAndApplySucceed() throws Exception {
+        List<String> output = new CopyOnWriteArrayList<>();
+        try (TerraformClient client = newClient().build()) {
+            TerraformProcessData data = newProcessData(Map.of("FAKE_TERRAFORM_LINES", "25"));
+
+            assertTrue(client.init(data, output::add, output::add).get(30, TimeUnit.SECONDS));
+            assertTrue(client.plan(data, output::add, output::add).get(30, TimeUnit.SECONDS));
+            assertTrue(client.apply(data, output::add, output::add).get(30, TimeUnit.SECONDS));
+        }
+
+        assertTrue(new File(this.workingDirectory, "terraformLibrary.tfPlan").isFile());
+        assertEquals(79, output.size());
+        assertTrue(output.contains("Apply complete! Resources: 25 added, 0 changed, 0 destroyed."));
+    }
+
+    @Test
+    void jsonOutputIsStreamed() throws Exception {
+        List<String> output = new CopyOnWriteArrayList<>();
+        try (TerraformClient client = newClient().jsonOutput(true).build()) {
+            TerraformResult result = client.execute(TerraformCommand.plan, newProcessData(Map.of()), output::add, output::add).get(30, TimeUnit.SECONDS);
+            assertTrue(result.isSuccessful());
+            assertNull(result.getFailure());
+        }
+
+        assertTrue(output.get(0).startsWith("{\"@level\":\"info\""));
+    }
+
+    @Test
+    void applyIsProfiledFromJsonEvents() throws Exception {
+        try (TerraformClient client = newClient().jsonOutput(true).applyProfiling(true).build()) {
+            TerraformResult result = client.execute(TerraformCommand.apply, newProcessData(Map.of("FAKE_TERRAFORM_LINES", "6")), line -> {}, line -> {}).get(30, TimeUnit.SECONDS);
+            TerraformApplyProfile profile = result.getApplyProfile();
+
+            assertEquals(6, profile.getResources().size());
+            assertEquals(List.of("aws", "random"), profile.getProviderTimes().keySet().stream().sorted().toList());
+            assertEquals("random_id.fake[5]", profile.getCriticalPath().get(profile.getCriticalPath().size() - 1).getAddress());
+            assertTrue(profile.toCollapsedStacks().startsWith("aws;aws_instance;aws_instance.fake[0];create "));
+            assertTrue(profile.toJson().contains("\"criticalPath\""));
+        }
+    }
+
+    @Test
+    void planWithChangesSucceedsWithDetailExitCode() throws Exception {
+        Map<String, String> environment = Map.of("FAKE_TERRAFORM_EXIT_CODE", "2", "FAKE_TERRAFORM_FAIL_COMMANDS", "plan");
+        try (TerraformClient client = newClient().build()) {
+            TerraformProcessData data = newProcessData(environment);
+            data.setDetailExitCode(true);
+            TerraformResult result = client.execute(TerraformCommand.plan, data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS);
+            assertEquals(2, result.getExitCode());
+            assertNull(result.getFailure());
+            assertTrue(result.isSuccessful());
+            assertEquals(2, client.planDetailExitCode(newProcessData(environment), line -> {}, line -> {}).get(30, TimeUnit.SECONDS));
+
+            // without -detailed-exitcode the same exit code is a failure
+            TerraformResult failed = client.execute(TerraformCommand.plan, newProcessData(environment), line -> {}, line -> {}).get(30, TimeUnit.SECONDS);
+            assertFalse(failed.isSuccessful());
+            assertNotNull(failed.getFailure());
+        }
+    }
+
+    @Test
+    void runOutputIsWrittenToTheRunLog() throws Exception {
+        File logDirectory = new File(this.workingDirectory, "logs");
+        File workspace = new File(this.workingDirectory, "workspace");
+        assertTrue(workspace.mkdir());
+        TerraformProcessData data = newProcessData(Map.of("FAKE_TERRAFORM_LINES", "5", "FAKE_TERRAFORM_EXIT_CODE", "1", "FAKE_TERRAFORM_FAIL_COMMANDS", "apply"));
+        data.setWorkingDirectory(workspace);
+        TerraformRunLogStore store = TerraformRunLogStore.builder().directory(logDirectory).build();
+        List<String> output = new CopyOnWriteArrayList<>();
+        TerraformResult plan;
+        TerraformResult apply;
+        try (TerraformClient client = newClient().runLogStore(store).build()) {
+            plan = client.execute(TerraformCommand.plan, data, output::add, output::add).get(30, TimeUnit.SECONDS);
+            // error lines are logged also without an error listener
+            apply = client.execute(TerraformCommand.apply, data, line -> {}, null).get(30, TimeUnit.SECONDS);
+        }
+
+        assertNotEquals(plan.getRunId(), apply.getRunId());
+        assertEquals(List.of(plan.getRunId(), apply.getRunId()).stream().sorted().toList(), store.getRuns());
+        try (TerraformRunLogReader reader = store.open(plan.getRunId())) {
+            assertEquals(output, reader.tail(1000));
+        }
+        try (TerraformRunLogReader reader = store.open(apply.getRunId())) {
+            assertTrue(reader.tail(1000).contains("Error: simulated failure"));
+        }
+        // closed once the run completed
+        store.delete(plan.getRunId());
+    }
+
+    @Test
+    void runsAreRecordedInTheHistory() throws Exception {
+        File historyDirectory = new File(this.workingDirectory, "history");
+        File workspace = new File(this.workingDirectory, "workspace");
+        assertTrue(workspace.mkdir());
+        TerraformProcessData data = newProcessData(Map.of("FAKE_TERRAFORM_EXIT_CODE", "1", "FAKE_TERRAFORM_FAIL_COMMANDS", "apply"));
+        data.setWorkingDirectory(workspace);
+        try (TerraformRunHistory history = TerraformRunHistory.builder().directory(historyDirectory).build();
+             TerraformClient client = newClient().runHistory(history).build()) {
+            assertTrue(client.plan(data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS));
+            assertFalse(client.apply(data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS));
+        }
+
+        try (TerraformRunHistory history = TerraformRunHistory.builder().directory(historyDirectory).build()) {
+            TerraformRunRecord failed = history.find(TerraformRunQuery.builder().workspace(workspace.getAbsolutePath()).successful(false).build()).get(0);
+            assertEquals(TerraformCommand.apply, failed.getCommand());
+            assertEquals("1.5.7", failed.getTerraformVersion());
+            assertEquals(TerraformCommand.plan, history.findLast(workspace.getAbsolutePath(), null, true).orElseThrow().getCommand());
+
+            Map<String, TerraformRunStatistics> statistics = history.getStatistics(TerraformRunQuery.builder().build(), TerraformRunGroup.COMMAND);
+            assertEquals(List.of("apply", "plan"), List.copyOf(statistics.keySet()));
+            assertEquals(1, statistics.get("apply").getFailures());
+
+            assertEquals(2, history.delete(workspace.getAbsolutePath()));
+            assertEquals(2, history.compact());
+            assertEquals(0, history.size());
+        }
+    }
+
+    @Test
+    void transientFailureIsClassifiedAndRetried() throws Exception {
+        try (TerraformClient client = newClient()
+                .retryPolicy(TerraformCommand.plan, TerraformRetryPolicy.builder().initialBackoff(Duration.ofMillis(10)).build())
+                .build()) {
+            TerraformResult result = client.execute(TerraformCommand.plan, newProcessData(Map.of(
+                    "FAKE_TERRAFORM_EXIT_CODE", "1",
+                    "FAKE_TERRAFORM_FAIL_TIMES", "2",
+                    "FAKE_TERRAFORM_ERROR", "Error: Error acquiring the state lock")), line -> {}, line -> {}).get(30, TimeUnit.SECONDS);
+
+            assertTrue(result.isSuccessful());
+            assertEquals(3, result.getAttempt());
+        }
+    }
+
+    @Test
+    void permanentFailureIsNotRetried() throws Exception {
+        try (TerraformClient client = newClient()
+                .retryPolicy(TerraformCommand.plan, TerraformRetryPolicy.builder().initialBackoff(Duration.ofMillis(10)).build())
+                .jsonOutput(true)
+                .build()) {
+            TerraformResult result = client.execute(TerraformCommand.plan, newProcessData(Map.of(
+                    "FAKE_TERRAFORM_EXIT_CODE", "1",
+                    "FAKE_TERRAFORM_ERROR", "Error: Unsupported argument")), line -> {}, line -> {}).get(30, TimeUnit.SECONDS);
+
+            assertEquals(1, result.getExitCode());
+            assertEquals(1, result.getAttempt());
+            assertEquals(TerraformFailureType.UNKNOWN, result.getFailure().getType());
+            assertEquals("Error: Unsupported argument", result.getFailure().getMessage());
+        }
+    }
+
+    @Test
+    void secretsAreRedactedBeforeListeners() throws Exception {
+        try (TerraformClient client = newClient().redactVariables(true).build()) {
+            TerraformProcessData data = TerraformProcessData.builder()
+                    .terraformVersion("1.5.7")
+                    .workingDirectory(this.workingDirectory)
+                    .terraformEnvironmentVariables(Map.of(
+                            "FAKE_TERRAFORM_EXIT_CODE", "1",
+                            "FAKE_TERRAFORM_ERROR", "Error: token s3cr3t-value rejected by hunter22"))
+                    .terraformVariables(Map.of("password", "hunter22"))
+                    .secret("s3cr3t-value")
+                    .build();
+            List<String> errors = new CopyOnWriteArrayList<>();
+            TerraformResult result = client.execute(TerraformCommand.plan, data, line -> {}, errors::add).get(30, TimeUnit.SECONDS);
+
+            assertEquals(List.of("Error: token *** rejected by ***"), errors);
+            assertEquals("Error: token *** rejected by ***", result.getFailure().getMessage());
+            assertSame(client.getRedactor(data), client.getRedactor(data));
+
+            // changed redaction settings build a new automaton
+            client.setRedactPatterns(List.of(Pattern.compile("token \\S+")));
+            assertEquals("Error: *** rejected", client.getRedactor(data).redact("Error: token abc rejected"));
+            TerraformRedactor patterns = client.getRedactor(data);
+            client.setRedactMinLength(12);
+            assertNotSame(patterns, client.getRedactor(data));
+            assertEquals("hunter22", client.getRedactor(data).redact("hunter22"));
+        }
+    }
+
+    @Test
+    void runsWithOtherSecretsDoNotShareTheirOutput() throws Exception {
+        try (TerraformClient client = newClient().build()) {
+            TerraformProcessData masked = newProcessData(Map.of("FAKE_TERRAFORM_LATENCY", "1", "FAKE_TERRAFORM_LINES", "0"));
+            masked.setSecrets(Set.of("format_version"));
+            TerraformProcessData plain = newProcessData(Map.of("FAKE_TERRAFORM_LATENCY", "1", "FAKE_TERRAFORM_LINES", "0"));
+            List<String> maskedOutput = new CopyOnWriteArrayList<>();
+            List<String> plainOutput = new CopyOnWriteArrayList<>();
+
+            // the second show is requested while the first one is running
+            CompletableFuture<Boolean> first = client.show(masked, maskedOutput::add, null);
+            CompletableFuture<Boolean> second = client.show(plain, plainOutput::add, null);
+
+            assertTrue(first.get(30, TimeUnit.SECONDS));
+            assertTrue(second.get(30, TimeUnit.SECONDS));
+            assertEquals(List.of("{\"***\":\"1.0\"}"), maskedOutput);
+            assertEquals(List.of("{\"format_version\":\"1.0\"}"), plainOutput);
+        }
+    }
+
+    @Test
+    void clientsWithOtherOutputSettingsDoNotShareTheirOutput() throws Exception {
+        try (TerraformClient redirected = newClient().redirectErrorStream(true).build();
+             TerraformClient separate = newClient().build()) {
+            TerraformProcessData data = newProcessData(Map.of("FAKE_TERRAFORM_LATENCY", "1", "FAKE_TERRAFORM_LINES", "0",
+                    "FAKE_TERRAFORM_EXIT_CODE", "1", "FAKE_TERRAFORM_ERROR", "Error: no saved plan"));
+            List<String> redirectedOutput = new CopyOnWriteArrayList<>();
+            List<String> separateOutput = new CopyOnWriteArrayList<>();
+            List<String> separateErrors = new CopyOnWriteArrayList<>();
+
+            CompletableFuture<Boolean> first = redirected.showPlan(data, redirectedOutput::add, line -> {});
+            CompletableFuture<Boolean> second = separate.showPlan(data, separateOutput::add, separateErrors::add);
+
+            assertFalse(first.get(30, TimeUnit.SECONDS));
+            assertFalse(second.get(30, TimeUnit.SECONDS));
+            assertEquals(List.of("Error: no saved plan"), redirectedOutput);
+            assertEquals(List.of(), separateOutput);
+            assertEquals(List.of("Error: no saved plan"), separateErrors);
+        }
+    }
+
+    @Test
+    void downloadRunsInTheReturnedFuture() throws Exception {
+        try (TerraformClient client = newClient().build()) {
+            FileUtils.deleteDirectory(client.getCacheManager().getVersionDirectory("terraform", "1.9.8"));
+            int downloads = releases.getDownloadRequests();
+            releases.setDownloadDelay(Duration.ofSeconds(1));
+            try {
+                List<CompletableFuture<TerraformResult>> results = new ArrayList<>();
+                long start = System.nanoTime();
+                for (String name : List.of("first", "second")) {
+                    File directory = new File(this.workingDirectory, name);
+                    assertTrue(directory.mkdir());
+                    TerraformProcessData data = newProcessData(Map.of());
+                    data.setTerraformVersion("1.9.8");
+                    data.setWorkingDirectory(directory);
+                    results.add(client.execute(TerraformCommand.plan, data, line -> {}, line -> {}));
+                }
+                assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+                for (CompletableFuture<TerraformResult> result : results) {
+                    assertTrue(result.get(30, TimeUnit.SECONDS).isSuccessful());
+                }
+                assertEquals(downloads + 1, releases.getDownloadRequests());
+            } finally {
+                releases.setDownloadDelay(Duration.ZERO);
+            }
+        }
+    }
+
+    @Test
+    void driftingWorkspacesAreCheckedMoreOften() throws Exception {
+        List<TerraformDriftResult> results = new CopyOnWriteArrayList<>();
+        try (TerraformClient client = newClient().build();
+             TerraformDriftScheduler scheduler = TerraformDriftScheduler.builder()
+                     .terraformClient(client)
+                     .minInterval(Duration.ofMillis(100))
+                     .initialInterval(Duration.ofMillis(400))
+                     .maxInterval(Duration.ofSeconds(10))
+                     .costFactor(0)
+                     .tickInterval(Duration.ofMillis(20))
+                     .sink(results::add)
+                     .build()) {
+            for (String name : List.of("stable", "drifting")) {
+                File directory = new File(this.workingDirectory, name);
+                assertTrue(directory.mkdir());
+                TerraformProcessData data = newProcessData(name.equals("drifting")
+                        ? Map.of("FAKE_TERRAFORM_EXIT_CODE", "2", "FAKE_TERRAFORM_FAIL_COMMANDS", "plan")
+                        : Map.of());
+                data.setWorkingDirectory(directory);
+                scheduler.register(name, data);
+                assertFalse(data.isRefreshOnly());
+            }
+            scheduler.start();
+
+            long deadline = System.currentTimeMillis() + 20000;
+            while (results.stream().filter(TerraformDriftResult::isDrifted).count() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Map<String, TerraformDriftWorkspace> workspaces = new HashMap<>();
+            scheduler.getWorkspaces().forEach(workspace -> workspaces.put(workspace.getId(), workspace));
+
+            assertTrue(results.stream().noneMatch(TerraformDriftResult::isFailed));
+            assertEquals(0, workspaces.get("stable").getDrifts());
+            assertTrue(workspaces.get("drifting").getDrifts() >= 3);
+            assertTrue(workspaces.get("drifting").getInterval().compareTo(workspaces.get("stable").getInterval()) < 0);
+            assertTrue(workspaces.get("stable").getChecks() > 0);
+            // the checks do not replace the plan saved for apply
+            assertFalse(new File(this.workingDirectory, "stable/terraformLibrary.tfPlan").exists());
+        }
+    }
+
+    @Test
+    void newerChangesCancelTheSpeculativePlanInFlight() throws Exception {
+        File mainFile = new File(this.workingDirectory, "main.tf");
+        Files.writeString(mainFile.toPath(), "locals {}\n");
+        List<TerraformPlanWatchResult> results = new CopyOnWriteArrayList<>();
+        try (TerraformClient client = newClient().build();
+             TerraformPlanWatcher watcher = TerraformPlanWatcher.builder()
+                     .terraformClient(client)
+                     .terraformProcessData(newProcessData(Map.of("FAKE_TERRAFORM_LATENCY", "2", "FAKE_TERRAFORM_LINES", "1")))
+                     .debounce(Duration.ofMillis(100))
+                     .build()
+                     .start()) {
+            watcher.subscribe(results::add);
+            Files.writeString(mainFile.toPath(), "locals {\n  a = 1\n}\n");
+            Files.writeString(new File(this.workingDirectory, "notes.txt").toPath(), "ignored");
+
+            long deadline = System.currentTimeMillis() + 20000;
+            while (client.getRuns().stream().noneMatch(run -> run.getPid() != 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, watcher.getGeneration());
+            Files.writeString(new File(this.workingDirectory, "terraform.tfvars").toPath(), "a = 2\n");
+
+            while (results.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Thread.sleep(500);
+
+            assertEquals(1, results.size());
+            TerraformPlanWatchResult result = results.get(0);
+            assertEquals(2, result.getGeneration());
+            assertEquals(List.of("terraform.tfvars"), result.getChangedFiles());
+            assertFalse(result.isFailed());
+            assertTrue(result.getOutput().contains("Skipping refresh"));
+            assertSame(result, watcher.getLatest());
+            assertTrue(client.getRuns().isEmpty());
+        }
+    }
+
+    @Test
+    void speculativePlansDoNotReplaceTheSavedPlan() throws Exception {
+        File mainFile = new File(this.workingDirectory, "main.tf");
+        Files.writeString(mainFile.toPath(), "locals {}\n");
+        File planFile = new File(this.workingDirectory, "terraformLibrary.tfPlan");
+        TerraformProcessData data = newProcessData(Map.of("FAKE_TERRAFORM_LINES", "1"));
+        List<TerraformPlanWatchResult> results = new CopyOnWriteArrayList<>();
+        try (TerraformClient client = newClient().build()) {
+            assertTrue(client.plan(data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS));
+            assertEquals("fake plan, refresh true", Files.readString(planFile.toPath()).trim());
+
+            try (TerraformPlanWatcher watcher = TerraformPlanWatcher.builder()
+                    .terraformClient(client)
+                    .terraformProcessData(data)
+                    .debounce(Duration.ofMillis(100))
+                    .build()
+                    .start()) {
+                watcher.subscribe(results::add);
+                Files.writeString(mainFile.toPath(), "locals {\n  a = 1\n}\n");
+                long deadline = System.currentTimeMillis() + 20000;
+                while (results.isEmpty() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+            }
+            assertTrue(results.get(0).getOutput().contains("Skipping refresh"));
+            assertEquals("fake plan, refresh true", Files.readString(planFile.toPath()).trim());
+
+            // apply runs the plan that was reviewed, not the last speculative one
+            List<String> output = new CopyOnWriteArrayList<>();
+            assertTrue(client.apply(data, output::add, output::add).get(30, TimeUnit.SECONDS));
+            assertTrue(output.contains("Applying fake plan, refresh true"), output.toString());
+        }
+    }
+
+    @Test
+    void runsAreDispatchedToTheNodeWithTheWarmCache() throws Exception {
+        File first = new File(this.workingDirectory, "first");
+        File second = new File(this.workingDirectory, "second");
+        assertTrue(first.mkdir() && second.mkdir());
+        try (TerraformClient localClient = newClient().build();
+             TerraformClient remoteClient = newClient().build();
+             TerraformNodeServer server = TerraformNodeServer.builder()
+                     .node(LocalTerraformNode.builder().id("remote").terraformClient(remoteClient).capacity(1).build())
+                     .address("127.0.0.1")
+                     .token("secret")
+                     .rootDirectory(this.workingDirectory)
+                     .build()) {
+            TerraformDispatcher dispatcher = TerraformDispatcher.builder()
+                    .node(LocalTerraformNode.builder().id("local").terraformClient(localClient).capacity(1).build())
+                    .node(HttpTerraformNode.builder().id("remote").url("http://127.0.0.1:" + server.getPort()).token("secret").build())
+                    .statusMaxAge(Duration.ZERO)
+                    .build();
+            // both nodes report the installed binary, whatever test ran first
+            localClient.createTerraformDownloader().downloadTerraformVersion("1.5.7");
+
+            // the first run fills the local node, so the second one goes to the remote node
+            TerraformProcessData slow = newProcessData(Map.of("FAKE_TERRAFORM_LATENCY", "1", "FAKE_TERRAFORM_LINES", "0"));
+            slow.setWorkingDirectory(first);
+            CompletableFuture<TerraformResult> firstRun = dispatcher.dispatch(TerraformCommand.plan, slow, line -> {}, line -> {});
+            TerraformProcessData data = newProcessData(Map.of());
+            data.setWorkingDirectory(second);
+            List<String> output = new CopyOnWriteArrayList<>();
+            assertTrue(dispatcher.dispatch(TerraformCommand.plan, data, output::add, output::add).get(30, TimeUnit.SECONDS).isSuccessful());
+            assertTrue(firstRun.get(30, TimeUnit.SECONDS).isSuccessful());
+            assertEquals(11, output.size());
+
+            // each workspace goes back to the node that initialized it, unless that node is saturated
+            for (int i = 0; i < 2; i++) {
+                assertTrue(dispatcher.dispatch(TerraformCommand.plan, data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS).isSuccessful());
+            }
+            firstRun = dispatcher.dispatch(TerraformCommand.plan, slow, line -> {}, line -> {});
+            assertTrue(dispatcher.dispatch(TerraformCommand.plan, slow, line -> {}, line -> {}).get(30, TimeUnit.SECONDS).isSuccessful());
+            assertTrue(firstRun.get(30, TimeUnit.SECONDS).isSuccessful());
+
+            Map<String, TerraformNodeReport> report = new HashMap<>();
+            dispatcher.getReport().forEach(node -> report.put(node.getId(), node));
+            assertEquals(2, report.get("local").getDispatched());
+            assertEquals(4, report.get("remote").getDispatched());
+            assertEquals(1, report.get("remote").getSpillOvers());
+            assertTrue(report.get("remote").getStatus().getWorkspaces().contains(second.getAbsolutePath()));
+            assertEquals(0, report.get("remote").getInFlight());
+        }
+    }
+
+    @Test
+    void slowStatusReadDoesNotStallOtherDispatches() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch reading = new CountDownLatch(1);
+        TerraformNode slow = stubNode("slow", () -> {
+            if (Thread.currentThread().getName().equals("slow-read")) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        TerraformDispatcher dispatcher = TerraformDispatcher.builder()
+                .node(slow)
+                .node(stubNode("fast", () -> {}))
+                .statusMaxAge(Duration.ZERO)
+                .build();
+        TerraformProcessData data = newProcessData(Map.of());
+        assertTrue(dispatcher.dispatch(TerraformCommand.plan, data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS).isSuccessful());
+
+        // one dispatch waits on the status of the slow node, the next one uses its last status
+        Thread blocked = new Thread(() -> dispatcher.dispatch(TerraformCommand.plan, data, line -> {}, line -> {}), "slow-read");
+        blocked.start();
+        try {
+            assertTrue(reading.await(30, TimeUnit.SECONDS));
+            CompletableFuture<TerraformResult> next = CompletableFuture.supplyAsync(() -> dispatcher.dispatch(TerraformCommand.plan, data, line -> {}, line -> {}))
+                    .thenCompose(result -> result);
+            assertTrue(next.get(5, TimeUnit.SECONDS).isSuccessful());
+            assertEquals(2, CompletableFuture.supplyAsync(dispatcher::getReport).get(5, TimeUnit.SECONDS).size());
+        } finally {
+            release.countDown();
+            blocked.join(30000);
+        }
+    }
+
+    @Test
+    void remoteNodesOnlyRunInsideTheirRootAndKeepTheSavedPlan() throws Exception {
+        File root = new File(this.workingDirectory, "root");
+        File outside = new File(this.workingDirectory, "outside");
+        assertTrue(root.mkdir() && outside.mkdir());
+        try (TerraformClient remoteClient = newClient().build()) {
+            LocalTerraformNode localNode = LocalTerraformNode.builder().id("remote").terraformClient(remoteClient).build();
+            assertThrows(NullPointerException.class, () -> TerraformNodeServer.builder().node(localNode).rootDirectory(root).build());
+            assertThrows(IllegalArgumentException.class, () -> TerraformNodeServer.builder().node(localNode).address("0.0.0.0").token("secret").rootDirectory(root).build());
+
+            try (TerraformNodeServer server = TerraformNodeServer.builder().node(localNode).token("secret").rootDirectory(root).build()) {
+                HttpTerraformNode node = HttpTerraformNode.builder().url("http://127.0.0.1:" + server.getPort()).token("secret").build();
+                TerraformProcessData data = newProcessData(Map.of("FAKE_TERRAFORM_LINES", "1"));
+                data.setWorkingDirectory(root);
+                assertTrue(node.execute(TerraformCommand.plan, data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS).isSuccessful());
+                File planFile = new File(root, "terraformLibrary.tfPlan");
+                Files.writeString(planFile.toPath(), "reviewed plan");
+
+                // a drift check or speculative plan sent to another node leaves the reviewed plan alone
+                TerraformProcessData check = data.toBuilder().savePlan(false).build();
+                assertTrue(node.execute(TerraformCommand.plan, check, line -> {}, line -> {}).get(30, TimeUnit.SECONDS).isSuccessful());
+                assertEquals("reviewed plan", Files.readString(planFile.toPath()));
+
+                for (TerraformProcessData denied : List.of(
+                        data.toBuilder().workingDirectory(outside).build(),
+                        data.toBuilder().workingDirectory(new File(root, "../outside")).build(),
+                        data.toBuilder().sshFile(new File(outside, "id_rsa")).build(),
+                        data.toBuilder().varFileName("../outside/terraform.tfvars").build(),
+                        data.toBuilder().terraformEnvironmentVariable("GIT_SSH_COMMAND", "touch /tmp/owned").build(),
+                        data.toBuilder().terraformEnvironmentVariable("TF_CLI_CONFIG_FILE", "/tmp/terraformrc").build())) {
+                    ExecutionException failure = assertThrows(ExecutionException.class, () -> node.execute(TerraformCommand.plan, denied, line -> {}, line -> {}).get(30, TimeUnit.SECONDS));
+                    assertTrue(failure.getMessage().contains("returned 403"), failure.getMessage());
+                }
+                ExecutionException failure = assertThrows(ExecutionException.class, () -> node.execute(TerraformCommand.plan, data.toBuilder().outputFile(new File(root, "plan.json")).build(), line -> {}, line -> {}).get(30, TimeUnit.SECONDS));
+                assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+
+                HttpTerraformNode anonymous = HttpTerraformNode.builder().url("http://127.0.0.1:" + server.getPort()).build();
+                assertThrows(IOException.class, anonymous::getStatus);
+            }
+        }
+    }
+
+    @Test
+    void providersSchemaIsSharedByWorkspacesLockingTheSameVersions() throws Exception {
+        File schemaDirectory = new File(this.workingDirectory, "schemas");
+        List<TerraformProcessData> workspaces = new ArrayList<>();
+        for (String hash : List.of("h1:first=", "h1:second=")) {
+            File workspace = new File(this.workingDirectory, hash.substring(3, hash.length() - 1));
+            assertTrue(workspace.mkdir());
+            Files.writeString(new File(workspace, ".terraform.lock.hcl").toPath(), String.format("provider \"registry.terraform.io/hashicorp/random\" {%n"
+                    + "  version     = \"3.5.1\"%n  constraints = \"~> 3.5\"%n  hashes = [%n    \"%s\",%n  ]%n}%n", hash));
+            TerraformProcessData data = newProcessData(Map.of());
+            data.setWorkingDirectory(workspace);
+            workspaces.add(data);
+        }
+
+        try (TerraformClient client = newClient().schemaCache(TerraformSchemaCache.builder().directory(schemaDirectory).build()).build()) {
+            TerraformProviderSchema schema = client.providersSchema(workspaces.get(0)).get(30, TimeUnit.SECONDS);
+            assertSame(schema, client.providersSchema(workspaces.get(1)).get(30, TimeUnit.SECONDS));
+
+            TerraformSchemaBlock randomId = schema.getResource("random_id");
+            assertEquals("registry.terraform.io/hashicorp/random", randomId.getProvider());
+            assertEquals(List.of("byte_length"), randomId.getRequiredAttributes().stream().map(TerraformSchemaAttribute::getName).toList());
+            assertEquals("[\"map\",\"string\"]", randomId.getAttribute("keepers").getType());
+            assertTrue(randomId.getAttribute("id").isComputed());
+            assertNull(randomId.getAttribute("unknown"));
+        }
+
+        // a new cache reads the index written on disk instead of running terraform, which would fail here
+        TerraformProcessData failing = newProcessData(Map.of("FAKE_TERRAFORM_EXIT_CODE", "1"));
+        failing.setWorkingDirectory(workspaces.get(1).getWorkingDirectory());
+        try (TerraformClient client = newClient().schemaCache(TerraformSchemaCache.builder().directory(schemaDirectory).build()).build()) {
+            TerraformProviderSchema schema = client.providersSchema(failing).get(30, TimeUnit.SECONDS);
+            assertEquals(Map.of("registry.terraform.io/hashicorp/random", "3.5.1"), schema.getProviders());
+            TerraformSchemaBlock randomPassword = schema.getResource("random_password");
+            assertEquals(3, randomPassword.getVersion());
+            assertTrue(randomPassword.getAttribute("result").isSensitive());
+            assertEquals("single", randomPassword.getBlock("timeouts").getNesting());
+            assertEquals(1, randomPassword.getBlock("timeouts").getMaxItems());
+        }
+    }
+
+    @Test
+    void providersSchemaIsNotCachedWithoutLockFile() throws Exception {
+        File schemaDirectory = new File(this.workingDirectory, "schemas");
+        // the schema is read from its own file, masking the secrets of the output never changes it
+        TerraformProcessData data = newProcessData(Map.of());
+        data.setSecrets(Set.of("random_password"));
+        try (TerraformClient client = newClient().schemaCache(TerraformSchemaCache.builder().directory(schemaDirectory).build()).build()) {
+            TerraformProviderSchema schema = client.providersSchema(data).get(30, TimeUnit.SECONDS);
+
+            assertNotNull(schema.getResource("random_password"));
+            assertNull(client.getSchemaCache().getIfPresent(schema.getKey()));
+            assertFalse(schemaDirectory.exists());
+            assertNotSame(schema, client.providersSchema(data).get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void preflightSharesOneInitAndRejectsSyntaxErrorsWithoutIt() throws Exception {
+        String providers = String.format("terraform {%n  required_providers {%n    random = {%n      source  = \"hashicorp/random\"%n      version = \"~> 3.5\"%n    }%n  }%n}%n");
+        Map<String, String> configurations = new LinkedHashMap<>();
+        configurations.put("first", providers);
+        configurations.put("second", providers + "# FAKE_UNFORMATTED\n");
+        configurations.put("broken", providers + "locals {\n  value = FAKE_SYNTAX_ERROR\n}\n");
+        List<TerraformProcessData> directories = new ArrayList<>();
+        for (Map.Entry<String, String> configuration : configurations.entrySet()) {
+            File directory = new File(this.workingDirectory, configuration.getKey());
+            assertTrue(directory.mkdir());
+            Files.writeString(new File(directory, "main.tf").toPath(), configuration.getValue());
+            TerraformProcessData data = newProcessData(Map.of());
+            data.setWorkingDirectory(directory);
+            directories.add(data);
+        }
+
+        try (TerraformClient client = newClient().build()) {
+            File dataDirectory = new File(this.workingDirectory, "preflight");
+            TerraformPreflight preflight = TerraformPreflight.builder().terraformClient(client).dataDirectory(dataDirectory).parallelism(2).build();
+            List<TerraformValidationResult> results = preflight.validateAll(directories).get(30, TimeUnit.SECONDS);
+
+            assertTrue(results.get(0).isSuccessful());
+            assertTrue(results.get(1).isValid());
+            assertFalse(results.get(1).getFormatted());
+            assertEquals(List.of("main.tf"), results.get(1).getUnformattedFiles());
+            assertEquals(results.get(0).getFingerprint(), results.get(1).getFingerprint());
+            File sharedDirectory = new File(dataDirectory, results.get(0).getFingerprint());
+            assertEquals(List.of("init -no-color -backend=false -input=false"), Files.readAllLines(new File(sharedDirectory, "fake-inits").toPath()));
+            assertTrue(new File(directories.get(1).getWorkingDirectory(), ".terraform.lock.hcl").isFile());
+
+            TerraformValidationResult broken = results.get(2);
+            assertFalse(broken.isValid());
+            assertFalse(broken.isInitialized());
+            TerraformDiagnostic error = broken.getErrors().get(0);
+            assertEquals("Invalid expression", error.getSummary());
+            assertEquals("main.tf", error.getFileName());
+            assertEquals(10, error.getStartLine());
+
+            // the lock file written by the shared init keeps the directories on its data directory, validate runs alone
+            for (TerraformProcessData directory : directories.subList(0, 2)) {
+                TerraformValidationResult again = preflight.validate(directory).get(30, TimeUnit.SECONDS);
+                assertEquals(results.get(0).getFingerprint(), again.getFingerprint());
+                assertTrue(again.isValid());
+                assertFalse(again.isInitialized());
+            }
+            assertEquals(1, Files.readAllLines(new File(sharedDirectory, "fake-inits").toPath()).size());
+
+            // the same declarations locking other hashes do not share the data directory
+            File lockFile = new File(directories.get(1).getWorkingDirectory(), ".terraform.lock.hcl");
+            Files.writeString(lockFile.toPath(), Files.readString(lockFile.toPath()).replace("}", "  hashes = [\n    \"h1:fake=\",\n  ]\n}"));
+            TerraformValidationResult otherHashes = preflight.validate(directories.get(1)).get(30, TimeUnit.SECONDS);
+            assertNotEquals(results.get(0).getFingerprint(), otherHashes.getFingerprint());
+            assertTrue(otherHashes.isValid());
+            assertTrue(otherHashes.isInitialized());
+            assertEquals(otherHashes.getFingerprint(), preflight.validate(directories.get(1)).get(30, TimeUnit.SECONDS).getFingerprint());
+
+            // data directories unused for longer than maxUnusedAge are deleted
+            File otherDirectory = new File(dataDirectory, otherHashes.getFingerprint());
+            assertTrue(otherDirectory.setLastModified(System.currentTimeMillis() - Duration.ofDays(8).toMillis()));
+            assertEquals(1, preflight.prune());
+            assertFalse(otherDirectory.exists());
+            assertTrue(sharedDirectory.isDirectory());
+        }
+    }
+
+    @Test
+    void providerMirrorIsMergedIntoTheUserCliConfig() throws Exception {
+        TerraformClient client = newClient()
+                .cacheManager(TerraformCacheManager.builder().cacheDirectory(new File(this.workingDirectory, "cache")).build())
+                .providerMirror("https://mirror.example.com/providers")
+                .build();
+        String mirror = "provider_installation {\n  network_mirror {\n    url = \"https://mirror.example.com/providers/\"\n  }\n}\n".replace("\n", System.lineSeparator());
+
+        File userConfig = new File(this.workingDirectory, "terraformrc");
+        Files.writeString(userConfig.toPath(), "credentials \"registry.example.com\" {\n  token = \"secret\"\n}\nplugin_cache_dir = \"/var/cache/plugins\"");
+        File merged = client.getProviderMirrorConfig(userConfig);
+        assertEquals(Files.readString(userConfig.toPath()) + System.lineSeparator() + mirror, Files.readString(merged.toPath()));
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(merged.toPath()));
+        }
+
+        // a missing user config gets the mirror alone, a changed one a new file
+        assertEquals(mirror, Files.readString(client.getProviderMirrorConfig(new File(this.workingDirectory, "missing")).toPath()));
+        assertEquals(mirror, Files.readString(client.getProviderMirrorConfig(null).toPath()));
+        Files.writeString(userConfig.toPath(), "plugin_cache_dir = \"/tmp/plugins\"\n");
+        assertNotEquals(merged, client.getProviderMirrorConfig(userConfig));
+
+        // installation rules of the user are kept as they are
+        Files.writeString(userConfig.toPath(), "provider_installation {\n  direct {}\n}\n");
+        assertNull(client.getProviderMirrorConfig(userConfig));
+        File jsonConfig = new File(this.workingDirectory, "terraformrc.json");
+        Files.writeString(jsonConfig.toPath(), "{\"plugin_cache_dir\": \"/tmp/plugins\"}");
+        assertNull(client.getProviderMirrorConfig(jsonConfig));
+    }
+
+    @Test
+    void providersAreMirroredOnDemand() throws Exception {
+        TerraformProviderMirror mirror = TerraformProviderMirror.builder()
+                .directory(new File(this.workingDirectory, "mirror"))
+                .registryUrl("registry.terraform.io", releases.getRegistryUrl())
+                .build();
+        int downloads = releases.getProviderDownloads();
+
+        File index = mirror.getFile("registry.terraform.io/hashicorp/random/index.json");
+        assertTrue(Files.readString(index.toPath()).contains("\"3.6.0\""));
+        String archive = String.format("terraform-provider-random_3.6.0_%s.zip", TerraformMirror.getCurrentPlatform());
+        assertTrue(Files.readString(mirror.getFile("registry.terraform.io/hashicorp/random/3.6.0.json").toPath()).contains("\"url\":\"" + archive + "\""));
+        for (int i = 0; i < 2; i++) {
+            assertTrue(mirror.getFile("registry.terraform.io/hashicorp/random/" + archive).isFile());
+        }
+        assertEquals(downloads + 1, releases.getProviderDownloads());
+        assertNull(mirror.getFile("registry.terraform.io/hashicorp/random/../index.json"));
+
+        List<String> output = new CopyOnWriteArrayList<>();
+        try (TerraformClient client = newClient().providerMirror("https://mirror.example.com/actuator/providermirror").build()) {
+            assertTrue(client.init(newProcessData(Map.of()), output::add, output::add).get(30, TimeUnit.SECONDS));
+        }
+        String configFile = output.stream().filter(line -> line.startsWith("Using CLI configuration ")).findFirst().orElseThrow().substring("Using CLI configuration ".length());
+        assertTrue(Files.readString(new File(configFile).toPath()).contains("url = \"https://mirror.example.com/actuator/providermirror/\""));
+    }
+
+    @Test
+    void outputIsReplayedToLateSubscribers() throws Exception {
+        TerraformOutputHub hub = new TerraformOutputHub();
+        try (TerraformClient client = newClient().build()) {
+            client.plan(newProcessData(Map.of("FAKE_TERRAFORM_LINES", "40")), hub.getOutputListener(), hub.getErrorListener())
+                    .whenComplete((result, error) -> hub.complete())
+                    .get(30, TimeUnit.SECONDS);
+        }
+
+        List<String> lines = new CopyOnWriteArrayList<>();
+        List<Boolean> completed = new CopyOnWriteArrayList<>();
+        hub.subscribe(new TerraformOutputSubscriber() {
+            @Override
+            public void onLine(TerraformOutputLine line) {
+                lines.add(line.getText());
+            }
+
+            @Override
+            public void onComplete() {
+                completed.add(true);
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (completed.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(41, lines.size());
+        assertEquals(0, hub.getSubscriberCount());
+    }
+
+    private static TerraformNode stubNode(String id, Runnable onStatus) {
+        return new TerraformNode() {
+            @Override
+            public String getId() {
+                return id;
+            }
+
+            @Override
+            public TerraformNodeStatus getStatus() {
+                onStatus.run();
+                return TerraformNodeStatus.builder().id(id).time(Instant.now()).capacity(4).build();
+            }
+
+            @Override
+            public CompletableFuture<TerraformResult> execute(TerraformCommand command, TerraformProcessData terraformProcessData, Consumer<String> outputListener, Consumer<String> errorListener) {
+                return CompletableFuture.completedFuture(TerraformResult.builder().command(command).workingDirectory(terraformProcessData.getWorkingDirectory()).build());
+            }
+        };
+    }
+
+    private TerraformClient.TerraformClientBuilder newClient() {
+        return TerraformClient.builder()
+                .terraformReleasesUrl(releases.getTerraformReleasesUrl())
+                .tofuReleasesUrl(releases.getTofuReleasesUrl());
+    }
+
+    private TerraformProcessData newProcessData(Map<String, String> environment) {
+        return TerraformProcessData.builder()
+                .terraformVersion("1.5.7")
+                .workingDirectory(this.workingDirectory)
+                .terraformEnvironmentVariables(environment)
+                .build();
+    }
+}
@@ -0,0 +1,105 @@
+package io.terrakube.terraform;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformDownloaderTest {
+
+    private static FakeTerraformReleases releases;
+
+    @BeforeAll
+    static void startReleases() throws Exception {
+        releases = new FakeTerraformReleases();
+    }
+
+    @AfterAll
+    static void stopReleases() {
+        releases.close();
+    }
+
+    @Test
+    void versionRangeIsDownloadedOnce() throws Exception {
+        TerraformDownloader downloader = new TerraformDownloader(releases.getTerraformReleasesUrl(), releases.getTofuReleasesUrl());
+        FileUtils.deleteDirectory(new TerraformCacheManager().getVersionDirectory(TerraformCacheManager.TERRAFORM_PRODUCT, "1.9.8"));
+
+        File binary = new File(downloader.downloadTerraformVersion(">= 1.9.0"));
+        assertTrue(binary.canExecute());
+        assertEquals("1.9.8", binary.getParentFile().getName());
+
+        int downloads = releases.getDownloadRequests();
+        assertEquals(binary.getAbsolutePath(), downloader.downloadTerraformVersion("1.9.8"));
+        assertEquals(downloads, releases.getDownloadRequests());
+    }
+
+    @Test
+    void installedVersionMatchingTheConstraintSkipsTheIndex(@TempDir File directory) throws Exception {
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder().cacheDirectory(directory).build();
+        String installed = new TerraformDownloader(releases.getTerraformReleasesUrl(), releases.getTofuReleasesUrl(), cacheManager).downloadTerraformVersion("1.5.7");
+        int indexRequests = releases.getIndexRequests();
+
+        TerraformDownloader downloader = new TerraformDownloader(releases.getTerraformReleasesUrl(), releases.getTofuReleasesUrl(), cacheManager);
+        assertEquals(installed, downloader.downloadTerraformVersion("~> 1.5"));
+        assertEquals(installed, downloader.downloadTerraformVersion(">= 1.0.0, < 2.0.0"));
+        assertEquals(indexRequests, releases.getIndexRequests());
+
+        // nothing installed matches, the index is loaded
+        assertEquals("1.9.8", new File(downloader.downloadTerraformVersion(">= 1.9.0")).getParentFile().getName());
+        assertEquals(indexRequests + 1, releases.getIndexRequests());
+    }
+
+    @Test
+    void constraintsResolvingToTheSameVersionShareOneDownload(@TempDir File directory) throws Exception {
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder().cacheDirectory(directory).build();
+        TerraformDownloader downloader = new TerraformDownloader(releases.getTerraformReleasesUrl(), releases.getTofuReleasesUrl(), cacheManager);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        int downloads = releases.getDownloadRequests();
+        releases.setDownloadDelay(Duration.ofMillis(500));
+        try {
+            CompletableFuture<String> exact = downloader.downloadTerraformVersionAsync("1.5.7", executor);
+            CompletableFuture<String> range = downloader.downloadTerraformVersionAsync("~> 1.5.0", executor);
+            assertEquals(exact.get(30, TimeUnit.SECONDS), range.get(30, TimeUnit.SECONDS));
+            assertEquals(downloads + 1, releases.getDownloadRequests());
+        } finally {
+            releases.setDownloadDelay(Duration.ZERO);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void incompleteInstallationIsReplaced(@TempDir File directory) throws Exception {
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder().cacheDirectory(directory).build();
+        File truncated = cacheManager.getBinary(TerraformCacheManager.TERRAFORM_PRODUCT, "1.5.7");
+        assertTrue(truncated.getParentFile().mkdirs());
+        Files.write(truncated.toPath(), new byte[10]);
+
+        int downloads = releases.getDownloadRequests();
+        File binary = new File(new TerraformDownloader(releases.getTerraformReleasesUrl(), releases.getTofuReleasesUrl(), cacheManager).downloadTerraformVersion("1.5.7"));
+        assertEquals(downloads + 1, releases.getDownloadRequests());
+        assertEquals(truncated, binary);
+        assertTrue(binary.length() > 10);
+        assertTrue(cacheManager.isInstalled(TerraformCacheManager.TERRAFORM_PRODUCT, "1.5.7"));
+        assertEquals(0, new File(directory, TerraformCacheManager.TERRAFORM_PRODUCT).list((dir, name) -> name.startsWith(TerraformCacheManager.EXTRACT_PREFIX)).length);
+    }
+
+    @Test
+    void tofuIsDownloaded() throws Exception {
+        TerraformDownloader downloader = new TerraformDownloader(releases.getTerraformReleasesUrl(), releases.getTofuReleasesUrl());
+
+        File binary = new File(downloader.downloadTofuVersion("1.8.0"));
+        assertTrue(binary.canExecute());
+        assertEquals("tofu", binary.getName());
+    }
+}
@@ -0,0 +1,128 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformFailureClassifierTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final TerraformFailureClassifier classifier = new TerraformFailureClassifier();
+
+    @AfterEach
+    void stopExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void stateLockIsReadFromTheErrorDetail() {
+        TerraformFailure failure = classify(List.of(), List.of(
+                "╷",
+                "│ Error: Error acquiring the state lock",
+                "│ ",
+                "│ Error message: operation error DynamoDB: PutItem, ConditionalCheckFailedException: The conditional request failed",
+                "╵"));
+
+        assertEquals(TerraformFailureType.STATE_LOCK, failure.getType());
+        assertEquals("Error: Error acquiring the state lock", failure.getMessage());
+    }
+
+    @Test
+    void providerAddressIsNotARegistryFailure() {
+        TerraformFailure failure = classify(List.of(), List.of(
+                "╷",
+                "│ Error: Invalid provider configuration",
+                "│ ",
+                "│   with provider[\"registry.terraform.io/hashicorp/aws\"],",
+                "│   on main.tf line 1, in provider \"aws\":",
+                "│    1: provider \"aws\" {",
+                "│ ",
+                "│ The provider requires a region.",
+                "╵"));
+
+        assertEquals(TerraformFailureType.UNKNOWN, failure.getType());
+        assertEquals("Error: Invalid provider configuration", failure.getMessage());
+    }
+
+    @Test
+    void registryFailureIsTransient() {
+        TerraformFailure failure = classify(List.of(), List.of(
+                "╷",
+                "│ Error: Failed to query available provider packages",
+                "│ ",
+                "│ Could not retrieve the list of available versions for provider hashicorp/aws: could not connect to registry.terraform.io",
+                "╵"));
+
+        assertEquals(TerraformFailureType.REGISTRY, failure.getType());
+        assertTrue(failure.getType().isTransient());
+    }
+
+    @Test
+    void timeoutsBlockIsNotATimeout() {
+        TerraformFailure failure = classify(List.of(
+                "  # aws_db_instance.main will be created",
+                "  + resource \"aws_db_instance\" \"main\" {",
+                "      + timeouts {",
+                "          + create = \"timeout after 40m\"",
+                "        }"
+        ), List.of(
+                "╷",
+                "│ Error: Unsupported block type",
+                "│ ",
+                "│   on main.tf line 12, in resource \"aws_s3_bucket\" \"logs\":",
+                "│   12:   timeouts {",
+                "│ ",
+                "│ Blocks of type \"timeouts\" are not expected here.",
+                "╵"));
+
+        assertEquals(TerraformFailureType.UNKNOWN, failure.getType());
+        assertEquals("Error: Unsupported block type", failure.getMessage());
+    }
+
+    @Test
+    void timeoutIsReadFromTheErrorDetail() {
+        TerraformFailure failure = classify(List.of(), List.of(
+                "Error: reading EC2 Instance (i-0123456789abcdef0): dial tcp 10.0.0.1:443: i/o timeout"));
+
+        assertEquals(TerraformFailureType.TIMEOUT, failure.getType());
+    }
+
+    @Test
+    void linesOutsideOfErrorsAreIgnored() {
+        TerraformFailure failure = classify(List.of(
+                "aws_api_gateway_usage_plan.throttled: Refreshing state... [id=timeout-plan]",
+                "{\"@level\":\"info\",\"@message\":\"Error: none\",\"type\":\"refresh_start\"}"
+        ), List.of(
+                "2024/01/01 00:00:00 [DEBUG] connection refused, retrying",
+                "╷",
+                "│ Warning: Argument is deprecated",
+                "│ The timeout argument is deprecated.",
+                "╵"));
+
+        assertEquals(TerraformFailureType.UNKNOWN, failure.getType());
+        assertNull(failure.getMessage());
+    }
+
+    @Test
+    void jsonDiagnosticsAreClassified() {
+        TerraformFailure failure = classify(List.of(
+                "{\"@level\":\"error\",\"@message\":\"Error: creating instance\",\"diagnostic\":{\"severity\":\"error\",\"summary\":\"creating instance\",\"detail\":\"dial tcp: lookup ec2.amazonaws.com: no such host\"},\"type\":\"diagnostic\"}"
+        ), List.of());
+
+        assertEquals(TerraformFailureType.NETWORK, failure.getType());
+        assertEquals("Error: creating instance: dial tcp: lookup ec2.amazonaws.com: no such host", failure.getMessage());
+    }
+
+    private TerraformFailure classify(List<String> output, List<String> errors) {
+        ProcessLauncher launcher = new ProcessLauncher(this.executor, "terraform");
+        TerraformFailureClassifier.Watch watch = this.classifier.watch(launcher);
+        output.forEach(launcher.getOutputListener());
+        errors.forEach(launcher.getErrorListener());
+        return watch.getFailure();
+    }
+}
@@ -0,0 +1,73 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformMirrorTest {
+
+    // nothing listens on port 1
+    private static final String UNREACHABLE_URL = "http://127.0.0.1:1/terraform/index.json";
+
+    private static FakeTerraformReleases releases;
+
+    @TempDir
+    File directory;
+
+    @BeforeAll
+    static void startReleases() throws Exception {
+        releases = new FakeTerraformReleases();
+    }
+
+    @AfterAll
+    static void stopReleases() {
+        releases.close();
+    }
+
+    @Test
+    void mirroredVersionsAreInstalledWithoutTheUpstreamIndex() throws Exception {
+        File mirrorDirectory = new File(this.directory, "mirror");
+        TerraformMirror mirror = new TerraformMirror(mirrorDirectory);
+        List<String> platforms = List.of(TerraformMirror.getCurrentPlatform());
+
+        assertEquals(List.of("1.9.8"), mirror.syncTerraform(releases.getTerraformReleasesUrl(), List.of(">= 1.9.0"), platforms));
+        assertEquals(List.of("1.8.0"), mirror.syncTofu(releases.getTofuReleasesUrl(), List.of("1.8.0"), platforms));
+        int downloads = releases.getDownloadRequests();
+        // a second sync only reads the upstream index
+        mirror.syncTerraform(releases.getTerraformReleasesUrl(), List.of(">= 1.9.0"), platforms);
+        assertEquals(downloads, releases.getDownloadRequests());
+
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder().cacheDirectory(new File(this.directory, "cache")).build();
+        TerraformDownloader downloader = new TerraformDownloader(TerraformMirror.getTerraformReleasesUrl(mirrorDirectory.getPath()),
+                TerraformMirror.getTofuReleasesUrl(mirrorDirectory.getPath()), cacheManager);
+        File terraform = new File(downloader.downloadTerraformVersion("~> 1.9"));
+        File tofu = new File(downloader.downloadTofuVersion("1.8.0"));
+
+        assertEquals(cacheManager.getBinary(TerraformCacheManager.TERRAFORM_PRODUCT, "1.9.8"), terraform);
+        assertEquals(cacheManager.getBinary(TerraformCacheManager.TOFU_PRODUCT, "1.8.0"), tofu);
+        assertTrue(terraform.canExecute());
+        assertEquals(downloads, releases.getDownloadRequests());
+    }
+
+    @Test
+    void installedVersionIsUsedWhenTheIndexIsUnreachable() throws Exception {
+        TerraformCacheManager cacheManager = TerraformCacheManager.builder().cacheDirectory(new File(this.directory, "cache")).build();
+        new TerraformDownloader(releases.getTerraformReleasesUrl(), releases.getTofuReleasesUrl(), cacheManager).downloadTerraformVersion("1.5.7");
+
+        TerraformDownloader offline = new TerraformDownloader(UNREACHABLE_URL, UNREACHABLE_URL, cacheManager);
+        assertEquals(cacheManager.getBinary(TerraformCacheManager.TERRAFORM_PRODUCT, "1.5.7").getAbsolutePath(), offline.downloadTerraformVersion(">= 1.5.0"));
+        assertEquals(1, cacheManager.getStatistics().getHits());
+
+        IOException error = assertThrows(IOException.class, () -> offline.downloadTerraformVersion(">= 1.9.0"));
+        assertTrue(error.getMessage().contains("release index is not available"));
+        assertNotNull(error.getCause());
+        assertThrows(IOException.class, () -> offline.downloadTofuVersion("1.8.0"));
+    }
+}
@@ -0,0 +1,152 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformOrchestratorTest {
+
+    private static FakeTerraformReleases releases;
+
+    @TempDir
+    File directory;
+
+    @BeforeAll
+    static void startReleases() throws Exception {
+        releases = new FakeTerraformReleases();
+    }
+
+    @AfterAll
+    static void stopReleases() {
+        releases.close();
+    }
+
+    @Test
+    void jobsStartAfterTheirDependencies() throws Exception {
+        TerraformProcessData network = newProcessData("network", Map.of("FAKE_TERRAFORM_LATENCY", "0.3"));
+        TerraformProcessData database = newProcessData("database", Map.of());
+        TerraformProcessData application = newProcessData("application", Map.of());
+        // the state of network is read through terraform_remote_state
+        Files.writeString(new File(application.getWorkingDirectory(), "main.tf").toPath(), String.format(
+                "data \"terraform_remote_state\" \"network\" {%n  backend = \"local\"%n  config = {%n    path = \"../network/terraform.tfstate\"%n  }%n}%n"));
+
+        try (TerraformClient client = newClient()) {
+            TerraformOrchestrator orchestrator = TerraformOrchestrator.builder().terraformClient(client).parallelism(4).build();
+            List<TerraformJob> jobs = List.of(
+                    TerraformJob.builder().id("application").dependsOn("database").terraformProcessData(application).build(),
+                    TerraformJob.builder().id("database").terraformProcessData(database).build(),
+                    TerraformJob.builder().id("network").terraformProcessData(network).build());
+            TerraformOrchestrationResult result = orchestrator.run(jobs).get(30, TimeUnit.SECONDS);
+
+            assertTrue(result.isSuccessful());
+            assertEquals(List.of("application", "database", "network"), List.copyOf(result.getResults().keySet()));
+            Map<String, TerraformJobResult> results = result.getResults();
+            Instant applicationStart = results.get("application").getCommandResults().get(0).getStartTime();
+            assertFalse(applicationStart.isBefore(getEnd(results.get("network"))));
+            assertFalse(applicationStart.isBefore(getEnd(results.get("database"))));
+            assertEquals(List.of(TerraformCommand.init, TerraformCommand.plan),
+                    results.get("application").getCommandResults().stream().map(TerraformResult::getCommand).toList());
+        }
+    }
+
+    @Test
+    void cyclesAreRejected() throws Exception {
+        try (TerraformClient client = newClient()) {
+            TerraformOrchestrator orchestrator = TerraformOrchestrator.builder().terraformClient(client).build();
+            List<TerraformJob> jobs = List.of(
+                    TerraformJob.builder().id("a").dependsOn("b").terraformProcessData(newProcessData("a", Map.of())).build(),
+                    TerraformJob.builder().id("b").dependsOn("a").terraformProcessData(newProcessData("b", Map.of())).build());
+            assertThrows(IllegalArgumentException.class, () -> orchestrator.run(jobs));
+        }
+    }
+
+    @Test
+    void failFastCancelsTheJobsNotStartedYet() throws Exception {
+        TerraformOrchestrationResult result = runWithFailure(TerraformFailurePolicy.FAIL_FAST);
+
+        assertEquals(TerraformJobStatus.FAILED, result.getResults().get("broken").getStatus());
+        assertEquals(TerraformCommand.plan, result.getResults().get("broken").getFailedCommand());
+        assertEquals(TerraformJobStatus.SKIPPED, result.getResults().get("dependent").getStatus());
+        assertEquals(TerraformJobStatus.CANCELLED, result.getResults().get("independent").getStatus());
+    }
+
+    @Test
+    void continueOnErrorRunsTheIndependentJobs() throws Exception {
+        TerraformOrchestrationResult result = runWithFailure(TerraformFailurePolicy.CONTINUE_ON_ERROR);
+
+        assertEquals(TerraformJobStatus.FAILED, result.getResults().get("broken").getStatus());
+        assertEquals(TerraformJobStatus.SKIPPED, result.getResults().get("dependent").getStatus());
+        assertEquals(TerraformJobStatus.SUCCEEDED, result.getResults().get("independent").getStatus());
+        assertFalse(result.isSuccessful());
+    }
+
+    @Test
+    void variablesAreOnlyPassedToTheCommandsUsingThem() throws Exception {
+        TerraformProcessData data = newProcessData("variables", Map.of());
+        data.setTerraformVariables(Map.of("region", "eu-west-1"));
+        data.setVarFileName("production.tfvars");
+        data.setTerraformBackendConfigFileName("backend.hcl");
+
+        try (TerraformClient client = newClient()) {
+            TerraformOrchestrator orchestrator = TerraformOrchestrator.builder().terraformClient(client).build();
+            TerraformOrchestrationResult result = orchestrator.run(List.of(
+                    TerraformJob.builder().id("variables").terraformProcessData(data)
+                            .command(TerraformCommand.init).command(TerraformCommand.plan).command(TerraformCommand.output).build()
+            )).get(30, TimeUnit.SECONDS);
+
+            TerraformJobResult job = result.getResults().get("variables");
+            assertNull(job.getError());
+            assertEquals(TerraformJobStatus.SUCCEEDED, job.getStatus());
+            assertEquals(3, job.getCommandResults().size());
+        }
+        // the job keeps its own data
+        assertEquals(Map.of("region", "eu-west-1"), data.getTerraformVariables());
+        assertEquals("production.tfvars", data.getVarFileName());
+    }
+
+    private TerraformOrchestrationResult runWithFailure(TerraformFailurePolicy failurePolicy) throws Exception {
+        try (TerraformClient client = newClient()) {
+            // one job at a time in the input order, independent starts after broken failed
+            TerraformOrchestrator orchestrator = TerraformOrchestrator.builder().terraformClient(client).parallelism(1).failurePolicy(failurePolicy).build();
+            return orchestrator.run(List.of(
+                    TerraformJob.builder().id("broken").terraformProcessData(newProcessData("broken",
+                            Map.of("FAKE_TERRAFORM_EXIT_CODE", "1", "FAKE_TERRAFORM_FAIL_COMMANDS", "plan"))).build(),
+                    TerraformJob.builder().id("dependent").dependsOn("broken").terraformProcessData(newProcessData("dependent", Map.of())).build(),
+                    TerraformJob.builder().id("independent").terraformProcessData(newProcessData("independent", Map.of())).build()
+            )).get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private static Instant getEnd(TerraformJobResult job) {
+        TerraformResult last = job.getCommandResults().get(job.getCommandResults().size() - 1);
+        return last.getStartTime().plus(last.getDuration());
+    }
+
+    private TerraformClient newClient() {
+        return TerraformClient.builder()
+                .terraformReleasesUrl(releases.getTerraformReleasesUrl())
+                .tofuReleasesUrl(releases.getTofuReleasesUrl())
+                .build();
+    }
+
+    private TerraformProcessData newProcessData(String name, Map<String, String> environment) {
+        File workingDirectory = new File(this.directory, name);
+        assertTrue(workingDirectory.mkdir());
+        return TerraformProcessData.builder()
+                .terraformVersion("1.5.7")
+                .workingDirectory(workingDirectory)
+                .terraformEnvironmentVariables(environment)
+                .build();
+    }
+}
@@ -0,0 +1,171 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformOutputHubTest {
+
+    @TempDir
+    File segmentDirectory;
+
+    @Test
+    void overflowWithoutSegmentsIsReportedAsGap() throws Exception {
+        TerraformOutputHub hub = TerraformOutputHub.builder().replayLines(10).build();
+        IntStream.range(0, 25).forEach(i -> hub.publish(false, "line " + i));
+        hub.complete();
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        TerraformOutputSubscription subscription = hub.subscribe(subscriber);
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(15, subscriber.missed.get());
+        assertEquals(15, subscription.getMissedLines());
+        assertEquals(LongStream.range(15, 25).boxed().toList(), subscriber.sequences);
+        assertEquals("line 15", subscriber.lines.get(0));
+        assertEquals(25, subscription.getSequence());
+        assertEquals(0, hub.getSubscriberCount());
+    }
+
+    @Test
+    void replayBytesLimitEvictsLines() throws Exception {
+        TerraformOutputHub hub = TerraformOutputHub.builder().replayLines(100).replayBytes(50L).build();
+        IntStream.range(0, 20).forEach(i -> hub.publish(false, "0123456789"));
+        hub.complete();
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        hub.subscribe(subscriber);
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(15, subscriber.missed.get());
+        assertEquals(5, subscriber.lines.size());
+    }
+
+    @Test
+    void evictedLinesAreReplayedFromSegments() throws Exception {
+        TerraformOutputHub hub = TerraformOutputHub.builder().replayLines(10).segmentDirectory(this.segmentDirectory).segmentLines(7).build();
+        IntStream.range(0, 50).forEach(i -> hub.publish(i % 3 == 0, "line " + i));
+        hub.complete();
+        assertEquals(8, this.segmentDirectory.list().length);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        hub.subscribe(subscriber);
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(0, subscriber.missed.get());
+        assertEquals(LongStream.range(0, 50).boxed().toList(), subscriber.sequences);
+        assertEquals(IntStream.range(0, 50).mapToObj(i -> "line " + i).toList(), subscriber.lines);
+        assertEquals(IntStream.range(0, 50).mapToObj(i -> i % 3 == 0).toList(), subscriber.errors);
+
+        // resuming in the middle of a segment
+        RecordingSubscriber resumed = new RecordingSubscriber();
+        hub.subscribe(resumed, 23);
+        assertTrue(resumed.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(LongStream.range(23, 50).boxed().toList(), resumed.sequences);
+
+        hub.close();
+        assertEquals(0, this.segmentDirectory.list().length);
+    }
+
+    @Test
+    void embeddedLineBreaksArePublishedAsSeparateLines() throws Exception {
+        TerraformOutputHub hub = TerraformOutputHub.builder().replayLines(2).segmentDirectory(this.segmentDirectory).build();
+        hub.publish(false, "first\nsecond\r\nthird\rfourth");
+        hub.publish(true, "fifth");
+        hub.complete();
+        assertEquals(5, hub.getNextSequence());
+
+        // all but the last two lines come back from the segment file
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        hub.subscribe(subscriber);
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second", "third", "fourth", "fifth"), subscriber.lines);
+        assertEquals(LongStream.range(0, 5).boxed().toList(), subscriber.sequences);
+        assertEquals(List.of(false, false, false, false, true), subscriber.errors);
+        hub.close();
+    }
+
+    @Test
+    void slowSubscriberDoesNotBlockPublisherOrOthers() throws Exception {
+        TerraformOutputHub hub = TerraformOutputHub.builder().replayLines(100).build();
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber slow = new RecordingSubscriber() {
+            @Override
+            public void onLine(TerraformOutputLine line) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onLine(line);
+            }
+        };
+        RecordingSubscriber fast = new RecordingSubscriber();
+        TerraformOutputSubscription slowSubscription = hub.subscribeLive(slow);
+        hub.subscribeLive(fast);
+
+        IntStream.range(0, 1000).forEach(i -> hub.publish(false, "line " + i));
+        hub.complete();
+        // the fast subscriber finishes while the slow one is still stuck on its first line
+        assertTrue(fast.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(1000, fast.lines.size() + fast.missed.get());
+        assertEquals("line 999", fast.lines.get(fast.lines.size() - 1));
+        assertEquals(0, slow.lines.size());
+
+        // the slow subscriber holds the first line, the rest it fell behind on was evicted
+        release.countDown();
+        assertTrue(slow.completed.await(10, TimeUnit.SECONDS));
+        assertTrue(slow.missed.get() > 0);
+        assertEquals(1000, slow.lines.size() + slow.missed.get());
+        assertEquals(slow.missed.get(), slowSubscription.getMissedLines());
+        assertEquals("line 999", slow.lines.get(slow.lines.size() - 1));
+    }
+
+    @Test
+    void failingSubscriberIsDetached() throws Exception {
+        TerraformOutputHub hub = new TerraformOutputHub();
+        TerraformOutputSubscription subscription = hub.subscribe(line -> {
+            throw new IllegalStateException("closed socket");
+        });
+        hub.publish(false, "line");
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!subscription.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(subscription.isClosed());
+        assertEquals(0, hub.getSubscriberCount());
+    }
+
+    private static class RecordingSubscriber implements TerraformOutputSubscriber {
+        final List<String> lines = new CopyOnWriteArrayList<>();
+        final List<Long> sequences = new CopyOnWriteArrayList<>();
+        final List<Boolean> errors = new CopyOnWriteArrayList<>();
+        final AtomicLong missed = new AtomicLong();
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onLine(TerraformOutputLine line) {
+            this.lines.add(line.getText());
+            this.sequences.add(line.getSequence());
+            this.errors.add(line.isError());
+        }
+
+        @Override
+        public void onGap(long missedLines) {
+            this.missed.addAndGet(missedLines);
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed.countDown();
+        }
+    }
+}
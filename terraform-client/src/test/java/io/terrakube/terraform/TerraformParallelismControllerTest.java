@@ -0,0 +1,79 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformParallelismControllerTest {
+
+    private final TerraformParallelismController controller = TerraformParallelismController.builder().build();
+    private final AtomicInteger throttled = new AtomicInteger();
+
+    @TempDir
+    File directory;
+
+    @Test
+    void stdoutIsOnlyWatchedForDiagnostics() {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        Consumer<String> output = this.controller.watch(lines::add, true, this.throttled::incrementAndGet);
+
+        output.accept("  + throttle_settings {");
+        output.accept("      + rate_limit = 100");
+        output.accept("aws_api_gateway_usage_plan.slow_down: Creating...");
+        output.accept("{\"@level\":\"info\",\"@message\":\"aws_wafv2_rule.rate_limit: Refreshing state...\",\"type\":\"refresh_start\"}");
+        assertEquals(0, this.throttled.get());
+        assertEquals(0, this.controller.getRecentThrottles());
+        assertEquals(4, lines.size());
+
+        output.accept("{\"@level\":\"error\",\"@message\":\"Error: creating EC2 Instance: RequestLimitExceeded\",\"diagnostic\":{\"severity\":\"error\"},\"type\":\"diagnostic\"}");
+        assertEquals(1, this.throttled.get());
+        assertEquals(1, this.controller.getRecentThrottles());
+    }
+
+    @Test
+    void stderrIsWatchedForThrottling() {
+        Consumer<String> error = this.controller.watch(null, false, this.throttled::incrementAndGet);
+
+        error.accept("│ Error: reading IAM Role: operation error IAM: GetRole, https response error StatusCode: 400, api error Throttling: Rate exceeded");
+        error.accept("│ Error: unexpected EOF");
+
+        assertEquals(1, this.throttled.get());
+        assertEquals(1, this.controller.getRecentThrottles());
+    }
+
+    @Test
+    void failedRunsAreCountedFromStderrAndJsonDiagnostics() throws Exception {
+        try (FakeTerraformReleases releases = new FakeTerraformReleases()) {
+            for (boolean jsonOutput : List.of(false, true)) {
+                TerraformParallelismController controller = TerraformParallelismController.builder().build();
+                try (TerraformClient client = TerraformClient.builder()
+                        .terraformReleasesUrl(releases.getTerraformReleasesUrl())
+                        .tofuReleasesUrl(releases.getTofuReleasesUrl())
+                        .parallelismController(controller)
+                        .jsonOutput(jsonOutput)
+                        .build()) {
+                    TerraformProcessData data = TerraformProcessData.builder()
+                            .terraformVersion("1.5.7")
+                            .workingDirectory(new File(this.directory, String.valueOf(jsonOutput)))
+                            .build();
+                    assertTrue(data.getWorkingDirectory().mkdir());
+                    assertTrue(client.plan(data, line -> { }, null).get());
+                    assertEquals(0, controller.getRecentThrottles());
+
+                    data.setTerraformEnvironmentVariables(Map.of("FAKE_TERRAFORM_EXIT_CODE", "1",
+                            "FAKE_TERRAFORM_ERROR", "Error: TooManyRequests: slow down"));
+                    assertFalse(client.plan(data, line -> { }, null).get());
+                    assertEquals(1, controller.getRecentThrottles(), "jsonOutput " + jsonOutput);
+                }
+            }
+        }
+    }
+}
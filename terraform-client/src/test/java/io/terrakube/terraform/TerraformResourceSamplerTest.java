@@ -0,0 +1,94 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TerraformResourceSamplerTest {
+
+    private static FakeTerraformReleases releases;
+
+    @TempDir
+    File workingDirectory;
+
+    @BeforeAll
+    static void startReleases() throws Exception {
+        assumeTrue(new File("/proc/self/status").canRead(), "requires /proc");
+        releases = new FakeTerraformReleases();
+    }
+
+    @AfterAll
+    static void stopReleases() {
+        if (releases != null) {
+            releases.close();
+        }
+    }
+
+    @Test
+    void processTreeIsSampled() throws Exception {
+        // the shell keeps a core busy until its sleeping child exits
+        Process process = new ProcessBuilder("sh", "-c", "sleep 1 & child=$!; while kill -0 $child 2>/dev/null; do :; done").start();
+        TerraformResourceSampler sampler = TerraformResourceSampler.start(process.toHandle(), Duration.ofMillis(20));
+        assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+        // the sampler stops on its own once the process tree is gone
+        Thread.sleep(100);
+        TerraformResourceUsage usage = sampler.stop();
+
+        assertTrue(usage.getSamples() > 1);
+        assertTrue(usage.getPeakProcesses() >= 2);
+        assertTrue(usage.getPeakRss() > 0);
+        assertTrue(usage.getCpuTime().compareTo(Duration.ofMillis(200)) > 0, "cpu time " + usage.getCpuTime());
+        assertEquals(usage.getSamples(), sampler.stop().getSamples());
+    }
+
+    @Test
+    void runReportsResourceUsage() throws Exception {
+        TerraformResult result;
+        try (TerraformClient client = TerraformClient.builder()
+                .terraformReleasesUrl(releases.getTerraformReleasesUrl())
+                .tofuReleasesUrl(releases.getTofuReleasesUrl())
+                .resourceSampleInterval(Duration.ofMillis(20))
+                .build()) {
+            TerraformProcessData data = TerraformProcessData.builder()
+                    .terraformVersion("1.5.7")
+                    .workingDirectory(this.workingDirectory)
+                    .terraformEnvironmentVariables(Map.of("FAKE_TERRAFORM_LATENCY", "1"))
+                    .build();
+            result = client.execute(TerraformCommand.plan, data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS);
+        }
+
+        assertTrue(result.isSuccessful());
+        TerraformResourceUsage usage = result.getResourceUsage();
+        assertNotNull(usage);
+        assertTrue(usage.getSamples() > 1);
+        // the fake binary and its sleep
+        assertTrue(usage.getPeakProcesses() >= 2);
+        assertTrue(usage.getPeakRss() > 0);
+        // the fake binary mostly sleeps, its CPU time can be below one clock tick
+        assertFalse(usage.getCpuTime().isNegative());
+    }
+
+    @Test
+    void samplingCanBeDisabled() throws Exception {
+        try (TerraformClient client = TerraformClient.builder()
+                .terraformReleasesUrl(releases.getTerraformReleasesUrl())
+                .tofuReleasesUrl(releases.getTofuReleasesUrl())
+                .resourceSampleInterval(null)
+                .build()) {
+            TerraformProcessData data = TerraformProcessData.builder()
+                    .terraformVersion("1.5.7")
+                    .workingDirectory(this.workingDirectory)
+                    .build();
+            assertNull(client.execute(TerraformCommand.plan, data, line -> {}, line -> {}).get(30, TimeUnit.SECONDS).getResourceUsage());
+        }
+    }
+}
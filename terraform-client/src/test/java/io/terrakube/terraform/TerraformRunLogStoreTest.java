@@ -0,0 +1,88 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformRunLogStoreTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void readersSeekAcrossBlocksAndSegments() throws Exception {
+        // small blocks and segments so the lines span many of both
+        TerraformRunLogStore store = TerraformRunLogStore.builder().directory(this.directory).blockSize(256).segmentSize(1024L).build();
+        List<String> lines = IntStream.range(0, 1000).mapToObj(i -> String.format("aws_instance.fake[%d]: Refreshing state...", i)).toList();
+        try (TerraformRunLogWriter writer = store.create("run-1")) {
+            lines.forEach(writer::append);
+        }
+        assertTrue(new File(this.directory, "run-1").list((dir, name) -> name.endsWith(TerraformRunLogStore.INDEX_SUFFIX)).length > 1);
+
+        try (TerraformRunLogReader reader = store.open("run-1")) {
+            byte[] content = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+            assertEquals(1000, reader.getLineCount());
+            assertEquals(content.length, reader.getSize());
+
+            assertEquals(lines.subList(997, 1000), reader.tail(3));
+            assertEquals(lines, reader.tail(5000));
+            assertEquals(lines.subList(500, 520), reader.readLines(500, 20));
+            assertEquals(lines.subList(998, 1000), reader.readLines(998, 10));
+            assertEquals(List.of(), reader.readLines(1000, 10));
+
+            // ranges starting and ending inside blocks
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 10), reader.readBytes(0, 10));
+            assertArrayEquals(Arrays.copyOfRange(content, 250, 5250), reader.readBytes(250, 5000));
+            assertArrayEquals(Arrays.copyOfRange(content, content.length - 7, content.length), reader.readBytes(content.length - 7, 100));
+            assertEquals(0, reader.readBytes(content.length, 10).length);
+        }
+    }
+
+    @Test
+    void quietRunIsVisibleAfterTheFlushInterval() throws Exception {
+        TerraformRunLogStore store = TerraformRunLogStore.builder().directory(this.directory).flushInterval(Duration.ofMillis(100)).build();
+        try (TerraformRunLogWriter writer = store.create("run-1"); TerraformRunLogReader reader = store.open("run-1")) {
+            writer.append("Plan: 1 to add, 0 to change, 0 to destroy.");
+            writer.append("aws_instance.web: Creating...");
+            assertEquals(0, reader.getLineCount());
+
+            // no further line arrives, the partial block is sealed by the writer on its own
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reader.getLineCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                reader.refresh();
+            }
+            assertEquals(List.of("Plan: 1 to add, 0 to change, 0 to destroy.", "aws_instance.web: Creating..."), reader.tail(10));
+
+            writer.append("aws_instance.web: Still creating... [10s elapsed]");
+            writer.flush();
+            reader.refresh();
+            assertEquals(List.of("aws_instance.web: Still creating... [10s elapsed]"), reader.readLines(2, 10));
+        }
+    }
+
+    @Test
+    void openRunsAreKeptByTheRetention() throws Exception {
+        TerraformRunLogStore store = TerraformRunLogStore.builder().directory(this.directory).maxSize(1L).build();
+        for (String runId : List.of("run-1", "run-2")) {
+            try (TerraformRunLogWriter writer = store.create(runId)) {
+                writer.append(runId);
+            }
+        }
+        try (TerraformRunLogWriter writer = store.create("run-3")) {
+            writer.append("run-3");
+            writer.flush();
+            store.applyRetention();
+            assertEquals(List.of("run-3"), store.getRuns());
+            assertThrows(IllegalStateException.class, () -> store.delete("run-3"));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformRunTest {
+
+    @TempDir
+    File directory;
+
+    private final List<ProcessHandle> processes = new ArrayList<>();
+
+    @AfterEach
+    void killProcesses() {
+        this.processes.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    @Test
+    void onlyTerraformIsSignalled() throws Exception {
+        // terraform exits on SIGTERM, its provider is left to terraform
+        Process terraform = start("trap 'exit 0' TERM");
+        ProcessHandle provider = getProvider();
+        TerraformRun run = newRun(terraform, Duration.ofMillis(200));
+
+        assertTrue(run.cancel());
+
+        assertTrue(terraform.waitFor(10, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        assertTrue(provider.isAlive());
+    }
+
+    @Test
+    void terraformAndProvidersAreKilledAfterTheGracePeriod() throws Exception {
+        Process terraform = start("trap '' TERM");
+        ProcessHandle provider = getProvider();
+        TerraformRun run = newRun(terraform, Duration.ofMillis(500));
+
+        assertTrue(run.cancel());
+
+        assertFalse(terraform.waitFor(200, TimeUnit.MILLISECONDS));
+        assertTrue(terraform.waitFor(10, TimeUnit.SECONDS));
+        provider.onExit().get(10, TimeUnit.SECONDS);
+        assertFalse(provider.isAlive());
+    }
+
+    private Process start(String trap) throws Exception {
+        File pidFile = new File(this.directory, "provider.pid");
+        Process process = new ProcessBuilder("/bin/sh", "-c", trap + "; sleep 60 & echo $! > \"$0\"; wait", pidFile.getAbsolutePath()).start();
+        this.processes.add(process.toHandle());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!pidFile.isFile() || Files.readString(pidFile.toPath()).isBlank()) {
+            assertTrue(System.currentTimeMillis() < deadline, "provider did not start");
+            Thread.sleep(20);
+        }
+        return process;
+    }
+
+    private ProcessHandle getProvider() throws Exception {
+        long pid = Long.parseLong(Files.readString(new File(this.directory, "provider.pid").toPath()).trim());
+        ProcessHandle provider = ProcessHandle.of(pid).orElseThrow();
+        this.processes.add(provider);
+        return provider;
+    }
+
+    private static TerraformRun newRun(Process terraform, Duration gracePeriod) {
+        TerraformRun run = new TerraformRun("run-1", TerraformCommand.apply, new File("."), gracePeriod);
+        run.running();
+        run.started(TerraformCommand.apply, terraform);
+        return run;
+    }
+}
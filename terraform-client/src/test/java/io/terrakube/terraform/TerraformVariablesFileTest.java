@@ -0,0 +1,91 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformVariablesFileTest {
+
+    @TempDir
+    File workingDirectory;
+
+    @Test
+    void valuesFollowTheDeclaredTypeLikeVar() throws Exception {
+        Files.writeString(new File(this.workingDirectory, "variables.tf").toPath(),
+                "variable \"name\" {\n  type = string\n}\n"
+                        + "# variable \"commented\" { type = list(string) }\n"
+                        + "variable \"policy\" {\n  type        = string\n  description = \"a JSON {document}\"\n}\n"
+                        + "variable \"tags\" {\n  type = map(number)\n  validation {\n    condition     = length(var.tags) > 0\n    error_message = \"}\"\n  }\n}\n"
+                        + "variable \"zones\" {\n  type = list(string)\n}\n"
+                        + "variable \"instances\" {\n  type = number\n}\n"
+                        + "variable \"untyped\" {}\n");
+        Files.writeString(new File(this.workingDirectory, "settings.tf.json").toPath(),
+                "{\"variable\": {\"settings\": {\"type\": \"object({a = number})\"}, \"label\": {\"type\": \"string\"}}}");
+        Map<String, String> variables = new LinkedHashMap<>();
+        variables.put("name", "prefix-${var.id}-%{if true}x%{endif}-$${kept}");
+        // a JSON blob in a string variable stays the same string, as it was with --var
+        variables.put("policy", "{\"Version\": \"2012-10-17\",\n\t\"Statement\": [\"\\\\\"]}");
+        // an HCL map is parsed like --var parses it
+        variables.put("tags", "{ team = 1 }");
+        variables.put("zones", "[\"a\", \"b\"]");
+        variables.put("settings", "{\"a\": 1}");
+        variables.put("label", "[1]");
+        variables.put("instances", "3");
+        variables.put("untyped", "{ a = 1 }");
+        variables.put("unset", null);
+
+        assertEquals(Set.of("tags", "zones", "settings"), TerraformVariablesFile.findExpressionVariables(this.workingDirectory));
+        File file = TerraformVariablesFile.write(variables, this.workingDirectory);
+        try {
+            assertEquals("terraform.tfvars", file.getName());
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            assertEquals(List.of(
+                    "name = \"prefix-$${var.id}-%%{if true}x%%{endif}-$$${kept}\"",
+                    "policy = \"{\\\"Version\\\": \\\"2012-10-17\\\",\\n\\t\\\"Statement\\\": [\\\"\\\\\\\\\\\"]}\"",
+                    "tags = (",
+                    "{ team = 1 }",
+                    ")",
+                    "zones = (",
+                    "[\"a\", \"b\"]",
+                    ")",
+                    "settings = (",
+                    "{\"a\": 1}",
+                    ")",
+                    "label = \"[1]\"",
+                    "instances = \"3\"",
+                    "untyped = \"{ a = 1 }\"",
+                    "unset = null"), lines);
+        } finally {
+            TerraformVariablesFile.delete(file);
+        }
+        assertFalse(file.getParentFile().exists());
+    }
+
+    @Test
+    void expressionValuesCannotAssignOtherVariables() throws Exception {
+        Files.writeString(new File(this.workingDirectory, "variables.tf").toPath(), "variable \"zones\" {\n  type = list(string)\n}\n");
+        for (String value : List.of("[\"a\"])\nother = (\"x\"", "[\"a\"", "[\"a\"]]", "[\"a\"]\nother = 1", "[\"a\n\"]", "[\"${\"]", "[] /*", "[] # )", "<<EOT\na\nEOT", " ")) {
+            assertThrows(IOException.class, () -> TerraformVariablesFile.write(Map.of("zones", value), this.workingDirectory), value);
+        }
+
+        for (String value : List.of("[\"a\"]\n", "[\n  \"a\",\n  \"b\",\n]", "[\")\", \"]\\\"\", \"$${x}\", \"${upper(\"}\")}\"]", "concat([\"a\"], [for z in [\"b\"] : z])")) {
+            assertTrue(TerraformVariablesFile.isSingleExpression(value), value);
+        }
+    }
+
+    @Test
+    void invalidVariableNamesAreRejected() {
+        Map<String, String> variables = Map.of("name = \"x\"\nother", "value");
+        assertThrows(IOException.class, () -> TerraformVariablesFile.write(variables, this.workingDirectory));
+    }
+}
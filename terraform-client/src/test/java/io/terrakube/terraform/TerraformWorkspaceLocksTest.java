@@ -0,0 +1,131 @@
+package io.terrakube.terraform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformWorkspaceLocksTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final TerraformWorkspaceLocks locks = new TerraformWorkspaceLocks();
+
+    @TempDir
+    File workingDirectory;
+
+    @Test
+    void queuedRunsStartInArrivalOrder() throws Exception {
+        List<String> started = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> running = this.locks.run(List.of("directory:a"), null, TIMEOUT, null, null, (out, err) -> {
+            started.add("first");
+            return first;
+        });
+        List<CompletableFuture<String>> queued = new CopyOnWriteArrayList<>();
+        for (String name : List.of("second", "third", "fourth")) {
+            // fourth also locks a free key, it still waits for its turn on the busy one
+            List<String> keys = name.equals("fourth") ? List.of("directory:a", "backend:b") : List.of("directory:a");
+            queued.add(this.locks.run(keys, null, TIMEOUT, null, null, (out, err) -> {
+                started.add(name);
+                return CompletableFuture.completedFuture(name);
+            }));
+        }
+        assertEquals(List.of("first"), started);
+
+        first.complete("first");
+        assertEquals("first", running.get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<String> result : queued) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("first", "second", "third", "fourth"), started);
+    }
+
+    @Test
+    void waitingRunTimesOutAndIsSkipped() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        this.locks.run(List.of("directory:a"), null, TIMEOUT, null, null, (out, err) -> first);
+        AtomicInteger timedOutStarts = new AtomicInteger();
+        CompletableFuture<String> timedOut = this.locks.run(List.of("directory:a"), null, Duration.ofMillis(100), null, null, (out, err) -> {
+            timedOutStarts.incrementAndGet();
+            return CompletableFuture.completedFuture("late");
+        });
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> timedOut.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, error.getCause());
+
+        first.complete("first");
+        CompletableFuture<String> next = this.locks.run(List.of("directory:a"), null, TIMEOUT, null, null, (out, err) -> CompletableFuture.completedFuture("next"));
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+        assertEquals(0, timedOutStarts.get());
+    }
+
+    @Test
+    void readOnlyRunsWithTheSameKeyShareOneResult() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        AtomicInteger starts = new AtomicInteger();
+        List<String> firstLines = new CopyOnWriteArrayList<>();
+        List<String> joinedLines = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> shared = this.locks.run(List.of("directory:a"), "show", TIMEOUT, firstLines::add, null, (out, err) -> {
+            starts.incrementAndGet();
+            out.accept("before");
+            first.thenRun(() -> out.accept("after"));
+            return first;
+        });
+        CompletableFuture<String> joined = this.locks.run(List.of("directory:a"), "show", TIMEOUT, joinedLines::add, null, (out, err) -> {
+            starts.incrementAndGet();
+            return CompletableFuture.completedFuture("joined");
+        });
+
+        first.complete("state");
+        assertEquals("state", shared.get(5, TimeUnit.SECONDS));
+        assertEquals("state", joined.get(5, TimeUnit.SECONDS));
+        assertEquals(1, starts.get());
+        // the late run gets the buffered lines first
+        assertEquals(List.of("before", "after"), firstLines);
+        assertEquals(List.of("before", "after"), joinedLines);
+
+        // the shared run is gone once it completed
+        assertEquals("again", this.locks.run(List.of("directory:a"), "show", TIMEOUT, null, null,
+                (out, err) -> CompletableFuture.completedFuture("again")).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelledQueuedRunNeverStarts() throws Exception {
+        try (FakeTerraformReleases releases = new FakeTerraformReleases();
+             TerraformClient client = TerraformClient.builder()
+                     .terraformReleasesUrl(releases.getTerraformReleasesUrl())
+                     .tofuReleasesUrl(releases.getTofuReleasesUrl())
+                     .build()) {
+            TerraformProcessData slow = TerraformProcessData.builder()
+                    .terraformVersion("1.5.7")
+                    .workingDirectory(this.workingDirectory)
+                    .terraformEnvironmentVariables(Map.of("FAKE_TERRAFORM_LATENCY", "1"))
+                    .build();
+            CompletableFuture<TerraformResult> running = client.execute(TerraformCommand.plan, slow, line -> { }, null);
+            CompletableFuture<TerraformResult> queued = client.execute(TerraformCommand.apply, slow, line -> { }, null);
+
+            assertEquals(2, client.getRuns().size());
+            TerraformRun queuedRun = client.getRuns().stream().filter(run -> run.getCommand() == TerraformCommand.apply).findFirst().orElseThrow();
+            assertEquals(TerraformRunStatus.QUEUED, queuedRun.getStatus());
+            assertTrue(client.cancel(queuedRun.getId()));
+
+            assertThrows(CancellationException.class, () -> queued.get(5, TimeUnit.SECONDS));
+            assertTrue(running.get(30, TimeUnit.SECONDS).isSuccessful());
+            assertEquals(0, queuedRun.getPid());
+            assertTrue(client.getRuns().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package io.terrakube.terraform.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.terrakube.terraform.*;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Slf4j
+public class TerraformClientLoadTest {
+
+    private static final String TERRAFORM_VERSION = "1.5.7";
+    private static final List<TerraformCommand> COMMANDS = List.of(TerraformCommand.init, TerraformCommand.plan, TerraformCommand.apply);
+
+    private final int concurrency = Integer.getInteger("load.concurrency", 200);
+    private final int runs = Integer.getInteger("load.runs", 600);
+    private final Map<String, String> environment = Map.of(
+            "FAKE_TERRAFORM_LINES", System.getProperty("load.lines", "200"),
+            "FAKE_TERRAFORM_RATE", System.getProperty("load.rate", "0"),
+            "FAKE_TERRAFORM_LATENCY", System.getProperty("load.latency", "0"));
+
+    private final Map<TerraformCommand, Queue<Long>> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Test
+    void concurrentInitPlanApply() throws Exception {
+        File workRoot = new File(System.getProperty("java.io.tmpdir"), "terraform-load-test-" + UUID.randomUUID());
+        try (FakeTerraformReleases releases = new FakeTerraformReleases();
+             TerraformClient client = TerraformClient.builder()
+                     .terraformReleasesUrl(releases.getTerraformReleasesUrl())
+                     .tofuReleasesUrl(releases.getTofuReleasesUrl())
+                     .build()) {
+            // the download is measured by the downloader tests, not here
+            client.createTerraformDownloader().downloadTerraformVersion(TERRAFORM_VERSION);
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                    heapPools.add(pool);
+                }
+            }
+
+            log.info("Starting {} runs with {} concurrent runs", this.runs, this.concurrency);
+            long start = System.nanoTime();
+            Semaphore permits = new Semaphore(this.concurrency);
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < this.runs; i++) {
+                permits.acquire();
+                File workingDirectory = new File(workRoot, "run-" + i);
+                FileUtils.forceMkdir(workingDirectory);
+                TerraformProcessData data = TerraformProcessData.builder()
+                        .terraformVersion(TERRAFORM_VERSION)
+                        .workingDirectory(workingDirectory)
+                        .terraformEnvironmentVariables(this.environment)
+                        .build();
+                results.add(run(client, data, 0).whenComplete((ok, error) -> permits.release()));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).exceptionally(ex -> null).join();
+            long elapsed = System.nanoTime() - start;
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("runs", this.runs);
+            report.put("concurrency", this.concurrency);
+            report.put("failures", this.failures.get());
+            report.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            report.put("runsPerSecond", this.runs / (elapsed / 1e9));
+            report.put("lines", this.lines.get());
+            Map<String, Object> commands = new LinkedHashMap<>();
+            for (TerraformCommand command : COMMANDS) {
+                commands.put(command.name(), getPercentiles(this.latencies.getOrDefault(command, new ConcurrentLinkedQueue<>())));
+            }
+            report.put("latencyMillis", commands);
+            report.put("peakThreads", threads.getPeakThreadCount());
+            report.put("peakHeapBytes", heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum());
+            report.put("heapCommittedBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted());
+
+            ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+            log.info("Load test report\n{}", objectMapper.writeValueAsString(report));
+            String reportFile = System.getProperty("load.report");
+            if (reportFile != null) {
+                objectMapper.writeValue(new File(reportFile), report);
+            }
+
+            assertEquals(0, this.failures.get());
+        } finally {
+            FileUtils.deleteQuietly(workRoot);
+        }
+    }
+
+    private CompletableFuture<Boolean> run(TerraformClient client, TerraformProcessData data, int index) {
+        if (index == COMMANDS.size()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        TerraformCommand command = COMMANDS.get(index);
+        long start = System.nanoTime();
+        CompletableFuture<TerraformResult> result;
+        try {
+            result = client.execute(command, data, line -> this.lines.incrementAndGet(), line -> this.lines.incrementAndGet());
+        } catch (IOException ex) {
+            result = CompletableFuture.failedFuture(ex);
+        }
+        return result.handle((value, error) -> {
+            this.latencies.computeIfAbsent(command, c -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - start);
+            if (error != null || !value.isSuccessful()) {
+                log.warn("{} failed in {}: {}", command, data.getWorkingDirectory(), error != null ? error.getMessage() : value.getFailure().getMessage());
+                this.failures.incrementAndGet();
+                return false;
+            }
+            return true;
+        }).thenCompose(ok -> ok ? run(client, data, index + 1) : CompletableFuture.completedFuture(false));
+    }
+
+    private static Map<String, Object> getPercentiles(Collection<Long> samples) {
+        long[] sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("count", sorted.length);
+        if (sorted.length == 0) {
+            return percentiles;
+        }
+        for (double percentile : new double[]{50, 90, 99}) {
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            percentiles.put("p" + (int) percentile, TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]));
+        }
+        percentiles.put("max", TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length - 1]));
+        return percentiles;
+    }
+}
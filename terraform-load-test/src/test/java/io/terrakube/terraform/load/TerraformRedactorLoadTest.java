@@ -0,0 +1,114 @@
+package io.terrakube.terraform.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.terrakube.terraform.TerraformRedactor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Slf4j
+public class TerraformRedactorLoadTest {
+
+    private final int secrets = Integer.getInteger("redact.secrets", 5000);
+    private final int lines = Integer.getInteger("redact.lines", 20000);
+    private final int lineSize = Integer.getInteger("redact.lineSize", 160);
+    // share of the lines holding a secret
+    private final double hitRatio = Double.parseDouble(System.getProperty("redact.hitRatio", "0.05"));
+
+    @Test
+    void redactionThroughput() throws Exception {
+        Random random = new Random(42);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < this.secrets; i++) {
+            values.add(randomString(random, 12 + random.nextInt(28)));
+        }
+        List<String> output = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < this.lines; i++) {
+            StringBuilder line = new StringBuilder("aws_instance.fake[" + i + "]: Creating... ");
+            while (line.length() < this.lineSize) {
+                line.append(random.nextDouble() < this.hitRatio ? values.get(random.nextInt(values.size())) : randomString(random, 8)).append(' ');
+            }
+            output.add(line.toString());
+            bytes += line.length();
+        }
+
+        long start = System.nanoTime();
+        TerraformRedactor redactor = TerraformRedactor.builder().secrets(values).build();
+        long build = System.nanoTime() - start;
+
+        // warm up both paths before measuring
+        for (int i = 0; i < 3; i++) {
+            redactAll(redactor, output);
+            replaceAll(values, output.subList(0, Math.min(500, output.size())));
+        }
+
+        start = System.nanoTime();
+        List<String> redacted = redactAll(redactor, output);
+        long automaton = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<String> replaced = replaceAll(values, output);
+        long naive = System.nanoTime() - start;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("secrets", this.secrets);
+        report.put("lines", this.lines);
+        report.put("bytes", bytes);
+        report.put("buildMillis", TimeUnit.NANOSECONDS.toMillis(build));
+        report.put("automaton", getThroughput(automaton, this.lines, bytes));
+        report.put("replaceLoop", getThroughput(naive, this.lines, bytes));
+        report.put("speedup", (double) naive / automaton);
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        log.info("Redaction benchmark report\n{}", objectMapper.writeValueAsString(report));
+        String reportFile = System.getProperty("redact.report");
+        if (reportFile != null) {
+            objectMapper.writeValue(new File(reportFile), report);
+        }
+
+        // the secrets are random, they do not overlap and the two passes agree
+        assertEquals(replaced, redacted);
+    }
+
+    private static List<String> redactAll(TerraformRedactor redactor, List<String> output) {
+        List<String> redacted = new ArrayList<>(output.size());
+        for (String line : output) {
+            redacted.add(redactor.redact(line));
+        }
+        return redacted;
+    }
+
+    // one pass per secret, what a listener would do without the automaton
+    private static List<String> replaceAll(List<String> values, List<String> output) {
+        List<String> replaced = new ArrayList<>(output.size());
+        for (String line : output) {
+            for (String value : values) {
+                line = line.replace(value, TerraformRedactor.DEFAULT_MASK);
+            }
+            replaced.add(line);
+        }
+        return replaced;
+    }
+
+    private static Map<String, Object> getThroughput(long nanos, int lines, long bytes) {
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        throughput.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(nanos));
+        throughput.put("linesPerSecond", lines / (nanos / 1e9));
+        throughput.put("megabytesPerSecond", bytes / (nanos / 1e9) / (1024 * 1024));
+        return throughput;
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            value.append((char) ('a' + random.nextInt(26)));
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package io.terrakube.terraform.spring.autoconfigure;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.terrakube.terraform.TerraformCgroupStatistics;
+import io.terrakube.terraform.TerraformCommand;
+import io.terrakube.terraform.TerraformDriftResult;
+import io.terrakube.terraform.TerraformMetrics;
+import io.terrakube.terraform.TerraformResourceUsage;
+import io.terrakube.terraform.TerraformResult;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Duration;
+
+@AllArgsConstructor
+public class MicrometerTerraformMetrics implements TerraformMetrics {
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    @Override
+    public void parallelism(TerraformCommand command, int parallelism, boolean adaptive) {
+        this.meterRegistry.ifAvailable(registry -> DistributionSummary.builder("terraform.parallelism")
+                .description("-parallelism used by terraform runs")
+                .tag("command", command.name())
+                .tag("adaptive", String.valueOf(adaptive))
+                .register(registry)
+                .record(parallelism));
+    }
+
+    @Override
+    public void throttled(TerraformCommand command) {
+        this.meterRegistry.ifAvailable(registry -> Counter.builder("terraform.throttled")
+                .description("Provider throttling errors seen in terraform output")
+                .tag("command", command.name())
+                .register(registry)
+                .increment());
+    }
+
+    @Override
+    public void completed(TerraformResult result) {
+        this.meterRegistry.ifAvailable(registry -> {
+            Tags tags = Tags.of("command", result.getCommand().name(), "successful", String.valueOf(result.isSuccessful()),
+                    "failure", result.getFailure() != null ? result.getFailure().getType().name() : "none");
+            Timer.builder("terraform.run")
+                    .description("Duration of terraform processes")
+                    .tags(tags)
+                    .register(registry)
+                    .record(result.getDuration());
+
+            TerraformResourceUsage usage = result.getResourceUsage();
+            if (usage != null) {
+                record(registry, "terraform.run.peak.rss", "bytes", tags, usage.getPeakRss());
+                record(registry, "terraform.run.cpu", "seconds", tags, usage.getCpuTime().toMillis() / 1000.0);
+                record(registry, "terraform.run.read", "bytes", tags, usage.getReadBytes());
+                record(registry, "terraform.run.write", "bytes", tags, usage.getWriteBytes());
+            }
+
+            TerraformCgroupStatistics cgroup = result.getCgroupStatistics();
+            if (cgroup != null) {
+                Counter.builder("terraform.run.oom.kills")
+                        .description("Processes killed by the cgroup memory limit")
+                        .tags(tags)
+                        .register(registry)
+                        .increment(cgroup.getOomKills());
+                record(registry, "terraform.run.cpu.throttled", "seconds", tags, cgroup.getCpuThrottledTime().toMillis() / 1000.0);
+            }
+        });
+    }
+
+    @Override
+    public void retrying(TerraformResult result, Duration backoff) {
+        this.meterRegistry.ifAvailable(registry -> Counter.builder("terraform.retries")
+                .description("Failed terraform commands launched again")
+                .tag("command", result.getCommand().name())
+                .tag("failure", result.getFailure().getType().name())
+                .register(registry)
+                .increment());
+    }
+
+    @Override
+    public void drift(TerraformDriftResult result) {
+        this.meterRegistry.ifAvailable(registry -> {
+            String outcome = result.isFailed() ? "failed" : result.isDrifted() ? "drifted" : "clean";
+            Timer.builder("terraform.drift.check")
+                    .description("Refresh-only plans run by the drift scheduler")
+                    .tag("result", outcome)
+                    .register(registry)
+                    .record(result.getDuration());
+            record(registry, "terraform.drift.interval", "seconds", Tags.of("result", outcome), result.getNextInterval().toMillis() / 1000.0);
+        });
+    }
+
+    private static void record(MeterRegistry registry, String name, String baseUnit, Tags tags, double value) {
+        DistributionSummary.builder(name).baseUnit(baseUnit).tags(tags).register(registry).record(value);
+    }
+}
@@ -1,25 +1,282 @@
 package io.terrakube.terraform.spring.autoconfigure;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.NonNull;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.*;
 import org.springframework.boot.context.properties.*;
+import org.springframework.boot.ssl.SslBundles;
 import org.springframework.context.annotation.*;
+import io.terrakube.terraform.GitModuleCache;
+import io.terrakube.terraform.HttpTerraformNode;
+import io.terrakube.terraform.LocalTerraformNode;
+import io.terrakube.terraform.TerraformCacheManager;
+import io.terrakube.terraform.TerraformCgroupManager;
 import io.terrakube.terraform.TerraformClient;
+import io.terrakube.terraform.TerraformCommand;
+import io.terrakube.terraform.TerraformDispatcher;
+import io.terrakube.terraform.TerraformDriftScheduler;
+import io.terrakube.terraform.TerraformDriftSink;
+import io.terrakube.terraform.TerraformMetrics;
+import io.terrakube.terraform.TerraformNodeServer;
+import io.terrakube.terraform.TerraformParallelismController;
+import io.terrakube.terraform.TerraformPreflight;
+import io.terrakube.terraform.TerraformProviderMirror;
+import io.terrakube.terraform.TerraformRetryPolicy;
+import io.terrakube.terraform.TerraformRunHistory;
+import io.terrakube.terraform.TerraformRunLogStore;
+import io.terrakube.terraform.TerraformSchemaCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+import javax.net.ssl.SSLContext;
 
 @AutoConfiguration
 @EnableConfigurationProperties(TerraformProperties.class)
-@ConditionalOnMissingBean(TerraformClient.class)
+@ImportRuntimeHints(TerraformRuntimeHints.class)
 public class TerraformAutoConfiguration {
 
+    // the other beans use the client of the application when it defines one
     @Bean
-    public TerraformClient terraformClient(@NonNull TerraformProperties tfProperties) {
+    @ConditionalOnMissingBean
+    public TerraformClient terraformClient(@NonNull TerraformProperties tfProperties, ObjectProvider<TerraformMetrics> terraformMetrics, ObjectProvider<TerraformRunHistory> runHistory, ObjectProvider<TerraformRunLogStore> runLogStore) {
 
-            return TerraformClient.builder()
+            TerraformClient.TerraformClientBuilder builder = TerraformClient.builder()
                     .showColor(tfProperties.isEnableColor())
                     .jsonOutput(tfProperties.isJsonOutput())
+                    .applyProfiling(tfProperties.isApplyProfiling())
+                    .redactVariables(tfProperties.isRedactVariables())
                     .terraformReleasesUrl(tfProperties.getTerraformReleasesUrl())
                     .tofuReleasesUrl(tfProperties.getTofuReleasesUrl())
-                    .build();
+                    .binaryMirror(tfProperties.getBinaryMirror())
+                    .providerMirror(tfProperties.getProviderMirror())
+                    .cacheManager(TerraformCacheManager.builder()
+                            .maxSize(tfProperties.getBinaryCacheMaxSize() != null ? tfProperties.getBinaryCacheMaxSize().toBytes() : 0)
+                            .maxVersions(tfProperties.getBinaryCacheMaxVersions())
+                            .build())
+                    .metrics(terraformMetrics.getIfAvailable(() -> TerraformMetrics.NONE))
+                    .runHistory(runHistory.getIfAvailable())
+                    .runLogStore(runLogStore.getIfAvailable())
+                    .schemaCache(TerraformSchemaCache.builder()
+                            .directory(tfProperties.getProvidersSchemaDirectory() != null ? new File(tfProperties.getProvidersSchemaDirectory()) : null)
+                            .maxEntries(tfProperties.getProvidersSchemaMaxEntries())
+                            .build());
+
+            if (tfProperties.getReleasesMaxAge() != null) {
+                builder.releasesMaxAge(tfProperties.getReleasesMaxAge().isZero() ? null : tfProperties.getReleasesMaxAge());
+            }
+            if (tfProperties.getVariablesFileThreshold() != null) {
+                builder.variablesFileThreshold(tfProperties.getVariablesFileThreshold().toBytes());
+            }
+            if (tfProperties.getRedactPatterns() != null) {
+                tfProperties.getRedactPatterns().forEach(pattern -> builder.redactPattern(Pattern.compile(pattern)));
+            }
+            if (tfProperties.getRedactMinLength() != null) {
+                builder.redactMinLength(tfProperties.getRedactMinLength());
+            }
+            if (tfProperties.getWorkspaceLockTimeout() != null) {
+                builder.workspaceLockTimeout(tfProperties.getWorkspaceLockTimeout().isZero() ? null : tfProperties.getWorkspaceLockTimeout());
+            }
+            if (tfProperties.getResourceSampleInterval() != null) {
+                builder.resourceSampleInterval(tfProperties.getResourceSampleInterval().isZero() ? null : tfProperties.getResourceSampleInterval());
+            }
+            if (tfProperties.getCancelGracePeriod() != null) {
+                builder.cancelGracePeriod(tfProperties.getCancelGracePeriod());
+            }
+            if (!tfProperties.isAdaptiveParallelism()) {
+                builder.parallelismController(null);
+            } else if (tfProperties.getMaxParallelism() != null) {
+                builder.parallelismController(TerraformParallelismController.builder()
+                        .maxParallelism(tfProperties.getMaxParallelism())
+                        .build());
+            }
+            if (tfProperties.isCgroupLimits()) {
+                builder.cgroupManager(TerraformCgroupManager.builder()
+                        .cgroupDirectory(tfProperties.getCgroupDirectory() != null ? new File(tfProperties.getCgroupDirectory()) : null)
+                        .memoryLimit(tfProperties.getMemoryLimit() != null ? tfProperties.getMemoryLimit().toBytes() : null)
+                        .cpuLimit(tfProperties.getCpuLimit())
+                        .pidsLimit(tfProperties.getPidsLimit())
+                        .build());
+            }
+            if (tfProperties.getRetryCommands() != null) {
+                TerraformRetryPolicy.TerraformRetryPolicyBuilder retryPolicy = TerraformRetryPolicy.builder()
+                        .maxAttempts(tfProperties.getRetryMaxAttempts());
+                if (tfProperties.getRetryBackoff() != null) {
+                    retryPolicy.initialBackoff(tfProperties.getRetryBackoff());
+                }
+                for (TerraformCommand command : tfProperties.getRetryCommands()) {
+                    builder.retryPolicy(command, retryPolicy.build());
+                }
+            }
+            if (tfProperties.isGitModuleCache()) {
+                GitModuleCache gitModuleCache = tfProperties.getGitModuleCacheDirectory() != null
+                        ? new GitModuleCache(new File(tfProperties.getGitModuleCacheDirectory()))
+                        : new GitModuleCache();
+                if (tfProperties.getGitModuleCacheRefreshInterval() != null) {
+                    gitModuleCache.setRefreshInterval(tfProperties.getGitModuleCacheRefreshInterval());
+                }
+                if (tfProperties.getGitModuleCacheTimeout() != null) {
+                    gitModuleCache.setGitTimeout(tfProperties.getGitModuleCacheTimeout());
+                }
+                builder.gitModuleCache(gitModuleCache);
+            }
+            return builder.build();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "runLogDirectory")
+    public TerraformRunLogStore terraformRunLogStore(@NonNull TerraformProperties tfProperties) {
+        return TerraformRunLogStore.builder()
+                .directory(new File(tfProperties.getRunLogDirectory()))
+                .retention(tfProperties.getRunLogRetention())
+                .maxSize(tfProperties.getRunLogMaxSize() != null ? tfProperties.getRunLogMaxSize().toBytes() : null)
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "runHistoryDirectory")
+    public TerraformRunHistory terraformRunHistory(@NonNull TerraformProperties tfProperties) throws IOException {
+        TerraformRunHistory runHistory = TerraformRunHistory.builder()
+                .directory(new File(tfProperties.getRunHistoryDirectory()))
+                .retention(tfProperties.getRunHistoryRetention())
+                .build();
+        if (runHistory.getRetention() != null) {
+            runHistory.compact();
+        }
+        return runHistory;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "providerMirrorDirectory")
+    public TerraformProviderMirror terraformProviderMirror(@NonNull TerraformProperties tfProperties) {
+        TerraformProviderMirror.TerraformProviderMirrorBuilder builder = TerraformProviderMirror.builder()
+                .directory(new File(tfProperties.getProviderMirrorDirectory()))
+                .fillOnDemand(tfProperties.getProviderMirrorOnDemand())
+                .indexMaxAge(tfProperties.getProviderMirrorIndexMaxAge());
+        if (tfProperties.getProviderMirrorPlatforms() != null) {
+            builder.platforms(tfProperties.getProviderMirrorPlatforms());
+        }
+        return builder.build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "nodeServerPort")
+    public TerraformNodeServer terraformNodeServer(@NonNull TerraformProperties tfProperties, TerraformClient terraformClient, ObjectProvider<SslBundles> sslBundles) throws IOException {
+        if (tfProperties.getNodeServerRoot() == null) {
+            throw new IllegalStateException("io.terrakube.terraform.flags.nodeServerRoot is required to serve a terraform node");
+        }
+        return TerraformNodeServer.builder()
+                .node(newLocalNode(tfProperties, terraformClient))
+                .address(tfProperties.getNodeServerAddress())
+                .port(tfProperties.getNodeServerPort())
+                .token(tfProperties.getNodeToken())
+                .rootDirectory(new File(tfProperties.getNodeServerRoot()))
+                .sslContext(getNodeSslContext(tfProperties, sslBundles))
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "dispatcherNodes")
+    public TerraformDispatcher terraformDispatcher(@NonNull TerraformProperties tfProperties, TerraformClient terraformClient, ObjectProvider<SslBundles> sslBundles) {
+        TerraformDispatcher.TerraformDispatcherBuilder builder = TerraformDispatcher.builder();
+        if (tfProperties.isDispatcherLocalNode()) {
+            builder.node(newLocalNode(tfProperties, terraformClient));
+        }
+        SSLContext sslContext = getNodeSslContext(tfProperties, sslBundles);
+        for (String url : tfProperties.getDispatcherNodes()) {
+            builder.node(HttpTerraformNode.builder().url(url).token(tfProperties.getNodeToken()).sslContext(sslContext).build());
+        }
+        return builder.build();
+    }
+
+    private static SSLContext getNodeSslContext(TerraformProperties tfProperties, ObjectProvider<SslBundles> sslBundles) {
+        if (tfProperties.getNodeSslBundle() == null) {
+            return null;
+        }
+        return sslBundles.getObject().getBundle(tfProperties.getNodeSslBundle()).createSslContext();
+    }
+
+    private static LocalTerraformNode newLocalNode(TerraformProperties tfProperties, TerraformClient terraformClient) {
+        return LocalTerraformNode.builder()
+                .terraformClient(terraformClient)
+                .capacity(tfProperties.getNodeCapacity())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "driftScheduler", havingValue = "true")
+    public TerraformDriftScheduler terraformDriftScheduler(@NonNull TerraformProperties tfProperties, TerraformClient terraformClient, ObjectProvider<TerraformDriftSink> driftSink) {
+        TerraformDriftScheduler.TerraformDriftSchedulerBuilder builder = TerraformDriftScheduler.builder()
+                .terraformClient(terraformClient);
+        if (tfProperties.getDriftMinInterval() != null) {
+            builder.minInterval(tfProperties.getDriftMinInterval());
+        }
+        if (tfProperties.getDriftMaxInterval() != null) {
+            builder.maxInterval(tfProperties.getDriftMaxInterval());
+        }
+        if (tfProperties.getDriftMaxConcurrency() != null) {
+            builder.maxConcurrency(tfProperties.getDriftMaxConcurrency());
+        }
+        driftSink.ifAvailable(builder::sink);
+        return builder.build().start();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "preflight", havingValue = "true")
+    public TerraformPreflight terraformPreflight(@NonNull TerraformProperties tfProperties, TerraformClient terraformClient) {
+        TerraformPreflight.TerraformPreflightBuilder builder = TerraformPreflight.builder()
+                .terraformClient(terraformClient)
+                .formatCheck(tfProperties.isPreflightFormatCheck());
+        if (tfProperties.getPreflightDirectory() != null) {
+            builder.dataDirectory(new File(tfProperties.getPreflightDirectory()));
+        }
+        if (tfProperties.getPreflightParallelism() != null) {
+            builder.parallelism(tfProperties.getPreflightParallelism());
+        }
+        if (tfProperties.getPreflightMaxUnusedAge() != null) {
+            builder.maxUnusedAge(tfProperties.getPreflightMaxUnusedAge());
+        }
+        return builder.build();
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    static class TerraformMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public TerraformMetrics terraformMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+            return new MicrometerTerraformMetrics(meterRegistry);
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(ConditionalOnAvailableEndpoint.class)
+    static class TerraformEndpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnAvailableEndpoint
+        public TerraformEndpoint terraformEndpoint(TerraformClient terraformClient) {
+            return new TerraformEndpoint(terraformClient);
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnAvailableEndpoint
+        @ConditionalOnProperty(prefix = "io.terrakube.terraform.flags", name = "providerMirrorDirectory")
+        public TerraformProviderMirrorEndpoint terraformProviderMirrorEndpoint(TerraformProviderMirror terraformProviderMirror) {
+            return new TerraformProviderMirrorEndpoint(terraformProviderMirror);
+        }
     }
 }
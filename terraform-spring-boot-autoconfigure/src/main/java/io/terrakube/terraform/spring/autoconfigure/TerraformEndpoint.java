@@ -0,0 +1,105 @@
+package io.terrakube.terraform.spring.autoconfigure;
+
+import io.terrakube.terraform.TerraformCacheEntry;
+import io.terrakube.terraform.TerraformClient;
+import io.terrakube.terraform.TerraformDownloader;
+import io.terrakube.terraform.TerraformRun;
+import io.terrakube.terraform.TerraformRunStatus;
+import lombok.AllArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// /actuator/terraform, the runs of the client, the installed binaries and the age of the release indexes
+@Endpoint(id = "terraform")
+@AllArgsConstructor
+public class TerraformEndpoint {
+
+    private final TerraformClient terraformClient;
+
+    @ReadOperation
+    public Map<String, Object> terraform() {
+        List<Map<String, Object>> running = new ArrayList<>();
+        List<Map<String, Object>> queued = new ArrayList<>();
+        for (TerraformRun run : this.terraformClient.getRuns()) {
+            (run.getStatus() == TerraformRunStatus.RUNNING ? running : queued).add(getRun(run));
+        }
+
+        List<Map<String, Object>> versions = new ArrayList<>();
+        for (TerraformCacheEntry entry : this.terraformClient.getCacheManager().getEntries()) {
+            Map<String, Object> version = new LinkedHashMap<>();
+            version.put("product", entry.getProduct());
+            version.put("version", entry.getVersion());
+            version.put("directory", entry.getDirectory().getAbsolutePath());
+            version.put("size", entry.getSize());
+            version.put("lastUsed", toString(entry.getLastUsed()));
+            version.put("inUse", entry.isInUse());
+            versions.add(version);
+        }
+
+        Map<String, Object> terraform = new LinkedHashMap<>();
+        terraform.put("runs", running);
+        terraform.put("queued", queued);
+        terraform.put("versions", versions);
+        terraform.put("releases", getReleases());
+        return terraform;
+    }
+
+    @DeleteOperation
+    public Map<String, Object> cancel(@Selector String runId) {
+        return Map.of("runId", runId, "cancelled", this.terraformClient.cancel(runId));
+    }
+
+    @WriteOperation
+    public Map<String, Object> refreshReleases() throws IOException {
+        this.terraformClient.getTerraformDownloader().refreshReleases();
+        return getReleases();
+    }
+
+    private Map<String, Object> getRun(TerraformRun run) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("id", run.getId());
+        values.put("command", run.getCommand().name());
+        values.put("workingDirectory", run.getWorkingDirectory().getAbsolutePath());
+        values.put("pid", run.getPid());
+        values.put("queuedTime", toString(run.getQueuedTime()));
+        values.put("startTime", toString(run.getStartTime()));
+        values.put("elapsed", run.getElapsed().toString());
+        values.put("outputLines", run.getOutputLines());
+        values.put("outputBytes", run.getOutputBytes());
+        values.put("outputLinesPerSecond", run.getOutputRate());
+        values.put("cancelled", run.isCancelled());
+        return values;
+    }
+
+    private Map<String, Object> getReleases() {
+        TerraformDownloader downloader = this.terraformClient.getTerraformDownloader();
+        Map<String, Object> releases = new LinkedHashMap<>();
+        releases.put("terraformReleasesUrl", downloader.getTerraformReleasesUrl());
+        releases.put("terraformLoaded", toString(downloader.getTerraformReleasesTime()));
+        releases.put("terraformAge", getAge(downloader.getTerraformReleasesTime()));
+        releases.put("tofuReleasesUrl", downloader.getTofuReleasesUrl());
+        releases.put("tofuLoaded", toString(downloader.getTofuReleasesTime()));
+        releases.put("tofuAge", getAge(downloader.getTofuReleasesTime()));
+        releases.put("maxAge", downloader.getReleasesMaxAge() != null ? downloader.getReleasesMaxAge().toString() : null);
+        return releases;
+    }
+
+    private static String getAge(Instant time) {
+        return time != null ? Duration.between(time, Instant.now()).toString() : null;
+    }
+
+    private static String toString(Instant time) {
+        return time != null ? time.toString() : null;
+    }
+}
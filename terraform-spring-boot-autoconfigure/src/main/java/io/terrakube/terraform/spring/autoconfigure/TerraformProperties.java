@@ -1,10 +1,15 @@
 package io.terrakube.terraform.spring.autoconfigure;
 
+import io.terrakube.terraform.TerraformCommand;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
 
 @Component
 @Getter
@@ -18,4 +23,62 @@ public class TerraformProperties {
     private boolean jsonOutput;
     private String terraformReleasesUrl;
     private String tofuReleasesUrl;
+    private String binaryMirror;
+    private DataSize binaryCacheMaxSize;
+    private int binaryCacheMaxVersions;
+    private DataSize variablesFileThreshold;
+    private boolean gitModuleCache;
+    private String gitModuleCacheDirectory;
+    private Duration gitModuleCacheRefreshInterval;
+    private Duration gitModuleCacheTimeout;
+    // 0 disables the workspace locking, the client default is 30 minutes
+    private Duration workspaceLockTimeout;
+    private boolean adaptiveParallelism = true;
+    private Integer maxParallelism;
+    private Duration resourceSampleInterval;
+    private Duration cancelGracePeriod;
+    private boolean cgroupLimits;
+    private String cgroupDirectory;
+    private DataSize memoryLimit;
+    private Double cpuLimit;
+    private Integer pidsLimit;
+    private List<TerraformCommand> retryCommands;
+    private int retryMaxAttempts = 3;
+    private Duration retryBackoff;
+    private String runLogDirectory;
+    private Duration runLogRetention;
+    private DataSize runLogMaxSize;
+    private String runHistoryDirectory;
+    private Duration runHistoryRetention;
+    private Duration releasesMaxAge;
+    private boolean applyProfiling;
+    private boolean driftScheduler;
+    private Duration driftMinInterval;
+    private Duration driftMaxInterval;
+    private Integer driftMaxConcurrency;
+    private Integer nodeServerPort;
+    private String nodeServerAddress;
+    // runs may only use files under this directory
+    private String nodeServerRoot;
+    private String nodeToken;
+    // spring.ssl.bundle used by the node server and by the dispatcher for https node urls
+    private String nodeSslBundle;
+    private Integer nodeCapacity;
+    private List<String> dispatcherNodes;
+    private boolean dispatcherLocalNode = true;
+    private String providerMirror;
+    private String providerMirrorDirectory;
+    private Boolean providerMirrorOnDemand;
+    private Duration providerMirrorIndexMaxAge;
+    private List<String> providerMirrorPlatforms;
+    private boolean redactVariables;
+    private List<String> redactPatterns;
+    private Integer redactMinLength;
+    private String providersSchemaDirectory;
+    private Integer providersSchemaMaxEntries;
+    private boolean preflight;
+    private String preflightDirectory;
+    private Integer preflightParallelism;
+    private boolean preflightFormatCheck = true;
+    private Duration preflightMaxUnusedAge;
 }
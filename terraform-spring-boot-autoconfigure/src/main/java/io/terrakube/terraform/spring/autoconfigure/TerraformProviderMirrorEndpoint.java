@@ -0,0 +1,51 @@
+package io.terrakube.terraform.spring.autoconfigure;
+
+import io.terrakube.terraform.TerraformProviderMirror;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.MimeType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+// /actuator/providermirror, the provider network mirror protocol, terraform needs it behind https
+@WebEndpoint(id = "providermirror")
+@AllArgsConstructor
+@Slf4j
+public class TerraformProviderMirrorEndpoint {
+
+    private static final MimeType JSON = MimeType.valueOf("application/json");
+    private static final MimeType ZIP = MimeType.valueOf("application/zip");
+
+    private final TerraformProviderMirror providerMirror;
+
+    @ReadOperation(produces = {"application/json", "application/zip", "application/octet-stream"})
+    public WebEndpointResponse<Resource> file(@Selector(match = Selector.Match.ALL_REMAINING) String... path) {
+        File file;
+        try {
+            file = this.providerMirror.getFile(String.join("/", path));
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Unable to mirror {}: {}", String.join("/", path), ex.getMessage());
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_SERVICE_UNAVAILABLE);
+        }
+        if (file == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        return new WebEndpointResponse<>(new FileSystemResource(file), WebEndpointResponse.STATUS_OK, file.getName().endsWith(".zip") ? ZIP : JSON);
+    }
+
+    // mirrors every platform of the newest versions matching the ranges ahead of the first init
+    @WriteOperation
+    public Map<String, Object> sync(String provider, List<String> versions) throws IOException {
+        return Map.of("provider", provider, "versions", this.providerMirror.sync(provider, versions));
+    }
+}
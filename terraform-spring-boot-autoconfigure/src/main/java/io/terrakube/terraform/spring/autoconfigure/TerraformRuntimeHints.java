@@ -0,0 +1,31 @@
+package io.terrakube.terraform.spring.autoconfigure;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+import java.util.List;
+
+class TerraformRuntimeHints implements RuntimeHintsRegistrar {
+
+    // release index types are package-private and only reached by jackson through reflection
+    static final List<String> JSON_TYPES = List.of(
+            "io.terrakube.terraform.TerraformResponse",
+            "io.terrakube.terraform.TerraformVersion",
+            "io.terrakube.terraform.TerraformBuild",
+            "io.terrakube.terraform.TofuRelease",
+            "io.terrakube.terraform.TofuAsset");
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (String type : JSON_TYPES) {
+            hints.reflection().registerType(TypeReference.of(type),
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                    MemberCategory.INVOKE_DECLARED_METHODS,
+                    MemberCategory.DECLARED_FIELDS);
+        }
+        hints.resources().registerPattern("application.properties");
+        hints.resources().registerPattern("application-*.properties");
+    }
+}
@@ -0,0 +1,143 @@
+package io.terrakube.terraform.spring.autoconfigure;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.terrakube.terraform.TerraformClient;
+import io.terrakube.terraform.TerraformCommand;
+import io.terrakube.terraform.TerraformMetrics;
+import io.terrakube.terraform.TerraformPreflight;
+import io.terrakube.terraform.TerraformResourceUsage;
+import io.terrakube.terraform.TerraformResult;
+import io.terrakube.terraform.TerraformRunLogStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.core.io.Resource;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerraformAutoConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(TerraformAutoConfiguration.class));
+
+    @Test
+    void parallelismIsReportedToMeterRegistry() {
+        contextRunner.withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .withPropertyValues("io.terrakube.terraform.flags.maxParallelism=4")
+                .run(context -> {
+                    TerraformClient client = context.getBean(TerraformClient.class);
+                    assertEquals(4, client.getParallelismController().getMaxParallelism());
+
+                    client.getMetrics().parallelism(TerraformCommand.plan, 3, true);
+                    assertEquals(3, context.getBean(MeterRegistry.class).get("terraform.parallelism")
+                            .tag("command", "plan").summary().totalAmount());
+                });
+    }
+
+    @Test
+    void resourceUsageIsReportedToMeterRegistry() {
+        contextRunner.withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .run(context -> {
+                    context.getBean(TerraformClient.class).getMetrics().completed(TerraformResult.builder()
+                            .command(TerraformCommand.apply)
+                            .duration(Duration.ofSeconds(5))
+                            .resourceUsage(TerraformResourceUsage.builder().peakRss(1024).cpuTime(Duration.ofSeconds(2)).build())
+                            .build());
+
+                    MeterRegistry registry = context.getBean(MeterRegistry.class);
+                    assertEquals(1, registry.get("terraform.run").tag("command", "apply").tag("successful", "true").timer().count());
+                    assertEquals(1024, registry.get("terraform.run.peak.rss").summary().max());
+                    assertEquals(2, registry.get("terraform.run.cpu").summary().totalAmount());
+                });
+    }
+
+    @Test
+    void runLogStoreIsCreatedWhenDirectoryIsSet() {
+        contextRunner.run(context -> {
+            assertTrue(context.getBeansOfType(TerraformRunLogStore.class).isEmpty());
+            assertNull(context.getBean(TerraformClient.class).getRunLogStore());
+        });
+        contextRunner.withPropertyValues("io.terrakube.terraform.flags.runLogDirectory=/tmp/terraform-runs",
+                        "io.terrakube.terraform.flags.runLogRetention=7d",
+                        "io.terrakube.terraform.flags.runLogMaxSize=1GB")
+                .run(context -> {
+                    TerraformRunLogStore store = context.getBean(TerraformRunLogStore.class);
+                    assertEquals(new File("/tmp/terraform-runs"), store.getDirectory());
+                    assertEquals(Duration.ofDays(7), store.getRetention());
+                    assertEquals(1024L * 1024 * 1024, store.getMaxSize());
+                    assertSame(store, context.getBean(TerraformClient.class).getRunLogStore());
+                });
+    }
+
+    @Test
+    void beansUseTheClientOfTheApplication() {
+        TerraformClient client = TerraformClient.builder().build();
+        contextRunner.withBean(TerraformClient.class, () -> client)
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .withPropertyValues("management.endpoints.web.exposure.include=terraform",
+                        "io.terrakube.terraform.flags.runLogDirectory=/tmp/terraform-runs",
+                        "io.terrakube.terraform.flags.preflight=true")
+                .run(context -> {
+                    assertSame(client, context.getBean(TerraformClient.class));
+                    assertEquals(1, context.getBeansOfType(TerraformEndpoint.class).size());
+                    assertEquals(1, context.getBeansOfType(TerraformRunLogStore.class).size());
+                    assertEquals(1, context.getBeansOfType(TerraformMetrics.class).size());
+                    assertSame(client, context.getBean(TerraformPreflight.class).getTerraformClient());
+                });
+    }
+
+    @Test
+    void terraformEndpointIsCreatedWhenExposed() {
+        contextRunner.run(context -> assertTrue(context.getBeansOfType(TerraformEndpoint.class).isEmpty()));
+        contextRunner.withPropertyValues("management.endpoints.web.exposure.include=terraform",
+                        "io.terrakube.terraform.flags.releasesMaxAge=10m")
+                .run(context -> {
+                    TerraformEndpoint endpoint = context.getBean(TerraformEndpoint.class);
+                    Map<String, Object> terraform = endpoint.terraform();
+                    assertEquals(List.of(), terraform.get("runs"));
+                    assertEquals(List.of(), terraform.get("queued"));
+                    assertEquals("PT10M", ((Map<?, ?>) terraform.get("releases")).get("maxAge"));
+                    assertEquals(false, endpoint.cancel("unknown").get("cancelled"));
+                });
+    }
+
+    @Test
+    void providerMirrorEndpointServesSyncedProviders(@TempDir File mirror) throws Exception {
+        File index = new File(mirror, "registry.terraform.io/hashicorp/random/index.json");
+        Files.createDirectories(index.getParentFile().toPath());
+        Files.writeString(index.toPath(), "{\"versions\":{\"3.6.0\":{}}}");
+        contextRunner.withPropertyValues("management.endpoints.web.exposure.include=providermirror",
+                        "io.terrakube.terraform.flags.providerMirrorDirectory=" + mirror.getAbsolutePath(),
+                        "io.terrakube.terraform.flags.providerMirrorOnDemand=false")
+                .run(context -> {
+                    TerraformProviderMirrorEndpoint endpoint = context.getBean(TerraformProviderMirrorEndpoint.class);
+                    WebEndpointResponse<Resource> response = endpoint.file("registry.terraform.io", "hashicorp", "random", "index.json");
+                    assertEquals(200, response.getStatus());
+                    assertEquals("application/json", response.getContentType().toString());
+                    assertEquals(404, endpoint.file("registry.terraform.io", "hashicorp", "random", "3.6.0.json").getStatus());
+                });
+    }
+
+    @Test
+    void adaptiveParallelismCanBeDisabled() {
+        contextRunner.withPropertyValues("io.terrakube.terraform.flags.adaptiveParallelism=false")
+                .run(context -> assertNull(context.getBean(TerraformClient.class).getParallelismController()));
+    }
+
+    @Test
+    void workspaceLockingCanBeDisabled() {
+        contextRunner.withPropertyValues("io.terrakube.terraform.flags.workspaceLockTimeout=0")
+                .run(context -> assertNull(context.getBean(TerraformClient.class).getWorkspaceLockTimeout()));
+        contextRunner.withPropertyValues("io.terrakube.terraform.flags.workspaceLockTimeout=5m")
+                .run(context -> assertEquals(Duration.ofMinutes(5), context.getBean(TerraformClient.class).getWorkspaceLockTimeout()));
+    }
+}
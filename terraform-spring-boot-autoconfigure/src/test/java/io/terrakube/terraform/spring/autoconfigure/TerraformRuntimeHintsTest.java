@@ -0,0 +1,25 @@
+package io.terrakube.terraform.spring.autoconfigure;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TerraformRuntimeHintsTest {
+
+    @Test
+    void releaseIndexTypesAreRegistered() throws ClassNotFoundException {
+        RuntimeHints hints = new RuntimeHints();
+        new TerraformRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        for (String type : TerraformRuntimeHints.JSON_TYPES) {
+            Class.forName(type);
+            assertTrue(RuntimeHintsPredicates.reflection().onType(TypeReference.of(type))
+                    .withMemberCategories(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.DECLARED_FIELDS)
+                    .test(hints), type);
+        }
+    }
+}